@@ -0,0 +1,166 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database created at version 1 with pets in it, and checks that the pets survive and
+ * that it ends up with what a fresh install has.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+
+    private static final String DB_NAME = "test_migration.db";
+
+    private Context context;
+    private PetsDbHelper helper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (helper != null) {
+            helper.close();
+        }
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsPets() {
+        SQLiteDatabase old = createVersion1();
+        old.close();
+
+        helper = new PetsDbHelper(context, DB_NAME, PetsDbHelper.StorageProfile.PLATFORM_DEFAULT);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        assertEquals(PetsDbHelper.DB_VERSION, db.getVersion());
+
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, DbContract.PetsEntry.TABLE_NAME));
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, DbContract.PetsEntry.TABLE_NAME,
+                DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = 0"));
+        assertEquals("Tabby", DatabaseUtils.stringForQuery(db, "SELECT " + DbContract.PetsEntry.COLUMN_PET_BREED +
+                " FROM " + DbContract.PetsEntry.TABLE_NAME + " WHERE " + DbContract.PetsEntry.COLUMN_PET_NAME +
+                " = 'Toto'", null));
+        assertSchema(db);
+
+        // The summary tables count the pets that were there before the upgrade
+        assertEquals(2, DatabaseUtils.longForQuery(db, "SELECT " + DbContract.PetStatsEntry.COLUMN_COUNT +
+                " FROM " + DbContract.PetStatsEntry.GENDER_TABLE_NAME + " WHERE " +
+                DbContract.PetsEntry.COLUMN_PET_GENDER + " = " + DbContract.PetsEntry.GENDER_MALE, null));
+        assertEquals(19, DatabaseUtils.longForQuery(db, "SELECT " + DbContract.PetStatsEntry.COLUMN_WEIGHT_SUM +
+                " FROM " + DbContract.PetStatsEntry.GENDER_TABLE_NAME + " WHERE " +
+                DbContract.PetsEntry.COLUMN_PET_GENDER + " = " + DbContract.PetsEntry.GENDER_MALE, null));
+        // The search index holds them too
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " +
+                DbContract.PetsEntry.FTS_TABLE_NAME + " WHERE " + DbContract.PetsEntry.FTS_TABLE_NAME +
+                " MATCH 'siam*'", null));
+        // And so does the change log, so the first sync sends them
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, DbContract.ChangesEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void petsWrittenBetweenMigrationsAreCounted() {
+        SQLiteDatabase db = createVersion1();
+        try {
+            // Stop right after the summary tables arrived, and write with their triggers
+            PetsDbHelper.migrate(db, 1, 5);
+            insertPet(db, "Felix", "Siamese", DbContract.PetsEntry.GENDER_MALE, 4);
+            db.execSQL("UPDATE " + DbContract.PetsEntry.TABLE_NAME + " SET " + DbContract.PetsEntry.COLUMN_PET_WEIGHT +
+                    " = 12 WHERE " + DbContract.PetsEntry.COLUMN_PET_NAME + " = 'Toto'");
+            PetsDbHelper.migrate(db, 5, PetsDbHelper.DB_VERSION);
+            db.setVersion(PetsDbHelper.DB_VERSION);
+
+            assertSchema(db);
+            assertEquals(3, DatabaseUtils.longForQuery(db, "SELECT " + DbContract.PetStatsEntry.COLUMN_COUNT +
+                    " FROM " + DbContract.PetStatsEntry.GENDER_TABLE_NAME + " WHERE " +
+                    DbContract.PetsEntry.COLUMN_PET_GENDER + " = " + DbContract.PetsEntry.GENDER_MALE, null));
+            assertEquals(28, DatabaseUtils.longForQuery(db, "SELECT " + DbContract.PetStatsEntry.COLUMN_WEIGHT_SUM +
+                    " FROM " + DbContract.PetStatsEntry.GENDER_TABLE_NAME + " WHERE " +
+                    DbContract.PetsEntry.COLUMN_PET_GENDER + " = " + DbContract.PetsEntry.GENDER_MALE, null));
+
+            // The current triggers took over: a deleted pet is no longer counted
+            db.execSQL("UPDATE " + DbContract.PetsEntry.TABLE_NAME + " SET " +
+                    DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = 1 WHERE " +
+                    DbContract.PetsEntry.COLUMN_PET_NAME + " = 'Felix'");
+            assertEquals(2, DatabaseUtils.longForQuery(db, "SELECT " + DbContract.PetStatsEntry.COLUMN_COUNT +
+                    " FROM " + DbContract.PetStatsEntry.GENDER_TABLE_NAME + " WHERE " +
+                    DbContract.PetsEntry.COLUMN_PET_GENDER + " = " + DbContract.PetsEntry.GENDER_MALE, null));
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * A database as version 1 of the app created it, frozen here, holding three pets.
+     */
+    private SQLiteDatabase createVersion1() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(DB_NAME), null);
+        db.execSQL("CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, breed TEXT, " +
+                "gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0);");
+        insertPet(db, "Toto", "Tabby", DbContract.PetsEntry.GENDER_MALE, 7);
+        insertPet(db, "Garfield", "Siamese", DbContract.PetsEntry.GENDER_MALE, 12);
+        insertPet(db, "Binx", null, DbContract.PetsEntry.GENDER_FEMALE, 3);
+        db.setVersion(1);
+        return db;
+    }
+
+    private static void insertPet(SQLiteDatabase db, String name, String breed, int gender, int weight) {
+        db.execSQL("INSERT INTO pets (name, breed, gender, weight) VALUES (?, ?, ?, ?)",
+                new Object[] { name, breed, gender, weight });
+    }
+
+    /**
+     * Check that every index, the search index, the summary tables and the change log exist.
+     */
+    private static void assertSchema(SQLiteDatabase db) {
+        String[] indexes = {
+                PetsDbHelper.INDEX_PET_NAME,
+                PetsDbHelper.INDEX_PET_BREED,
+                PetsDbHelper.INDEX_PET_GENDER_WEIGHT,
+                PetsDbHelper.INDEX_PET_WEIGHT,
+                PetsDbHelper.INDEX_PET_GENDER,
+                PetsDbHelper.INDEX_PET_GENDER_NAME,
+                PetsDbHelper.INDEX_PET_DELETED,
+                PetsDbHelper.INDEX_CHANGE_PET
+        };
+        for (String index : indexes) {
+            assertTrue("Missing index " + index, exists(db, "index", index));
+        }
+        String[] tables = {
+                DbContract.PetsEntry.FTS_TABLE_NAME,
+                DbContract.PetStatsEntry.GENDER_TABLE_NAME,
+                DbContract.PetStatsEntry.BREED_TABLE_NAME,
+                DbContract.ChangesEntry.TABLE_NAME
+        };
+        for (String table : tables) {
+            assertTrue("Missing table " + table, exists(db, "table", table));
+        }
+        Cursor columns = db.rawQuery("SELECT * FROM " + DbContract.PetsEntry.TABLE_NAME + " LIMIT 0", null);
+        try {
+            assertTrue(columns.getColumnIndex(DbContract.PetsEntry.COLUMN_PET_PHOTO_VERSION) >= 0);
+            assertTrue(columns.getColumnIndex(DbContract.PetsEntry.COLUMN_PET_DELETED_AT) >= 0);
+        } finally {
+            columns.close();
+        }
+    }
+
+    private static boolean exists(SQLiteDatabase db, String type, String name) {
+        return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = ? AND name = ?",
+                new String[] { type, name }) > 0;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteFullException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A batch spanning two shelters whose second shelter fails to commit after the first one has:
+ * the provider must say which operations were committed, and the write queue must not apply
+ * those again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PartialBatchTest {
+
+    private static final String DB_NAME = "test_partial_batch.db";
+    private static final long OTHER_SHELTER = 2;
+
+    /**
+     * Fails to commit the next batch reaching {@link #failingShelter}, and holds up restores
+     * until {@link #restoreGate} opens.
+     */
+    private static final class FailingProvider extends PetProvider {
+        volatile long failingShelter = -1;
+        volatile CountDownLatch restoreGate;
+
+        FailingProvider() {
+            super(DB_NAME, false);
+        }
+
+        @Override
+        void commitBatch(PetShards.Shard shard, SQLiteDatabase database) {
+            if (shard.shelter == failingShelter) {
+                failingShelter = -1;
+                throw new SQLiteFullException("Shelter " + shard.shelter + " fails to commit");
+            }
+            super.commitBatch(shard, database);
+        }
+
+        @Override
+        public Bundle call(String method, String arg, Bundle extras) {
+            CountDownLatch gate = restoreGate;
+            if (gate != null && DbContract.METHOD_RESTORE_PET.equals(method)) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+            return super.call(method, arg, extras);
+        }
+    }
+
+    private Context context;
+    private FailingProvider provider;
+    private Uri otherPetUri;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        deleteDatabases();
+        provider = new FailingProvider();
+        provider.attachInfo(context, null);
+        otherPetUri = provider.insert(DbContract.PetsEntry.buildShelterUri(OTHER_SHELTER), pet("Other", 10));
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+        deleteDatabases();
+    }
+
+    @Test
+    public void providerReportsCommittedOperations() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(DbContract.PetsEntry.CONTENT_URI)
+                .withValues(pet("New", 5)).build());
+        operations.add(ContentProviderOperation.newUpdate(otherPetUri).withValues(pet("Other", 20)).build());
+        provider.failingShelter = OTHER_SHELTER;
+        try {
+            provider.applyBatch(operations);
+            fail("Batch should have failed in shelter " + OTHER_SHELTER);
+        } catch (PartialBatchException e) {
+            assertTrue(e.committed[0]);
+            assertFalse(e.committed[1]);
+            assertEquals(DbContract.PetsEntry.DEFAULT_SHELTER,
+                    DbContract.PetsEntry.getShelter(ContentUris.parseId(e.results[0].uri)));
+        }
+        assertEquals(1, countPets(DbContract.PetsEntry.DEFAULT_SHELTER));
+        assertEquals(10, getWeight(otherPetUri));
+    }
+
+    @Test
+    public void queueDoesNotRepeatCommittedWrites() throws Exception {
+        PetWriteQueue queue = new PetWriteQueue(provider);
+        // Hold up the writer thread, so both writes end up in one batch behind the restore
+        CountDownLatch gate = new CountDownLatch(1);
+        provider.restoreGate = gate;
+        queue.restore(otherPetUri, null);
+
+        final PetWriteQueue.Result[] results = new PetWriteQueue.Result[2];
+        final CountDownLatch done = new CountDownLatch(2);
+        queue.insert(pet("New", 5), new PetWriteQueue.Callback() {
+            @Override
+            public void onWriteComplete(PetWriteQueue.Result result) {
+                results[0] = result;
+                done.countDown();
+            }
+        });
+        queue.update(otherPetUri, pet("Other", 20), new PetWriteQueue.Callback() {
+            @Override
+            public void onWriteComplete(PetWriteQueue.Result result) {
+                results[1] = result;
+                done.countDown();
+            }
+        });
+        provider.failingShelter = OTHER_SHELTER;
+        gate.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(results[0].error);
+        assertEquals(1, results[0].count);
+        assertNull(results[1].error);
+        assertEquals(1, results[1].count);
+        // The insert was committed with the first shelter and must not have been retried
+        assertEquals(1, countPets(DbContract.PetsEntry.DEFAULT_SHELTER));
+        // The update was rolled back with the second shelter and retried on its own
+        assertEquals(20, getWeight(otherPetUri));
+    }
+
+    private static ContentValues pet(String name, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(DbContract.PetsEntry.COLUMN_PET_NAME, name);
+        values.put(DbContract.PetsEntry.COLUMN_PET_BREED, "Tabby");
+        values.put(DbContract.PetsEntry.COLUMN_PET_GENDER, DbContract.PetsEntry.GENDER_UNKNOWN);
+        values.put(DbContract.PetsEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+
+    private int countPets(long shelter) {
+        Cursor cursor = provider.query(DbContract.PetsEntry.buildShelterUri(shelter),
+                new String[] { DbContract.PetsEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int getWeight(Uri petUri) {
+        Cursor cursor = provider.query(petUri, new String[] { DbContract.PetsEntry.COLUMN_PET_WEIGHT },
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteDatabases() {
+        for (long shelter : new long[] { DbContract.PetsEntry.DEFAULT_SHELTER, OTHER_SHELTER }) {
+            context.deleteDatabase(PetShards.getDbName(DB_NAME, shelter));
+        }
+    }
+}
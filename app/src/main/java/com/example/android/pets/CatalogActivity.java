@@ -15,36 +15,125 @@
  */
 package com.example.android.pets;
 
+import android.app.ActivityManager;
 import android.app.LoaderManager;
+import android.app.ProgressDialog;
+import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.CursorLoader;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.util.Log;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
+import android.widget.Toast;
 
+import com.example.android.pets.data.CatalogSnapshot;
 import com.example.android.pets.data.DbContract;
+import com.example.android.pets.data.DummyPetGenerator;
+import com.example.android.pets.data.PetRosterImporter;
+import com.example.android.pets.data.PetWriteQueue;
+import com.example.android.pets.data.PetsDbHelper;
+import com.example.android.pets.data.RosterBenchmark;
+import com.example.android.pets.data.StatementBenchmark;
+import com.example.android.pets.data.StorageProfileBenchmark;
+import com.example.android.pets.data.SyncBenchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
-    private ListView petListView;
-    private PetCursorAdapter petAdapter;
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
+
+    private RecyclerView petListView;
+    private PetAdapter petAdapter;
+    private View emptyView;
     private static final int PET_LOADER = 0;
+    private static final int REQUEST_IMPORT_ROSTER = 1;
+    private static final int REQUEST_EDIT_PET = 2;
+
+    /** Columns shown in the catalog. */
+    private static final String[] PROJECTION = {
+            DbContract.PetsEntry._ID,
+            DbContract.PetsEntry.COLUMN_PET_NAME,
+            DbContract.PetsEntry.COLUMN_PET_BREED,
+            DbContract.PetsEntry.COLUMN_PET_WEIGHT,
+            DbContract.PetsEntry.COLUMN_PET_PHOTO_VERSION,
+            // Not shown, but handed to the editor with the rest of the row
+            DbContract.PetsEntry.COLUMN_PET_GENDER
+    };
+
+    private CatalogPager pager;
+    private ThumbnailLoader thumbnailLoader;
+
+    /** Share of the app's memory class the decoded thumbnails may take. */
+    private static final int THUMBNAIL_CACHE_DIVISOR = 8;
+
+    /** Most search results shown, each shelter's search reads no more than these. */
+    private static final int MAX_SEARCH_RESULTS = 200;
+
+    /** Whether the loader was last created for the paged catalog rather than a search. */
+    private boolean loadingPages;
+
+    /** Current text of the search box, or null when the whole catalog is shown. */
+    private String searchQuery;
+
+    /** Times the first frames with pets in debug builds, null otherwise. */
+    private LaunchTimer launchTimer;
+
+    /**
+     * Applies single-pet changes to the list in place and reloads it for anything else.
+     */
+    private final ContentObserver petsObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // Only called directly before API 16, which doesn't say what changed
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (uri != null && isPetUri(uri) && pager.refreshRow(ContentUris.parseId(uri))) {
+                return;
+            }
+            Loader<Cursor> loader = getLoaderManager().getLoader(PET_LOADER);
+            if (loader instanceof CatalogLoader) {
+                ((CatalogLoader) loader).reload();
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        if (BuildConfig.DEBUG) {
+            launchTimer = new LaunchTimer("catalog");
+        }
         setContentView(R.layout.activity_catalog);
 
         // Setup FAB to open EditorActivity
@@ -57,71 +146,703 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Find the ListView which will be populated with the pet data
-        petListView = (ListView) findViewById(R.id.list_view_pet);
+        // Find the RecyclerView which will be populated with the pet data
+        petListView = (RecyclerView) findViewById(R.id.list_view_pet);
+        petListView.setLayoutManager(new LinearLayoutManager(this));
+        // Every row has the same height, so item changes never resize the list
+        petListView.setHasFixedSize(true);
 
-        // Create an empty adapter we will use to display the loaded data.
-        // We pass null for the cursor, then update it in onLoadFinished()
-        petAdapter = new PetCursorAdapter(this, null);
-        // Attach cursor adapter to the ListView
-        petListView.setAdapter(petAdapter);
+        // Find the empty view, which is only shown while the list has 0 items.
+        emptyView = findViewById(R.id.empty_view);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
+        // The pager reads the catalog page by page and reports every change to its rows,
+        // so the adapter can tell the list exactly which items changed.
+        pager = new CatalogPager(getContentResolver(), PROJECTION, new CatalogPager.Listener() {
+            @Override
+            public void onRowsReset() {
+                petAdapter.notifyDataSetChanged();
+                updateEmptyView();
+            }
+
+            @Override
+            public void onRowsInserted(int position, int count) {
+                petAdapter.notifyItemRangeInserted(position, count);
+                updateEmptyView();
+            }
 
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onRowChanged(int position) {
+                petAdapter.notifyItemChanged(position);
+            }
+
+            @Override
+            public void onRowRemoved(int position) {
+                petAdapter.notifyItemRemoved(position);
+                updateEmptyView();
+            }
+        });
+
+        int memoryClass = ((ActivityManager) getSystemService(ACTIVITY_SERVICE)).getMemoryClass();
+        thumbnailLoader = new ThumbnailLoader(getContentResolver(),
+                memoryClass * 1024 * 1024 / THUMBNAIL_CACHE_DIVISOR);
+
+        // Create an adapter over the pager's rows, which are filled in once onLoadFinished() is called.
+        petAdapter = new PetAdapter(new PetAdapter.OnPetClickListener() {
+            @Override
+            public void onPetClick(CatalogRow row) {
                 Intent intent = new Intent(getApplicationContext(), EditorActivity.class);
-                Uri petUri = ContentUris.withAppendedId (DbContract.PetsEntry.CONTENT_URI, id);
+                Uri petUri = ContentUris.withAppendedId (DbContract.PetsEntry.CONTENT_URI, row.id);
                 intent.setData(petUri);
-                startActivity(intent);
+                // The editor shows the row right away and loads the stored pet meanwhile
+                intent.putExtra(EditorActivity.EXTRA_PET_ROW, row.toBundle());
+                startActivityForResult(intent, REQUEST_EDIT_PET);
             }
-        });
+        }, pager, thumbnailLoader);
+        // Attach the adapter to the RecyclerView
+        petListView.setAdapter(petAdapter);
+
+        // Log scrolling frame times in debug builds
+        if (BuildConfig.DEBUG && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            petListView.addOnScrollListener(new FrameTimeMonitor("catalog"));
+        }
+
+        // The loader doesn't reload by itself, this observer decides how to apply each change
+        getContentResolver().registerContentObserver(DbContract.PetsEntry.CONTENT_URI, true, petsObserver);
+
+        // The order and filter chosen before a configuration change
+        pager.setQuery(CatalogQuery.restore(savedInstanceState));
+
+        // On a cold start, show the snapshot of the first page while the loader opens the
+        // database. After a configuration change the loader still has its rows. The snapshot
+        // holds the first pets added, so it is only right for the default order.
+        if (savedInstanceState == null && pager.getQuery().isDefault()) {
+            Cursor snapshot = CatalogSnapshot.read(this);
+            if (snapshot != null) {
+                pager.setSnapshot(snapshot);
+                snapshot.close();
+                if (launchTimer != null) {
+                    launchTimer.onRowsShown(petListView, LaunchTimer.SOURCE_SNAPSHOT, pager.getRowCount());
+                }
+            }
+        }
 
         getLoaderManager().initLoader(PET_LOADER, null, this);
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        pager.getQuery().save(outState);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        getContentResolver().unregisterContentObserver(petsObserver);
+        pager.release();
+        thumbnailLoader.release();
+    }
+
+    private void updateEmptyView() {
+        emptyView.setVisibility(petAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Whether the URI points at a single pet, i.e. content://com.example.android.pets/pets/#.
+     */
+    private static boolean isPetUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 2 && DbContract.PATH_PETS.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1));
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        menu.findItem(R.id.action_benchmark_storage).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_benchmark_statements).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_benchmark_roster).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_benchmark_sync).setVisible(BuildConfig.DEBUG);
+
+        // Reload the catalog from the search URI whenever the search text changes
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                String query = TextUtils.isEmpty(newText) ? null : newText;
+                if (TextUtils.equals(query, searchQuery)) {
+                    return true;
+                }
+                searchQuery = query;
+                getLoaderManager().restartLoader(PET_LOADER, null, CatalogActivity.this);
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Check the current order and gender, the weight range is shown by its own dialog
+        CatalogQuery query = pager.getQuery();
+        int sortItem = R.id.action_sort_date_added;
+        if (DbContract.PetsEntry.COLUMN_PET_NAME.equals(query.sortColumn)) {
+            sortItem = R.id.action_sort_name;
+        } else if (DbContract.PetsEntry.COLUMN_PET_WEIGHT.equals(query.sortColumn)) {
+            sortItem = R.id.action_sort_weight;
+        }
+        menu.findItem(sortItem).setChecked(true);
+        int genderItem = R.id.action_filter_any_gender;
+        if (query.gender != null) {
+            switch (query.gender) {
+                case DbContract.PetsEntry.GENDER_MALE:
+                    genderItem = R.id.action_filter_male;
+                    break;
+                case DbContract.PetsEntry.GENDER_FEMALE:
+                    genderItem = R.id.action_filter_female;
+                    break;
+                default:
+                    genderItem = R.id.action_filter_unknown_gender;
+                    break;
+            }
+        }
+        menu.findItem(genderItem).setChecked(true);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
+        CatalogQuery query = pager.getQuery();
         switch (item.getItemId()) {
+            // Respond to the "Sort by" options
+            case R.id.action_sort_date_added:
+                setQuery(query.withSort(DbContract.PetsEntry._ID));
+                return true;
+            case R.id.action_sort_name:
+                setQuery(query.withSort(DbContract.PetsEntry.COLUMN_PET_NAME));
+                return true;
+            case R.id.action_sort_weight:
+                setQuery(query.withSort(DbContract.PetsEntry.COLUMN_PET_WEIGHT));
+                return true;
+            // Respond to the "Filter" options
+            case R.id.action_filter_any_gender:
+                setQuery(query.withGender(null));
+                return true;
+            case R.id.action_filter_male:
+                setQuery(query.withGender(DbContract.PetsEntry.GENDER_MALE));
+                return true;
+            case R.id.action_filter_female:
+                setQuery(query.withGender(DbContract.PetsEntry.GENDER_FEMALE));
+                return true;
+            case R.id.action_filter_unknown_gender:
+                setQuery(query.withGender(DbContract.PetsEntry.GENDER_UNKNOWN));
+                return true;
+            case R.id.action_filter_weight:
+                showWeightRangeDialog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
+                showInsertDummyDataDialog();
+                return true;
+            // Respond to a click on the "Export pets" menu option
+            case R.id.action_export_roster:
+                exportRoster();
+                return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import_roster:
+                pickRosterToImport();
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
-                // Do nothing for now
+                showDeleteAllConfirmationDialog();
+                return true;
+            // Respond to a click on the debug-only "Benchmark storage" menu option
+            case R.id.action_benchmark_storage:
+                runStorageBenchmark();
+                return true;
+            // Respond to a click on the debug-only "Benchmark statements" menu option
+            case R.id.action_benchmark_statements:
+                runStatementBenchmark();
+                return true;
+            // Respond to a click on the debug-only "Benchmark roster" menu option
+            case R.id.action_benchmark_roster:
+                runRosterBenchmark();
+                return true;
+            // Respond to a click on the debug-only "Benchmark sync" menu option
+            case R.id.action_benchmark_sync:
+                runSyncBenchmark();
                 return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Show the catalog in another order or with another filter. The provider sorts and filters,
+     * so only the first page is loaded again.
+     */
+    private void setQuery(CatalogQuery query) {
+        if (query.equals(pager.getQuery())) {
+            return;
+        }
+        pager.setQuery(query);
+        petListView.scrollToPosition(0);
+        getLoaderManager().restartLoader(PET_LOADER, null, this);
+    }
+
+    /**
+     * Ask for the range of weights to show. Either end can be left empty.
+     */
+    private void showWeightRangeDialog() {
+        View view = getLayoutInflater().inflate(R.layout.dialog_weight_range, null);
+        final EditText minWeightEditText = (EditText) view.findViewById(R.id.edit_min_weight);
+        final EditText maxWeightEditText = (EditText) view.findViewById(R.id.edit_max_weight);
+        CatalogQuery query = pager.getQuery();
+        if (query.minWeight != null) {
+            minWeightEditText.setText(String.valueOf(query.minWeight));
+        }
+        if (query.maxWeight != null) {
+            maxWeightEditText.setText(String.valueOf(query.maxWeight));
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.filter_weight_range_title)
+                .setView(view)
+                .setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Integer min = parseWeight(minWeightEditText);
+                        Integer max = parseWeight(maxWeightEditText);
+                        if (min != null && max != null && min > max) {
+                            Integer swap = min;
+                            min = max;
+                            max = swap;
+                        }
+                        setQuery(pager.getQuery().withWeightRange(min, max));
+                    }
+                })
+                .setNeutralButton(R.string.filter_clear, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        setQuery(pager.getQuery().withWeightRange(null, null));
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * @return the weight typed into the field, or null if it is empty or too large
+     */
+    private static Integer parseWeight(EditText editText) {
+        String text = editText.getText().toString().trim();
+        if (TextUtils.isEmpty(text)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ask how many dummy pets to generate, then insert them.
+     */
+    private void showInsertDummyDataDialog() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.dummy_data_count_title)
+                .setItems(R.array.array_dummy_data_counts, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        int[] counts = getResources().getIntArray(R.array.array_dummy_data_count_values);
+                        insertDummyData(counts[which]);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Generate {@code count} dummy pets in the background, showing progress and write rate.
+     * Cancelling the dialog stops after the current chunk.
+     */
+    private void insertDummyData(final int count) {
+        final ProgressDialog progressDialog = new ProgressDialog(this);
+        progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        progressDialog.setMax(count);
+        progressDialog.setCancelable(true);
+        progressDialog.show();
+
+        final ContentResolver contentResolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final AsyncTask<Void, Double, Long> task = new AsyncTask<Void, Double, Long>() {
+            @Override
+            protected Long doInBackground(Void... params) {
+                return new DummyPetGenerator(new DummyPetGenerator.Config()).generate(contentResolver,
+                        count, DummyPetGenerator.DEFAULT_CHUNK_SIZE, new DummyPetGenerator.ProgressListener() {
+                            @Override
+                            public void onProgress(long inserted, long total, double rowsPerSecond) {
+                                publishProgress((double) inserted, rowsPerSecond);
+                            }
+
+                            @Override
+                            public boolean isCancelled() {
+                                return cancelled.get();
+                            }
+                        });
+            }
+
+            @Override
+            protected void onProgressUpdate(Double... values) {
+                int inserted = values[0].intValue();
+                progressDialog.setProgress(inserted);
+                progressDialog.setMessage(appContext.getString(R.string.dummy_data_progress,
+                        inserted, count, values[1]));
+            }
+
+            @Override
+            protected void onPostExecute(Long inserted) {
+                dismiss(progressDialog);
+                Toast.makeText(appContext, appContext.getString(R.string.dummy_data_done, inserted),
+                        Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            protected void onCancelled(Long inserted) {
+                dismiss(progressDialog);
+                if (inserted != null) {
+                    Toast.makeText(appContext, appContext.getString(R.string.dummy_data_done, inserted),
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        };
+        progressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                cancelled.set(true);
+                task.cancel(false);
+            }
+        });
+        // Off the serial executor, which the catalog pager needs to stay responsive meanwhile
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Share every pet as CSV. The receiving app reads the export straight from the provider,
+     * which streams it, so nothing is written to storage first.
+     */
+    private void exportRoster() {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType(DbContract.PetsEntry.MIME_TYPE_CSV);
+        intent.putExtra(Intent.EXTRA_STREAM, DbContract.PetsEntry.buildExportUri(DbContract.PetsEntry.FORMAT_CSV));
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(intent, getString(R.string.export_roster_chooser_title)));
+    }
+
+    /**
+     * Let the user pick a CSV or JSON roster, which {@link #onActivityResult} then imports.
+     */
+    private void pickRosterToImport() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("*/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(intent, REQUEST_IMPORT_ROSTER);
+    }
+
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        String projection [] = {
-                DbContract.PetsEntry._ID,
-                DbContract.PetsEntry.COLUMN_PET_NAME,
-                DbContract.PetsEntry.COLUMN_PET_BREED
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_ROSTER) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                importRoster(data.getData());
+            }
+            return;
+        }
+        if (requestCode == REQUEST_EDIT_PET) {
+            if (resultCode == EditorActivity.RESULT_PET_DELETED && data != null && data.getData() != null) {
+                showUndoDelete(data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Offer to bring back the pet that was just deleted in the editor. The provider keeps deleted
+     * pets for longer than the snackbar is shown, see DbContract.PetsEntry.UNDO_WINDOW_MILLIS.
+     */
+    private void showUndoDelete(final Uri petUri) {
+        final Context appContext = getApplicationContext();
+        Snackbar.make(petListView, R.string.pet_deleted, Snackbar.LENGTH_LONG)
+                .setAction(R.string.action_undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        PetWriteQueue.getInstance(appContext).restore(petUri, new PetWriteQueue.Callback() {
+                            @Override
+                            public void onWriteComplete(PetWriteQueue.Result result) {
+                                if (result.error != null) {
+                                    Toast.makeText(appContext, appContext.getString(R.string.error_restoring_pet),
+                                            Toast.LENGTH_SHORT).show();
+                                }
+                            }
+                        });
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Import the pets of the roster at {@code uri} in the background, showing progress and
+     * import rate. Cancelling the dialog stops after the current chunk.
+     */
+    private void importRoster(final Uri uri) {
+        final ProgressDialog progressDialog = new ProgressDialog(this);
+        progressDialog.setIndeterminate(true);
+        progressDialog.setCancelable(true);
+        progressDialog.show();
+
+        final ContentResolver contentResolver = getContentResolver();
+        final Context appContext = getApplicationContext();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final AsyncTask<Void, Double, PetRosterImporter.Result> task =
+                new AsyncTask<Void, Double, PetRosterImporter.Result>() {
+            @Override
+            protected PetRosterImporter.Result doInBackground(Void... params) {
+                try {
+                    InputStream in = contentResolver.openInputStream(uri);
+                    if (in == null) {
+                        return null;
+                    }
+                    try {
+                        return PetRosterImporter.importRoster(contentResolver, in, contentResolver.getType(uri),
+                                PetRosterImporter.DEFAULT_CHUNK_SIZE, new PetRosterImporter.ProgressListener() {
+                                    @Override
+                                    public void onProgress(long imported, long skipped, double rowsPerSecond) {
+                                        publishProgress((double) imported, (double) skipped, rowsPerSecond);
+                                    }
+
+                                    @Override
+                                    public boolean isCancelled() {
+                                        return cancelled.get();
+                                    }
+                                });
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to import pets from " + uri, e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onProgressUpdate(Double... values) {
+                progressDialog.setMessage(appContext.getString(R.string.import_roster_progress,
+                        values[0].intValue(), values[1].intValue(), values[2]));
+            }
+
+            @Override
+            protected void onPostExecute(PetRosterImporter.Result result) {
+                dismiss(progressDialog);
+                showImportResult(appContext, result);
+            }
+
+            @Override
+            protected void onCancelled(PetRosterImporter.Result result) {
+                dismiss(progressDialog);
+                if (result != null) {
+                    showImportResult(appContext, result);
+                }
+            }
         };
-        Uri baseUri = DbContract.PetsEntry.CONTENT_URI;
-        return new CursorLoader(this, baseUri, projection, null, null, null);
+        progressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                cancelled.set(true);
+                task.cancel(false);
+            }
+        });
+        // Off the serial executor, which the catalog pager needs to stay responsive meanwhile
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private static void showImportResult(Context context, PetRosterImporter.Result result) {
+        String message = result == null ? context.getString(R.string.import_roster_failed)
+                : context.getString(R.string.import_roster_done, result.imported, result.skipped);
+        Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+    }
+
+    private static void dismiss(ProgressDialog dialog) {
+        if (dialog.isShowing()) {
+            try {
+                dialog.dismiss();
+            } catch (IllegalArgumentException e) {
+                // The activity went away while the task was running
+            }
+        }
+    }
+
+    /**
+     * Ask before deleting every pet, then delete them through the write queue and offer to undo
+     * it. Like any delete, it only marks the pets, in one step per shelter, and the provider wipes
+     * them and shrinks the database once the undo window is over.
+     */
+    private void showDeleteAllConfirmationDialog() {
+        final Context appContext = getApplicationContext();
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.delete_all_dialog_msg)
+                .setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // Pets deleted from now on are the ones to bring back
+                        final long deletedSince = System.currentTimeMillis();
+                        PetWriteQueue.getInstance(appContext).delete(DbContract.PetsEntry.CONTENT_URI,
+                                new PetWriteQueue.Callback() {
+                                    @Override
+                                    public void onWriteComplete(PetWriteQueue.Result result) {
+                                        if (result.error == null && !isFinishing()) {
+                                            showUndoDeleteAll(result.count, deletedSince);
+                                        }
+                                    }
+                                });
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Offer to bring back the pets that were just deleted all at once.
+     */
+    private void showUndoDeleteAll(int count, final long deletedSince) {
+        final Context appContext = getApplicationContext();
+        Snackbar.make(petListView, getString(R.string.delete_all_done, count), Snackbar.LENGTH_LONG)
+                .setAction(R.string.action_undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        PetWriteQueue.getInstance(appContext).restoreSince(deletedSince,
+                                new PetWriteQueue.Callback() {
+                                    @Override
+                                    public void onWriteComplete(PetWriteQueue.Result result) {
+                                        if (result.error != null) {
+                                            Toast.makeText(appContext, appContext.getString(
+                                                    R.string.error_restoring_pets), Toast.LENGTH_SHORT).show();
+                                        }
+                                    }
+                                });
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Compare concurrent read/write throughput with and without the tuned storage profile.
+     * Results are written to logcat.
+     */
+    private void runStorageBenchmark() {
+        Toast.makeText(this, R.string.benchmark_running, Toast.LENGTH_SHORT).show();
+        final Context appContext = getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                try {
+                    StorageProfileBenchmark.run(appContext, 5000, 4,
+                            PetsDbHelper.StorageProfile.PLATFORM_DEFAULT, PetsDbHelper.StorageProfile.TUNED);
+                } catch (InterruptedException e) {
+                    Log.e(LOG_TAG, "Storage benchmark interrupted", e);
+                }
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Compare the single-pet operations with and without compiled statements.
+     * Results are written to logcat.
+     */
+    private void runStatementBenchmark() {
+        Toast.makeText(this, R.string.benchmark_running, Toast.LENGTH_SHORT).show();
+        final Context appContext = getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                StatementBenchmark.run(appContext, 5000);
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Import and export a million pets as CSV and JSON. Results are written to logcat.
+     */
+    private void runRosterBenchmark() {
+        Toast.makeText(this, R.string.benchmark_running, Toast.LENGTH_SHORT).show();
+        final Context appContext = getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                try {
+                    RosterBenchmark.run(appContext, 1000000);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Roster benchmark failed", e);
+                }
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Sync ten thousand pets with a stand-in server, checking both end up with the same pets.
+     * Results are written to logcat.
+     */
+    private void runSyncBenchmark() {
+        Toast.makeText(this, R.string.benchmark_running, Toast.LENGTH_SHORT).show();
+        final Context appContext = getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                try {
+                    SyncBenchmark.run(appContext, 10000);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Sync benchmark failed", e);
+                } catch (IllegalStateException e) {
+                    Log.e(LOG_TAG, "Sync benchmark found the pets out of sync", e);
+                }
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+        // The catalog loads only its first page here, the pager reads the rest on demand.
+        // Search results are ranked rather than paged, so their best rows are loaded in one go.
+        Uri baseUri = pager.getFirstPageUri();
+        loadingPages = searchQuery == null;
+        if (!loadingPages) {
+            baseUri = DbContract.PetsEntry.CONTENT_SEARCH_URI.buildUpon()
+                    .appendQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_SEARCH, searchQuery)
+                    .appendQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_LIMIT,
+                            String.valueOf(MAX_SEARCH_RESULTS))
+                    .build();
+        }
+        return new CatalogLoader(this, baseUri, PROJECTION);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Swap the new cursor in.  (The framework will take care of closing the
-        // old cursor once we return.)
-        petAdapter.swapCursor(cursor);
+        // Start paging from the new cursor.  (The pager copies its rows, and the framework
+        // will take care of closing the old cursor once we return.)
+        pager.setFirstPage(cursor, loadingPages);
+        if (launchTimer != null && loadingPages) {
+            launchTimer.onRowsShown(petListView, LaunchTimer.SOURCE_CURSOR, pager.getRowCount());
+        }
     }
 
     @Override
@@ -129,6 +850,6 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // This is called when the last Cursor provided to onLoadFinished()
         // above is about to be closed.  We need to make sure we are no
         // longer using it.
-        petAdapter.swapCursor(null);
+        pager.setFirstPage(null, false);
     }
 }
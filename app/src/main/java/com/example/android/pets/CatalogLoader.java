@@ -0,0 +1,36 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.net.Uri;
+
+/**
+ * {@link CatalogLoader} is a {@link CursorLoader} that does not reload by itself when its data
+ * changes. The catalog watches the pets URI on its own, patches single-row changes into the list
+ * and only calls {@link #reload()} for changes it cannot apply row by row.
+ */
+class CatalogLoader extends CursorLoader {
+
+    /**
+     * Minimum time between reloads, so that a stream of bulk writes (such as the dummy data
+     * generator's chunks) doesn't reload the catalog after every single one.
+     */
+    private static final long RELOAD_THROTTLE_MILLIS = 500;
+
+    CatalogLoader(Context context, Uri uri, String[] projection) {
+        super(context, uri, projection, null, null, null);
+        setUpdateThrottle(RELOAD_THROTTLE_MILLIS);
+    }
+
+    @Override
+    public void onContentChanged() {
+        // Ignored, see reload()
+    }
+
+    /**
+     * Load the cursor again, like a plain CursorLoader does on every change.
+     */
+    void reload() {
+        super.onContentChanged();
+    }
+}
@@ -0,0 +1,377 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+
+import com.example.android.pets.data.DbContract.PetsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CatalogPager} holds the rows of the catalog and reads them one page at a time using
+ * the keyset page URIs of the pets provider, in the order and with the filter of its
+ * {@link CatalogQuery}. The first page comes from the catalog's loader; further pages are
+ * fetched in the background as the list gets close to its end.
+ * <p>
+ * On a cold start the rows can come from the catalog snapshot first, see
+ * {@link #setSnapshot(Cursor)}, until the loader's first page replaces them.
+ * <p>
+ * Single-row changes are applied in place: {@link #refreshRow(long)} re-reads just that row and
+ * moves, updates, inserts or removes it, reporting the exact change to the {@link Listener}.
+ * <p>
+ * Pages and row refreshes run on the serial {@link AsyncTask} executor, so they complete in the
+ * order they were requested.
+ */
+class CatalogPager {
+
+    /** Number of pets read per page. */
+    static final int PAGE_SIZE = 50;
+
+    /** How many rows before the end of the list the next page is requested. */
+    private static final int PREFETCH_DISTANCE = 15;
+
+    interface Listener {
+        /** All rows were replaced. */
+        void onRowsReset();
+
+        void onRowsInserted(int position, int count);
+
+        void onRowChanged(int position);
+
+        void onRowRemoved(int position);
+    }
+
+    private final ContentResolver contentResolver;
+    private final String[] projection;
+    private final Listener listener;
+
+    private CatalogQuery query = CatalogQuery.DEFAULT;
+
+    private final List<CatalogRow> rows = new ArrayList<>();
+    private boolean paged;
+    private boolean hasMore;
+    private boolean pageRequested;
+    /** Whether the rows are the snapshot's, still waiting for the loader's first page. */
+    private boolean fromSnapshot;
+
+    /** Bumped on every reset, so that tasks started for older data drop their results. */
+    private int generation;
+
+    /**
+     * @param projection columns to read, must include every column {@link CatalogRow} holds
+     */
+    CatalogPager(ContentResolver contentResolver, String[] projection, Listener listener) {
+        this.contentResolver = contentResolver;
+        this.projection = projection;
+        this.listener = listener;
+    }
+
+    CatalogQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * Read the catalog in another order or with another filter. The rows are kept until the
+     * first page of the new query is set, but no longer paged or refreshed row by row.
+     */
+    void setQuery(CatalogQuery query) {
+        if (query.equals(this.query)) {
+            return;
+        }
+        this.query = query;
+        generation++;
+        pageRequested = false;
+        paged = false;
+        hasMore = false;
+        fromSnapshot = false;
+    }
+
+    /**
+     * URI of the first page, for the catalog's loader.
+     */
+    Uri getFirstPageUri() {
+        return PetsEntry.buildPageUri(query.getFilterUri(), query.sortColumn, PAGE_SIZE, null, 0);
+    }
+
+    int getRowCount() {
+        return rows.size();
+    }
+
+    CatalogRow getRow(int position) {
+        return rows.get(position);
+    }
+
+    /**
+     * Start over from a freshly loaded first page. The rows are copied, so the cursor stays
+     * owned by the caller.
+     *
+     * @param firstPage the loader's cursor, or null if it was reset
+     * @param paged     false if the cursor already holds the whole result, e.g. search results
+     */
+    void setFirstPage(Cursor firstPage, boolean paged) {
+        generation++;
+        pageRequested = false;
+        List<CatalogRow> page = new ArrayList<>();
+        if (firstPage != null) {
+            firstPage.moveToPosition(-1);
+            page = readRows(firstPage);
+        }
+        boolean reconcile = fromSnapshot && paged && sameIds(rows, page);
+        fromSnapshot = false;
+        this.paged = paged;
+        hasMore = paged && page.size() >= PAGE_SIZE;
+        if (!reconcile) {
+            rows.clear();
+            rows.addAll(page);
+            listener.onRowsReset();
+            return;
+        }
+        // Usually the snapshot is up to date, so nothing on screen needs to be bound again
+        for (int i = 0; i < page.size(); i++) {
+            if (!rows.get(i).sameAs(page.get(i))) {
+                rows.set(i, page.get(i));
+                listener.onRowChanged(i);
+            }
+        }
+    }
+
+    /**
+     * Show the rows of the catalog snapshot until {@link #setFirstPage} is called. They are
+     * neither paged nor refreshed row by row, the first page replaces them.
+     *
+     * @param snapshot cursor with the snapshot's rows, owned by the caller
+     */
+    void setSnapshot(Cursor snapshot) {
+        generation++;
+        pageRequested = false;
+        rows.clear();
+        snapshot.moveToPosition(-1);
+        rows.addAll(readRows(snapshot));
+        paged = false;
+        hasMore = false;
+        fromSnapshot = true;
+        listener.onRowsReset();
+    }
+
+    private static boolean sameIds(List<CatalogRow> a, List<CatalogRow> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i).id != b.get(i).id) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tell the pager that the row at the given position was bound, so that it can fetch the next
+     * page ahead of the user reaching the end of the list.
+     */
+    void onItemBound(int position) {
+        if (!hasMore || pageRequested || position < rows.size() - PREFETCH_DISTANCE) {
+            return;
+        }
+        CatalogRow last = rows.get(rows.size() - 1);
+        pageRequested = true;
+        new PageTask(generation).execute(PetsEntry.buildPageUri(query.getFilterUri(), query.sortColumn,
+                PAGE_SIZE, sortValue(last), last.id));
+    }
+
+    /**
+     * Re-read a single pet and apply the change to the rows.
+     *
+     * @return false if the rows are not paged results, e.g. search results, whose membership
+     * can't be decided row by row. The caller has to reload them instead.
+     */
+    boolean refreshRow(long id) {
+        if (!paged) {
+            return false;
+        }
+        RowTask task = new RowTask(generation, id);
+        if (query.isFiltered()) {
+            // Read the pet through the filter, so a pet that no longer matches reads as removed
+            task.selection = PetsEntry._ID + " = ?";
+            task.selectionArgs = new String[] {String.valueOf(id)};
+            task.execute(query.getFilterUri());
+        } else {
+            task.execute(ContentUris.withAppendedId(PetsEntry.CONTENT_URI, id));
+        }
+        return true;
+    }
+
+    /**
+     * Drop the rows and the results of any task still running.
+     */
+    void release() {
+        generation++;
+        fromSnapshot = false;
+        rows.clear();
+    }
+
+    private String sortValue(CatalogRow row) {
+        if (PetsEntry.COLUMN_PET_NAME.equals(query.sortColumn)) {
+            return row.name;
+        } else if (PetsEntry.COLUMN_PET_WEIGHT.equals(query.sortColumn)) {
+            return String.valueOf(row.weight);
+        }
+        return String.valueOf(row.id);
+    }
+
+    /**
+     * Apply the new state of a single pet: update it in place if it keeps its position, otherwise
+     * remove it and insert it where it now sorts. Pets that sort after the last row read are left
+     * out while there are more pages, a later page will bring them in.
+     *
+     * @param row the pet as it is now, or null if it was deleted
+     */
+    private void applyRowChange(long id, CatalogRow row) {
+        int oldPosition = indexOf(id);
+        if (oldPosition >= 0) {
+            if (row != null && keepsPosition(oldPosition, row)) {
+                rows.set(oldPosition, row);
+                listener.onRowChanged(oldPosition);
+                return;
+            }
+            rows.remove(oldPosition);
+            listener.onRowRemoved(oldPosition);
+        }
+        if (row == null) {
+            return;
+        }
+        int position = insertionPoint(row);
+        if (position == rows.size() && hasMore) {
+            return;
+        }
+        rows.add(position, row);
+        listener.onRowsInserted(position, 1);
+    }
+
+    private boolean keepsPosition(int position, CatalogRow row) {
+        if (position > 0 && CatalogRow.compare(query.sortColumn, rows.get(position - 1), row) >= 0) {
+            return false;
+        }
+        if (position < rows.size() - 1) {
+            return CatalogRow.compare(query.sortColumn, row, rows.get(position + 1)) < 0;
+        }
+        // The last row is the key the next page is read after, so it must not move past
+        // rows that haven't been read yet.
+        return !hasMore || CatalogRow.compare(query.sortColumn, row, rows.get(position)) <= 0;
+    }
+
+    private int indexOf(long id) {
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).id == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int insertionPoint(CatalogRow row) {
+        int low = 0;
+        int high = rows.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (CatalogRow.compare(query.sortColumn, rows.get(mid), row) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static List<CatalogRow> readRows(Cursor cursor) {
+        List<CatalogRow> result = new ArrayList<>(cursor.getCount());
+        CatalogRow.Columns columns = new CatalogRow.Columns(cursor);
+        while (cursor.moveToNext()) {
+            result.add(columns.read(cursor));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the rows at a URI off the main thread and closes the cursor.
+     */
+    private abstract class ReadTask extends AsyncTask<Uri, Void, List<CatalogRow>> {
+
+        final int taskGeneration;
+        /** Selection the URI is read with, or null for all of its rows. */
+        String selection;
+        String[] selectionArgs;
+
+        ReadTask(int taskGeneration) {
+            this.taskGeneration = taskGeneration;
+        }
+
+        @Override
+        protected List<CatalogRow> doInBackground(Uri... uris) {
+            Cursor cursor = contentResolver.query(uris[0], projection, selection, selectionArgs, null);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                return readRows(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(List<CatalogRow> result) {
+            if (taskGeneration == generation) {
+                onRowsRead(result);
+            }
+        }
+
+        /**
+         * Called on the main thread if the pager wasn't reset in the meantime.
+         *
+         * @param result the rows read, or null if the query failed
+         */
+        abstract void onRowsRead(List<CatalogRow> result);
+    }
+
+    private class PageTask extends ReadTask {
+
+        PageTask(int taskGeneration) {
+            super(taskGeneration);
+        }
+
+        @Override
+        void onRowsRead(List<CatalogRow> page) {
+            pageRequested = false;
+            if (page == null) {
+                hasMore = false;
+                return;
+            }
+            int start = rows.size();
+            rows.addAll(page);
+            hasMore = page.size() >= PAGE_SIZE;
+            if (!page.isEmpty()) {
+                listener.onRowsInserted(start, page.size());
+            }
+        }
+    }
+
+    private class RowTask extends ReadTask {
+
+        private final long id;
+
+        RowTask(int taskGeneration, long id) {
+            super(taskGeneration);
+            this.id = id;
+        }
+
+        @Override
+        void onRowsRead(List<CatalogRow> result) {
+            applyRowChange(id, result == null || result.isEmpty() ? null : result.get(0));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.pets;
+
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.DbContract.PetsEntry;
+
+/**
+ * {@link CatalogQuery} is the order and filter the catalog is shown in: a sort column, and
+ * optionally a gender and a weight range. Both are applied by the pets provider, one page at a
+ * time, see {@link PetsEntry#QUERY_PARAMETER_GENDER}. Instances are immutable.
+ */
+final class CatalogQuery {
+
+    /** The whole catalog in the order pets were added, which the catalog snapshot holds. */
+    static final CatalogQuery DEFAULT = new CatalogQuery(PetsEntry._ID, null, null, null);
+
+    private static final String STATE_SORT = "catalog_sort";
+    private static final String STATE_GENDER = "catalog_gender";
+    private static final String STATE_MIN_WEIGHT = "catalog_min_weight";
+    private static final String STATE_MAX_WEIGHT = "catalog_max_weight";
+
+    final String sortColumn;
+    /** Gender shown, or null for every gender. */
+    final Integer gender;
+    /** Lowest weight shown, or null for no lower bound. */
+    final Integer minWeight;
+    /** Highest weight shown, or null for no upper bound. */
+    final Integer maxWeight;
+
+    private CatalogQuery(String sortColumn, Integer gender, Integer minWeight, Integer maxWeight) {
+        this.sortColumn = sortColumn;
+        this.gender = gender;
+        this.minWeight = minWeight;
+        this.maxWeight = maxWeight;
+    }
+
+    boolean isDefault() {
+        return equals(DEFAULT);
+    }
+
+    boolean isFiltered() {
+        return gender != null || hasWeightRange();
+    }
+
+    boolean hasWeightRange() {
+        return minWeight != null || maxWeight != null;
+    }
+
+    /**
+     * The pets URI with this query's filter, to build page URIs on.
+     */
+    Uri getFilterUri() {
+        return PetsEntry.buildFilterUri(gender, minWeight, maxWeight);
+    }
+
+    /**
+     * Only weight order can be combined with a weight range, see {@link #withWeightRange}, so
+     * any other order drops it.
+     */
+    CatalogQuery withSort(String sortColumn) {
+        if (!PetsEntry.COLUMN_PET_WEIGHT.equals(sortColumn)) {
+            return new CatalogQuery(sortColumn, gender, null, null);
+        }
+        return new CatalogQuery(sortColumn, gender, minWeight, maxWeight);
+    }
+
+    CatalogQuery withGender(Integer gender) {
+        return new CatalogQuery(sortColumn, gender, minWeight, maxWeight);
+    }
+
+    /**
+     * Show only pets in the given inclusive weight range, or every weight if both ends are null.
+     * The provider only pages a weight range in weight order, so a range switches to it.
+     */
+    CatalogQuery withWeightRange(Integer minWeight, Integer maxWeight) {
+        String sort = minWeight != null || maxWeight != null ? PetsEntry.COLUMN_PET_WEIGHT : sortColumn;
+        return new CatalogQuery(sort, gender, minWeight, maxWeight);
+    }
+
+    void save(Bundle outState) {
+        outState.putString(STATE_SORT, sortColumn);
+        putInteger(outState, STATE_GENDER, gender);
+        putInteger(outState, STATE_MIN_WEIGHT, minWeight);
+        putInteger(outState, STATE_MAX_WEIGHT, maxWeight);
+    }
+
+    /**
+     * @return the query saved with {@link #save}, or {@link #DEFAULT} if there is none
+     */
+    static CatalogQuery restore(Bundle savedInstanceState) {
+        if (savedInstanceState == null || !savedInstanceState.containsKey(STATE_SORT)) {
+            return DEFAULT;
+        }
+        return new CatalogQuery(savedInstanceState.getString(STATE_SORT),
+                getInteger(savedInstanceState, STATE_GENDER),
+                getInteger(savedInstanceState, STATE_MIN_WEIGHT),
+                getInteger(savedInstanceState, STATE_MAX_WEIGHT));
+    }
+
+    private static void putInteger(Bundle bundle, String key, Integer value) {
+        if (value != null) {
+            bundle.putInt(key, value);
+        }
+    }
+
+    private static Integer getInteger(Bundle bundle, String key) {
+        return bundle.containsKey(key) ? bundle.getInt(key) : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CatalogQuery)) {
+            return false;
+        }
+        CatalogQuery other = (CatalogQuery) o;
+        return sortColumn.equals(other.sortColumn) && equal(gender, other.gender)
+                && equal(minWeight, other.minWeight) && equal(maxWeight, other.maxWeight);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = sortColumn.hashCode();
+        result = 31 * result + (gender != null ? gender : 0);
+        result = 31 * result + (minWeight != null ? minWeight : 0);
+        return 31 * result + (maxWeight != null ? maxWeight : 0);
+    }
+
+    private static boolean equal(Integer a, Integer b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.android.pets;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.DbContract.PetsEntry;
+
+/**
+ * {@link CatalogRow} holds the columns of one pet that the catalog shows or sorts by, and the
+ * pet's gender, so that together they are all the editor shows of the pet.
+ */
+class CatalogRow {
+
+    private static final String KEY_ID = "id";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_BREED = "breed";
+    private static final String KEY_GENDER = "gender";
+    private static final String KEY_WEIGHT = "weight";
+    private static final String KEY_PHOTO_VERSION = "photo_version";
+
+    final long id;
+    final String name;
+    final String breed;
+    final int gender;
+    final int weight;
+    /** When the pet's photo was set, or 0 if it has none. */
+    final long photoVersion;
+
+    CatalogRow(long id, String name, String breed, int gender, int weight, long photoVersion) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.gender = gender;
+        this.weight = weight;
+        this.photoVersion = photoVersion;
+    }
+
+    /**
+     * Whether the other row holds the same pet with the same values.
+     */
+    boolean sameAs(CatalogRow other) {
+        return id == other.id && gender == other.gender && weight == other.weight
+                && photoVersion == other.photoVersion
+                && TextUtils.equals(name, other.name) && TextUtils.equals(breed, other.breed);
+    }
+
+    /**
+     * The row as a bundle, to hand it to another activity or keep it in saved state.
+     */
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLong(KEY_ID, id);
+        bundle.putString(KEY_NAME, name);
+        bundle.putString(KEY_BREED, breed);
+        bundle.putInt(KEY_GENDER, gender);
+        bundle.putInt(KEY_WEIGHT, weight);
+        bundle.putLong(KEY_PHOTO_VERSION, photoVersion);
+        return bundle;
+    }
+
+    /**
+     * The row of a bundle made by {@link #toBundle}.
+     */
+    static CatalogRow fromBundle(Bundle bundle) {
+        return new CatalogRow(bundle.getLong(KEY_ID), bundle.getString(KEY_NAME), bundle.getString(KEY_BREED),
+                bundle.getInt(KEY_GENDER), bundle.getInt(KEY_WEIGHT), bundle.getLong(KEY_PHOTO_VERSION));
+    }
+
+    /**
+     * Column indices of the catalog columns in a cursor, looked up once per cursor.
+     */
+    static class Columns {
+        final int id;
+        final int name;
+        final int breed;
+        final int gender;
+        final int weight;
+        final int photoVersion;
+
+        Columns(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(PetsEntry._ID);
+            name = cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_PET_NAME);
+            breed = cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_PET_BREED);
+            gender = cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_PET_GENDER);
+            weight = cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_PET_WEIGHT);
+            photoVersion = cursor.getColumnIndexOrThrow(PetsEntry.COLUMN_PET_PHOTO_VERSION);
+        }
+
+        /**
+         * Copy the row the cursor is positioned on.
+         */
+        CatalogRow read(Cursor cursor) {
+            // A null photo version reads as 0
+            return new CatalogRow(cursor.getLong(id), cursor.getString(name),
+                    cursor.getString(breed), cursor.getInt(gender), cursor.getInt(weight),
+                    cursor.getLong(photoVersion));
+        }
+    }
+
+    /**
+     * Compare two rows by the given sort column and then by _ID, the order the catalog pages
+     * are read in.
+     */
+    static int compare(String sortColumn, CatalogRow a, CatalogRow b) {
+        int result = 0;
+        if (PetsEntry.COLUMN_PET_NAME.equals(sortColumn)) {
+            result = a.name.compareTo(b.name);
+        } else if (PetsEntry.COLUMN_PET_WEIGHT.equals(sortColumn)) {
+            result = a.weight < b.weight ? -1 : (a.weight == b.weight ? 0 : 1);
+        }
+        if (result == 0) {
+            result = a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+        return result;
+    }
+}
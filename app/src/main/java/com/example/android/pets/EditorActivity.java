@@ -18,32 +18,61 @@ package com.example.android.pets;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.DbContract;
 import com.example.android.pets.data.DbContract.PetsEntry;
+import com.example.android.pets.data.PetWriteQueue;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Allows user to create a new pet or edit an existing one.
  */
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
+    private static final String LOG_TAG = EditorActivity.class.getSimpleName();
+
+    private static final int REQUEST_CHOOSE_PHOTO = 1;
+
+    /**
+     * Result of an editor whose pet was deleted, with the pet's URI as its data. Deleted pets can
+     * still be restored for a while, so the caller can offer to undo the delete.
+     */
+    static final int RESULT_PET_DELETED = RESULT_FIRST_USER;
+
+    /**
+     * Extra holding the catalog's copy of the pet's row, see {@link CatalogRow#toBundle}, so the
+     * form shows the pet at once rather than once it is loaded.
+     */
+    static final String EXTRA_PET_ROW = "pet_row";
+
+    private static final String STATE_PENDING_PHOTO_URI = "pending_photo_uri";
+    private static final String STATE_SHOWN_PET = "shown_pet";
+
     /** EditText field to enter the pet's name */
     private EditText mNameEditText;
 
@@ -56,6 +85,22 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** EditText field to enter the pet's gender */
     private Spinner mGenderSpinner;
 
+    /** ImageView showing the pet's photo */
+    private ImageView mPhotoImageView;
+
+    /** Photo the user chose, stored when the pet is saved. Null if the photo wasn't changed. */
+    private Uri mPendingPhotoUri;
+
+    /** Image the photo view is showing or about to show, so late previews are dropped. */
+    private Uri mShownPhotoUri;
+
+    /**
+     * Values of the pet the form was last filled with, from the catalog's copy or from the
+     * provider, or null before either. Fields still showing them are updated when the pet is
+     * loaded again; fields the user changed are left alone.
+     */
+    private CatalogRow mShownPet;
+
     private static final int PET_LOADER = 0;
 
     private Uri currentPetUri;
@@ -81,7 +126,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             isUpdateMode = false;
         } else {
             setTitle(getString(R.string.editor_activity_title_edit_pet));
-            getLoaderManager().initLoader(PET_LOADER, null, this);
             isUpdateMode = true;
         }
 
@@ -90,8 +134,148 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoImageView = (ImageView) findViewById(R.id.edit_pet_photo);
 
         setupSpinner();
+
+        findViewById(R.id.button_choose_photo).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_CHOOSE_PHOTO);
+            }
+        });
+
+        if (savedInstanceState != null) {
+            mPendingPhotoUri = savedInstanceState.getParcelable(STATE_PENDING_PHOTO_URI);
+            if (mPendingPhotoUri != null) {
+                showPhoto(mPendingPhotoUri);
+            }
+            // The fields restore their own text, only the photo needs showing again
+            Bundle shownPet = savedInstanceState.getBundle(STATE_SHOWN_PET);
+            if (shownPet != null) {
+                mShownPet = CatalogRow.fromBundle(shownPet);
+                if (mPendingPhotoUri == null && mShownPet.photoVersion != 0) {
+                    showPhoto(PetsEntry.buildThumbnailUri(mShownPet.id));
+                }
+            }
+        } else if (isUpdateMode) {
+            Bundle row = petIntent.getBundleExtra(EXTRA_PET_ROW);
+            if (row != null) {
+                showPet(CatalogRow.fromBundle(row));
+            }
+        }
+
+        // The stored pet replaces the catalog's copy, which may be a moment old
+        if (isUpdateMode) {
+            getLoaderManager().initLoader(PET_LOADER, null, this);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PENDING_PHOTO_URI, mPendingPhotoUri);
+        if (mShownPet != null) {
+            outState.putBundle(STATE_SHOWN_PET, mShownPet.toBundle());
+        }
+    }
+
+    /**
+     * Fill the form with the pet's values. A field the user changed since the form was last
+     * filled keeps the user's value, so a reload of the pet never undoes an edit.
+     */
+    private void showPet(CatalogRow pet) {
+        CatalogRow shown = mShownPet;
+        if (shown == null || isShowing(mNameEditText, shown.name)) {
+            mNameEditText.setText(pet.name);
+        }
+        if (shown == null || isShowing(mBreedEditText, shown.breed)) {
+            mBreedEditText.setText(pet.breed);
+        }
+        if (shown == null || isShowing(mWeightEditText, String.valueOf(shown.weight))) {
+            mWeightEditText.setText(String.valueOf(pet.weight));
+        }
+        if (shown == null || mGenderSpinner.getSelectedItemPosition() == shown.gender) {
+            mGenderSpinner.setSelection(pet.gender);
+        }
+        // A photo the user just chose wins over the stored one
+        if (mPendingPhotoUri == null && (shown == null || shown.photoVersion != pet.photoVersion)) {
+            if (pet.photoVersion != 0) {
+                showPhoto(PetsEntry.buildThumbnailUri(pet.id));
+            } else {
+                mShownPhotoUri = null;
+                mPhotoImageView.setImageDrawable(null);
+            }
+        }
+        mShownPet = pet;
+    }
+
+    private static boolean isShowing(EditText field, String value) {
+        return field.getText().toString().equals(value != null ? value : "");
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_CHOOSE_PHOTO) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                mPendingPhotoUri = data.getData();
+                showPhoto(mPendingPhotoUri);
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Show the image at {@code uri} in the photo view. It is decoded in the background, scaled
+     * down by a power of two while decoding so a camera photo doesn't take megabytes of memory
+     * for a preview.
+     */
+    private void showPhoto(final Uri uri) {
+        mShownPhotoUri = uri;
+        final int size = getResources().getDimensionPixelSize(R.dimen.editor_photo_size);
+        new AsyncTask<Void, Void, Bitmap>() {
+            @Override
+            protected Bitmap doInBackground(Void... params) {
+                try {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inJustDecodeBounds = true;
+                    decode(uri, options);
+                    int sampleSize = 1;
+                    while (options.outWidth / (sampleSize * 2) >= size && options.outHeight / (sampleSize * 2) >= size) {
+                        sampleSize *= 2;
+                    }
+                    options.inJustDecodeBounds = false;
+                    options.inSampleSize = sampleSize;
+                    return decode(uri, options);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Failed to preview " + uri, e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Bitmap bitmap) {
+                if (bitmap != null && uri.equals(mShownPhotoUri)) {
+                    mPhotoImageView.setImageBitmap(bitmap);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = getContentResolver().openInputStream(uri);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
     }
 
     /**
@@ -141,7 +325,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         // Check if EditText fields are not empty
         if (TextUtils.isEmpty(petName) && TextUtils.isEmpty(petBreed) &&
-                petGender == PetsEntry.GENDER_UNKNOWN && TextUtils.isEmpty(weightString)) {
+                petGender == PetsEntry.GENDER_UNKNOWN && TextUtils.isEmpty(weightString) &&
+                mPendingPhotoUri == null) {
             return;
         }
 
@@ -176,30 +361,74 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             throw new IllegalArgumentException("Weight can't be negative");
         }
 
+        // The write happens on the writer thread, so the editor can close right away.
+        // The outcome is shown once it is known, through the application context.
+        final Context appContext = getApplicationContext();
+        final PetWriteQueue writeQueue = PetWriteQueue.getInstance(this);
+        final Uri photoUri = mPendingPhotoUri;
+        final PetWriteQueue.Callback photoCallback = new PetWriteQueue.Callback() {
+            @Override
+            public void onWriteComplete(PetWriteQueue.Result result) {
+                if (result.error != null) {
+                    Toast.makeText(appContext, appContext.getString(R.string.error_setting_photo),
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        };
         if (isUpdateMode) {
-            int updatedRowCount = getContentResolver().update(currentPetUri, values, null, null);
-            if (updatedRowCount > 0) {
-                Toast.makeText(this, getString(R.string.success_updating_pet_in_db) + " " +
-                        updatedRowCount, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, getString(R.string.error_updating_pet_in_db),
-                        Toast.LENGTH_SHORT).show();
+            writeQueue.update(currentPetUri, values, new PetWriteQueue.Callback() {
+                @Override
+                public void onWriteComplete(PetWriteQueue.Result result) {
+                    if (result.count > 0) {
+                        Toast.makeText(appContext, appContext.getString(R.string.success_updating_pet_in_db) +
+                                " " + result.count, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, appContext.getString(R.string.error_updating_pet_in_db),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+            // Queued after the update, so the new photo and values show up together
+            if (photoUri != null) {
+                writeQueue.setPhoto(currentPetUri, photoUri, photoCallback);
             }
         } else {
-            Uri mNewPetUri = getContentResolver().insert(
-                    PetsEntry.CONTENT_URI,   // the user dictionary content URI
-                    values);                 // the values to insert
-
-            long newRowId = ContentUris.parseId(mNewPetUri);
+            writeQueue.insert(values, new PetWriteQueue.Callback() {
+                @Override
+                public void onWriteComplete(PetWriteQueue.Result result) {
+                    if (result.uri == null) {
+                        Toast.makeText(appContext, appContext.getString(R.string.error_saving_pet_in_db),
+                                Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, appContext.getString(R.string.success_saving_pet_in_db) +
+                                " " + ContentUris.parseId(result.uri), Toast.LENGTH_SHORT).show();
+                        // The photo needs the new pet's _ID, so it can only be queued now
+                        if (photoUri != null) {
+                            writeQueue.setPhoto(result.uri, photoUri, photoCallback);
+                        }
+                    }
+                }
+            });
+        }
+    }
 
-            if (newRowId == -1) {
-                Toast.makeText(this, getString(R.string.error_saving_pet_in_db),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, getString(R.string.success_saving_pet_in_db) + " " +
-                        newRowId, Toast.LENGTH_SHORT).show();
+    /**
+     * Delete the pet being edited and close the editor. The provider only marks the pet deleted,
+     * so the catalog offers to undo it, see {@link #RESULT_PET_DELETED}.
+     */
+    private void deletePet() {
+        final Context appContext = getApplicationContext();
+        PetWriteQueue.getInstance(this).delete(currentPetUri, new PetWriteQueue.Callback() {
+            @Override
+            public void onWriteComplete(PetWriteQueue.Result result) {
+                if (result.error != null) {
+                    Toast.makeText(appContext, appContext.getString(R.string.error_deleting_pet),
+                            Toast.LENGTH_SHORT).show();
+                }
             }
-        }
+        });
+        setResult(RESULT_PET_DELETED, new Intent().setData(currentPetUri));
+        finish();
     }
 
     @Override
@@ -210,6 +439,14 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        // A new pet isn't saved yet, so there is nothing to delete
+        menu.findItem(R.id.action_delete).setVisible(isUpdateMode);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -221,7 +458,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
-                // Do nothing for now
+                deletePet();
                 return true;
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
@@ -239,28 +476,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 PetsEntry.COLUMN_PET_NAME,
                 PetsEntry.COLUMN_PET_BREED,
                 PetsEntry.COLUMN_PET_GENDER,
-                PetsEntry.COLUMN_PET_WEIGHT
+                PetsEntry.COLUMN_PET_WEIGHT,
+                PetsEntry.COLUMN_PET_PHOTO_VERSION
         };
         return new CursorLoader(this, currentPetUri, projection, null, null, null);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        // The loader owns the cursor and closes it once it has a newer one, so the row is copied
+        // out of it rather than kept or closed here
         if (cursor != null && cursor.moveToFirst()) {
-          //  message.setId(cursor.getLong(cursor.getColumnIndex("id")));
-            mNameEditText.setText(cursor.getString(cursor.getColumnIndex(PetsEntry.COLUMN_PET_NAME)));
-            mBreedEditText.setText(cursor.getString(cursor.getColumnIndex(PetsEntry.COLUMN_PET_BREED)));
-            mWeightEditText.setText(String.valueOf(cursor.getInt(cursor.getColumnIndex(PetsEntry.COLUMN_PET_WEIGHT))));
-            mGenderSpinner.setSelection(cursor.getInt(cursor.getColumnIndex(PetsEntry.COLUMN_PET_GENDER)));
-            cursor.close();
+            showPet(new CatalogRow.Columns(cursor).read(cursor));
         }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mNameEditText.setText("");
-        mBreedEditText.setText("");
-        mWeightEditText.setText("");
-        mGenderSpinner.setSelection(PetsEntry.GENDER_UNKNOWN);
+        // The form only holds copies of the pet's values, nothing refers to the cursor
     }
 }
\ No newline at end of file
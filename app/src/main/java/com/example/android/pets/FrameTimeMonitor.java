@@ -0,0 +1,92 @@
+package com.example.android.pets;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.Arrays;
+
+/**
+ * {@link FrameTimeMonitor} measures frame times while a {@link RecyclerView} scrolls.
+ * Every time the list comes to rest, it logs the number of frames, their mean and percentile
+ * durations and how many of them missed the 60 fps deadline. Fill the catalog with dummy data
+ * (e.g. 10,000 pets), fling through it and filter logcat by {@link #LOG_TAG} to compare builds.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+class FrameTimeMonitor extends RecyclerView.OnScrollListener implements Choreographer.FrameCallback {
+
+    static final String LOG_TAG = FrameTimeMonitor.class.getSimpleName();
+
+    /** Frame budget at 60 fps, in nanoseconds. */
+    private static final long FRAME_BUDGET_NANOS = 16666667L;
+
+    /** Frames kept per scroll. Longer scrolls only keep their first frames. */
+    private static final int MAX_FRAMES = 4096;
+
+    private final String name;
+    private final long[] frameNanos = new long[MAX_FRAMES];
+    private int frameCount;
+    private long lastFrameTimeNanos;
+    private boolean scrolling;
+
+    /**
+     * @param name Label for the logged results, e.g. the screen being measured.
+     */
+    FrameTimeMonitor(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState != RecyclerView.SCROLL_STATE_IDLE && !scrolling) {
+            scrolling = true;
+            frameCount = 0;
+            lastFrameTimeNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        } else if (newState == RecyclerView.SCROLL_STATE_IDLE && scrolling) {
+            scrolling = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+            report();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!scrolling) {
+            return;
+        }
+        if (lastFrameTimeNanos != 0 && frameCount < MAX_FRAMES) {
+            frameNanos[frameCount++] = frameTimeNanos - lastFrameTimeNanos;
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void report() {
+        if (frameCount == 0) {
+            return;
+        }
+        long[] sorted = Arrays.copyOf(frameNanos, frameCount);
+        Arrays.sort(sorted);
+        long total = 0;
+        int janky = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+            if (nanos > FRAME_BUDGET_NANOS) {
+                janky++;
+            }
+        }
+        Log.i(LOG_TAG, String.format("%s: %d frames, mean %.2f ms, p50 %.2f ms, p90 %.2f ms, " +
+                        "p99 %.2f ms, max %.2f ms, %d over budget",
+                name, frameCount, total / (double) frameCount / 1e6,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.90) / 1e6,
+                percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6, janky));
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
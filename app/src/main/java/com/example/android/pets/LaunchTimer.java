@@ -0,0 +1,61 @@
+package com.example.android.pets;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * {@link LaunchTimer} measures how long after the catalog was created the first frame showing
+ * pets is drawn, separately for the rows of the catalog snapshot and for the rows of the live
+ * cursor, i.e. with and without the snapshot. Each is logged once. Cold start the app and
+ * filter logcat by {@link #LOG_TAG} to compare them.
+ */
+class LaunchTimer {
+
+    static final String LOG_TAG = LaunchTimer.class.getSimpleName();
+
+    static final String SOURCE_SNAPSHOT = "snapshot";
+    static final String SOURCE_CURSOR = "live cursor";
+
+    private final String name;
+    private final long startMillis = SystemClock.uptimeMillis();
+    private boolean snapshotLogged;
+    private boolean cursorLogged;
+
+    /**
+     * @param name Label for the logged results, e.g. the screen being measured.
+     */
+    LaunchTimer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Log the time to the next frame the view draws, unless it was already logged for the source.
+     *
+     * @param source {@link #SOURCE_SNAPSHOT} or {@link #SOURCE_CURSOR}
+     * @param rows   number of pets the frame shows
+     */
+    void onRowsShown(final View view, final String source, final int rows) {
+        if (SOURCE_SNAPSHOT.equals(source)) {
+            if (snapshotLogged) {
+                return;
+            }
+            snapshotLogged = true;
+        } else {
+            if (cursorLogged) {
+                return;
+            }
+            cursorLogged = true;
+        }
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                Log.i(LOG_TAG, String.format("%s: first frame with %d pets from the %s %d ms after onCreate",
+                        name, rows, source, SystemClock.uptimeMillis() - startMillis));
+                return true;
+            }
+        });
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.pets;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+/**
+ * {@link PetAdapter} is a {@link RecyclerView} adapter over the rows read by a
+ * {@link CatalogPager}. The views of each list item are cached in a {@link PetViewHolder},
+ * so binding a row only copies two strings into it and asks the {@link ThumbnailLoader} for the
+ * pet's thumbnail, which is usually cached.
+ */
+public class PetAdapter extends RecyclerView.Adapter<PetAdapter.PetViewHolder> {
+
+    /**
+     * Listener for clicks on a pet in the list.
+     */
+    public interface OnPetClickListener {
+        /**
+         * @param row the pet's row as the list shows it
+         */
+        void onPetClick(CatalogRow row);
+    }
+
+    private final OnPetClickListener clickListener;
+    private final CatalogPager pager;
+    private final ThumbnailLoader thumbnailLoader;
+
+    /**
+     * Constructs a new {@link PetAdapter}.
+     *
+     * @param clickListener The listener notified when a pet is clicked.
+     * @param pager         The pager holding the rows, which reads more as the list nears its end.
+     * @param thumbnailLoader The loader decoding the thumbnails of the pets' photos.
+     */
+    PetAdapter(OnPetClickListener clickListener, CatalogPager pager, ThumbnailLoader thumbnailLoader) {
+        this.clickListener = clickListener;
+        this.pager = pager;
+        this.thumbnailLoader = thumbnailLoader;
+        // Rows are identified by their _id, so the list can keep its state across changes
+        setHasStableIds(true);
+    }
+
+    @Override
+    public int getItemCount() {
+        return pager.getRowCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return pager.getRow(position).id;
+    }
+
+    /**
+     * Makes a new blank list item view and its view holder. No data is bound to the views yet.
+     */
+    @Override
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new PetViewHolder(view);
+    }
+
+    /**
+     * Binds the pet at the given position to the cached views of the holder.
+     */
+    @Override
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+        CatalogRow row = pager.getRow(position);
+        holder.nameTextView.setText(row.name);
+        holder.breedTextView.setText(row.breed);
+        thumbnailLoader.load(holder.photoImageView, row.id, row.photoVersion);
+
+        pager.onItemBound(position);
+    }
+
+    /**
+     * Holds the views of one list item, so they are only looked up when the item is inflated.
+     */
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView nameTextView;
+        final TextView breedTextView;
+        final ImageView photoImageView;
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+            photoImageView = (ImageView) itemView.findViewById(R.id.photo);
+            nameTextView = (TextView) itemView.findViewById(R.id.name);
+            breedTextView = (TextView) itemView.findViewById(R.id.summary);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                clickListener.onPetClick(pager.getRow(position));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.DbContract.PetsEntry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link ThumbnailLoader} shows pet thumbnails in {@link ImageView}s. Thumbnails are decoded on
+ * background threads and kept in an LRU cache bounded by their size in bytes, keyed by the pet
+ * and its photo version, so scrolling back to a pet shows its thumbnail without decoding it
+ * again, and a new photo never shows the old thumbnail.
+ * <p>
+ * A view asks for one thumbnail at a time: binding it to another pet drops the request for the
+ * previous one, and a decode whose view has moved on is skipped, so a fast fling only decodes
+ * what stops on screen. Everything but the decoding happens on the main thread.
+ */
+class ThumbnailLoader {
+
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    /** Decoding threads. Thumbnails are small, more threads would mostly wait on each other. */
+    private static final int THREADS = 2;
+
+    private final ContentResolver contentResolver;
+    private final LruCache<String, Bitmap> cache;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService decoder = Executors.newFixedThreadPool(THREADS);
+
+    /** The view waiting for each thumbnail being decoded, by cache key. */
+    private final ConcurrentHashMap<String, ImageView> targets = new ConcurrentHashMap<>();
+
+    /**
+     * @param cacheBytes upper bound on the size of the cached bitmaps
+     */
+    ThumbnailLoader(ContentResolver contentResolver, int cacheBytes) {
+        this.contentResolver = contentResolver;
+        cache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of a pet in the view, or clear the view if the pet has no photo. Cached
+     * thumbnails are shown right away, others once they are decoded.
+     *
+     * @param photoVersion the pet's {@link PetsEntry#COLUMN_PET_PHOTO_VERSION}, 0 for none
+     */
+    void load(ImageView view, long id, long photoVersion) {
+        Object previous = view.getTag(R.id.thumbnail_key);
+        if (previous != null) {
+            targets.remove(previous, view);
+        }
+        if (photoVersion == 0) {
+            view.setTag(R.id.thumbnail_key, null);
+            view.setImageDrawable(null);
+            return;
+        }
+        final String key = id + ":" + photoVersion;
+        view.setTag(R.id.thumbnail_key, key);
+        Bitmap cached = cache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        // A decode of the same thumbnail already running only needs to know the new view
+        if (targets.put(key, view) != null) {
+            return;
+        }
+        final Uri uri = PetsEntry.buildThumbnailUri(id);
+        decoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The view may have been bound to another pet while this waited
+                if (!targets.containsKey(key)) {
+                    return;
+                }
+                final Bitmap bitmap = decode(uri);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        ImageView target = targets.remove(key);
+                        if (bitmap == null) {
+                            return;
+                        }
+                        cache.put(key, bitmap);
+                        if (target != null && key.equals(target.getTag(R.id.thumbnail_key))) {
+                            target.setImageBitmap(bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stop decoding and drop the cache. Views still waiting for a thumbnail keep their image.
+     */
+    void release() {
+        decoder.shutdownNow();
+        targets.clear();
+        cache.evictAll();
+    }
+
+    private Bitmap decode(Uri uri) {
+        try {
+            InputStream in = contentResolver.openInputStream(uri);
+            if (in == null) {
+                return null;
+            }
+            try {
+                // Thumbnails are opaque JPEGs, which need no alpha channel
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // The photo was removed since the row was read
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to decode " + uri, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link CatalogSnapshot} keeps the first page of the catalog, in _ID order, in a small binary
+ * file in the app's files. The catalog reads it on a cold start to show pets before the
+ * database is even opened, and replaces it with the live rows once its loader delivers them.
+ * <p>
+ * The provider rewrites the snapshot in the background after changes that can touch the first
+ * page, so it may lag behind the database by a moment, never more than that. The file is
+ * written to a temporary file and renamed into place, so a reader sees the old snapshot or the
+ * new one. A file that can't be read is ignored.
+ * <p>
+ * Layout, big-endian: magic, format version and row count as ints, then for every row the _ID as
+ * a long, the weight and gender as ints, the photo version as a long (0 for none), and the name
+ * and breed as an int byte length (-1 for null) followed by their UTF-8 bytes.
+ */
+public final class CatalogSnapshot {
+
+    private static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "catalog.snapshot";
+
+    /** "PETS" */
+    private static final int MAGIC = 0x50455453;
+    private static final int FORMAT_VERSION = 3;
+
+    /** Rows kept, a first page of the catalog. */
+    static final int MAX_ROWS = 50;
+
+    /** Columns of the snapshot cursor. */
+    public static final String[] COLUMNS = {
+            DbContract.PetsEntry._ID,
+            DbContract.PetsEntry.COLUMN_PET_NAME,
+            DbContract.PetsEntry.COLUMN_PET_BREED,
+            DbContract.PetsEntry.COLUMN_PET_WEIGHT,
+            DbContract.PetsEntry.COLUMN_PET_PHOTO_VERSION,
+            DbContract.PetsEntry.COLUMN_PET_GENDER
+    };
+
+    private CatalogSnapshot() {}
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Map the snapshot and copy its rows into a cursor with {@link #COLUMNS}. It is small enough
+     * to be read on the main thread.
+     *
+     * @return the snapshot, or null if there is none or it can't be read
+     */
+    public static Cursor read(Context context) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                Log.w(LOG_TAG, "Ignoring snapshot in an unknown format");
+                return null;
+            }
+            int count = buffer.getInt();
+            if (count < 0 || count > MAX_ROWS) {
+                Log.w(LOG_TAG, "Ignoring snapshot with " + count + " rows");
+                return null;
+            }
+            MatrixCursor cursor = new MatrixCursor(COLUMNS, count);
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                int weight = buffer.getInt();
+                int gender = buffer.getInt();
+                long photoVersion = buffer.getLong();
+                String name = getString(buffer, scratch);
+                String breed = getString(buffer, scratch);
+                cursor.addRow(new Object[] {id, name, breed, weight, photoVersion != 0 ? photoVersion : null,
+                        gender});
+            }
+            return cursor;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable snapshot", e);
+            return null;
+        } catch (BufferUnderflowException e) {
+            Log.w(LOG_TAG, "Ignoring truncated snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Only read from, nothing is lost
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the snapshot with the rows of the given cursor, which must have {@link #COLUMNS}
+     * and at most {@link #MAX_ROWS} rows.
+     */
+    static void write(Context context, Cursor pets) throws IOException {
+        File file = getFile(context);
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(pets.getCount());
+            pets.moveToPosition(-1);
+            while (pets.moveToNext()) {
+                out.writeLong(pets.getLong(0));
+                out.writeInt(pets.getInt(3));
+                out.writeInt(pets.getInt(5));
+                out.writeLong(pets.getLong(4));
+                putString(out, pets.getString(1));
+                putString(out, pets.getString(2));
+            }
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static String getString(MappedByteBuffer buffer, byte[] scratch) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("String of " + length + " bytes past the end of the snapshot");
+        }
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, "UTF-8");
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -4,6 +4,8 @@ import android.content.ContentResolver;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.Collection;
+
 public final class DbContract {
     private static final String TAG = "DataBase";
 
@@ -12,16 +14,117 @@ public final class DbContract {
     public static final String CONTENT_AUTHORITY = "com.example.android.pets";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_PETS = "pets";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_SLOW_QUERIES = "_slow_queries";
+    public static final String PATH_METRICS = "_metrics";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_EXPORT = "export";
+    public static final String PATH_PHOTO = "photo";
+    public static final String PATH_THUMBNAIL = "thumbnail";
+    public static final String PATH_SHELTERS = "shelters";
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Provider method returning the row cache counters as a Bundle, e.g.
+     * {@code resolver.call(PetsEntry.CONTENT_URI, METHOD_ROW_CACHE_STATS, null, null)}.
+     * The Bundle holds the int values below.
+     */
+    public static final String METHOD_ROW_CACHE_STATS = "row_cache_stats";
+    public static final String ROW_CACHE_HITS = "hits";
+    public static final String ROW_CACHE_MISSES = "misses";
+    public static final String ROW_CACHE_EVICTIONS = "evictions";
+    public static final String ROW_CACHE_SIZE = "size";
+    public static final String ROW_CACHE_MAX_SIZE = "max_size";
+
+    /**
+     * Provider method turning the slow query log on or off, e.g.
+     * {@code resolver.call(PetsEntry.CONTENT_URI, METHOD_SET_SLOW_QUERY_THRESHOLD, "50", null)}.
+     * The argument is the threshold in milliseconds, queries taking at least that long are
+     * logged to {@link SlowQueryEntry#CONTENT_URI}. A null argument turns the log off again.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /**
+     * Provider method setting the photo of a pet, e.g.
+     * {@code resolver.call(PetsEntry.CONTENT_URI, METHOD_SET_PHOTO, String.valueOf(id), extras)}.
+     * The argument is the pet's _ID, and {@link #EXTRA_PHOTO_SOURCE} in the extras is the URI the
+     * image is copied from. The provider stores the image as a file, makes its thumbnail and
+     * updates {@link PetsEntry#COLUMN_PET_PHOTO_VERSION}. Blocks until then, so never call it on
+     * the main thread. Throws an IllegalArgumentException if the pet doesn't exist or the source
+     * isn't an image.
+     */
+    public static final String METHOD_SET_PHOTO = "set_photo";
+    public static final String EXTRA_PHOTO_SOURCE = "source";
+
+    /**
+     * Provider method bringing back a deleted pet, e.g.
+     * {@code resolver.call(PetsEntry.CONTENT_URI, METHOD_RESTORE_PET, String.valueOf(id), null)}.
+     * The argument is the pet's _ID. Deleted pets can be restored for at least
+     * {@link PetsEntry#UNDO_WINDOW_MILLIS}, see {@link PetsEntry#COLUMN_PET_DELETED_AT}. Throws an
+     * IllegalArgumentException if the pet isn't deleted or can't be restored anymore.
+     */
+    public static final String METHOD_RESTORE_PET = "restore_pet";
+
+    /**
+     * Provider method bringing back every pet deleted at or after a time, e.g.
+     * {@code resolver.call(PetsEntry.CONTENT_URI, METHOD_RESTORE_PETS_SINCE, String.valueOf(time), null)}.
+     * The argument is the time in milliseconds since the epoch, taken before the deletes to undo.
+     * Pets the provider has purged already stay deleted. Returns a Bundle whose
+     * {@link #EXTRA_COUNT} is the number of pets brought back.
+     */
+    public static final String METHOD_RESTORE_PETS_SINCE = "restore_pets_since";
+
+    /**
+     * Provider method removing every pet of one shelter, or of every shelter, for good, e.g.
+     * {@code resolver.call(PetsEntry.CONTENT_URI, METHOD_WIPE_ALL_PETS, null, null)}. The argument
+     * is the shelter, or null for every shelter. Much faster than deleting every pet, and the
+     * database files shrink back in the background, but it can't be undone: pets and photos are
+     * gone right away, deleted pets waiting to be purged included. The change log records the
+     * pets as deleted, so syncs pass the wipe on. Returns a Bundle whose {@link #EXTRA_COUNT} is
+     * the number of pets that weren't deleted yet.
+     */
+    public static final String METHOD_WIPE_ALL_PETS = "wipe_all_pets";
+
+    /** Number of pets a provider method changed, in the Bundle it returns. */
+    public static final String EXTRA_COUNT = "count";
 
     public static final class PetsEntry implements BaseColumns {
         public static final String TABLE_NAME = "pets";
 
+        /**
+         * Full-text index over the name and breed columns. Its docid is the pet's _ID.
+         */
+        public static final String FTS_TABLE_NAME = "pets_fts";
+
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_PET_NAME = "name";
         public static final String COLUMN_PET_BREED = "breed";
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * When the pet's photo was last set, in milliseconds since the epoch, or null if it has
+         * none. Set by the provider only, see {@link DbContract#METHOD_SET_PHOTO}. It changes
+         * whenever the photo does, so it can be part of cache keys.
+         */
+        public static final String COLUMN_PET_PHOTO_VERSION = "photo_version";
+
+        /**
+         * When the pet was deleted, in milliseconds since the epoch, or 0 for a pet that isn't.
+         * Set by the provider only: deleting a pet, a selection of pets or every pet only marks
+         * them, and every query leaves marked pets out. They can be brought back with
+         * {@link DbContract#METHOD_RESTORE_PET} or {@link DbContract#METHOD_RESTORE_PETS_SINCE}
+         * until the provider purges them in the background, no sooner than
+         * {@link #UNDO_WINDOW_MILLIS} after they were deleted. A shelter holding nothing but
+         * such pets, as after deleting every pet, is then emptied in one step, and the purge gives
+         * the space back so the database file shrinks. Only
+         * {@link DbContract#METHOD_WIPE_ALL_PETS} removes pets right away.
+         */
+        public static final String COLUMN_PET_DELETED_AT = "deleted_at";
+
+        /** How long a deleted pet can at least be restored, see {@link #COLUMN_PET_DELETED_AT}. */
+        public static final long UNDO_WINDOW_MILLIS = 60 * 1000;
+
         /**
          * Possible values for the gender of the pet.
          */
@@ -36,6 +139,180 @@ public final class DbContract {
 
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /**
+         * Pets are partitioned by shelter, and every shelter has a database file of its own. The
+         * shelter is kept in the high bits of every _ID, from {@link #SHELTER_ID_SHIFT} on, so
+         * _IDs are unique across shelters and a pet's URI doesn't need to name its shelter.
+         * Pets inserted through {@link #CONTENT_URI} go to {@link #DEFAULT_SHELTER}, those of
+         * other shelters through {@link #buildShelterUri}.
+         * <p>
+         * Every other URI spans every shelter. Queries of {@link #CONTENT_URI} and
+         * {@link #CONTENT_SEARCH_URI} read the shelters in parallel and merge their rows in the
+         * requested order, which must then be a list of plain columns, each optionally followed by
+         * ASC or DESC. Statistics of several shelters can't be filtered or sorted.
+         */
+        public static final long DEFAULT_SHELTER = 0;
+        public static final int SHELTER_ID_SHIFT = 40;
+        public static final long MAX_SHELTER = (1L << (63 - SHELTER_ID_SHIFT)) - 1;
+
+        /**
+         * URI of the pets of one shelter, from {@link #DEFAULT_SHELTER} to {@link #MAX_SHELTER}.
+         * It is queried, paged, filtered, inserted into, updated and deleted from like
+         * {@link #CONTENT_URI}, but only reaches that shelter's database. The shelter's database
+         * is created by the first insert through its URI; until then, queries of it return no
+         * rows and updates and deletes change nothing.
+         */
+        public static Uri buildShelterUri(long shelter) {
+            return BASE_CONTENT_URI.buildUpon().appendPath(PATH_SHELTERS)
+                    .appendPath(String.valueOf(shelter)).appendPath(PATH_PETS).build();
+        }
+
+        /**
+         * The shelter of the pet with the given _ID.
+         */
+        public static long getShelter(long id) {
+            return id >>> SHELTER_ID_SHIFT;
+        }
+
+        /**
+         * URI for searching pets by name and breed. The search text goes in the
+         * {@link #QUERY_PARAMETER_SEARCH} query parameter; every word is matched as a prefix.
+         * Results aren't paged, but {@link #QUERY_PARAMETER_LIMIT} keeps only the first rows.
+         * Searches of several shelters read every matching row of each shelter without it.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * Query parameter holding the search text for {@link #CONTENT_SEARCH_URI}.
+         */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Column of {@link #CONTENT_SEARCH_URI}: 0 for pets whose name matches every word of the
+         * search, 1 for pets that only match through their breed. Results are ordered by it and
+         * then by name unless another sort order is given.
+         */
+        public static final String COLUMN_SEARCH_RANK = "search_rank";
+
+        /**
+         * Query parameters for reading {@link #CONTENT_URI} one page at a time. A page holds at
+         * most {@link #QUERY_PARAMETER_LIMIT} rows ordered by ({@link #QUERY_PARAMETER_SORT}, _ID),
+         * starting right after the row whose key is ({@link #QUERY_PARAMETER_AFTER},
+         * {@link #QUERY_PARAMETER_AFTER_ID}). Use {@link #buildPageUri} to build such a URI.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        public static final String QUERY_PARAMETER_SORT = "sort";
+        public static final String QUERY_PARAMETER_AFTER = "after";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameters filtering {@link #CONTENT_URI}, paged or not: pets of one gender, and
+         * pets whose weight is in an inclusive range, either end of which may be left out. Use
+         * {@link #buildFilterUri} to build such a URI.
+         * <p>
+         * Every page of a filtered URI is read through an index that serves both the filter and
+         * the order, so pages stay cheap however many pets the filter skips. A weight range can
+         * therefore only be paged in weight order; other orders are rejected.
+         */
+        public static final String QUERY_PARAMETER_GENDER = "gender";
+        public static final String QUERY_PARAMETER_MIN_WEIGHT = "min_weight";
+        public static final String QUERY_PARAMETER_MAX_WEIGHT = "max_weight";
+
+        /**
+         * Build {@link #CONTENT_URI} filtered by gender and weight.
+         *
+         * @param gender    one of the GENDER_ constants, or null for every gender
+         * @param minWeight lowest weight included, or null for no lower bound
+         * @param maxWeight highest weight included, or null for no upper bound
+         */
+        public static Uri buildFilterUri(Integer gender, Integer minWeight, Integer maxWeight) {
+            Uri.Builder builder = CONTENT_URI.buildUpon();
+            if (gender != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_GENDER, String.valueOf(gender));
+            }
+            if (minWeight != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MIN_WEIGHT, String.valueOf(minWeight));
+            }
+            if (maxWeight != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MAX_WEIGHT, String.valueOf(maxWeight));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Build the URI of a page of pets ordered by the given column and then by _ID.
+         * Only _ID, name and weight can be paged on, since they are never null.
+         *
+         * @param sortColumn column the pages are ordered by
+         * @param pageSize   maximum number of rows in the page
+         * @param afterValue sort column value of the last row of the previous page,
+         *                   or null for the first page
+         * @param afterId    _ID of the last row of the previous page, ignored for the first page
+         */
+        public static Uri buildPageUri(String sortColumn, int pageSize, String afterValue, long afterId) {
+            return buildPageUri(CONTENT_URI, sortColumn, pageSize, afterValue, afterId);
+        }
+
+        /**
+         * Build the URI of a page of the pets of a filter URI from {@link #buildFilterUri}, see
+         * {@link #buildPageUri(String, int, String, long)}.
+         */
+        public static Uri buildPageUri(Uri filterUri, String sortColumn, int pageSize, String afterValue,
+                                       long afterId) {
+            Uri.Builder builder = filterUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(pageSize));
+            if (afterValue != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER, afterValue)
+                        .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Stream types of {@link #CONTENT_URI}: every pet as CSV or JSON, streamed through
+         * {@code ContentResolver.openTypedAssetFileDescriptor(CONTENT_URI, MIME_TYPE_CSV, null)}.
+         * Both hold the _ID, name, breed, gender and weight columns. The CSV starts with a header
+         * row of the column names; the JSON is an array of objects keyed by column name.
+         */
+        public static final String MIME_TYPE_CSV = "text/csv";
+        public static final String MIME_TYPE_JSON = "application/json";
+
+        /**
+         * URI of the same export, for {@code ContentResolver.openInputStream()} and for sharing.
+         * The {@link #QUERY_PARAMETER_FORMAT} query parameter picks {@link #FORMAT_CSV} (the
+         * default) or {@link #FORMAT_JSON}. Use {@link #buildExportUri} to build it.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+        public static final String FORMAT_CSV = "csv";
+        public static final String FORMAT_JSON = "json";
+
+        public static Uri buildExportUri(String format) {
+            return CONTENT_EXPORT_URI.buildUpon().appendQueryParameter(QUERY_PARAMETER_FORMAT, format).build();
+        }
+
+        /**
+         * URI of the photo of a pet, as the image it was set from. Open it with
+         * {@code ContentResolver.openInputStream()}; delete it to remove the photo.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return CONTENT_URI.buildUpon().appendPath(String.valueOf(id)).appendPath(PATH_PHOTO).build();
+        }
+
+        /**
+         * URI of the thumbnail of a pet's photo, a JPEG of at most {@link #THUMBNAIL_SIZE} pixels
+         * on its longest side, made when the photo is set.
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return buildPhotoUri(id).buildUpon().appendPath(PATH_THUMBNAIL).build();
+        }
+
+        public static final int THUMBNAIL_SIZE = 256;
+
+        public static final String THUMBNAIL_TYPE = "image/jpeg";
+
         /**
          * The MIME type of the CONTENT_URI for a list of pets.
          */
@@ -50,4 +327,203 @@ public final class DbContract {
 
     }
 
+    /**
+     * The change log: an entry for every pet that was inserted, updated, deleted or restored,
+     * written by triggers in the transaction that changed the pet, so no write can go unlogged.
+     * Entries are numbered by {@link #COLUMN_SEQ}, which only ever grows. Every shelter keeps a
+     * log of its own, numbered from the shelter's bits like its pets' _IDs, see
+     * {@link PetsEntry#SHELTER_ID_SHIFT}, so sequence numbers are unique across shelters and
+     * a sequence number tells its shelter. Purging a deleted pet isn't logged again.
+     * <p>
+     * {@link #CONTENT_URI} reads the log as the changes since given sequence numbers, one row
+     * per changed pet with the pet as it is now, for syncing the pets elsewhere, see
+     * {@link PetSync}. Read-only; observers of {@link PetsEntry#CONTENT_URI} are told when it
+     * grows.
+     */
+    public static final class ChangesEntry {
+
+        public static final String TABLE_NAME = "pet_changes";
+
+        /** Sequence number of the change, also a column of {@link #CONTENT_URI} */
+        public static final String COLUMN_SEQ = "seq";
+        /** _ID of the pet that changed */
+        public static final String COLUMN_PET_ID = "pet_id";
+
+        /**
+         * Columns of {@link #CONTENT_URI}: the sequence number of the pet's latest change, the
+         * pet's _ID, name, breed, gender and weight, and {@link #COLUMN_DELETED}.
+         */
+        public static final String COLUMN_DELETED = "deleted";
+
+        /**
+         * The latest change of every pet changed after the {@link #QUERY_PARAMETER_SINCE}
+         * sequence numbers, in sequence order. A pet changed several times only shows up once,
+         * at its latest change, with its current values; a pet that was deleted has
+         * {@link #COLUMN_DELETED} set to 1 and null values. A selection filters the changes by
+         * these columns. Use {@link #buildChangesUri} to build it.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * Query parameter holding the last sequence number already seen of a shelter, once for
+         * every shelter that has one. Shelters without one are read from their first change.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /** Query parameter holding the most changes to return. */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * @param since last sequence number seen of every shelter that has one
+         * @param limit most changes to return, or 0 for all of them
+         */
+        public static Uri buildChangesUri(Collection<Long> since, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon();
+            for (long seq : since) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(seq));
+            }
+            if (limit > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            }
+            return builder.build();
+        }
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+    }
+
+    /**
+     * Aggregate statistics over all pets. They are read from summary tables that triggers keep up
+     * to date, and from the weight indexes, so reading them costs the same however many pets
+     * there are. Observers of {@link PetsEntry#CONTENT_URI} are told when they change.
+     */
+    public static final class PetStatsEntry {
+
+        /** Pets per gender, with their weight sum, keyed by gender */
+        public static final String GENDER_TABLE_NAME = "pets_stats_gender";
+        /** Pets per breed, keyed by breed; pets without a breed are counted under '' */
+        public static final String BREED_TABLE_NAME = "pets_stats_breed";
+
+        /** Weight sum column of {@link #GENDER_TABLE_NAME}, used to compute the average */
+        public static final String COLUMN_WEIGHT_SUM = "weight_sum";
+
+        /** Columns of the stats URIs */
+        public static final String COLUMN_GENDER = PetsEntry.COLUMN_PET_GENDER;
+        /** Breed, or null for the pets without one (or with an empty one) */
+        public static final String COLUMN_BREED = PetsEntry.COLUMN_PET_BREED;
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_MIN_WEIGHT = "min_weight";
+        public static final String COLUMN_AVG_WEIGHT = "avg_weight";
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+
+        private static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * One row per gender that has pets: gender, count and min/avg/max weight.
+         * Ordered by gender unless another sort order is given.
+         */
+        public static final Uri CONTENT_GENDER_URI =
+                Uri.withAppendedPath(CONTENT_URI, PetsEntry.COLUMN_PET_GENDER);
+
+        /**
+         * One row per breed that has pets: breed and count.
+         * Ordered by count, highest first, unless another sort order is given.
+         */
+        public static final Uri CONTENT_BREED_URI =
+                Uri.withAppendedPath(CONTENT_URI, PetsEntry.COLUMN_PET_BREED);
+
+        /**
+         * A single row over all pets: count and min/avg/max weight. The weights are null when
+         * there are no pets.
+         */
+        public static final Uri CONTENT_WEIGHT_URI =
+                Uri.withAppendedPath(CONTENT_URI, PetsEntry.COLUMN_PET_WEIGHT);
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+    }
+
+    /**
+     * The most recent slow queries, newest first, while the slow query log is on. See
+     * {@link #METHOD_SET_SLOW_QUERY_THRESHOLD}. The log only lives in memory and is read-only.
+     * Every query of the provider that reaches SQLite is timed, single column reads of a pet
+     * through compiled statements included. Pets served from the row cache don't reach it, and
+     * the provider's own reads, such as the compactor's, aren't logged.
+     */
+    public static final class SlowQueryEntry implements BaseColumns {
+
+        /** Sequence number of the query since the provider started */
+        public static final String _ID = BaseColumns._ID;
+        /** When the query ran, in milliseconds since the epoch */
+        public static final String COLUMN_TIME = "time";
+        /** How long the query took to run and count its rows, in milliseconds */
+        public static final String COLUMN_DURATION_MS = "duration_ms";
+        /** URI the query was made for */
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_SQL = "sql";
+        /** Arguments bound to the SQL, comma separated */
+        public static final String COLUMN_ARGS = "args";
+        /** Number of rows the query returned */
+        public static final String COLUMN_ROWS = "rows";
+        /** Output of EXPLAIN QUERY PLAN, one step per line */
+        public static final String COLUMN_PLAN = "plan";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_SLOW_QUERIES);
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SLOW_QUERIES;
+    }
+
+    /**
+     * Counters and latencies of the provider's operations since it started, one row per operation
+     * and URI pattern, plus a row counting change notifications. Read-only, and a snapshot: nothing
+     * notifies when the numbers change.
+     */
+    public static final class MetricsEntry {
+
+        /** query, insert, update, delete, getType or {@link #OPERATION_NOTIFY_CHANGE} */
+        public static final String COLUMN_OPERATION = "operation";
+        /** URI pattern the operation was called on, e.g. "pets/#", null for unknown URIs */
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_CALLS = "calls";
+        /** Calls that threw */
+        public static final String COLUMN_ERRORS = "errors";
+        /**
+         * Rows inserted, updated or deleted, or returned by queries whose count was known without
+         * reading the cursor: rows from the row cache, diagnostics and queries merged across
+         * shelters. Other queries are counted as calls only, as their cursor hasn't run yet.
+         */
+        public static final String COLUMN_ROWS = "rows";
+        /**
+         * Time spent in the calls. A query is timed until its cursor is returned, so for queries
+         * read from a single database it leaves out running the query, which happens as the
+         * cursor is first moved.
+         */
+        public static final String COLUMN_TOTAL_MS = "total_ms";
+        /**
+         * Latency percentiles, estimated from the histogram: the upper bound of the bucket
+         * holding the percentile, capped at the maximum.
+         */
+        public static final String COLUMN_P50_MS = "p50_ms";
+        public static final String COLUMN_P90_MS = "p90_ms";
+        public static final String COLUMN_P99_MS = "p99_ms";
+        public static final String COLUMN_MAX_MS = "max_ms";
+        /**
+         * Latency histogram as space separated "upper bound in microseconds:count" pairs over
+         * power of two buckets, leaving out empty buckets.
+         */
+        public static final String COLUMN_HISTOGRAM = "histogram";
+
+        /** Operation of the row counting change notifications, in its calls column */
+        public static final String OPERATION_NOTIFY_CHANGE = "notifyChange";
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetsEntry.CONTENT_URI, PATH_METRICS);
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+    }
+
 }
@@ -0,0 +1,24 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A single schema upgrade step for the pets database.
+ * Each migration moves the schema from {@code version - 1} to {@code version} and
+ * runs inside the transaction that {@link android.database.sqlite.SQLiteOpenHelper}
+ * opens around onCreate/onUpgrade, so a failed step leaves the database untouched.
+ */
+abstract class DbMigration {
+
+    /** Schema version this migration upgrades the database to. */
+    final int version;
+
+    DbMigration(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Apply this step to a database that is at {@code version - 1}.
+     */
+    abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,187 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * {@link DummyPetGenerator} fills the pets table with realistic made-up pets for load testing.
+ * Names, breeds and genders are drawn from weighted lists and weights from a clamped normal
+ * distribution, all set in a {@link Config}. Pets are generated and written in fixed-size
+ * chunks, each one {@link PetProvider#bulkInsert} transaction, so any number of pets can be
+ * created with only one chunk in memory. This blocks, so never call it on the main thread.
+ */
+public final class DummyPetGenerator {
+
+    private static final String LOG_TAG = DummyPetGenerator.class.getSimpleName();
+
+    /** Pets written per transaction. */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * Distributions the pets are drawn from. The defaults give a mix of common dog and cat
+     * names and breeds, mostly known genders and weights around 15 kg.
+     */
+    public static final class Config {
+        public String[] names = {
+                "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy", "Milo", "Bailey",
+                "Oliver", "Molly", "Buddy", "Chloe", "Rocky", "Sadie", "Leo", "Coco", "Toby",
+                "Lily", "Simba", "Nala", "Tucker", "Zoe", "Oscar", "Rosie", "Bear", "Toto"
+        };
+        /** Relative frequency of each name, or null for all names equally often. */
+        public double[] nameWeights = {
+                9, 9, 8, 8, 7, 6, 6, 6, 5, 5, 5, 5, 4, 4, 4, 4, 3, 3, 3, 3, 2, 2, 2, 2, 2, 1, 1
+        };
+
+        public String[] breeds = {
+                "Labrador Retriever", "German Shepherd", "Golden Retriever", "French Bulldog",
+                "Beagle", "Poodle", "Dachshund", "Tabby", "Siamese", "Maine Coon", "Persian",
+                "Ragdoll", "Terrier", "Mixed"
+        };
+        /** Relative frequency of each breed, or null for all breeds equally often. */
+        public double[] breedWeights = {10, 8, 7, 5, 5, 4, 3, 9, 4, 3, 2, 2, 6, 12};
+        /** Share of pets with no breed. */
+        public double missingBreedProbability = 0.05;
+
+        /** Relative frequency of unknown, male and female, indexed by the PetsEntry gender values. */
+        public double[] genderWeights = {1, 4.5, 4.5};
+
+        /** Weight in kg is drawn from a normal distribution and clamped to [min, max]. */
+        public double weightMean = 15;
+        public double weightStdDev = 10;
+        public int weightMin = 1;
+        public int weightMax = 80;
+
+        /** Seed for the random generator, so the same config always generates the same pets. */
+        public long seed = 42;
+    }
+
+    /**
+     * Receives progress after every chunk and can stop the generation.
+     */
+    public interface ProgressListener {
+        /**
+         * @param inserted     pets written so far
+         * @param total        pets requested
+         * @param rowsPerSecond average write rate so far
+         */
+        void onProgress(long inserted, long total, double rowsPerSecond);
+
+        /** Checked before every chunk, generation stops once this returns true. */
+        boolean isCancelled();
+    }
+
+    private final Config config;
+    private final Random random;
+    private final double[] nameCumulative;
+    private final double[] breedCumulative;
+    private final double[] genderCumulative;
+
+    public DummyPetGenerator(Config config) {
+        this.config = config;
+        random = new Random(config.seed);
+        nameCumulative = cumulative(config.nameWeights, config.names.length);
+        breedCumulative = cumulative(config.breedWeights, config.breeds.length);
+        genderCumulative = cumulative(config.genderWeights, 3);
+    }
+
+    /**
+     * Generate and insert {@code count} pets in chunks of {@code chunkSize}.
+     *
+     * @param listener progress listener, or null
+     * @return the number of pets inserted
+     */
+    public long generate(ContentResolver contentResolver, long count, int chunkSize,
+                         ProgressListener listener) {
+        // The chunk's ContentValues are refilled for every chunk rather than reallocated
+        ContentValues[] chunk = new ContentValues[(int) Math.min(chunkSize, Math.max(count, 1))];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = new ContentValues(4);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        long inserted = 0;
+        double rowsPerSecond = 0;
+        while (inserted < count) {
+            if (listener != null && listener.isCancelled()) {
+                break;
+            }
+            int size = (int) Math.min(chunk.length, count - inserted);
+            ContentValues[] values = chunk;
+            if (size < chunk.length) {
+                values = new ContentValues[size];
+                System.arraycopy(chunk, 0, values, 0, size);
+            }
+            for (ContentValues pet : values) {
+                fill(pet);
+            }
+            inserted += contentResolver.bulkInsert(DbContract.PetsEntry.CONTENT_URI, values);
+
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+            rowsPerSecond = inserted * 1000.0 / elapsed;
+            if (listener != null) {
+                listener.onProgress(inserted, count, rowsPerSecond);
+            }
+        }
+        Log.i(LOG_TAG, String.format("Inserted %d of %d pets in %d ms, %.0f rows/s", inserted, count,
+                SystemClock.elapsedRealtime() - start, rowsPerSecond));
+        return inserted;
+    }
+
+    /**
+     * Draw one pet into the given values.
+     */
+    private void fill(ContentValues pet) {
+        pet.put(DbContract.PetsEntry.COLUMN_PET_NAME, config.names[pick(nameCumulative)]);
+        if (random.nextDouble() < config.missingBreedProbability) {
+            pet.putNull(DbContract.PetsEntry.COLUMN_PET_BREED);
+        } else {
+            pet.put(DbContract.PetsEntry.COLUMN_PET_BREED, config.breeds[pick(breedCumulative)]);
+        }
+        pet.put(DbContract.PetsEntry.COLUMN_PET_GENDER, pick(genderCumulative));
+        long weight = Math.round(config.weightMean + random.nextGaussian() * config.weightStdDev);
+        pet.put(DbContract.PetsEntry.COLUMN_PET_WEIGHT,
+                (int) Math.max(config.weightMin, Math.min(config.weightMax, weight)));
+    }
+
+    /**
+     * Pick an index with probability proportional to its weight.
+     */
+    private int pick(double[] cumulative) {
+        double target = random.nextDouble() * cumulative[cumulative.length - 1];
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] <= target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double[] cumulative(double[] weights, int size) {
+        if (weights != null && weights.length != size) {
+            throw new IllegalArgumentException("Expected " + size + " weights, got " + weights.length);
+        }
+        double[] cumulative = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            double weight = weights == null ? 1 : weights[i];
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weights can't be negative");
+            }
+            sum += weight;
+            cumulative[i] = sum;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("At least one weight must be positive");
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link LocalSyncServer} is a {@link PetSync.Server} kept in memory, standing in for the central
+ * server until there is one, and for checking syncs end to end, see {@link SyncBenchmark}. It
+ * keeps the latest values pushed of every pet and numbers every pet it stores anew. A pull
+ * returns the pets stored after the given number, leaving out those the pulling client stored
+ * itself. Pushing a pet as it already is stores nothing, so pets pulled by a client and pushed
+ * back don't go around again.
+ */
+final class LocalSyncServer implements PetSync.Server {
+
+    /** Client id of the edits made through this class, as if by another client. */
+    static final String EDITOR = "local";
+
+    /** Latest value of every pet by _ID, and the client that stored it */
+    private final Map<Long, PetSync.Change> pets = new HashMap<Long, PetSync.Change>();
+    private final Map<Long, String> writers = new HashMap<Long, String>();
+    /** _ID of the pet stored with every sequence number still current */
+    private final TreeMap<Long, Long> log = new TreeMap<Long, Long>();
+    private long lastSeq;
+
+    private long bytesPushed;
+    private long bytesPulled;
+
+    @Override
+    public synchronized void push(String clientId, byte[] batch) throws IOException {
+        bytesPushed += batch.length;
+        for (PetSync.Change change : PetSync.decode(batch).changes) {
+            store(clientId, change);
+        }
+    }
+
+    @Override
+    public synchronized byte[] pull(String clientId, long since, int limit) throws IOException {
+        List<PetSync.Change> changes = new ArrayList<PetSync.Change>();
+        long next = since;
+        for (Map.Entry<Long, Long> entry : log.tailMap(since, false).entrySet()) {
+            if (changes.size() == limit) {
+                break;
+            }
+            next = entry.getKey();
+            if (!clientId.equals(writers.get(entry.getValue()))) {
+                changes.add(pets.get(entry.getValue()));
+            }
+        }
+        byte[] batch = PetSync.encode(changes, next);
+        bytesPulled += batch.length;
+        return batch;
+    }
+
+    /**
+     * Store a pet's new value under the next sequence number, unless it is already stored so.
+     */
+    private void store(String clientId, PetSync.Change change) {
+        PetSync.Change current = pets.get(change.id);
+        if (current != null ? current.sameAs(change) : change.deleted) {
+            return;
+        }
+        if (current != null) {
+            log.remove(current.seq);
+        }
+        PetSync.Change stored = change.withSeq(++lastSeq);
+        pets.put(change.id, stored);
+        writers.put(change.id, clientId);
+        log.put(stored.seq, change.id);
+    }
+
+    /**
+     * Add or change a pet, as another client would.
+     */
+    synchronized void putPet(long id, String name, String breed, int gender, int weight) {
+        store(EDITOR, new PetSync.Change(0, id, false, name, breed, gender, weight));
+    }
+
+    /**
+     * Delete a pet, as another client would.
+     */
+    synchronized void deletePet(long id) {
+        store(EDITOR, PetSync.Change.deleted(0, id));
+    }
+
+    /**
+     * The pets that aren't deleted, by _ID.
+     */
+    synchronized TreeMap<Long, PetSync.Change> getLivePets() {
+        TreeMap<Long, PetSync.Change> live = new TreeMap<Long, PetSync.Change>();
+        for (PetSync.Change pet : pets.values()) {
+            if (!pet.deleted) {
+                live.put(pet.id, pet);
+            }
+        }
+        return live;
+    }
+
+    synchronized long getBytesPushed() {
+        return bytesPushed;
+    }
+
+    synchronized long getBytesPulled() {
+        return bytesPulled;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderResult;
+
+/**
+ * {@link PartialBatchException} is thrown by {@link PetProvider#applyBatch} when a batch spanning
+ * shelters failed after some of the shelters had committed their part of it. Shelters are
+ * separate databases, so the committed parts can't be rolled back. Unlike any other failure of a
+ * batch, which commits nothing, the operations marked committed here must not be applied again.
+ */
+final class PartialBatchException extends IllegalStateException {
+
+    /** Result of every operation of the batch, valid for the committed ones. */
+    final ContentProviderResult[] results;
+    /** Whether each operation of the batch was committed, in every shelter it touched. */
+    final boolean[] committed;
+
+    PartialBatchException(ContentProviderResult[] results, boolean[] committed, Throwable cause) {
+        super("Batch was only committed in some shelters", cause);
+        this.results = results;
+        this.committed = committed;
+    }
+}
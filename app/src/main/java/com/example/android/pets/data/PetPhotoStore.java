@@ -0,0 +1,222 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link PetPhotoStore} keeps pet photos as files named after the pet's _ID, in the app's files
+ * rather than in the database: the originals as they were given, and a JPEG thumbnail of each
+ * made when it is stored. Files are written to a temporary file and renamed into place, so
+ * readers see the old photo or the new one. The database only records when each photo was set.
+ */
+final class PetPhotoStore {
+
+    private static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    private final File originals;
+    private final File thumbnails;
+
+    /**
+     * @param dbName name of the database the photos belong to, so scratch databases don't share
+     *               the app's photos
+     */
+    PetPhotoStore(Context context, String dbName) {
+        File root = new File(context.getFilesDir(), dbName + ".photos");
+        originals = new File(root, "originals");
+        thumbnails = new File(root, "thumbnails");
+    }
+
+    File getOriginal(long id) {
+        return new File(originals, String.valueOf(id));
+    }
+
+    File getThumbnail(long id) {
+        return new File(thumbnails, id + ".jpg");
+    }
+
+    /**
+     * Store a pet's photo and make its thumbnail, replacing any previous one. The stream is read
+     * to the end but not closed. Decodes the image, so call it off the main thread.
+     *
+     * @throws IOException if the stream can't be read or isn't an image
+     */
+    void save(long id, InputStream in) throws IOException {
+        ensureDirectory(originals);
+        ensureDirectory(thumbnails);
+        File original = getOriginal(id);
+        File originalTemporary = new File(original.getPath() + ".tmp");
+        File thumbnail = getThumbnail(id);
+        File thumbnailTemporary = new File(thumbnail.getPath() + ".tmp");
+        try {
+            copy(in, originalTemporary);
+            writeThumbnail(originalTemporary, thumbnailTemporary);
+            rename(originalTemporary, original);
+            rename(thumbnailTemporary, thumbnail);
+        } finally {
+            originalTemporary.delete();
+            thumbnailTemporary.delete();
+        }
+    }
+
+    /**
+     * Delete a pet's photo and thumbnail.
+     *
+     * @return whether there was a photo
+     */
+    boolean delete(long id) {
+        getThumbnail(id).delete();
+        return getOriginal(id).delete();
+    }
+
+    void deleteAll() {
+        deleteFiles(originals);
+        deleteFiles(thumbnails);
+    }
+
+    /**
+     * _IDs of the pets that have a photo.
+     */
+    List<Long> ids() {
+        List<Long> ids = new ArrayList<>();
+        String[] names = originals.list();
+        if (names == null) {
+            return ids;
+        }
+        for (String name : names) {
+            try {
+                ids.add(Long.parseLong(name));
+            } catch (NumberFormatException e) {
+                // A temporary file left behind by a crash
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * MIME type of a stored photo, read from its header.
+     */
+    static String getMimeType(File photo) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photo.getPath(), options);
+        return options.outMimeType;
+    }
+
+    /**
+     * Scale the photo down to fit {@link DbContract.PetsEntry#THUMBNAIL_SIZE}, upright. Only
+     * powers of two are skipped while decoding, so the decoded bitmap is at most four times the
+     * size of the thumbnail.
+     */
+    private static void writeThumbnail(File photo, File thumbnail) throws IOException {
+        int size = DbContract.PetsEntry.THUMBNAIL_SIZE;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photo.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not an image");
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size && options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap decoded = BitmapFactory.decodeFile(photo.getPath(), options);
+        if (decoded == null) {
+            throw new IOException("Image could not be decoded");
+        }
+
+        Matrix matrix = new Matrix();
+        float scale = Math.min(1f, size / (float) Math.max(decoded.getWidth(), decoded.getHeight()));
+        matrix.setScale(scale, scale);
+        matrix.postRotate(getRotation(photo));
+        Bitmap scaled = Bitmap.createBitmap(decoded, 0, 0, decoded.getWidth(), decoded.getHeight(), matrix, true);
+
+        OutputStream out = new FileOutputStream(thumbnail);
+        try {
+            if (!scaled.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out)) {
+                throw new IOException("Thumbnail could not be encoded");
+            }
+        } finally {
+            out.close();
+            if (scaled != decoded) {
+                scaled.recycle();
+            }
+            decoded.recycle();
+        }
+    }
+
+    /**
+     * Degrees the photo has to be turned clockwise to be upright, from its EXIF orientation.
+     * Only cameras write it, so anything else is taken as upright.
+     */
+    private static int getRotation(File photo) {
+        try {
+            int orientation = new ExifInterface(photo.getPath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void copy(InputStream in, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Could not replace " + to);
+        }
+    }
+
+    private static void ensureDirectory(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+    }
+
+    private static void deleteFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                Log.w(LOG_TAG, "Could not delete " + file);
+            }
+        }
+    }
+}
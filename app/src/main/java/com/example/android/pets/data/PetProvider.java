@@ -1,14 +1,54 @@
 package com.example.android.pets.data;
 
+import android.annotation.TargetApi;
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.example.android.pets.R;
 
 /**
@@ -18,48 +58,284 @@ public class PetProvider extends ContentProvider {
 
     /** Tag for the log messages */
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
-    /** Database helper object */
-    private PetsDbHelper mPetsDbHelper;
+    /** The shelters' databases, each with the compiled statements for its single-pet hot paths */
+    private PetShards mShards;
     /**
      * Initialize the provider and the database helper object.
      */
     private static final int PETS = 100;
     private static final int PETS_ID = 101;
+    private static final int PETS_SEARCH = 102;
+    private static final int SLOW_QUERIES = 103;
+    private static final int METRICS = 104;
+    private static final int STATS_GENDER = 105;
+    private static final int STATS_BREED = 106;
+    private static final int STATS_WEIGHT = 107;
+    private static final int EXPORT = 108;
+    private static final int PHOTO = 109;
+    private static final int PHOTO_THUMBNAIL = 110;
+    private static final int SHELTER_PETS = 111;
+    private static final int CHANGES = 112;
+
+    /** Columns the PETS URI can be paged on. They must be NOT NULL for the keyset to work. */
+    private static final String[] PAGED_SORT_COLUMNS = {
+            DbContract.PetsEntry._ID,
+            DbContract.PetsEntry.COLUMN_PET_NAME,
+            DbContract.PetsEntry.COLUMN_PET_WEIGHT
+    };
+
+    /** Order of search results unless another one is given. */
+    private static final String SEARCH_ORDER =
+            DbContract.PetsEntry.COLUMN_SEARCH_RANK + ", " + DbContract.PetsEntry.COLUMN_PET_NAME;
+
+    /** Threads querying shelters in parallel for {@link #queryShards}. */
+    private static final int FAN_OUT_THREADS = 4;
+
+    /** Number of pets kept in {@link #mRowCache}. */
+    private static final int ROW_CACHE_SIZE = 256;
+
+    /** Number of queries kept in {@link #mSlowQueryLog}. */
+    private static final int SLOW_QUERY_LOG_SIZE = 50;
+
+    /** Selection of the pets that aren't deleted, the only ones queries and updates see. */
+    private static final String NOT_DELETED = DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = 0";
+
+    /**
+     * Deleted pets purged per transaction by the compactor, so it never keeps saves waiting for
+     * long however many pets were deleted.
+     */
+    private static final int COMPACTION_BATCH_SIZE = 500;
 
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /** Recently read pets, so that opening a pet doesn't always hit SQLite. */
+    private final PetRowCache mRowCache = new PetRowCache(ROW_CACHE_SIZE);
+
+    /** Recent slow queries and their plans, off unless turned on through {@link #call}. */
+    private final SlowQueryLog mSlowQueryLog = new SlowQueryLog(SLOW_QUERY_LOG_SIZE);
+
+    /** Calls, rows and latency of every operation, labelled with the URI patterns from PETS on. */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(PETS,
+            DbContract.PATH_PETS,
+            DbContract.PATH_PETS + "/#",
+            DbContract.PATH_PETS + "/" + DbContract.PATH_SEARCH,
+            DbContract.PATH_PETS + "/" + DbContract.PATH_SLOW_QUERIES,
+            DbContract.PATH_PETS + "/" + DbContract.PATH_METRICS,
+            DbContract.PATH_PETS + "/" + DbContract.PATH_STATS + "/" + DbContract.PetsEntry.COLUMN_PET_GENDER,
+            DbContract.PATH_PETS + "/" + DbContract.PATH_STATS + "/" + DbContract.PetsEntry.COLUMN_PET_BREED,
+            DbContract.PATH_PETS + "/" + DbContract.PATH_STATS + "/" + DbContract.PetsEntry.COLUMN_PET_WEIGHT,
+            DbContract.PATH_PETS + "/" + DbContract.PATH_EXPORT,
+            DbContract.PATH_PETS + "/#/" + DbContract.PATH_PHOTO,
+            DbContract.PATH_PETS + "/#/" + DbContract.PATH_PHOTO + "/" + DbContract.PATH_THUMBNAIL,
+            DbContract.PATH_SHELTERS + "/#/" + DbContract.PATH_PETS,
+            DbContract.PATH_PETS + "/" + DbContract.PATH_CHANGES);
+
+    /**
+     * Set while {@link #applyBatch(ArrayList)} runs on the current thread. The operations it
+     * dispatches record what they changed here instead of notifying and invalidating right away.
+     */
+    private final ThreadLocal<BatchChanges> mBatch = new ThreadLocal<BatchChanges>();
+
+    /**
+     * What the operations of one batch changed, to be published once the batch is committed.
+     */
+    private static final class BatchChanges {
+        final Set<Uri> uris = new HashSet<Uri>();
+        final Set<Long> ids = new HashSet<Long>();
+        boolean allRows;
+        boolean petsDeleted;
+    }
+
+    /**
+     * Runs database maintenance, such as reclaiming space after deletes or purging deleted pets,
+     * off the caller's thread.
+     */
+    private final ScheduledThreadPoolExecutor mMaintenance = new ScheduledThreadPoolExecutor(1);
+
+    /**
+     * Runs the shelters' parts of a query spanning several of them, so each shelter's database
+     * answers at the same time, see {@link #queryShards}.
+     */
+    private final ExecutorService mFanOut = Executors.newFixedThreadPool(FAN_OUT_THREADS, new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "pet-shelter-query-" + mCount.incrementAndGet());
+        }
+    });
+
+    /** Set while a purge of deleted pets is scheduled on {@link #mMaintenance}. */
+    private final AtomicBoolean mCompactionScheduled = new AtomicBoolean();
+
+    /** Set while a refresh of the catalog snapshot is queued on {@link #mMaintenance}. */
+    private final AtomicBoolean mSnapshotQueued = new AtomicBoolean();
+
+    /**
+     * Changes to pets with a greater _ID can't touch the catalog snapshot, since it is full and
+     * ends before them. Long.MAX_VALUE while the snapshot isn't full or is being refreshed.
+     */
+    private volatile long mSnapshotLimitId = Long.MAX_VALUE;
+
     static {
         sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY, DbContract.PATH_PETS, PETS);
         sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY, DbContract.PATH_PETS + "/#", PETS_ID);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY,
+                DbContract.PATH_PETS + "/" + DbContract.PATH_SEARCH, PETS_SEARCH);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY,
+                DbContract.PATH_PETS + "/" + DbContract.PATH_SLOW_QUERIES, SLOW_QUERIES);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY,
+                DbContract.PATH_PETS + "/" + DbContract.PATH_METRICS, METRICS);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY, DbContract.PATH_PETS + "/" + DbContract.PATH_STATS +
+                "/" + DbContract.PetsEntry.COLUMN_PET_GENDER, STATS_GENDER);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY, DbContract.PATH_PETS + "/" + DbContract.PATH_STATS +
+                "/" + DbContract.PetsEntry.COLUMN_PET_BREED, STATS_BREED);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY, DbContract.PATH_PETS + "/" + DbContract.PATH_STATS +
+                "/" + DbContract.PetsEntry.COLUMN_PET_WEIGHT, STATS_WEIGHT);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY,
+                DbContract.PATH_PETS + "/" + DbContract.PATH_EXPORT, EXPORT);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY,
+                DbContract.PATH_PETS + "/#/" + DbContract.PATH_PHOTO, PHOTO);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY,
+                DbContract.PATH_PETS + "/#/" + DbContract.PATH_PHOTO + "/" + DbContract.PATH_THUMBNAIL,
+                PHOTO_THUMBNAIL);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY,
+                DbContract.PATH_SHELTERS + "/#/" + DbContract.PATH_PETS, SHELTER_PETS);
+        sUriMatcher.addURI(DbContract.CONTENT_AUTHORITY,
+                DbContract.PATH_PETS + "/" + DbContract.PATH_CHANGES, CHANGES);
+    }
+
+    /** Stream types every pet can be exported as, see {@link #openTypedAssetFile}. */
+    private static final String[] EXPORT_TYPES = {
+            DbContract.PetsEntry.MIME_TYPE_CSV,
+            DbContract.PetsEntry.MIME_TYPE_JSON
+    };
+
+    /** Pets read per query while exporting. */
+    private static final int EXPORT_CHUNK_SIZE = 1000;
+
+    /** Streams every pet into a pipe in the requested format. */
+    private final PipeDataWriter<Void> mExportWriter = new PipeDataWriter<Void>() {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts,
+                                    Void args) {
+            // The pipe is closed by openPipeHelper() once this returns, so only flush the stream
+            try {
+                Writer out = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(output.getFileDescriptor()), "UTF-8"), 64 * 1024);
+                exportPets(uri, PetRosterWriter.create(mimeType, out));
+            } catch (IOException e) {
+                // Most likely the reader closed its end early
+                Log.w(LOG_TAG, "Export to " + uri + " stopped", e);
+            }
+        }
+    };
+
+    private PetPhotoStore mPhotos;
+
+    private final String mDbName;
+    private final boolean mNotifyChanges;
+
+    public PetProvider() {
+        this(PetsDbHelper.DB_NAME, true);
+    }
+
+    /**
+     * A provider over another database file, for benchmarks. Attach it with
+     * {@link #attachInfo(android.content.Context, android.content.pm.ProviderInfo)} and
+     * {@link #shutdown()} it when done.
+     *
+     * @param notifyChanges whether to notify observers of the pets URIs, which would only be
+     *                      misled by changes to another database
+     */
+    PetProvider(String dbName, boolean notifyChanges) {
+        mDbName = dbName;
+        mNotifyChanges = notifyChanges;
     }
 
     @Override
     public boolean onCreate() {
-        mPetsDbHelper = new PetsDbHelper(getContext());
+        mShards = new PetShards(getContext(), mDbName, PetsDbHelper.StorageProfile.TUNED);
+        mPhotos = new PetPhotoStore(getContext(), mDbName);
+        // The first start after an upgrade has no snapshot yet, the catalog's first load will
+        // have to do without it
+        if (mNotifyChanges && !CatalogSnapshot.getFile(getContext()).exists()) {
+            refreshSnapshot(DbContract.PetsEntry.CONTENT_URI);
+        }
+        // Pets deleted shortly before the process died are still waiting to be purged
+        scheduleCompaction(DbContract.PetsEntry.UNDO_WINDOW_MILLIS);
         return true;
     }
 
+    /**
+     * Close the database. Only meant for providers created by benchmarks.
+     */
+    @Override
+    public void shutdown() {
+        // A purge scheduled for later would find the database closed
+        mMaintenance.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        mMaintenance.shutdown();
+        mFanOut.shutdown();
+        mShards.close();
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = mPetsDbHelper.getReadableDatabase();
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int rowCount = ProviderMetrics.FAILED;
+        try {
+            Cursor cursor = query(match, uri, projection, selection, selectionArgs, sortOrder);
+            // Counting a SQLite cursor would run its query here, whether or not the caller reads it
+            rowCount = ProviderMetrics.knownRowCount(cursor);
+            return cursor;
+        } finally {
+            mMetrics.record(ProviderMetrics.QUERY, match, System.nanoTime() - start, rowCount);
+        }
+    }
 
+    private Cursor query(int match, final Uri uri, String[] projection, String selection, String[] selectionArgs,
+                         final String sortOrder) {
         // This cursor will hold the result of the query
         Cursor cursor = null;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
+            case SHELTER_PETS:
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the pets table.
-                cursor = database.query(DbContract.PetsEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // could contain multiple rows of the pets table. Every shelter is queried,
+                // unless the URI names one.
+                // If the URI asks for a page, only that page is read.
+                List<PetShards.Shard> shards = getShards(match, uri);
+                if (shards.isEmpty()) {
+                    // A shelter nobody added pets to yet, which a read doesn't create
+                    cursor = emptyPetsCursor(projection);
+                } else if (uri.getQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_LIMIT) != null) {
+                    cursor = queryPetsPage(shards, uri, projection, selection, selectionArgs);
+                } else {
+                    PetFilter filter = new PetFilter(uri);
+                    ArrayList<String> args = new ArrayList<String>();
+                    StringBuilder where = new StringBuilder();
+                    appendSelection(where, args, selection, selectionArgs);
+                    filter.appendTo(where, args, true);
+                    final String whereClause = where.length() > 0 ? where.toString() : null;
+                    final String[] whereArgs = args.toArray(new String[args.size()]);
+                    cursor = queryShards(shards, projection, sortOrder, -1, new ShardQuery() {
+                        @Override
+                        public Cursor query(SQLiteDatabase database, long shelter, String[] columns) {
+                            return mSlowQueryLog.rawQuery(database, uri,
+                                    SQLiteQueryBuilder.buildQueryString(false, DbContract.PetsEntry.TABLE_NAME,
+                                            columns, whereClause, null, null, sortOrder, null),
+                                    whereArgs);
+                        }
+                    });
+                }
                 break;
             case PETS_ID:
                 // For the PET_ID code, extract out the ID from the URI.
@@ -70,18 +346,46 @@ public class PetProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = DbContract.PetsEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-
-                // This will perform a query on the pets table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(DbContract.PetsEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                //
+                // The row is served from the row cache when possible.
+                long id = ContentUris.parseId(uri);
+                cursor = queryPetById(mShards.forPet(id), uri, id, projection);
+                break;
+            case PETS_SEARCH:
+                cursor = searchPets(mShards.all(), uri,
+                        uri.getQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_SEARCH),
+                        getSearchLimit(uri), projection, selection, selectionArgs, sortOrder);
+                break;
+            case SLOW_QUERIES:
+                // Diagnostics are a snapshot, nothing notifies about them
+                return mSlowQueryLog.toCursor();
+            case METRICS:
+                return mMetrics.toCursor();
+            case STATS_GENDER:
+            case STATS_BREED:
+            case STATS_WEIGHT:
+                // Statistics change with the pets, so they share the table's notification URI
+                List<PetShards.Shard> statsShards = mShards.all();
+                if (statsShards.size() == 1) {
+                    cursor = queryStats(statsShards.get(0).helper.getReadableDatabase(), uri, match, projection,
+                            selection, selectionArgs, sortOrder);
+                } else {
+                    cursor = queryStats(statsShards, uri, match, projection, selection, sortOrder);
+                }
+                break;
+            case CHANGES:
+                // The log grows with every change to the pets, so it shares their notification URI
+                cursor = queryChanges(uri, projection, selection, selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException(R.string.unknown_uri_query + "" + uri);
         }
-        cursor.setNotificationUri(getContext().getContentResolver(), DbContract.PetsEntry.CONTENT_URI);
+        // A single pet only needs to hear about changes to that pet (and to the whole table,
+        // which observers of a row URI are told about as well).
+        Uri notificationUri = match == PETS_ID
+                ? ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, ContentUris.parseId(uri))
+                : DbContract.PetsEntry.CONTENT_URI;
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return cursor;
     }
 
@@ -91,9 +395,23 @@ public class PetProvider extends ContentProvider {
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int rowCount = ProviderMetrics.FAILED;
+        try {
+            Uri petUri = insert(match, uri, contentValues);
+            rowCount = petUri != null ? 1 : 0;
+            return petUri;
+        } finally {
+            mMetrics.record(ProviderMetrics.INSERT, match, System.nanoTime() - start, rowCount);
+        }
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues contentValues) {
         switch (match) {
             case PETS:
-                return insertPet(uri, contentValues);
+                return insertPet(mShards.getDefault(), uri, contentValues);
+            case SHELTER_PETS:
+                return insertPet(mShards.open(getShelter(uri)), uri, contentValues);
             default:
                 throw new IllegalArgumentException(R.string.insertion_not_supported_for_uri + "" + uri);
         }
@@ -105,16 +423,57 @@ public class PetProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int rowCount = ProviderMetrics.FAILED;
+        try {
+            rowCount = update(match, uri, contentValues, selection, selectionArgs);
+            return rowCount;
+        } finally {
+            mMetrics.record(ProviderMetrics.UPDATE, match, System.nanoTime() - start, rowCount);
+        }
+    }
+
+    private int update(int match, Uri uri, ContentValues contentValues, String selection,
+                       String[] selectionArgs) {
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            case PETS_ID:
+            case SHELTER_PETS: {
+                // Deleted pets can't be updated
+                selection = whereNotDeleted(selection);
+                int rowCount = 0;
+                for (PetShards.Shard shard : getShards(match, uri)) {
+                    // Look up the affected pets first, so exactly their cached rows are dropped
+                    long[] ids = selectCachedPetIds(shard, selection, selectionArgs);
+                    rowCount += updatePet(shard, contentValues, selection, selectionArgs);
+                    invalidateRows(ids);
+                }
+                if (rowCount > 0) {
+                    notifyChange(DbContract.PetsEntry.CONTENT_URI);
+                }
+                return rowCount;
+            }
+            case PETS_ID: {
                 // For the PET_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
-                selection = DbContract.PetsEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                // Saving a whole pet, as the editor does, goes through the compiled statement.
+                long id = ContentUris.parseId(uri);
+                PetShards.Shard shard = mShards.forPet(id);
+                int rowCount;
+                if (PetStatements.isFullRow(contentValues)) {
+                    checkPetValues(contentValues);
+                    rowCount = shard.statements.updateById(id, contentValues);
+                } else {
+                    selection = DbContract.PetsEntry._ID + "=? AND " + NOT_DELETED;
+                    selectionArgs = new String[] { String.valueOf(id) };
+                    rowCount = updatePet(shard, contentValues, selection, selectionArgs);
+                }
+                if (rowCount > 0) {
+                    notifyChange(ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, id));
+                }
+                invalidateRows(id);
+                return rowCount;
+            }
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -125,136 +484,1853 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-
-        // Get writeable database
-        SQLiteDatabase database = mPetsDbHelper.getWritableDatabase();
-
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int rowCount = ProviderMetrics.FAILED;
+        try {
+            rowCount = delete(match, uri, selection, selectionArgs);
+            return rowCount;
+        } finally {
+            mMetrics.record(ProviderMetrics.DELETE, match, System.nanoTime() - start, rowCount);
+        }
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
         switch (match) {
             case PETS:
-                int delCount = database.delete(DbContract.PetsEntry.TABLE_NAME, selection, selectionArgs);
+            case SHELTER_PETS:
+                // Deletes only mark the pets, even all of them, which the compactor purges later
+                // on, see DbContract.PetsEntry.COLUMN_PET_DELETED_AT. Their photos stay until then.
+                // Once all of them are purgeable, it wipes the shelter in one step and vacuums it.
+                // DbContract.METHOD_WIPE_ALL_PETS removes every pet for good in one step instead.
+                long now = System.currentTimeMillis();
+                int delCount = 0;
+                if (selection == null || selection.length() == 0) {
+                    for (PetShards.Shard shard : getShards(match, uri)) {
+                        delCount += markAllPetsDeleted(shard, now);
+                    }
+                    invalidateAllRows();
+                } else {
+                    selection = whereNotDeleted(selection);
+                    ContentValues deleted = new ContentValues(1);
+                    deleted.put(DbContract.PetsEntry.COLUMN_PET_DELETED_AT, now);
+                    for (PetShards.Shard shard : getShards(match, uri)) {
+                        // Look up the affected pets first, so exactly their cached rows are dropped
+                        long[] ids = selectCachedPetIds(shard, selection, selectionArgs);
+                        delCount += shard.helper.getWritableDatabase().update(DbContract.PetsEntry.TABLE_NAME,
+                                deleted, selection, selectionArgs);
+                        invalidateRows(ids);
+                    }
+                }
                 if (delCount > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(DbContract.PetsEntry.CONTENT_URI);
+                    scheduleCompaction(DbContract.PetsEntry.UNDO_WINDOW_MILLIS);
                 }
                 return delCount;
             case PETS_ID:
                 // For the PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = DbContract.PetsEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                int delCountId = database.delete(DbContract.PetsEntry.TABLE_NAME, selection, selectionArgs);
+                // so we know which row to delete, and mark it with the compiled statement.
+                long id = ContentUris.parseId(uri);
+                int delCountId = mShards.forPet(id).statements.deleteById(id, System.currentTimeMillis());
+                invalidateRows(id);
+                // Only this pet changed, so only its row URI is notified
                 if (delCountId > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, id));
+                    scheduleCompaction(DbContract.PetsEntry.UNDO_WINDOW_MILLIS);
                 }
                 return delCountId;
+            case PHOTO:
+                return deletePhoto(getPhotoPetId(uri));
             default:
                 throw new IllegalArgumentException("Delete is not supported for " + uri);
         }
     }
 
     /**
-     * Returns the MIME type of data for the content URI.
+     * Insert all given rows in a single transaction, reusing one compiled INSERT statement
+     * for every row with the same set of columns. Listeners are notified once at the end.
+     * The metrics count this as one insert call.
+     * <p>
+     * Unlike {@link #insert}, which returns null for a pet it can't insert, this inserts every
+     * row or none: rows are checked before anything is written, and a row that is invalid or
+     * lacks a name or gender fails the whole call with an IllegalArgumentException. Empty rows
+     * are skipped.
      */
     @Override
-    public String getType(Uri uri) {
+    public int bulkInsert(Uri uri, ContentValues[] values) {
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return DbContract.PetsEntry.CONTENT_LIST_TYPE;
-            case PETS_ID:
-                return DbContract.PetsEntry.CONTENT_ITEM_TYPE;
-            default:
-                throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
+        long start = System.nanoTime();
+        int insertCount = ProviderMetrics.FAILED;
+        try {
+            insertCount = bulkInsert(match, uri, values);
+            return insertCount;
+        } finally {
+            mMetrics.record(ProviderMetrics.INSERT, match, System.nanoTime() - start, insertCount);
         }
     }
 
-    private Uri insertPet(Uri uri, ContentValues values) {
-        // check that the name value is not null.
-        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_NAME)) {
-            String name = values.getAsString(DbContract.PetsEntry.COLUMN_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Pet requires a name");
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        PetShards.Shard shard;
+        if (match == PETS) {
+            shard = mShards.getDefault();
+        } else if (match == SHELTER_PETS) {
+            shard = mShards.open(getShelter(uri));
+        } else {
+            throw new IllegalArgumentException(R.string.insertion_not_supported_for_uri + "" + uri);
+        }
+
+        // Validate everything up front, so a bad row fails the call before anything is written
+        for (ContentValues value : values) {
+            if (value.size() > 0) {
+                checkPetValues(value);
+                checkNewPetValues(value);
             }
         }
 
-        // If the COLUMN_PET_GENDER key is present,
-        // check that the gender value is valid.
-        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_GENDER)) {
-            Integer gender = values.getAsInteger(DbContract.PetsEntry.COLUMN_PET_GENDER);
-            if (gender == null) {
-                throw new IllegalArgumentException("Pet requires valid gender");
+        SQLiteDatabase database = shard.helper.getWritableDatabase();
+        int insertCount = 0;
+        String[] statementColumns = null;
+        SQLiteStatement statement = null;
+        database.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (value.size() == 0) {
+                    Log.e(LOG_TAG, "Failed to insert empty row for " + uri);
+                    continue;
+                }
+                String[] columns = value.keySet().toArray(new String[value.size()]);
+                Arrays.sort(columns);
+                // Rows normally share their columns, so the statement is only recompiled
+                // when the column set changes.
+                if (statement == null || !Arrays.equals(columns, statementColumns)) {
+                    if (statement != null) {
+                        statement.close();
+                    }
+                    statement = database.compileStatement(buildInsertSql(columns));
+                    statementColumns = columns;
+                }
+                statement.clearBindings();
+                for (int i = 0; i < columns.length; i++) {
+                    PetStatements.bindValue(statement, i + 1, value.get(columns[i]));
+                }
+                // Throws rather than returning -1, rolling back every row, which the checks prevent
+                statement.executeInsert();
+                insertCount++;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            if (statement != null) {
+                statement.close();
             }
+            database.endTransaction();
         }
+        // New rows are never cached, this only stops reads that raced with the insert from caching
+        mRowCache.invalidate();
 
-        // If the COLUMN_PET_WEIGHT key is present,
-        // check that the weight value is valid.
-        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_WEIGHT)) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer weight = values.getAsInteger(DbContract.PetsEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight < 0) {
-                throw new IllegalArgumentException("Pet requires valid weight");
+        if (insertCount > 0) {
+            notifyChange(DbContract.PetsEntry.CONTENT_URI);
+        }
+        return insertCount;
+    }
+
+    /**
+     * Apply the given operations in a single transaction in each shelter they touch. If any
+     * operation fails, none of them are committed. The shelters' transactions are committed one
+     * after the other, and once one fails to commit the rest are rolled back. If shelters before
+     * it were committed already, a {@link PartialBatchException} tells which operations were
+     * committed. Listeners are notified once after the transactions are committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        List<PetShards.Shard> shards = getBatchShards(operations);
+        List<SQLiteDatabase> databases = new ArrayList<SQLiteDatabase>();
+        for (PetShards.Shard shard : shards) {
+            databases.add(shard.helper.getWritableDatabase());
+        }
+        ContentProviderResult[] results = null;
+        BatchChanges changes = new BatchChanges();
+        mBatch.set(changes);
+        int begun = 0;
+        int committed = 0;
+        RuntimeException commitFailure = null;
+        try {
+            for (SQLiteDatabase database : databases) {
+                database.beginTransaction();
+                begun++;
+            }
+            results = super.applyBatch(operations);
+            for (; committed < databases.size(); committed++) {
+                commitBatch(shards.get(committed), databases.get(committed));
+            }
+        } catch (RuntimeException e) {
+            if (committed == 0) {
+                throw e;
+            }
+            commitFailure = e;
+        } finally {
+            // Roll back the shelters that weren't committed. A commit that failed has already
+            // ended its transaction.
+            for (int i = committed; i < begun; i++) {
+                if (databases.get(i).inTransaction()) {
+                    databases.get(i).endTransaction();
+                }
+            }
+            mBatch.remove();
+            // The operations invalidated their rows before the transaction was committed, so a
+            // concurrent read may have cached a row from before the batch in between.
+            if (changes.allRows) {
+                mRowCache.invalidateAll();
+            } else {
+                long[] ids = new long[changes.ids.size()];
+                int i = 0;
+                for (long id : changes.ids) {
+                    ids[i++] = id;
+                }
+                mRowCache.invalidate(ids);
             }
         }
 
-        SQLiteDatabase database = mPetsDbHelper.getWritableDatabase();
-        long rowID = database.insert(DbContract.PetsEntry.TABLE_NAME, null, values);
+        if (commitFailure != null) {
+            Log.e(LOG_TAG, "Batch committed in " + committed + " of " + databases.size() + " shelters",
+                    commitFailure);
+            notifyChange(DbContract.PetsEntry.CONTENT_URI);
+            if (changes.petsDeleted) {
+                removeOrphanPhotos();
+            }
+            Set<Long> committedShelters = new HashSet<Long>();
+            for (int i = 0; i < committed; i++) {
+                committedShelters.add(shards.get(i).shelter);
+            }
+            boolean[] committedOperations = new boolean[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                committedOperations[i] = committedShelters.containsAll(
+                        getOperationShelters(operations.get(i), results[i]));
+            }
+            throw new PartialBatchException(results, committedOperations, commitFailure);
+        }
 
-        if (rowID == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        // A batch that changed a single pet keeps its row URI, so observers can update just
+        // that row. Anything more is sent as one notification for the whole table.
+        if (changes.uris.size() == 1) {
+            notifyChange(changes.uris.iterator().next());
+        } else if (changes.uris.size() > 1) {
+            notifyChange(DbContract.PetsEntry.CONTENT_URI);
+        }
+        if (changes.petsDeleted) {
+            removeOrphanPhotos();
         }
+        return results;
+    }
 
-        // notify all listeners of changes:
-        getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Commit one shelter's part of a batch. Tests override it to make a shelter fail to commit.
+     */
+    void commitBatch(PetShards.Shard shard, SQLiteDatabase database) {
+        database.setTransactionSuccessful();
+        database.endTransaction();
+    }
 
-        return ContentUris.withAppendedId(uri, rowID);
+    /**
+     * The shards the operations of a batch can write to, in shelter order, so that concurrent
+     * batches take their transactions in the same order.
+     */
+    private List<PetShards.Shard> getBatchShards(ArrayList<ContentProviderOperation> operations) {
+        TreeMap<Long, PetShards.Shard> shards = new TreeMap<Long, PetShards.Shard>();
+        for (ContentProviderOperation operation : operations) {
+            for (PetShards.Shard shard : getOperationShards(operation)) {
+                shards.put(shard.shelter, shard);
+            }
+        }
+        return new ArrayList<PetShards.Shard>(shards.values());
     }
 
-    private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    /**
+     * The shards an operation can write to. None for URIs it fails on. An insert only writes to
+     * the shelter it adds the pet to, so a batch of inserts doesn't hold up the other shelters.
+     * Before Android M an operation can't tell it is an insert, so there it reaches every
+     * shelter its URI does, like an update or delete.
+     */
+    private List<PetShards.Shard> getOperationShards(ContentProviderOperation operation) {
+        Uri uri = operation.getUri();
+        int match = sUriMatcher.match(uri);
+        if ((match == PETS || match == SHELTER_PETS) && isInsert(operation)) {
+            return Collections.singletonList(match == PETS
+                    ? mShards.getDefault()
+                    : mShards.open(getShelter(uri)));
+        }
+        switch (match) {
+            case PETS:
+            case SHELTER_PETS:
+                return getShards(match, uri);
+            case PETS_ID:
+                return Collections.singletonList(mShards.forPet(ContentUris.parseId(uri)));
+            case PHOTO:
+                return Collections.singletonList(mShards.forPet(getPhotoPetId(uri)));
+            default:
+                return Collections.emptyList();
+        }
+    }
 
-        // check that the name value is not null.
-        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_NAME)) {
-            String name = values.getAsString(DbContract.PetsEntry.COLUMN_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Pet requires a name");
+    @TargetApi(Build.VERSION_CODES.M)
+    private static boolean isInsert(ContentProviderOperation operation) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && operation.isInsert();
+    }
+
+    /**
+     * The shelters an applied operation wrote to: the inserted pet's, or every one its URI
+     * reaches.
+     */
+    private Set<Long> getOperationShelters(ContentProviderOperation operation, ContentProviderResult result) {
+        Set<Long> shelters = new HashSet<Long>();
+        if (result.uri != null) {
+            shelters.add(DbContract.PetsEntry.getShelter(ContentUris.parseId(result.uri)));
+        } else {
+            for (PetShards.Shard shard : getOperationShards(operation)) {
+                shelters.add(shard.shelter);
             }
         }
+        return shelters;
+    }
 
-        // If the COLUMN_PET_GENDER key is present,
-        // check that the gender value is valid.
-        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_GENDER)) {
-            Integer gender = values.getAsInteger(DbContract.PetsEntry.COLUMN_PET_GENDER);
-            if (gender == null) {
-                throw new IllegalArgumentException("Pet requires valid gender");
+    /**
+     * Provider methods that are not about rows. Supports {@link DbContract#METHOD_ROW_CACHE_STATS}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (DbContract.METHOD_ROW_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(DbContract.ROW_CACHE_HITS, mRowCache.hitCount());
+            stats.putInt(DbContract.ROW_CACHE_MISSES, mRowCache.missCount());
+            stats.putInt(DbContract.ROW_CACHE_EVICTIONS, mRowCache.evictionCount());
+            stats.putInt(DbContract.ROW_CACHE_SIZE, mRowCache.size());
+            stats.putInt(DbContract.ROW_CACHE_MAX_SIZE, mRowCache.maxSize());
+            return stats;
+        }
+        if (DbContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            long thresholdMillis;
+            try {
+                thresholdMillis = arg != null ? Long.parseLong(arg) : -1;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid slow query threshold " + arg);
+            }
+            mSlowQueryLog.setThresholdMillis(thresholdMillis);
+            Log.i(LOG_TAG, thresholdMillis < 0 ? "Slow query log off"
+                    : "Logging queries taking at least " + thresholdMillis + " ms");
+            return null;
+        }
+        if (DbContract.METHOD_SET_PHOTO.equals(method)) {
+            long id = parsePetId(arg);
+            Uri source = extras != null ? (Uri) extras.getParcelable(DbContract.EXTRA_PHOTO_SOURCE) : null;
+            if (source == null) {
+                throw new IllegalArgumentException("No photo source given for pet " + id);
+            }
+            setPhoto(id, source);
+            return null;
+        }
+        if (DbContract.METHOD_RESTORE_PET.equals(method)) {
+            restorePet(parsePetId(arg));
+            return null;
+        }
+        if (DbContract.METHOD_RESTORE_PETS_SINCE.equals(method)) {
+            long since;
+            try {
+                since = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid time " + arg);
             }
+            Bundle result = new Bundle();
+            result.putInt(DbContract.EXTRA_COUNT, restorePetsSince(since));
+            return result;
         }
+        if (DbContract.METHOD_WIPE_ALL_PETS.equals(method)) {
+            List<PetShards.Shard> shards = arg != null
+                    ? Collections.singletonList(mShards.open(parseShelter(arg)))
+                    : mShards.all();
+            Bundle result = new Bundle();
+            result.putInt(DbContract.EXTRA_COUNT, wipeAllPets(shards));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
 
-        // If the COLUMN_PET_WEIGHT key is present,
-        // check that the weight value is valid.
-        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_WEIGHT)) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer weight = values.getAsInteger(DbContract.PetsEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight < 0) {
-                throw new IllegalArgumentException("Pet requires valid weight");
+    private static long parseShelter(String arg) {
+        try {
+            return Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid shelter " + arg);
+        }
+    }
+
+    private static long parsePetId(String arg) {
+        try {
+            return Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid pet _ID " + arg);
+        }
+    }
+
+    /**
+     * Every pet can be streamed as CSV or JSON from {@link DbContract.PetsEntry#CONTENT_URI}.
+     */
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != PETS) {
+            return null;
+        }
+        ArrayList<String> types = new ArrayList<String>();
+        for (String type : EXPORT_TYPES) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
             }
         }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
 
-        // No need to check the breed, any value is valid (including null).
-        // If there are no values to update, then don't try to update the database
-        if (values.size() == 0) {
-            return 0;
+    /**
+     * Stream every pet from {@link DbContract.PetsEntry#CONTENT_URI} in the first export type
+     * matching the filter.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types == null) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
         }
+        return new AssetFileDescriptor(openPipeHelper(uri, types[0], opts, null, mExportWriter),
+                0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
 
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = mPetsDbHelper.getWritableDatabase();
-        // Returns the number of database rows affected by the update statement
-        int rowCount = database.update(DbContract.PetsEntry.TABLE_NAME, values, selection, selectionArgs);
-        // notify all listeners of changes:
-        if (rowCount > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Open a pet's photo or its thumbnail, see {@link DbContract.PetsEntry#buildPhotoUri}, or
+     * stream every pet from {@link DbContract.PetsEntry#CONTENT_EXPORT_URI}, for readers that
+     * can only open files, such as apps the export is shared with.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        if (match == PHOTO || match == PHOTO_THUMBNAIL) {
+            if (!"r".equals(mode)) {
+                throw new FileNotFoundException("Photos can only be read, set them with "
+                        + DbContract.METHOD_SET_PHOTO);
+            }
+            long id = getPhotoPetId(uri);
+            File file = match == PHOTO ? mPhotos.getOriginal(id) : mPhotos.getThumbnail(id);
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
         }
-        return rowCount;
+        if (match != EXPORT) {
+            throw new FileNotFoundException("No file at " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The export of " + uri + " can only be read");
+        }
+        String type;
+        try {
+            type = getExportType(uri);
+        } catch (IllegalArgumentException e) {
+            throw new FileNotFoundException(e.getMessage());
+        }
+        return openPipeHelper(uri, type, null, null, mExportWriter);
+    }
+
+    /**
+     * Returns the MIME type of data for the content URI.
+     */
+    @Override
+    public String getType(Uri uri) {
+        final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        int rowCount = ProviderMetrics.FAILED;
+        try {
+            String type = getType(match, uri);
+            rowCount = 0;
+            return type;
+        } finally {
+            mMetrics.record(ProviderMetrics.GET_TYPE, match, System.nanoTime() - start, rowCount);
+        }
+    }
+
+    private String getType(int match, Uri uri) {
+        switch (match) {
+            case PETS:
+            case PETS_SEARCH:
+                return DbContract.PetsEntry.CONTENT_LIST_TYPE;
+            case SHELTER_PETS:
+                return DbContract.PetsEntry.CONTENT_LIST_TYPE;
+            case CHANGES:
+                return DbContract.ChangesEntry.CONTENT_LIST_TYPE;
+            case PETS_ID:
+                return DbContract.PetsEntry.CONTENT_ITEM_TYPE;
+            case SLOW_QUERIES:
+                return DbContract.SlowQueryEntry.CONTENT_LIST_TYPE;
+            case METRICS:
+                return DbContract.MetricsEntry.CONTENT_LIST_TYPE;
+            case STATS_GENDER:
+            case STATS_BREED:
+                return DbContract.PetStatsEntry.CONTENT_LIST_TYPE;
+            case STATS_WEIGHT:
+                return DbContract.PetStatsEntry.CONTENT_ITEM_TYPE;
+            case EXPORT:
+                return getExportType(uri);
+            case PHOTO:
+                // Photos are stored as given, so their type is read from the file
+                return PetPhotoStore.getMimeType(mPhotos.getOriginal(getPhotoPetId(uri)));
+            case PHOTO_THUMBNAIL:
+                return DbContract.PetsEntry.THUMBNAIL_TYPE;
+            default:
+                throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
+        }
+    }
+
+    private Uri insertPet(PetShards.Shard shard, Uri uri, ContentValues values) {
+        checkPetValues(values);
+
+        // A whole pet, as the editor saves it, goes through the compiled statement
+        long rowID;
+        if (PetStatements.isFullRow(values)) {
+            rowID = shard.statements.insert(values);
+        } else {
+            SQLiteDatabase database = shard.helper.getWritableDatabase();
+            rowID = database.insert(DbContract.PetsEntry.TABLE_NAME, null, values);
+        }
+
+        if (rowID == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        invalidateRows();
+
+        // notify listeners of the new pet's row URI, which also reaches observers of the whole table:
+        Uri petUri = ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, rowID);
+        notifyChange(petUri);
+
+        return petUri;
+    }
+
+    /**
+     * Update the pets of one shelter. The caller notifies listeners.
+     */
+    private int updatePet(PetShards.Shard shard, ContentValues values, String selection, String[] selectionArgs) {
+        checkPetValues(values);
+
+        // No need to check the breed, any value is valid (including null).
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Otherwise, get writeable database to update the data
+        SQLiteDatabase database = shard.helper.getWritableDatabase();
+        // Returns the number of database rows affected by the update statement
+        return database.update(DbContract.PetsEntry.TABLE_NAME, values, selection, selectionArgs);
+    }
+
+    /**
+     * Mark every pet of a shelter deleted in one transaction, see
+     * {@link PetsDbHelper#markAllPetsDeleted}.
+     *
+     * @return the number of pets that weren't deleted yet
+     */
+    private static int markAllPetsDeleted(PetShards.Shard shard, long deletedAt) {
+        SQLiteDatabase database = shard.helper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            int count = PetsDbHelper.markAllPetsDeleted(database, deletedAt);
+            database.setTransactionSuccessful();
+            return count;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Delete every pet of the given shelters for good, deleted or not, as one operation per
+     * shelter with a single change notification, then reclaim the space they took in the
+     * background so the database files shrink back. The change log records every pet that wasn't
+     * deleted yet as deleted, so syncs pass the wipe on. See {@link DbContract#METHOD_WIPE_ALL_PETS}.
+     *
+     * @return the number of pets that weren't deleted yet
+     */
+    private int wipeAllPets(List<PetShards.Shard> shards) {
+        int delCount = 0;
+        final List<PetShards.Shard> wiped = new ArrayList<PetShards.Shard>();
+        for (PetShards.Shard shard : shards) {
+            SQLiteDatabase database = shard.helper.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                int count = (int) DatabaseUtils.queryNumEntries(database, DbContract.PetsEntry.TABLE_NAME, NOT_DELETED);
+                PetsDbHelper.wipeAllPets(database);
+                database.setTransactionSuccessful();
+                delCount += count;
+                if (count > 0) {
+                    wiped.add(shard);
+                }
+            } finally {
+                database.endTransaction();
+            }
+        }
+        invalidateAllRows();
+
+        if (delCount > 0) {
+            notifyChange(DbContract.PetsEntry.CONTENT_URI);
+            removeOrphanPhotos();
+            mMaintenance.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (PetShards.Shard shard : wiped) {
+                        try {
+                            shard.helper.reclaimSpace();
+                        } catch (RuntimeException e) {
+                            Log.e(LOG_TAG, "Failed to reclaim space after deleting all pets of shelter "
+                                    + shard.shelter, e);
+                        }
+                    }
+                }
+            });
+        }
+        return delCount;
+    }
+
+    /**
+     * Read a single pet through the row cache. Only pets that aren't deleted are read or cached. On a miss a single column is read with a compiled
+     * statement; otherwise the whole row is read and cached, and the requested columns are
+     * served from it.
+     */
+    private Cursor queryPetById(PetShards.Shard shard, Uri uri, long id, String[] projection) {
+        PetRowCache.Row row = mRowCache.get(id);
+        if (row != null && row.covers(projection)) {
+            return row.toCursor(projection);
+        }
+        if (projection != null && projection.length == 1 && PetStatements.canRead(projection[0])) {
+            return mSlowQueryLog.readColumn(shard.statements, shard.helper.getReadableDatabase(), uri, id,
+                    projection[0]);
+        }
+
+        SQLiteDatabase database = shard.helper.getReadableDatabase();
+        String[] args = { String.valueOf(id) };
+        long stamp = mRowCache.stamp();
+        Cursor cursor = mSlowQueryLog.rawQuery(database, uri,
+                SQLiteQueryBuilder.buildQueryString(false, DbContract.PetsEntry.TABLE_NAME, null,
+                        DbContract.PetsEntry._ID + "=? AND " + NOT_DELETED, null, null, null, null),
+                args);
+        try {
+            if (!cursor.moveToFirst()) {
+                return new MatrixCursor(projection != null ? projection : cursor.getColumnNames(), 0);
+            }
+            row = new PetRowCache.Row(cursor);
+        } finally {
+            cursor.close();
+        }
+        mRowCache.putIfUnchanged(id, row, stamp);
+
+        if (row.covers(projection)) {
+            return row.toCursor(projection);
+        }
+        // The projection asks for something other than plain columns, let SQLite compute it
+        return mSlowQueryLog.rawQuery(database, uri,
+                SQLiteQueryBuilder.buildQueryString(false, DbContract.PetsEntry.TABLE_NAME, projection,
+                        DbContract.PetsEntry._ID + "=? AND " + NOT_DELETED, null, null, null, null),
+                args);
+    }
+
+    /**
+     * _IDs of the pets matching the selection, read before a multi-row write so that exactly
+     * their cached rows can be dropped after it. Empty if nothing is cached, unless a batch is in
+     * progress: rows may still get cached before the batch commits and drops them again.
+     */
+    private long[] selectCachedPetIds(PetShards.Shard shard, String selection, String[] selectionArgs) {
+        if (mRowCache.size() == 0 && mBatch.get() == null) {
+            return new long[0];
+        }
+        Cursor cursor = shard.helper.getReadableDatabase().query(DbContract.PetsEntry.TABLE_NAME,
+                new String[] { DbContract.PetsEntry._ID }, selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read one page of pets using the keyset given in the URI query parameters. The page is
+     * ordered by (sort column, _ID) and starts right after the given key, so every page is an
+     * index range scan no matter how deep into the table it is. The index is named in the query,
+     * see {@link PetFilter#getPageIndex(String)}, so a page can never fall back to scanning and
+     * sorting the table: if the index can't serve it, the query fails instead. Every shelter
+     * reads its own page, and the page is the first rows of their merged pages.
+     */
+    private Cursor queryPetsPage(List<PetShards.Shard> shards, final Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs) {
+        String sortColumn = uri.getQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_SORT);
+        if (sortColumn == null) {
+            sortColumn = DbContract.PetsEntry._ID;
+        } else if (!Arrays.asList(PAGED_SORT_COLUMNS).contains(sortColumn)) {
+            throw new IllegalArgumentException("Cannot page on column " + sortColumn + " for " + uri);
+        }
+
+        int pageSize;
+        try {
+            pageSize = Integer.parseInt(uri.getQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_LIMIT));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page size for " + uri);
+        }
+
+        PetFilter filter = new PetFilter(uri);
+        String index = filter.getPageIndex(sortColumn);
+
+        String afterValue = uri.getQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_AFTER);
+        // In weight order, the lower end of a weight range and the page key are both lower bounds
+        // on the weight. SQLite only seeks the index to one of them, which may be the lower one,
+        // so only the higher one is kept.
+        boolean minWeightBound = true;
+        if (afterValue != null && filter.minWeight != null
+                && sortColumn.equals(DbContract.PetsEntry.COLUMN_PET_WEIGHT)) {
+            int afterWeight;
+            try {
+                afterWeight = Integer.parseInt(afterValue);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page key for " + uri);
+            }
+            if (afterWeight < Integer.parseInt(filter.minWeight)) {
+                // Every pet in the range comes after the key
+                afterValue = null;
+            } else {
+                minWeightBound = false;
+            }
+        }
+
+        ArrayList<String> args = new ArrayList<String>();
+        StringBuilder where = new StringBuilder();
+        appendSelection(where, args, selection, selectionArgs);
+        filter.appendTo(where, args, minWeightBound);
+
+        if (afterValue != null) {
+            String afterId = uri.getQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_AFTER_ID);
+            if (afterId == null) {
+                throw new IllegalArgumentException("Page key is missing an _id for " + uri);
+            }
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            if (sortColumn.equals(DbContract.PetsEntry._ID)) {
+                where.append(DbContract.PetsEntry._ID).append(" > ?");
+                args.add(afterValue);
+            } else {
+                // Written as a range on the sort column rather than "a > ? OR (a = ? AND _id > ?)",
+                // so SQLite can walk the sort column's index instead of sorting the remaining rows.
+                where.append(sortColumn).append(" >= ? AND (")
+                        .append(sortColumn).append(" > ? OR ")
+                        .append(DbContract.PetsEntry._ID).append(" > ?)");
+                args.add(afterValue);
+                args.add(afterValue);
+                args.add(afterId);
+            }
+        }
+
+        final String orderBy = sortColumn.equals(DbContract.PetsEntry._ID)
+                ? DbContract.PetsEntry._ID
+                : sortColumn + ", " + DbContract.PetsEntry._ID;
+        final String table = DbContract.PetsEntry.TABLE_NAME + " INDEXED BY " + index;
+        final String whereClause = where.length() > 0 ? where.toString() : null;
+        final String[] whereArgs = args.toArray(new String[args.size()]);
+        final String limit = String.valueOf(pageSize);
+        return queryShards(shards, projection, orderBy, pageSize, new ShardQuery() {
+            @Override
+            public Cursor query(SQLiteDatabase database, long shelter, String[] columns) {
+                return mSlowQueryLog.rawQuery(database, uri,
+                        SQLiteQueryBuilder.buildQueryString(false, table, columns, whereClause, null, null,
+                                orderBy, limit),
+                        whereArgs);
+            }
+        });
+    }
+
+    /**
+     * Read the latest change of every pet changed after the given sequence numbers, see
+     * {@link DbContract.ChangesEntry#CONTENT_URI}. Every shelter reads its own log from its own
+     * sequence number, through the log's primary key, and the pet's latest change is found
+     * through {@link PetsDbHelper#INDEX_CHANGE_PET}. The shelters' changes are merged in sequence
+     * order, which is shelter order. The selection filters the changes by their columns.
+     */
+    private Cursor queryChanges(final Uri uri, String[] projection, final String selection,
+                                String[] selectionArgs) {
+        // The last sequence number seen of each shelter; a shelter's numbers start with it
+        final TreeMap<Long, Long> since = new TreeMap<Long, Long>();
+        for (String value : uri.getQueryParameters(DbContract.ChangesEntry.QUERY_PARAMETER_SINCE)) {
+            long seq;
+            try {
+                seq = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid sequence number " + value + " for " + uri);
+            }
+            Long shelter = DbContract.PetsEntry.getShelter(seq);
+            Long previous = since.get(shelter);
+            if (previous == null || previous < seq) {
+                since.put(shelter, seq);
+            }
+        }
+        int limit = -1;
+        String limitValue = uri.getQueryParameter(DbContract.ChangesEntry.QUERY_PARAMETER_LIMIT);
+        if (limitValue != null) {
+            try {
+                limit = Integer.parseInt(limitValue);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit for " + uri);
+            }
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Invalid limit for " + uri);
+            }
+        }
+
+        String pets = DbContract.PetsEntry.TABLE_NAME;
+        String changes = DbContract.ChangesEntry.TABLE_NAME;
+        String seq = DbContract.ChangesEntry.COLUMN_SEQ;
+        String petId = DbContract.ChangesEntry.COLUMN_PET_ID;
+        String id = DbContract.PetsEntry._ID;
+        // A pet that was purged since is as deleted as one that is only marked
+        final String latestChanges = "SELECT c." + seq + " AS " + seq + ", c." + petId + " AS " + id +
+                ", p." + DbContract.PetsEntry.COLUMN_PET_NAME + " AS " + DbContract.PetsEntry.COLUMN_PET_NAME +
+                ", p." + DbContract.PetsEntry.COLUMN_PET_BREED + " AS " + DbContract.PetsEntry.COLUMN_PET_BREED +
+                ", p." + DbContract.PetsEntry.COLUMN_PET_GENDER + " AS " + DbContract.PetsEntry.COLUMN_PET_GENDER +
+                ", p." + DbContract.PetsEntry.COLUMN_PET_WEIGHT + " AS " + DbContract.PetsEntry.COLUMN_PET_WEIGHT +
+                ", (p." + id + " IS NULL OR p." + DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " != 0) AS " +
+                DbContract.ChangesEntry.COLUMN_DELETED +
+                " FROM " + changes + " c LEFT JOIN " + pets + " p ON p." + id + " = c." + petId +
+                " WHERE c." + seq + " > ? AND NOT EXISTS (SELECT 1 FROM " + changes + " l INDEXED BY " +
+                PetsDbHelper.INDEX_CHANGE_PET + " WHERE l." + petId + " = c." + petId + " AND l." + seq +
+                " > c." + seq + ")";
+        final String limitClause = limit > 0 ? String.valueOf(limit) : null;
+        final String[] filterArgs = selectionArgs != null ? selectionArgs : new String[0];
+        return queryShards(mShards.all(), projection, seq, limit, new ShardQuery() {
+            @Override
+            public Cursor query(SQLiteDatabase database, long shelter, String[] columns) {
+                Long after = since.get(shelter);
+                // The sequence number's argument comes first, it is bound in the FROM clause
+                String[] args = new String[1 + filterArgs.length];
+                args[0] = String.valueOf(after != null ? after : 0);
+                System.arraycopy(filterArgs, 0, args, 1, filterArgs.length);
+                return mSlowQueryLog.rawQuery(database, uri,
+                        SQLiteQueryBuilder.buildQueryString(false, "(" + latestChanges + ")", columns, selection,
+                                null, null, DbContract.ChangesEntry.COLUMN_SEQ, limitClause),
+                        args);
+            }
+        });
+    }
+
+    /**
+     * A query of one shelter's database, see {@link #queryShards}.
+     */
+    private interface ShardQuery {
+        /**
+         * @param shelter the shelter whose database it is
+         * @param columns the caller's projection, with the sort columns appended when the rows
+         *                of several shelters are merged
+         */
+        Cursor query(SQLiteDatabase database, long shelter, String[] columns);
+    }
+
+    /**
+     * Run a query in every given shelter and merge their rows in the given order, which each
+     * shelter's query sorts its own rows in. A single shelter is queried on the calling thread.
+     * Several are queried in parallel on {@link #mFanOut}, where each query also runs by counting
+     * its rows, and their rows are merged as the returned cursor is read, see
+     * {@link SortedMergeCursor}.
+     * <p>
+     * Counting is what runs a SQLite query, so it is done here on the fan-out threads rather than
+     * on first read, where the shelters would run one after the other. It reads each shelter's
+     * whole result though, however little of the merge is read: callers that only need some rows
+     * pass their limit both here and to each shelter's query. Only unpaged queries of
+     * {@link DbContract.PetsEntry#CONTENT_URI}, which ask for every row anyway, and searches
+     * without a limit go without.
+     *
+     * @param orderBy order of the rows, which must only name columns to merge several shelters
+     * @param limit   most rows to return, which each shelter's query already returns no more
+     *                than, or -1
+     */
+    private Cursor queryShards(List<PetShards.Shard> shards, String[] projection, String orderBy, int limit,
+                               final ShardQuery query) {
+        if (shards.size() == 1) {
+            return query.query(shards.get(0).helper.getReadableDatabase(), shards.get(0).shelter, projection);
+        }
+        SortedMergeCursor.SortKey[] keys = SortedMergeCursor.parseOrder(orderBy);
+        final String[] columns = SortedMergeCursor.withSortColumns(projection, keys);
+        List<Future<Cursor>> futures = new ArrayList<Future<Cursor>>(shards.size());
+        for (final PetShards.Shard shard : shards) {
+            futures.add(mFanOut.submit(new Callable<Cursor>() {
+                @Override
+                public Cursor call() {
+                    Cursor cursor = query.query(shard.helper.getReadableDatabase(), shard.shelter, columns);
+                    try {
+                        cursor.getCount();
+                    } catch (RuntimeException e) {
+                        cursor.close();
+                        throw e;
+                    }
+                    return cursor;
+                }
+            }));
+        }
+
+        Cursor[] cursors = new Cursor[futures.size()];
+        boolean merged = false;
+        try {
+            for (int i = 0; i < cursors.length; i++) {
+                cursors[i] = futures.get(i).get();
+            }
+            int hiddenColumns = projection != null ? columns.length - projection.length : 0;
+            Cursor cursor = new SortedMergeCursor(cursors, keys, hiddenColumns, limit);
+            merged = true;
+            return cursor;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying the shelters", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to query the shelters", e.getCause());
+        } finally {
+            if (!merged) {
+                closeCursors(futures);
+            }
+        }
+    }
+
+    /**
+     * Close the cursors of a fan-out that failed, once their queries are done.
+     */
+    private static void closeCursors(List<Future<Cursor>> futures) {
+        for (Future<Cursor> future : futures) {
+            try {
+                future.get().close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // Nothing to close
+            }
+        }
+    }
+
+    /**
+     * The shelters a PETS or SHELTER_PETS URI reaches: every shelter, or the one it names. A
+     * shelter whose database doesn't exist yet has no pets to read, update or delete, so it is
+     * left out rather than created; only inserts create a shelter, see {@link PetShards#open}.
+     */
+    private List<PetShards.Shard> getShards(int match, Uri uri) {
+        if (match == SHELTER_PETS) {
+            PetShards.Shard shard = mShards.find(getShelter(uri));
+            return shard != null ? Collections.singletonList(shard) : Collections.<PetShards.Shard>emptyList();
+        }
+        return mShards.all();
+    }
+
+    /**
+     * A cursor without rows over the columns a query of the pets would return. The default
+     * shelter always exists, so its table names the columns when the projection doesn't.
+     */
+    private Cursor emptyPetsCursor(String[] projection) {
+        if (projection != null) {
+            return new MatrixCursor(projection, 0);
+        }
+        Cursor columns = mShards.getDefault().helper.getReadableDatabase().query(DbContract.PetsEntry.TABLE_NAME,
+                null, "0", null, null, null, null);
+        try {
+            return new MatrixCursor(columns.getColumnNames(), 0);
+        } finally {
+            columns.close();
+        }
+    }
+
+    /**
+     * Shelter of a SHELTER_PETS URI, shelters/#/pets.
+     */
+    private static long getShelter(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * The selection narrowed to pets that aren't deleted.
+     */
+    private static String whereNotDeleted(String selection) {
+        if (selection == null || selection.length() == 0) {
+            return NOT_DELETED;
+        }
+        return "(" + selection + ") AND " + NOT_DELETED;
+    }
+
+    private static void appendSelection(StringBuilder where, ArrayList<String> args, String selection,
+                                        String[] selectionArgs) {
+        if (selection != null && selection.length() > 0) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+    }
+
+    /**
+     * The gender and weight filters of a PETS URI, see
+     * {@link DbContract.PetsEntry#QUERY_PARAMETER_GENDER}. The values are checked to be numbers
+     * and always bound as arguments.
+     */
+    private static final class PetFilter {
+        final String gender;
+        final String minWeight;
+        final String maxWeight;
+
+        PetFilter(Uri uri) {
+            gender = getNumber(uri, DbContract.PetsEntry.QUERY_PARAMETER_GENDER);
+            minWeight = getNumber(uri, DbContract.PetsEntry.QUERY_PARAMETER_MIN_WEIGHT);
+            maxWeight = getNumber(uri, DbContract.PetsEntry.QUERY_PARAMETER_MAX_WEIGHT);
+        }
+
+        private static String getNumber(Uri uri, String parameter) {
+            String value = uri.getQueryParameter(parameter);
+            if (value == null) {
+                return null;
+            }
+            try {
+                return String.valueOf(Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + parameter + " for " + uri);
+            }
+        }
+
+        boolean hasWeightRange() {
+            return minWeight != null || maxWeight != null;
+        }
+
+        /**
+         * Append the filter, which always leaves out deleted pets.
+         *
+         * @param minWeightBound false to leave out the lower end of the weight range, for a
+         *                       caller that bounds the weight from below itself
+         */
+        void appendTo(StringBuilder where, ArrayList<String> args, boolean minWeightBound) {
+            appendTerm(where, NOT_DELETED);
+            if (gender != null) {
+                appendTerm(where, DbContract.PetsEntry.COLUMN_PET_GENDER + " = ?");
+                args.add(gender);
+            }
+            if (minWeight != null && minWeightBound) {
+                appendTerm(where, DbContract.PetsEntry.COLUMN_PET_WEIGHT + " >= ?");
+                args.add(minWeight);
+            }
+            if (maxWeight != null) {
+                appendTerm(where, DbContract.PetsEntry.COLUMN_PET_WEIGHT + " <= ?");
+                args.add(maxWeight);
+            }
+        }
+
+        private static void appendTerm(StringBuilder where, String term) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(term);
+        }
+
+        /**
+         * The index whose order, after the filter's equalities, is (sort column, _ID), so a page is
+         * a range scan of it. Every index starts with the deleted time, see
+         * {@link PetsDbHelper#INDEX_PET_DELETED}.
+         *
+         * @throws IllegalArgumentException for a weight range in another order than weight,
+         *                                  which no index can both narrow and order
+         */
+        String getPageIndex(String sortColumn) {
+            if (DbContract.PetsEntry.COLUMN_PET_WEIGHT.equals(sortColumn)) {
+                return gender != null ? PetsDbHelper.INDEX_PET_GENDER_WEIGHT : PetsDbHelper.INDEX_PET_WEIGHT;
+            }
+            if (hasWeightRange()) {
+                throw new IllegalArgumentException("A weight range can only be paged in weight order, not by "
+                        + sortColumn);
+            }
+            if (DbContract.PetsEntry.COLUMN_PET_NAME.equals(sortColumn)) {
+                return gender != null ? PetsDbHelper.INDEX_PET_GENDER_NAME : PetsDbHelper.INDEX_PET_NAME;
+            }
+            return gender != null ? PetsDbHelper.INDEX_PET_GENDER : PetsDbHelper.INDEX_PET_DELETED;
+        }
+    }
+
+    /**
+     * Write every pet in _ID order, reading them in chunks with the _ID of the last pet as the
+     * key of the next chunk. Only one chunk is in memory at a time, and no read transaction is
+     * held open between chunks, so saves aren't held up by a long export. The shelters are
+     * exported one after the other, which keeps the _ID order since _IDs start with the shelter.
+     */
+    private void exportPets(Uri uri, PetRosterWriter writer) throws IOException {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, DbContract.PetsEntry.TABLE_NAME,
+                PetRosterWriter.COLUMNS, DbContract.PetsEntry._ID + " > ? AND " + NOT_DELETED, null, null,
+                DbContract.PetsEntry._ID, String.valueOf(EXPORT_CHUNK_SIZE));
+        String[] args = new String[1];
+        writer.begin();
+        for (PetShards.Shard shard : mShards.all()) {
+            SQLiteDatabase database = shard.helper.getReadableDatabase();
+            long lastId = 0;
+            int rows;
+            do {
+                args[0] = String.valueOf(lastId);
+                Cursor cursor = mSlowQueryLog.rawQuery(database, uri, sql, args);
+                try {
+                    rows = 0;
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        writer.writePet(lastId, cursor.getString(1), cursor.getString(2),
+                                cursor.getInt(3), cursor.getInt(4));
+                        rows++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } while (rows == EXPORT_CHUNK_SIZE);
+        }
+        writer.end();
+    }
+
+    /**
+     * Store a pet's photo and its thumbnail, then record when it was set. The row is updated last,
+     * so a reader that sees the new photo version finds the new files.
+     */
+    private void setPhoto(long id, Uri source) {
+        SQLiteDatabase database = mShards.forPet(id).helper.getWritableDatabase();
+        String[] idArgs = { String.valueOf(id) };
+        String selection = DbContract.PetsEntry._ID + "=? AND " + NOT_DELETED;
+        if (DatabaseUtils.queryNumEntries(database, DbContract.PetsEntry.TABLE_NAME, selection, idArgs) == 0) {
+            throw new IllegalArgumentException("No pet with _ID " + id);
+        }
+        try {
+            InputStream in = getContext().getContentResolver().openInputStream(source);
+            if (in == null) {
+                throw new FileNotFoundException("Could not open " + source);
+            }
+            try {
+                mPhotos.save(id, in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read a photo from " + source, e);
+        }
+
+        ContentValues values = new ContentValues(1);
+        values.put(DbContract.PetsEntry.COLUMN_PET_PHOTO_VERSION, System.currentTimeMillis());
+        int rowCount = database.update(DbContract.PetsEntry.TABLE_NAME, values, selection, idArgs);
+        invalidateRows(id);
+        if (rowCount == 0) {
+            mPhotos.delete(id);
+            throw new IllegalArgumentException("Pet " + id + " was deleted while its photo was saved");
+        }
+        notifyChange(ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, id));
+    }
+
+    /**
+     * Remove a pet's photo.
+     *
+     * @return 1 if the pet had a photo, 0 otherwise
+     */
+    private int deletePhoto(long id) {
+        ContentValues values = new ContentValues(1);
+        values.putNull(DbContract.PetsEntry.COLUMN_PET_PHOTO_VERSION);
+        int rowCount = mShards.forPet(id).helper.getWritableDatabase().update(DbContract.PetsEntry.TABLE_NAME, values,
+                DbContract.PetsEntry._ID + "=? AND " + DbContract.PetsEntry.COLUMN_PET_PHOTO_VERSION + " IS NOT NULL",
+                new String[] { String.valueOf(id) });
+        invalidateRows(id);
+        mPhotos.delete(id);
+        if (rowCount > 0) {
+            notifyChange(ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, id));
+        }
+        return rowCount;
+    }
+
+    /**
+     * Bring back a pet that was marked deleted and hasn't been purged yet.
+     */
+    private void restorePet(long id) {
+        int rowCount = mShards.forPet(id).statements.restoreById(id);
+        invalidateRows(id);
+        if (rowCount == 0) {
+            throw new IllegalArgumentException("Pet " + id + " isn't deleted or was already purged");
+        }
+        notifyChange(ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, id));
+    }
+
+    /**
+     * Bring back every pet deleted at or after the given time that isn't purged yet, see
+     * {@link DbContract#METHOD_RESTORE_PETS_SINCE}.
+     */
+    private int restorePetsSince(long since) {
+        ContentValues restored = new ContentValues(1);
+        restored.put(DbContract.PetsEntry.COLUMN_PET_DELETED_AT, 0);
+        String[] args = { String.valueOf(since) };
+        int rowCount = 0;
+        for (PetShards.Shard shard : mShards.all()) {
+            rowCount += shard.helper.getWritableDatabase().update(DbContract.PetsEntry.TABLE_NAME, restored,
+                    DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " >= ?", args);
+        }
+        // Deleted pets are never cached, this only stops reads that raced with the restore
+        invalidateAllRows();
+        if (rowCount > 0) {
+            notifyChange(DbContract.PetsEntry.CONTENT_URI);
+        }
+        return rowCount;
+    }
+
+    /**
+     * Purge the pets deleted more than {@link DbContract.PetsEntry#UNDO_WINDOW_MILLIS} ago, after
+     * the given delay. Deletes made while a purge is scheduled share it, and it schedules the
+     * next one for the pets it has to leave.
+     */
+    private void scheduleCompaction(long delayMillis) {
+        if (!mCompactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        mMaintenance.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mCompactionScheduled.set(false);
+                try {
+                    compactDeletedPets();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to purge deleted pets", e);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Remove the pets deleted before the undo window for good, with their photos, in transactions
+     * of {@link #COMPACTION_BATCH_SIZE} pets found through {@link PetsDbHelper#INDEX_PET_DELETED},
+     * one shelter after the other. A shelter left with nothing but such pets, as after deleting
+     * all pets, is emptied in one step instead, see {@link PetsDbHelper#wipeAllPets}. Every
+     * shelter that lost pets then gives their space back to the file system. Nobody is notified:
+     * queries didn't see these pets anymore.
+     */
+    private void compactDeletedPets() {
+        String deletedAt = DbContract.PetsEntry.COLUMN_PET_DELETED_AT;
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                DbContract.PetsEntry.TABLE_NAME + " INDEXED BY " + PetsDbHelper.INDEX_PET_DELETED,
+                new String[] { DbContract.PetsEntry._ID }, deletedAt + " > 0 AND " + deletedAt + " <= ?",
+                null, null, null, String.valueOf(COMPACTION_BATCH_SIZE));
+        String[] args = { String.valueOf(System.currentTimeMillis() - DbContract.PetsEntry.UNDO_WINDOW_MILLIS) };
+        long oldest = 0;
+        for (PetShards.Shard shard : mShards.all()) {
+            SQLiteDatabase database = shard.helper.getWritableDatabase();
+            List<Long> purged = new ArrayList<Long>();
+            boolean wiped = false;
+            int rows;
+            do {
+                rows = 0;
+                database.beginTransaction();
+                try {
+                    if (purged.isEmpty() && isOnlyExpiredPets(database, args)) {
+                        // Nothing left to keep: skip the per-row triggers of purging pet by pet
+                        PetsDbHelper.wipeAllPets(database);
+                        wiped = true;
+                    } else {
+                        Cursor cursor = database.rawQuery(sql, args);
+                        try {
+                            while (cursor.moveToNext()) {
+                                long id = cursor.getLong(0);
+                                if (shard.statements.purgeById(id) > 0) {
+                                    purged.add(id);
+                                }
+                                rows++;
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+            } while (rows == COMPACTION_BATCH_SIZE);
+
+            for (long id : purged) {
+                mPhotos.delete(id);
+            }
+            if (wiped) {
+                removeOrphanPhotos();
+            }
+            if (wiped || !purged.isEmpty()) {
+                try {
+                    shard.helper.reclaimSpace();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to reclaim space after purging pets of shelter " + shard.shelter, e);
+                }
+            }
+
+            long shardOldest = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MIN(" + deletedAt + "), 0) FROM " +
+                    DbContract.PetsEntry.TABLE_NAME + " WHERE " + deletedAt + " > 0", null);
+            if (shardOldest > 0 && (oldest == 0 || shardOldest < oldest)) {
+                oldest = shardOldest;
+            }
+        }
+        if (oldest > 0) {
+            scheduleCompaction(Math.max(0,
+                    oldest + DbContract.PetsEntry.UNDO_WINDOW_MILLIS - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Whether a shelter holds pets, all of them deleted before the given undo window cutoff.
+     */
+    private static boolean isOnlyExpiredPets(SQLiteDatabase database, String[] cutoffArgs) {
+        String deletedAt = DbContract.PetsEntry.COLUMN_PET_DELETED_AT;
+        return DatabaseUtils.queryNumEntries(database, DbContract.PetsEntry.TABLE_NAME) > 0
+                && DatabaseUtils.queryNumEntries(database, DbContract.PetsEntry.TABLE_NAME,
+                        deletedAt + " = 0 OR " + deletedAt + " > ?", cutoffArgs) == 0;
+    }
+
+    /**
+     * Delete, in the background, the photos of pets that no longer exist, for deletes whose pets
+     * aren't known. Pets marked deleted keep theirs, so restoring them brings their photo back.
+     * Inside a batch this waits for the batch to be committed.
+     */
+    private void removeOrphanPhotos() {
+        BatchChanges batch = mBatch.get();
+        if (batch != null) {
+            batch.petsDeleted = true;
+            return;
+        }
+        mMaintenance.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long pets = 0;
+                    for (PetShards.Shard shard : mShards.all()) {
+                        pets += DatabaseUtils.queryNumEntries(shard.helper.getReadableDatabase(),
+                                DbContract.PetsEntry.TABLE_NAME);
+                    }
+                    if (pets == 0) {
+                        mPhotos.deleteAll();
+                        return;
+                    }
+                    String[] idArgs = new String[1];
+                    for (long id : mPhotos.ids()) {
+                        idArgs[0] = String.valueOf(id);
+                        if (DatabaseUtils.queryNumEntries(mShards.forPet(id).helper.getReadableDatabase(),
+                                DbContract.PetsEntry.TABLE_NAME, DbContract.PetsEntry._ID + "=?", idArgs) == 0) {
+                            mPhotos.delete(id);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to remove the photos of deleted pets", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * _ID of the pet a photo or thumbnail URI belongs to, pets/#/photo[/thumbnail].
+     */
+    private static long getPhotoPetId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Type of an export URI, from its format query parameter.
+     */
+    private static String getExportType(Uri uri) {
+        String format = uri.getQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_FORMAT);
+        if (format == null || format.equals(DbContract.PetsEntry.FORMAT_CSV)) {
+            return DbContract.PetsEntry.MIME_TYPE_CSV;
+        }
+        if (format.equals(DbContract.PetsEntry.FORMAT_JSON)) {
+            return DbContract.PetsEntry.MIME_TYPE_JSON;
+        }
+        throw new IllegalArgumentException("Unknown export format " + format + " for " + uri);
+    }
+
+    /**
+     * Read aggregate statistics. Counts and weight sums come from the summary tables, minimum and
+     * maximum weights from single lookups in the weight indexes, so none of this scans the pets.
+     * The statistics are wrapped in a subquery so the caller's projection, selection and sort
+     * order apply to their columns.
+     */
+    private Cursor queryStats(SQLiteDatabase database, Uri uri, int match, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        String pets = DbContract.PetsEntry.TABLE_NAME;
+        String genders = DbContract.PetStatsEntry.GENDER_TABLE_NAME;
+        String gender = DbContract.PetsEntry.COLUMN_PET_GENDER;
+        String weight = DbContract.PetsEntry.COLUMN_PET_WEIGHT;
+        String count = DbContract.PetStatsEntry.COLUMN_COUNT;
+        String weightSum = DbContract.PetStatsEntry.COLUMN_WEIGHT_SUM;
+
+        String stats;
+        String defaultOrder;
+        switch (match) {
+            case STATS_GENDER:
+                // MIN and MAX each need their own subquery to be answered from the index
+                stats = "SELECT g." + gender + " AS " + DbContract.PetStatsEntry.COLUMN_GENDER +
+                        ", g." + count + " AS " + count +
+                        ", (SELECT MIN(" + weight + ") FROM " + pets + " WHERE " + NOT_DELETED +
+                        " AND " + gender + " = g." + gender + ") AS " + DbContract.PetStatsEntry.COLUMN_MIN_WEIGHT +
+                        ", g." + weightSum + " * 1.0 / g." + count +
+                        " AS " + DbContract.PetStatsEntry.COLUMN_AVG_WEIGHT +
+                        ", (SELECT MAX(" + weight + ") FROM " + pets + " WHERE " + NOT_DELETED +
+                        " AND " + gender + " = g." + gender + ") AS " + DbContract.PetStatsEntry.COLUMN_MAX_WEIGHT +
+                        " FROM " + genders + " g";
+                defaultOrder = DbContract.PetStatsEntry.COLUMN_GENDER;
+                break;
+            case STATS_BREED:
+                stats = "SELECT NULLIF(" + DbContract.PetsEntry.COLUMN_PET_BREED + ", '') AS " +
+                        DbContract.PetStatsEntry.COLUMN_BREED + ", " + count + " AS " + count +
+                        " FROM " + DbContract.PetStatsEntry.BREED_TABLE_NAME;
+                defaultOrder = count + " DESC, " + DbContract.PetStatsEntry.COLUMN_BREED;
+                break;
+            default:
+                stats = "SELECT (SELECT IFNULL(SUM(" + count + "), 0) FROM " + genders + ") AS " + count +
+                        ", (SELECT MIN(" + weight + ") FROM " + pets + " WHERE " + NOT_DELETED +
+                        ") AS " + DbContract.PetStatsEntry.COLUMN_MIN_WEIGHT +
+                        ", (SELECT SUM(" + weightSum + ") * 1.0 / SUM(" + count + ") FROM " + genders +
+                        ") AS " + DbContract.PetStatsEntry.COLUMN_AVG_WEIGHT +
+                        ", (SELECT MAX(" + weight + ") FROM " + pets + " WHERE " + NOT_DELETED +
+                        ") AS " + DbContract.PetStatsEntry.COLUMN_MAX_WEIGHT;
+                defaultOrder = null;
+                break;
+        }
+        return mSlowQueryLog.rawQuery(database, uri,
+                SQLiteQueryBuilder.buildQueryString(false, "(" + stats + ")", projection, selection,
+                        null, null, sortOrder != null ? sortOrder : defaultOrder, null),
+                selectionArgs);
+    }
+
+    /**
+     * Statistics of several shelters, combined from each shelter's own: counts and weight sums add
+     * up, and the lightest and heaviest pets are the lightest and heaviest of any shelter. They
+     * come in the default order of {@link #queryStats(SQLiteDatabase, Uri, int, String[], String,
+     * String[], String)}; the caller can pick columns, but not filter or sort them.
+     */
+    private Cursor queryStats(List<PetShards.Shard> shards, Uri uri, int match, String[] projection,
+                              String selection, String sortOrder) {
+        if (selection != null || sortOrder != null) {
+            throw new IllegalArgumentException("Statistics of several shelters can't be filtered or sorted: "
+                    + uri);
+        }
+        String[] columns;
+        switch (match) {
+            case STATS_GENDER:
+                columns = new String[] { DbContract.PetStatsEntry.COLUMN_GENDER,
+                        DbContract.PetStatsEntry.COLUMN_COUNT, DbContract.PetStatsEntry.COLUMN_MIN_WEIGHT,
+                        DbContract.PetStatsEntry.COLUMN_AVG_WEIGHT, DbContract.PetStatsEntry.COLUMN_MAX_WEIGHT };
+                break;
+            case STATS_BREED:
+                columns = new String[] { DbContract.PetStatsEntry.COLUMN_BREED,
+                        DbContract.PetStatsEntry.COLUMN_COUNT };
+                break;
+            default:
+                columns = new String[] { DbContract.PetStatsEntry.COLUMN_COUNT,
+                        DbContract.PetStatsEntry.COLUMN_MIN_WEIGHT, DbContract.PetStatsEntry.COLUMN_AVG_WEIGHT,
+                        DbContract.PetStatsEntry.COLUMN_MAX_WEIGHT };
+                break;
+        }
+        // Weight statistics are a single row. Gender and breed rows are keyed by their first
+        // column; pets without a breed are kept under ''.
+        boolean keyed = match != STATS_WEIGHT;
+        TreeMap<Object, StatsTotal> totals = new TreeMap<Object, StatsTotal>();
+        if (!keyed) {
+            totals.put("", new StatsTotal(null));
+        }
+        for (PetShards.Shard shard : shards) {
+            Cursor cursor = queryStats(shard.helper.getReadableDatabase(), uri, match, columns, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    Object key = "";
+                    if (match == STATS_GENDER) {
+                        key = cursor.getLong(0);
+                    } else if (match == STATS_BREED && !cursor.isNull(0)) {
+                        key = cursor.getString(0);
+                    }
+                    StatsTotal total = totals.get(key);
+                    if (total == null) {
+                        total = new StatsTotal("".equals(key) ? null : key);
+                        totals.put(key, total);
+                    }
+                    total.add(cursor, keyed ? 1 : 0, match != STATS_BREED);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        List<StatsTotal> rows = new ArrayList<StatsTotal>(totals.values());
+        if (match == STATS_BREED) {
+            // Most pets first, then by breed, which the keys already are in
+            Collections.sort(rows, new Comparator<StatsTotal>() {
+                @Override
+                public int compare(StatsTotal a, StatsTotal b) {
+                    return a.count > b.count ? -1 : (a.count == b.count ? 0 : 1);
+                }
+            });
+        }
+        String[] resultColumns = projection != null ? projection : columns;
+        int[] sources = new int[resultColumns.length];
+        for (int i = 0; i < resultColumns.length; i++) {
+            sources[i] = Arrays.asList(columns).indexOf(resultColumns[i]);
+            if (sources[i] < 0) {
+                throw new IllegalArgumentException("Unknown column " + resultColumns[i] + " for " + uri);
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(resultColumns, rows.size());
+        for (StatsTotal total : rows) {
+            Object[] values = total.toRow(keyed, match != STATS_BREED);
+            Object[] row = new Object[resultColumns.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = values[sources[i]];
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * One row of statistics summed over several shelters, see
+     * {@link #queryStats(List, Uri, int, String[], String, String)}.
+     */
+    private static final class StatsTotal {
+        final Object key;
+        long count;
+        long weightSum;
+        Long minWeight;
+        Long maxWeight;
+
+        StatsTotal(Object key) {
+            this.key = key;
+        }
+
+        /**
+         * Add a shelter's row, whose count is at the given column, followed by the min, average
+         * and max weight if it has weights.
+         */
+        void add(Cursor cursor, int countColumn, boolean weights) {
+            long shelterCount = cursor.getLong(countColumn);
+            count += shelterCount;
+            if (!weights || cursor.isNull(countColumn + 1)) {
+                return;
+            }
+            // The average of whole weights times their count is their sum, give or take rounding
+            weightSum += Math.round(cursor.getDouble(countColumn + 2) * shelterCount);
+            long min = cursor.getLong(countColumn + 1);
+            long max = cursor.getLong(countColumn + 3);
+            minWeight = minWeight == null ? min : Math.min(minWeight, min);
+            maxWeight = maxWeight == null ? max : Math.max(maxWeight, max);
+        }
+
+        Object[] toRow(boolean keyed, boolean weights) {
+            List<Object> row = new ArrayList<Object>(5);
+            if (keyed) {
+                row.add(key);
+            }
+            row.add(count);
+            if (weights) {
+                row.add(minWeight);
+                row.add(count > 0 ? weightSum * 1.0 / count : null);
+                row.add(maxWeight);
+            }
+            return row.toArray();
+        }
+    }
+
+    /**
+     * The most rows a search may return, from its optional
+     * {@link DbContract.PetsEntry#QUERY_PARAMETER_LIMIT} query parameter, or -1 for every row.
+     */
+    private static int getSearchLimit(Uri uri) {
+        String limitValue = uri.getQueryParameter(DbContract.PetsEntry.QUERY_PARAMETER_LIMIT);
+        if (limitValue == null) {
+            return -1;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(limitValue);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit for " + uri);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid limit for " + uri);
+        }
+        return limit;
+    }
+
+    /**
+     * Search pets by name and breed through the full-text table. Every word of the search text
+     * is matched as a prefix, and rows are ranked so that pets whose name matches every word come
+     * before pets that only match through their breed. An empty search returns all pets.
+     *
+     * @param limit most rows to return, which each shelter's query returns no more than, or -1
+     */
+    private Cursor searchPets(List<PetShards.Shard> shards, final Uri uri, String searchText, int limit,
+                              String[] projection, final String selection, final String[] selectionArgs,
+                              String sortOrder) {
+        final String limitClause = limit >= 0 ? String.valueOf(limit) : null;
+        String allColumnsQuery = buildMatchQuery(searchText, null);
+        if (allColumnsQuery == null) {
+            final String orderBy = sortOrder != null ? sortOrder : DbContract.PetsEntry.COLUMN_PET_NAME;
+            return queryShards(shards, projection, orderBy, limit, new ShardQuery() {
+                @Override
+                public Cursor query(SQLiteDatabase database, long shelter, String[] columns) {
+                    return mSlowQueryLog.rawQuery(database, uri,
+                            SQLiteQueryBuilder.buildQueryString(false, DbContract.PetsEntry.TABLE_NAME, columns,
+                                    whereNotDeleted(selection), null, null, orderBy, limitClause),
+                            selectionArgs);
+                }
+            });
+        }
+        String nameQuery = buildMatchQuery(searchText, DbContract.PetsEntry.COLUMN_PET_NAME);
+
+        final boolean defaultOrder = sortOrder == null || sortOrder.length() == 0;
+        final String orderBy = defaultOrder ? SEARCH_ORDER : sortOrder;
+        int extraArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        final String[] args = new String[2 + extraArgs];
+        args[0] = nameQuery;
+        args[1] = allColumnsQuery;
+        if (extraArgs > 0) {
+            System.arraycopy(selectionArgs, 0, args, 2, extraArgs);
+        }
+        return queryShards(shards, projection, orderBy, limit, new ShardQuery() {
+            @Override
+            public Cursor query(SQLiteDatabase database, long shelter, String[] columns) {
+                String fts = DbContract.PetsEntry.FTS_TABLE_NAME;
+                String rank = "m.rank AS " + DbContract.PetsEntry.COLUMN_SEARCH_RANK;
+                StringBuilder sql = new StringBuilder("SELECT ");
+                if (columns == null || columns.length == 0) {
+                    sql.append("p.*, ").append(rank);
+                } else {
+                    for (int i = 0; i < columns.length; i++) {
+                        if (i > 0) {
+                            sql.append(", ");
+                        }
+                        if (columns[i].equals(DbContract.PetsEntry.COLUMN_SEARCH_RANK)) {
+                            sql.append(rank);
+                        } else {
+                            sql.append("p.").append(columns[i]);
+                        }
+                    }
+                }
+                sql.append(" FROM ").append(DbContract.PetsEntry.TABLE_NAME).append(" p JOIN (")
+                        .append("SELECT docid, MIN(rank) AS rank FROM (")
+                        .append("SELECT docid, 0 AS rank FROM ").append(fts)
+                        .append(" WHERE ").append(fts).append(" MATCH ?")
+                        .append(" UNION ALL SELECT docid, 1 AS rank FROM ").append(fts)
+                        .append(" WHERE ").append(fts).append(" MATCH ?")
+                        .append(") GROUP BY docid) m ON p.").append(DbContract.PetsEntry._ID).append(" = m.docid")
+                        .append(" WHERE p.").append(NOT_DELETED);
+                if (selection != null && selection.length() > 0) {
+                    sql.append(" AND (").append(selection).append(')');
+                }
+                sql.append(" ORDER BY ");
+                if (defaultOrder) {
+                    // The rank may not be among the columns
+                    sql.append("m.rank, p.").append(DbContract.PetsEntry.COLUMN_PET_NAME);
+                } else {
+                    sql.append(orderBy);
+                }
+                if (limitClause != null) {
+                    sql.append(" LIMIT ").append(limitClause);
+                }
+                return mSlowQueryLog.rawQuery(database, uri, sql.toString(), args);
+            }
+        });
+    }
+
+    /**
+     * Turn free search text into an FTS MATCH expression of prefix terms, optionally restricted
+     * to one column. Anything that is not a letter or digit separates words, so user input can
+     * never inject FTS operators. Returns null if the text contains no words.
+     */
+    private static String buildMatchQuery(String searchText, String column) {
+        if (searchText == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= searchText.length(); i++) {
+            char c = i < searchText.length() ? searchText.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                if (column != null) {
+                    match.append(column).append(':');
+                }
+                match.append(word).append('*');
+                word.setLength(0);
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Check the pet values that are present in the given ContentValues.
+     * Throws an {@link IllegalArgumentException} if any of them is invalid.
+     */
+    static void checkPetValues(ContentValues values) {
+        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_PHOTO_VERSION)) {
+            throw new IllegalArgumentException("Pet photos can only be set with " + DbContract.METHOD_SET_PHOTO);
+        }
+        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_DELETED_AT)) {
+            throw new IllegalArgumentException("Pets can only be deleted with delete() and restored with "
+                    + DbContract.METHOD_RESTORE_PET);
+        }
+
+        // check that the name value is not null.
+        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_NAME)) {
+            String name = values.getAsString(DbContract.PetsEntry.COLUMN_PET_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Pet requires a name");
+            }
+        }
+
+        // If the COLUMN_PET_GENDER key is present,
+        // check that the gender value is valid.
+        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_GENDER)) {
+            Integer gender = values.getAsInteger(DbContract.PetsEntry.COLUMN_PET_GENDER);
+            if (gender == null) {
+                throw new IllegalArgumentException("Pet requires valid gender");
+            }
+        }
+
+        // If the COLUMN_PET_WEIGHT key is present,
+        // check that the weight value is valid.
+        if (values.containsKey(DbContract.PetsEntry.COLUMN_PET_WEIGHT)) {
+            // Check that the weight is greater than or equal to 0 kg
+            Integer weight = values.getAsInteger(DbContract.PetsEntry.COLUMN_PET_WEIGHT);
+            if (weight != null && weight < 0) {
+                throw new IllegalArgumentException("Pet requires valid weight");
+            }
+        }
+    }
+
+    /**
+     * Check that values for a new pet hold the columns the pets table has no default for.
+     * Throws an {@link IllegalArgumentException} if they don't.
+     */
+    static void checkNewPetValues(ContentValues values) {
+        if (!values.containsKey(DbContract.PetsEntry.COLUMN_PET_NAME)) {
+            throw new IllegalArgumentException("Pet requires a name");
+        }
+        if (!values.containsKey(DbContract.PetsEntry.COLUMN_PET_GENDER)) {
+            throw new IllegalArgumentException("Pet requires valid gender");
+        }
+    }
+
+    /**
+     * Notify listeners of a change at the given URI, unless a batch is in progress on this thread.
+     * In that case {@link #applyBatch(ArrayList)} notifies once it is done.
+     */
+    private void notifyChange(Uri uri) {
+        BatchChanges batch = mBatch.get();
+        if (batch != null) {
+            batch.uris.add(uri);
+            return;
+        }
+        if (mNotifyChanges) {
+            getContext().getContentResolver().notifyChange(uri, null);
+            mMetrics.recordNotification();
+            refreshSnapshot(uri);
+        }
+    }
+
+    /**
+     * Rewrite the catalog snapshot in the background, unless the change at the given URI can't
+     * touch it. Changes that come in while a refresh is queued share it.
+     */
+    private void refreshSnapshot(Uri uri) {
+        if (sUriMatcher.match(uri) == PETS_ID && ContentUris.parseId(uri) > mSnapshotLimitId) {
+            return;
+        }
+        if (!mSnapshotQueued.compareAndSet(false, true)) {
+            return;
+        }
+        mMaintenance.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Changes from here on queue another refresh, whatever this one reads
+                mSnapshotQueued.set(false);
+                mSnapshotLimitId = Long.MAX_VALUE;
+                try {
+                    writeSnapshot();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to write the catalog snapshot", e);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to read the catalog snapshot rows", e);
+                }
+            }
+        });
+    }
+
+    private void writeSnapshot() throws IOException {
+        Cursor pets = queryShards(mShards.all(), CatalogSnapshot.COLUMNS, DbContract.PetsEntry._ID,
+                CatalogSnapshot.MAX_ROWS, new ShardQuery() {
+                    @Override
+                    public Cursor query(SQLiteDatabase database, long shelter, String[] columns) {
+                        return database.query(DbContract.PetsEntry.TABLE_NAME, columns, NOT_DELETED, null,
+                                null, null, DbContract.PetsEntry._ID, String.valueOf(CatalogSnapshot.MAX_ROWS));
+                    }
+                });
+        try {
+            CatalogSnapshot.write(getContext(), pets);
+            if (pets.getCount() == CatalogSnapshot.MAX_ROWS && pets.moveToLast()) {
+                mSnapshotLimitId = pets.getLong(0);
+            }
+        } finally {
+            pets.close();
+        }
+    }
+
+    /**
+     * Drop every pet from the row cache. Inside a batch they are dropped again once the batch
+     * is committed.
+     */
+    private void invalidateAllRows() {
+        mRowCache.invalidateAll();
+        BatchChanges batch = mBatch.get();
+        if (batch != null) {
+            batch.allRows = true;
+        }
+    }
+
+    /**
+     * Drop the given pets from the row cache. Inside a batch they are dropped again once the
+     * batch is committed.
+     */
+    private void invalidateRows(long... ids) {
+        mRowCache.invalidate(ids);
+        BatchChanges batch = mBatch.get();
+        if (batch != null) {
+            for (long id : ids) {
+                batch.ids.add(id);
+            }
+        }
+    }
+
+    private static String buildInsertSql(String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(DbContract.PetsEntry.TABLE_NAME)
+                .append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                placeholders.append(", ");
+            }
+            sql.append(columns[i]);
+            placeholders.append('?');
+        }
+        return sql.append(") VALUES (").append(placeholders).append(')').toString();
     }
 
-}
\ No newline at end of file
+}
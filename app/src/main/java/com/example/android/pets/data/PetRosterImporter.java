@@ -0,0 +1,166 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * {@link PetRosterImporter} adds the pets of a CSV or JSON roster, in the format the provider
+ * exports (see {@link DbContract.PetsEntry#MIME_TYPE_CSV}). The roster is parsed as it is read,
+ * and pets are written in fixed-size chunks, each one {@link PetProvider#bulkInsert}
+ * transaction, so rosters of any size are imported with only one chunk in memory.
+ * <p>
+ * Every pet is checked with the provider's rules before it is written. Pets that fail are
+ * skipped and counted, so one bad line doesn't lose the rest of the roster; a file that isn't a
+ * roster at all fails the import with an {@link IOException}. Chunks already written stay
+ * written. This blocks, so never call it on the main thread.
+ */
+public final class PetRosterImporter {
+
+    private static final String LOG_TAG = PetRosterImporter.class.getSimpleName();
+
+    /** Pets written per transaction. */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /** Skipped pets logged per import, the rest are only counted. */
+    private static final int MAX_LOGGED_ERRORS = 20;
+
+    /**
+     * Receives progress after every chunk and can stop the import.
+     */
+    public interface ProgressListener {
+        /**
+         * @param imported      pets written so far
+         * @param skipped       invalid pets skipped so far
+         * @param rowsPerSecond average import rate so far, counting skipped pets
+         */
+        void onProgress(long imported, long skipped, double rowsPerSecond);
+
+        /** Checked before every chunk, the import stops once this returns true. */
+        boolean isCancelled();
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+        public final long imported;
+        public final long skipped;
+        public final long elapsedMillis;
+        /** Why the first skipped pet was skipped, with its position, or null if none were. */
+        public final String firstError;
+
+        Result(long imported, long skipped, long elapsedMillis, String firstError) {
+            this.imported = imported;
+            this.skipped = skipped;
+            this.elapsedMillis = elapsedMillis;
+            this.firstError = firstError;
+        }
+    }
+
+    /**
+     * Where the chunks go: the content resolver, or a provider instance for benchmarks.
+     */
+    private interface Target {
+        int bulkInsert(ContentValues[] pets);
+    }
+
+    private PetRosterImporter() {}
+
+    /**
+     * Import a roster through the content resolver. The stream is read to the end but not closed.
+     *
+     * @param mimeType type of the roster, JSON if it mentions json and CSV otherwise
+     * @param listener progress listener, may be null
+     */
+    public static Result importRoster(final ContentResolver contentResolver, InputStream in, String mimeType,
+                                      int chunkSize, ProgressListener listener) throws IOException {
+        return importRoster(new Target() {
+            @Override
+            public int bulkInsert(ContentValues[] pets) {
+                return contentResolver.bulkInsert(DbContract.PetsEntry.CONTENT_URI, pets);
+            }
+        }, in, mimeType, chunkSize, listener);
+    }
+
+    /**
+     * Import a roster straight into the given provider.
+     */
+    static Result importRoster(final PetProvider provider, InputStream in, String mimeType,
+                               int chunkSize, ProgressListener listener) throws IOException {
+        return importRoster(new Target() {
+            @Override
+            public int bulkInsert(ContentValues[] pets) {
+                return provider.bulkInsert(DbContract.PetsEntry.CONTENT_URI, pets);
+            }
+        }, in, mimeType, chunkSize, listener);
+    }
+
+    private static Result importRoster(Target target, InputStream in, String mimeType,
+                                       int chunkSize, ProgressListener listener) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        PetRosterReader reader = PetRosterReader.create(mimeType,
+                new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024));
+
+        // The chunk's values are reused for every chunk
+        ContentValues[] chunk = new ContentValues[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+            chunk[i] = new ContentValues();
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        long imported = 0;
+        long skipped = 0;
+        String firstError = null;
+        int pending = 0;
+        boolean more = true;
+        while (more) {
+            if (listener != null && listener.isCancelled()) {
+                Log.i(LOG_TAG, "Import cancelled after " + imported + " pets");
+                break;
+            }
+            while (pending < chunkSize) {
+                try {
+                    if (!reader.next(chunk[pending])) {
+                        more = false;
+                        break;
+                    }
+                    PetProvider.checkPetValues(chunk[pending]);
+                    PetProvider.checkNewPetValues(chunk[pending]);
+                    pending++;
+                } catch (IllegalArgumentException e) {
+                    String error = reader.position() + ": " + e.getMessage();
+                    if (firstError == null) {
+                        firstError = error;
+                    }
+                    if (skipped < MAX_LOGGED_ERRORS) {
+                        Log.w(LOG_TAG, "Skipping pet at " + error);
+                    }
+                    skipped++;
+                }
+            }
+            if (pending > 0) {
+                imported += target.bulkInsert(pending == chunkSize ? chunk : Arrays.copyOf(chunk, pending));
+                pending = 0;
+            }
+            if (listener != null) {
+                long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+                listener.onProgress(imported, skipped, (imported + skipped) * 1000.0 / elapsed);
+            }
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, String.format("Imported %d pets, skipped %d, in %d ms (%.0f pets/s)",
+                imported, skipped, elapsed, imported * 1000.0 / Math.max(1, elapsed)));
+        return new Result(imported, skipped, elapsed, firstError);
+    }
+}
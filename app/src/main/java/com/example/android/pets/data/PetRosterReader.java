@@ -0,0 +1,310 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link PetRosterReader} reads a CSV or JSON roster, as written by {@link PetRosterWriter},
+ * one pet at a time. Only the current pet is held in memory.
+ * <p>
+ * Columns are found by name, so they can come in any order, and unknown columns as well as _ID
+ * are ignored. A missing gender is read as unknown and a missing weight as 0; the name is
+ * required. A pet whose values can't be read makes {@link #next} throw an
+ * {@link IllegalArgumentException} once the whole pet has been consumed, so reading can go on
+ * with the next one. Input that isn't a roster at all throws an {@link IOException}.
+ */
+abstract class PetRosterReader {
+
+    /**
+     * @param mimeType type of the roster; anything that isn't JSON is read as CSV
+     */
+    static PetRosterReader create(String mimeType, Reader in) {
+        if (mimeType != null && mimeType.toLowerCase(Locale.US).contains("json")) {
+            return new Json(in);
+        }
+        return new Csv(in);
+    }
+
+    /**
+     * Read the next pet into the given values, which are cleared first.
+     *
+     * @return false once there are no more pets
+     */
+    abstract boolean next(ContentValues pet) throws IOException;
+
+    /**
+     * Where the last pet was read from, for error messages.
+     */
+    abstract String position();
+
+    /**
+     * Convert the text values of one pet.
+     */
+    static void toPet(String name, String breed, String gender, String weight, ContentValues pet) {
+        pet.clear();
+        // A blank name counts as a missing one, which the provider rejects
+        pet.put(DbContract.PetsEntry.COLUMN_PET_NAME, name == null || name.trim().isEmpty() ? null : name);
+        pet.put(DbContract.PetsEntry.COLUMN_PET_BREED, breed == null || breed.isEmpty() ? null : breed);
+        int genderValue = parseInt(DbContract.PetsEntry.COLUMN_PET_GENDER, gender,
+                DbContract.PetsEntry.GENDER_UNKNOWN);
+        if (genderValue != DbContract.PetsEntry.GENDER_UNKNOWN
+                && genderValue != DbContract.PetsEntry.GENDER_MALE
+                && genderValue != DbContract.PetsEntry.GENDER_FEMALE) {
+            throw new IllegalArgumentException("Unknown gender " + gender);
+        }
+        pet.put(DbContract.PetsEntry.COLUMN_PET_GENDER, genderValue);
+        pet.put(DbContract.PetsEntry.COLUMN_PET_WEIGHT, parseInt(DbContract.PetsEntry.COLUMN_PET_WEIGHT, weight, 0));
+    }
+
+    private static int parseInt(String column, String value, int defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + column + " " + value);
+        }
+    }
+
+    /**
+     * RFC 4180 CSV with a header row. Fields may be quoted, quoted fields may hold separators,
+     * doubled quotes and line breaks. Lines end with LF or CRLF, and blank lines are skipped.
+     */
+    private static final class Csv extends PetRosterReader {
+        private final Reader in;
+        private final char[] buffer = new char[8192];
+        private int position;
+        private int limit;
+        private final StringBuilder field = new StringBuilder();
+        private final List<String> record = new ArrayList<>();
+
+        /** Line the current record starts on, and the line being read. */
+        private long recordLine;
+        private long line = 1;
+
+        private int nameColumn = -1;
+        private int breedColumn = -1;
+        private int genderColumn = -1;
+        private int weightColumn = -1;
+        private boolean headerRead;
+
+        Csv(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        boolean next(ContentValues pet) throws IOException {
+            if (!headerRead) {
+                readHeader();
+            }
+            if (!readRecord()) {
+                return false;
+            }
+            toPet(get(nameColumn), get(breedColumn), get(genderColumn), get(weightColumn), pet);
+            return true;
+        }
+
+        @Override
+        String position() {
+            return "line " + recordLine;
+        }
+
+        private void readHeader() throws IOException {
+            headerRead = true;
+            if (!readRecord()) {
+                throw new IOException("Roster is empty");
+            }
+            for (int i = 0; i < record.size(); i++) {
+                String column = record.get(i).trim().toLowerCase(Locale.US);
+                // Spreadsheets like to start UTF-8 files with a byte order mark
+                if (i == 0 && column.startsWith("\uFEFF")) {
+                    column = column.substring(1);
+                }
+                if (column.equals(DbContract.PetsEntry.COLUMN_PET_NAME)) {
+                    nameColumn = i;
+                } else if (column.equals(DbContract.PetsEntry.COLUMN_PET_BREED)) {
+                    breedColumn = i;
+                } else if (column.equals(DbContract.PetsEntry.COLUMN_PET_GENDER)) {
+                    genderColumn = i;
+                } else if (column.equals(DbContract.PetsEntry.COLUMN_PET_WEIGHT)) {
+                    weightColumn = i;
+                }
+            }
+            if (nameColumn < 0) {
+                throw new IOException("Roster has no " + DbContract.PetsEntry.COLUMN_PET_NAME + " column");
+            }
+        }
+
+        private String get(int column) {
+            return column >= 0 && column < record.size() ? record.get(column) : null;
+        }
+
+        /**
+         * Read the next non-blank record into {@link #record}.
+         *
+         * @return false at the end of the input
+         */
+        private boolean readRecord() throws IOException {
+            while (true) {
+                record.clear();
+                field.setLength(0);
+                recordLine = line;
+                boolean quoted = false;
+                boolean fieldStarted = false;
+                int c;
+                while ((c = read()) != -1) {
+                    if (quoted) {
+                        if (c == '"') {
+                            if (peek() == '"') {
+                                read();
+                                field.append('"');
+                            } else {
+                                quoted = false;
+                            }
+                        } else {
+                            if (c == '\n') {
+                                line++;
+                            }
+                            field.append((char) c);
+                        }
+                    } else if (c == '"' && field.length() == 0) {
+                        quoted = true;
+                        fieldStarted = true;
+                    } else if (c == ',') {
+                        record.add(field.toString());
+                        field.setLength(0);
+                        fieldStarted = true;
+                    } else if (c == '\n' || c == '\r') {
+                        if (c == '\r' && peek() == '\n') {
+                            read();
+                        }
+                        line++;
+                        break;
+                    } else {
+                        field.append((char) c);
+                        fieldStarted = true;
+                    }
+                }
+                if (quoted) {
+                    throw new IOException("Unterminated quoted field starting on line " + recordLine);
+                }
+                if (fieldStarted || field.length() > 0) {
+                    record.add(field.toString());
+                    return true;
+                }
+                if (c == -1) {
+                    return false;
+                }
+                // A blank line, try the next one
+            }
+        }
+
+        private int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++];
+        }
+
+        private int peek() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position];
+        }
+
+        private boolean fill() throws IOException {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read <= 0) {
+                return false;
+            }
+            position = 0;
+            limit = read;
+            return true;
+        }
+    }
+
+    /**
+     * A JSON array of pet objects. Values may be strings or numbers, and null.
+     */
+    private static final class Json extends PetRosterReader {
+        private final JsonReader in;
+        private boolean started;
+        private long index;
+
+        Json(Reader in) {
+            this.in = new JsonReader(in);
+        }
+
+        @Override
+        boolean next(ContentValues pet) throws IOException {
+            if (!started) {
+                started = true;
+                in.beginArray();
+            }
+            if (!in.hasNext()) {
+                in.endArray();
+                return false;
+            }
+            index++;
+            String name = null;
+            String breed = null;
+            String gender = null;
+            String weight = null;
+            String invalidField = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String column = in.nextName();
+                JsonToken token = in.peek();
+                String value = null;
+                if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                    value = in.nextString();
+                } else if (token == JsonToken.NULL) {
+                    in.nextNull();
+                } else {
+                    // Objects, arrays and booleans are only a problem in the columns that are read
+                    in.skipValue();
+                    if (isPetColumn(column)) {
+                        invalidField = column;
+                    }
+                    continue;
+                }
+                if (column.equals(DbContract.PetsEntry.COLUMN_PET_NAME)) {
+                    name = value;
+                } else if (column.equals(DbContract.PetsEntry.COLUMN_PET_BREED)) {
+                    breed = value;
+                } else if (column.equals(DbContract.PetsEntry.COLUMN_PET_GENDER)) {
+                    gender = value;
+                } else if (column.equals(DbContract.PetsEntry.COLUMN_PET_WEIGHT)) {
+                    weight = value;
+                }
+            }
+            in.endObject();
+            if (invalidField != null) {
+                throw new IllegalArgumentException("Invalid " + invalidField);
+            }
+            toPet(name, breed, gender, weight, pet);
+            return true;
+        }
+
+        @Override
+        String position() {
+            return "pet " + index;
+        }
+
+        private static boolean isPetColumn(String column) {
+            return column.equals(DbContract.PetsEntry.COLUMN_PET_NAME)
+                    || column.equals(DbContract.PetsEntry.COLUMN_PET_BREED)
+                    || column.equals(DbContract.PetsEntry.COLUMN_PET_GENDER)
+                    || column.equals(DbContract.PetsEntry.COLUMN_PET_WEIGHT);
+        }
+    }
+}
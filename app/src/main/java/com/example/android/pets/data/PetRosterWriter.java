@@ -0,0 +1,138 @@
+package com.example.android.pets.data;
+
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * {@link PetRosterWriter} writes pets one at a time as a CSV or JSON roster, see
+ * {@link DbContract.PetsEntry#MIME_TYPE_CSV}. Nothing is kept per pet, so rosters of any size
+ * can be streamed. The underlying writer is flushed by {@link #end()} but never closed.
+ */
+abstract class PetRosterWriter {
+
+    /** Columns of a roster, in the order they are written. */
+    static final String[] COLUMNS = {
+            DbContract.PetsEntry._ID,
+            DbContract.PetsEntry.COLUMN_PET_NAME,
+            DbContract.PetsEntry.COLUMN_PET_BREED,
+            DbContract.PetsEntry.COLUMN_PET_GENDER,
+            DbContract.PetsEntry.COLUMN_PET_WEIGHT
+    };
+
+    /**
+     * @param mimeType {@link DbContract.PetsEntry#MIME_TYPE_CSV} or
+     *                 {@link DbContract.PetsEntry#MIME_TYPE_JSON}
+     */
+    static PetRosterWriter create(String mimeType, Writer out) {
+        if (DbContract.PetsEntry.MIME_TYPE_CSV.equals(mimeType)) {
+            return new Csv(out);
+        }
+        if (DbContract.PetsEntry.MIME_TYPE_JSON.equals(mimeType)) {
+            return new Json(out);
+        }
+        throw new IllegalArgumentException("Unsupported roster type " + mimeType);
+    }
+
+    abstract void begin() throws IOException;
+
+    abstract void writePet(long id, String name, String breed, int gender, int weight) throws IOException;
+
+    abstract void end() throws IOException;
+
+    private static final class Csv extends PetRosterWriter {
+        private final Writer out;
+
+        Csv(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        void begin() throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(COLUMNS[i]);
+            }
+            out.write('\n');
+        }
+
+        @Override
+        void writePet(long id, String name, String breed, int gender, int weight) throws IOException {
+            out.write(Long.toString(id));
+            out.write(',');
+            writeField(name);
+            out.write(',');
+            // A missing breed is an empty field
+            if (breed != null) {
+                writeField(breed);
+            }
+            out.write(',');
+            out.write(Integer.toString(gender));
+            out.write(',');
+            out.write(Integer.toString(weight));
+            out.write('\n');
+        }
+
+        @Override
+        void end() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Write a text field, quoted if it holds a separator, a quote or a line break.
+         */
+        private void writeField(String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    out.write('"');
+                }
+                out.write(c);
+            }
+            out.write('"');
+        }
+    }
+
+    private static final class Json extends PetRosterWriter {
+        private final JsonWriter out;
+
+        Json(Writer out) {
+            this.out = new JsonWriter(out);
+        }
+
+        @Override
+        void begin() throws IOException {
+            out.beginArray();
+        }
+
+        @Override
+        void writePet(long id, String name, String breed, int gender, int weight) throws IOException {
+            out.beginObject()
+                    .name(COLUMNS[0]).value(id)
+                    .name(COLUMNS[1]).value(name)
+                    .name(COLUMNS[2]).value(breed)
+                    .name(COLUMNS[3]).value(gender)
+                    .name(COLUMNS[4]).value(weight)
+                    .endObject();
+        }
+
+        @Override
+        void end() throws IOException {
+            out.endArray();
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+/**
+ * {@link PetRowCache} is a bounded, thread-safe LRU cache of whole pet rows keyed by _ID, used
+ * by {@link PetProvider} to answer single-pet queries without going to SQLite.
+ * <p>
+ * Writers call {@link #invalidate(long...)} after their change is committed. Readers take a
+ * {@link #stamp()} before reading a row from the database and only cache it with
+ * {@link #putIfUnchanged} if no invalidation happened in between, so a row read just before a
+ * concurrent write can never be cached after that write.
+ */
+final class PetRowCache {
+
+    /**
+     * A copy of one row of the pets table.
+     */
+    static final class Row {
+        private final String[] columns;
+        private final Object[] values;
+
+        /**
+         * Copy the row the cursor is positioned on, keeping the SQLite type of each value.
+         */
+        Row(Cursor cursor) {
+            columns = cursor.getColumnNames();
+            values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        values[i] = null;
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        values[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        values[i] = cursor.getString(i);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Whether every column of the projection can be answered from this row.
+         */
+        boolean covers(String[] projection) {
+            if (projection == null) {
+                return true;
+            }
+            for (String column : projection) {
+                if (indexOf(column) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * A one-row cursor with the given projection, or all columns if it is null.
+         */
+        Cursor toCursor(String[] projection) {
+            String[] names = projection == null ? columns : projection;
+            Object[] row = new Object[names.length];
+            for (int i = 0; i < names.length; i++) {
+                row[i] = values[indexOf(names[i])];
+            }
+            MatrixCursor cursor = new MatrixCursor(names, 1);
+            cursor.addRow(row);
+            return cursor;
+        }
+
+        private int indexOf(String column) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals(column)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final LruCache<Long, Row> cache;
+    private long stamp;
+
+    PetRowCache(int maxRows) {
+        cache = new LruCache<Long, Row>(maxRows);
+    }
+
+    /**
+     * The cached row, or null. Counts as a hit or a miss.
+     */
+    Row get(long id) {
+        return cache.get(id);
+    }
+
+    /**
+     * Take this before reading a row from the database, and pass it to {@link #putIfUnchanged}.
+     */
+    synchronized long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Cache a row read from the database, unless an invalidation happened since {@code stamp}.
+     */
+    synchronized void putIfUnchanged(long id, Row row, long stamp) {
+        if (this.stamp == stamp) {
+            cache.put(id, row);
+        }
+    }
+
+    /**
+     * Drop the given rows. Called even with no ids after every write, so that reads racing with
+     * the write don't cache what they read.
+     */
+    synchronized void invalidate(long... ids) {
+        stamp++;
+        for (long id : ids) {
+            cache.remove(id);
+        }
+    }
+
+    /**
+     * Drop every row, for writes whose affected rows aren't known.
+     */
+    synchronized void invalidateAll() {
+        stamp++;
+        cache.evictAll();
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    int maxSize() {
+        return cache.maxSize();
+    }
+
+    int hitCount() {
+        return cache.hitCount();
+    }
+
+    int missCount() {
+        return cache.missCount();
+    }
+
+    int evictionCount() {
+        return cache.evictionCount();
+    }
+}
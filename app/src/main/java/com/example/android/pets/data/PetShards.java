@@ -0,0 +1,160 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * {@link PetShards} holds the databases of {@link PetProvider}, one per shelter, see
+ * {@link DbContract.PetsEntry#SHELTER_ID_SHIFT}. The default shelter keeps the provider's
+ * database file; every other shelter has a file named after it, which is created once the
+ * shelter is first opened and found again by its name when the provider starts.
+ */
+final class PetShards {
+
+    /**
+     * The database of one shelter, with its compiled statements.
+     */
+    static final class Shard {
+        final long shelter;
+        final PetsDbHelper helper;
+        final PetStatements statements;
+
+        Shard(long shelter, PetsDbHelper helper) {
+            this.shelter = shelter;
+            this.helper = helper;
+            this.statements = new PetStatements(helper);
+        }
+    }
+
+    private final Context context;
+    private final String dbName;
+    private final PetsDbHelper.StorageProfile storageProfile;
+
+    /** Open shards by shelter, so in _ID order. Guarded by this. */
+    private final TreeMap<Long, Shard> shards = new TreeMap<Long, Shard>();
+
+    /**
+     * @param dbName file name of the default shelter's database, which the other shelters'
+     *               file names are derived from
+     */
+    PetShards(Context context, String dbName, PetsDbHelper.StorageProfile storageProfile) {
+        this.context = context;
+        this.dbName = dbName;
+        this.storageProfile = storageProfile;
+        open(DbContract.PetsEntry.DEFAULT_SHELTER);
+        String[] names = context.getDatabasePath(dbName).getParentFile().list();
+        if (names != null) {
+            for (String name : names) {
+                long shelter = parseShelter(dbName, name);
+                if (shelter > DbContract.PetsEntry.DEFAULT_SHELTER) {
+                    open(shelter);
+                }
+            }
+        }
+    }
+
+    /**
+     * File name of a shelter's database, e.g. pets_shelter3.db next to pets.db.
+     */
+    static String getDbName(String dbName, long shelter) {
+        if (shelter == DbContract.PetsEntry.DEFAULT_SHELTER) {
+            return dbName;
+        }
+        return getPrefix(dbName) + shelter + ".db";
+    }
+
+    private static String getPrefix(String dbName) {
+        String base = dbName.endsWith(".db") ? dbName.substring(0, dbName.length() - 3) : dbName;
+        return base + "_shelter";
+    }
+
+    /**
+     * The shelter whose database has the given file name, or -1 if it isn't a shelter's database,
+     * such as the default shelter's, or a journal.
+     */
+    private static long parseShelter(String dbName, String name) {
+        String prefix = getPrefix(dbName);
+        if (!name.startsWith(prefix) || !name.endsWith(".db")) {
+            return -1;
+        }
+        String shelter = name.substring(prefix.length(), name.length() - 3);
+        if (shelter.length() == 0 || shelter.length() > 19) {
+            return -1;
+        }
+        for (int i = 0; i < shelter.length(); i++) {
+            if (!Character.isDigit(shelter.charAt(i))) {
+                return -1;
+            }
+        }
+        long value = Long.parseLong(shelter);
+        return value <= DbContract.PetsEntry.MAX_SHELTER ? value : -1;
+    }
+
+    /**
+     * The shard of the given shelter, opening it if needed. Its database file is only created
+     * once it is read or written, so only writes that add pets to the shelter open it; reads go
+     * through {@link #find}.
+     *
+     * @throws IllegalArgumentException if there can't be such a shelter
+     */
+    synchronized Shard open(long shelter) {
+        checkShelter(shelter);
+        Shard shard = shards.get(shelter);
+        if (shard == null) {
+            shard = new Shard(shelter, new PetsDbHelper(context, getDbName(dbName, shelter), storageProfile, shelter));
+            shards.put(shelter, shard);
+        }
+        return shard;
+    }
+
+    /**
+     * The shard of the given shelter if it is open or its database file exists, else null, which
+     * holds no pets. Unlike {@link #open}, this never creates a database.
+     *
+     * @throws IllegalArgumentException if there can't be such a shelter
+     */
+    synchronized Shard find(long shelter) {
+        checkShelter(shelter);
+        Shard shard = shards.get(shelter);
+        if (shard == null && context.getDatabasePath(getDbName(dbName, shelter)).exists()) {
+            shard = open(shelter);
+        }
+        return shard;
+    }
+
+    private static void checkShelter(long shelter) {
+        if (shelter < DbContract.PetsEntry.DEFAULT_SHELTER || shelter > DbContract.PetsEntry.MAX_SHELTER) {
+            throw new IllegalArgumentException("Invalid shelter " + shelter);
+        }
+    }
+
+    synchronized Shard getDefault() {
+        return shards.get(DbContract.PetsEntry.DEFAULT_SHELTER);
+    }
+
+    /**
+     * The shard holding the pet with the given _ID. For a shelter that was never opened, this is
+     * the default shelter's shard, which won't have the pet either, so reads and writes of the
+     * pet simply find nothing.
+     */
+    synchronized Shard forPet(long id) {
+        Shard shard = shards.get(DbContract.PetsEntry.getShelter(id));
+        return shard != null ? shard : getDefault();
+    }
+
+    /**
+     * Every open shard, in shelter order.
+     */
+    synchronized List<Shard> all() {
+        return new ArrayList<Shard>(shards.values());
+    }
+
+    synchronized void close() {
+        for (Shard shard : shards.values()) {
+            shard.helper.close();
+        }
+    }
+}
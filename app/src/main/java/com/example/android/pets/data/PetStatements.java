@@ -0,0 +1,274 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link PetStatements} runs the provider's hot single-row operations through compiled
+ * {@link SQLiteStatement}s: insert, update by _ID, delete, restore and purge by _ID, and
+ * single-column reads by _ID.
+ * Compared to SQLiteDatabase.insert/update/delete/query this skips building the SQL text, the
+ * selection argument array and the cursor for every call.
+ * <p>
+ * A statement can only be bound by one thread at a time, so each SQL string has a small pool of
+ * statements: a thread takes one, binds and runs it, and puts it back. The SQL strings never
+ * change, so SQLite's prepared statement cache on each connection keeps hitting them.
+ */
+final class PetStatements {
+
+    /** Statements kept per SQL string once they are returned to the pool. */
+    private static final int MAX_POOLED_PER_SQL = 4;
+
+    /** Columns of a full pet row, in the order the insert and update statements bind them. */
+    private static final String[] ROW_COLUMNS = {
+            DbContract.PetsEntry.COLUMN_PET_NAME,
+            DbContract.PetsEntry.COLUMN_PET_BREED,
+            DbContract.PetsEntry.COLUMN_PET_GENDER,
+            DbContract.PetsEntry.COLUMN_PET_WEIGHT
+    };
+
+    private static final String SQL_INSERT = "INSERT INTO " + DbContract.PetsEntry.TABLE_NAME + " (" +
+            DbContract.PetsEntry.COLUMN_PET_NAME + ", " +
+            DbContract.PetsEntry.COLUMN_PET_BREED + ", " +
+            DbContract.PetsEntry.COLUMN_PET_GENDER + ", " +
+            DbContract.PetsEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_UPDATE_BY_ID = "UPDATE " + DbContract.PetsEntry.TABLE_NAME + " SET " +
+            DbContract.PetsEntry.COLUMN_PET_NAME + " = ?, " +
+            DbContract.PetsEntry.COLUMN_PET_BREED + " = ?, " +
+            DbContract.PetsEntry.COLUMN_PET_GENDER + " = ?, " +
+            DbContract.PetsEntry.COLUMN_PET_WEIGHT + " = ? WHERE " + DbContract.PetsEntry._ID + " = ?" +
+            " AND " + DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = 0";
+
+    /** Marks a pet deleted, see {@link DbContract.PetsEntry#COLUMN_PET_DELETED_AT}. */
+    private static final String SQL_DELETE_BY_ID = "UPDATE " + DbContract.PetsEntry.TABLE_NAME + " SET " +
+            DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = ? WHERE " + DbContract.PetsEntry._ID + " = ?" +
+            " AND " + DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = 0";
+
+    private static final String SQL_RESTORE_BY_ID = "UPDATE " + DbContract.PetsEntry.TABLE_NAME + " SET " +
+            DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = 0 WHERE " + DbContract.PetsEntry._ID + " = ?" +
+            " AND " + DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " != 0";
+
+    /** Removes a pet for good, if it was marked deleted. */
+    private static final String SQL_PURGE_BY_ID = "DELETE FROM " + DbContract.PetsEntry.TABLE_NAME +
+            " WHERE " + DbContract.PetsEntry._ID + " = ?" +
+            " AND " + DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " != 0";
+
+    /** Columns that can be read one at a time, with the statement reading each. */
+    private static final Map<String, String> SQL_READ_BY_ID = new HashMap<>();
+
+    static {
+        String[] columns = {
+                DbContract.PetsEntry._ID,
+                DbContract.PetsEntry.COLUMN_PET_NAME,
+                DbContract.PetsEntry.COLUMN_PET_BREED,
+                DbContract.PetsEntry.COLUMN_PET_GENDER,
+                DbContract.PetsEntry.COLUMN_PET_WEIGHT
+        };
+        for (String column : columns) {
+            SQL_READ_BY_ID.put(column, "SELECT " + column + " FROM " + DbContract.PetsEntry.TABLE_NAME +
+                    " WHERE " + DbContract.PetsEntry._ID + " = ?" +
+                    " AND " + DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = 0");
+        }
+    }
+
+    private final SQLiteOpenHelper helper;
+    private final Map<String, ArrayDeque<SQLiteStatement>> pools = new HashMap<>();
+
+    PetStatements(SQLiteOpenHelper helper) {
+        this.helper = helper;
+    }
+
+    /**
+     * Whether the values are exactly a full pet row, which the insert and update statements need.
+     */
+    static boolean isFullRow(ContentValues values) {
+        if (values.size() != ROW_COLUMNS.length) {
+            return false;
+        }
+        for (String column : ROW_COLUMNS) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The SQL {@link #readColumn} runs for the given column, for the slow query log.
+     */
+    static String getReadSql(String column) {
+        return SQL_READ_BY_ID.get(column);
+    }
+
+    /**
+     * Whether {@link #readColumn} can read the given column.
+     */
+    static boolean canRead(String column) {
+        return SQL_READ_BY_ID.containsKey(column);
+    }
+
+    /**
+     * Insert a full pet row, see {@link #isFullRow}.
+     *
+     * @return the new row's _ID, or -1 if it couldn't be inserted
+     */
+    long insert(ContentValues values) {
+        SQLiteStatement statement = acquire(SQL_INSERT);
+        try {
+            bindRow(statement, values);
+            return statement.executeInsert();
+        } finally {
+            release(SQL_INSERT, statement);
+        }
+    }
+
+    /**
+     * Replace a pet with a full row, see {@link #isFullRow}.
+     *
+     * @return the number of rows updated, 0 or 1
+     */
+    int updateById(long id, ContentValues values) {
+        SQLiteStatement statement = acquire(SQL_UPDATE_BY_ID);
+        try {
+            bindRow(statement, values);
+            statement.bindLong(ROW_COLUMNS.length + 1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(SQL_UPDATE_BY_ID, statement);
+        }
+    }
+
+    /**
+     * Mark a pet deleted, unless it already is.
+     *
+     * @param deletedAt when the pet was deleted, in milliseconds since the epoch
+     * @return the number of rows deleted, 0 or 1
+     */
+    int deleteById(long id, long deletedAt) {
+        SQLiteStatement statement = acquire(SQL_DELETE_BY_ID);
+        try {
+            statement.bindLong(1, deletedAt);
+            statement.bindLong(2, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(SQL_DELETE_BY_ID, statement);
+        }
+    }
+
+    /**
+     * Bring back a pet marked deleted.
+     *
+     * @return the number of rows restored, 0 if the pet isn't deleted or was purged
+     */
+    int restoreById(long id) {
+        return executeById(SQL_RESTORE_BY_ID, id);
+    }
+
+    /**
+     * Remove a pet marked deleted for good.
+     *
+     * @return the number of rows purged, 0 if the pet isn't deleted
+     */
+    int purgeById(long id) {
+        return executeById(SQL_PURGE_BY_ID, id);
+    }
+
+    private int executeById(String sql, long id) {
+        SQLiteStatement statement = acquire(sql);
+        try {
+            statement.bindLong(1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(sql, statement);
+        }
+    }
+
+    /**
+     * Read one column of a pet into a cursor with that single column, holding no row if there is
+     * no such pet or it is deleted. Integer columns are read as integers, so the cursor reports the column's type.
+     */
+    Cursor readColumn(long id, String column) {
+        String sql = SQL_READ_BY_ID.get(column);
+        MatrixCursor cursor = new MatrixCursor(new String[] { column }, 1);
+        SQLiteStatement statement = acquire(sql);
+        try {
+            statement.bindLong(1, id);
+            Object value = isTextColumn(column)
+                    ? statement.simpleQueryForString()
+                    : (Object) statement.simpleQueryForLong();
+            cursor.addRow(new Object[] { value });
+        } catch (SQLiteDoneException e) {
+            // No such pet, the cursor stays empty
+        } finally {
+            release(sql, statement);
+        }
+        return cursor;
+    }
+
+    private SQLiteStatement acquire(String sql) {
+        synchronized (pools) {
+            ArrayDeque<SQLiteStatement> pool = pools.get(sql);
+            if (pool != null && !pool.isEmpty()) {
+                return pool.pop();
+            }
+        }
+        SQLiteDatabase database = helper.getWritableDatabase();
+        return database.compileStatement(sql);
+    }
+
+    private void release(String sql, SQLiteStatement statement) {
+        statement.clearBindings();
+        synchronized (pools) {
+            ArrayDeque<SQLiteStatement> pool = pools.get(sql);
+            if (pool == null) {
+                pool = new ArrayDeque<>(MAX_POOLED_PER_SQL);
+                pools.put(sql, pool);
+            }
+            if (pool.size() < MAX_POOLED_PER_SQL) {
+                pool.push(statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+
+    private static boolean isTextColumn(String column) {
+        return column.equals(DbContract.PetsEntry.COLUMN_PET_NAME)
+                || column.equals(DbContract.PetsEntry.COLUMN_PET_BREED);
+    }
+
+    private static void bindRow(SQLiteStatement statement, ContentValues values) {
+        for (int i = 0; i < ROW_COLUMNS.length; i++) {
+            bindValue(statement, i + 1, values.get(ROW_COLUMNS[i]));
+        }
+    }
+
+    /**
+     * Bind a value taken from ContentValues, with the type SQLiteDatabase.insert would give it.
+     */
+    static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,573 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link PetSync} keeps the pets in step with a central server by exchanging deltas rather than
+ * whole exports. A sync first pushes every pet changed since the last sync, read from
+ * {@link DbContract.ChangesEntry#CONTENT_URI}, then pulls and applies what other clients changed
+ * on the server since the last pull. Both go in batches of at most {@link #BATCH_SIZE} pets, each
+ * a gzipped JSON document:
+ * <pre>
+ * {"next": 1234, "changes": [
+ *     {"seq": 1230, "_id": 7, "name": "Toto", "breed": "Terrier", "gender": 1, "weight": 7},
+ *     {"seq": 1234, "_id": 9, "deleted": true}]}
+ * </pre>
+ * A pushed batch numbers its changes with the change log's sequence numbers; a pulled one with
+ * the server's, and "next" is where the following pull starts. Where each side got to is only
+ * saved once a batch has been handed over or applied, so a sync that fails part way resends at
+ * most one batch, and applying a pet's latest values twice changes nothing.
+ * <p>
+ * A pet is known by its _ID everywhere. _IDs carry their shelter, see
+ * {@link DbContract.PetsEntry#SHELTER_ID_SHIFT}, so clients must add pets to shelters of their
+ * own for their _IDs not to collide; pulled pets are written to the shelter of their _ID. The
+ * server keeps the last values pushed for every pet, so concurrent edits of the same pet are
+ * resolved by the last push. Pets pulled from the server are logged locally like any change and
+ * pushed back on the next sync, where the server finds nothing changed.
+ * <p>
+ * This blocks, so never call it on the main thread.
+ */
+public final class PetSync {
+
+    private static final String LOG_TAG = PetSync.class.getSimpleName();
+
+    /** Pets per pushed or pulled batch. */
+    public static final int BATCH_SIZE = 500;
+
+    /** Sync state keys: the client's name, the last change pushed of every shelter, the pull position. */
+    private static final String KEY_CLIENT_ID = "client_id";
+    private static final String KEY_PUSHED_PREFIX = "pushed_";
+    private static final String KEY_PULLED = "pulled";
+
+    /**
+     * The central server, as seen by the sync.
+     */
+    public interface Server {
+        /**
+         * Store a batch of the client's changes.
+         *
+         * @param clientId the pushing client, which won't be sent its own changes back
+         * @param batch    gzipped JSON batch, see {@link PetSync}
+         */
+        void push(String clientId, byte[] batch) throws IOException;
+
+        /**
+         * The changes stored after the given position by other clients than the given one, at
+         * most {@code limit} of them, as a gzipped JSON batch, see {@link PetSync}.
+         */
+        byte[] pull(String clientId, long since, int limit) throws IOException;
+    }
+
+    /**
+     * Outcome of a sync.
+     */
+    public static final class Result {
+        /** Pets pushed and pulled, and batches exchanged in either direction. */
+        public final int pushed;
+        public final int pulled;
+        public final int batches;
+        /** Compressed bytes sent and received. */
+        public final long bytesSent;
+        public final long bytesReceived;
+
+        Result(int pushed, int pulled, int batches, long bytesSent, long bytesReceived) {
+            this.pushed = pushed;
+            this.pulled = pulled;
+            this.batches = batches;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return "pushed " + pushed + ", pulled " + pulled + " in " + batches + " batches, " +
+                    bytesSent + " bytes sent, " + bytesReceived + " bytes received";
+        }
+    }
+
+    /**
+     * The latest state of one pet, as a batch holds it.
+     */
+    static final class Change {
+        final long seq;
+        final long id;
+        final boolean deleted;
+        final String name;
+        final String breed;
+        final int gender;
+        final int weight;
+
+        Change(long seq, long id, boolean deleted, String name, String breed, int gender, int weight) {
+            this.seq = seq;
+            this.id = id;
+            this.deleted = deleted;
+            this.name = name;
+            this.breed = breed;
+            this.gender = gender;
+            this.weight = weight;
+        }
+
+        static Change deleted(long seq, long id) {
+            return new Change(seq, id, true, null, null, DbContract.PetsEntry.GENDER_UNKNOWN, 0);
+        }
+
+        Change withSeq(long newSeq) {
+            return new Change(newSeq, id, deleted, name, breed, gender, weight);
+        }
+
+        /**
+         * Whether both describe the pet the same way, whatever their sequence numbers.
+         */
+        boolean sameAs(Change other) {
+            if (deleted || other.deleted) {
+                return deleted == other.deleted;
+            }
+            return name.equals(other.name) && (breed == null ? other.breed == null : breed.equals(other.breed))
+                    && gender == other.gender && weight == other.weight;
+        }
+
+        ContentValues toValues() {
+            ContentValues values = new ContentValues(4);
+            values.put(DbContract.PetsEntry.COLUMN_PET_NAME, name);
+            values.put(DbContract.PetsEntry.COLUMN_PET_BREED, breed);
+            values.put(DbContract.PetsEntry.COLUMN_PET_GENDER, gender);
+            values.put(DbContract.PetsEntry.COLUMN_PET_WEIGHT, weight);
+            return values;
+        }
+    }
+
+    /**
+     * A decoded batch.
+     */
+    static final class Batch {
+        final List<Change> changes;
+        final long next;
+
+        Batch(List<Change> changes, long next) {
+            this.changes = changes;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Where the sync reads and writes pets: the content resolver, or a provider instance for
+     * benchmarks.
+     */
+    private interface Target {
+        Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs);
+
+        ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws RemoteException, OperationApplicationException;
+
+        void restore(long id);
+    }
+
+    private final Target target;
+    private final Server server;
+    private final SharedPreferences state;
+
+    /**
+     * Sync the pets of the content resolver.
+     *
+     * @param state where the sync keeps its progress between syncs, which must only be used by
+     *              this sync
+     */
+    public PetSync(final ContentResolver contentResolver, Server server, SharedPreferences state) {
+        this(new Target() {
+            @Override
+            public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs) {
+                return contentResolver.query(uri, projection, selection, selectionArgs, null);
+            }
+
+            @Override
+            public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                    throws RemoteException, OperationApplicationException {
+                return contentResolver.applyBatch(DbContract.CONTENT_AUTHORITY, operations);
+            }
+
+            @Override
+            public void restore(long id) {
+                contentResolver.call(DbContract.PetsEntry.CONTENT_URI, DbContract.METHOD_RESTORE_PET,
+                        String.valueOf(id), null);
+            }
+        }, server, state);
+    }
+
+    /**
+     * Sync the pets of the given provider.
+     */
+    PetSync(final PetProvider provider, Server server, SharedPreferences state) {
+        this(new Target() {
+            @Override
+            public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs) {
+                return provider.query(uri, projection, selection, selectionArgs, null);
+            }
+
+            @Override
+            public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                    throws OperationApplicationException {
+                return provider.applyBatch(operations);
+            }
+
+            @Override
+            public void restore(long id) {
+                provider.call(DbContract.METHOD_RESTORE_PET, String.valueOf(id), null);
+            }
+        }, server, state);
+    }
+
+    private PetSync(Target target, Server server, SharedPreferences state) {
+        this.target = target;
+        this.server = server;
+        this.state = state;
+    }
+
+    /**
+     * Push the local changes, then pull the server's.
+     *
+     * @throws IOException if the server can't be reached or sends something that isn't a batch;
+     *                     everything exchanged before stays exchanged
+     */
+    public synchronized Result sync() throws IOException {
+        String clientId = getClientId();
+        int pushed = 0;
+        int pulled = 0;
+        int batches = 0;
+        long bytesSent = 0;
+        long bytesReceived = 0;
+
+        TreeMap<Long, Long> since = getPushed();
+        List<Change> changes;
+        do {
+            changes = readChanges(since);
+            if (changes.isEmpty()) {
+                break;
+            }
+            byte[] batch = encode(changes, changes.get(changes.size() - 1).seq);
+            server.push(clientId, batch);
+            SharedPreferences.Editor editor = state.edit();
+            for (Change change : changes) {
+                long shelter = DbContract.PetsEntry.getShelter(change.seq);
+                since.put(shelter, change.seq);
+                editor.putLong(KEY_PUSHED_PREFIX + shelter, change.seq);
+            }
+            editor.apply();
+            pushed += changes.size();
+            bytesSent += batch.length;
+            batches++;
+        } while (changes.size() == BATCH_SIZE);
+
+        long position = state.getLong(KEY_PULLED, 0);
+        Batch batch;
+        do {
+            byte[] bytes = server.pull(clientId, position, BATCH_SIZE);
+            batch = decode(bytes);
+            if (!batch.changes.isEmpty()) {
+                apply(batch.changes);
+                pulled += batch.changes.size();
+                batches++;
+            }
+            bytesReceived += bytes.length;
+            position = batch.next;
+            state.edit().putLong(KEY_PULLED, position).apply();
+        } while (batch.changes.size() == BATCH_SIZE);
+
+        Result result = new Result(pushed, pulled, batches, bytesSent, bytesReceived);
+        Log.i(LOG_TAG, "Synced: " + result);
+        return result;
+    }
+
+    private String getClientId() {
+        String clientId = state.getString(KEY_CLIENT_ID, null);
+        if (clientId == null) {
+            clientId = UUID.randomUUID().toString();
+            state.edit().putString(KEY_CLIENT_ID, clientId).apply();
+        }
+        return clientId;
+    }
+
+    /**
+     * The last change pushed of every shelter that has one, by shelter.
+     */
+    private TreeMap<Long, Long> getPushed() {
+        TreeMap<Long, Long> pushed = new TreeMap<Long, Long>();
+        for (Map.Entry<String, ?> entry : state.getAll().entrySet()) {
+            if (entry.getKey().startsWith(KEY_PUSHED_PREFIX) && entry.getValue() instanceof Long) {
+                long seq = (Long) entry.getValue();
+                pushed.put(DbContract.PetsEntry.getShelter(seq), seq);
+            }
+        }
+        return pushed;
+    }
+
+    /**
+     * The next batch of local changes after the given sequence numbers.
+     */
+    private List<Change> readChanges(TreeMap<Long, Long> since) {
+        Cursor cursor = target.query(DbContract.ChangesEntry.buildChangesUri(since.values(), BATCH_SIZE),
+                new String[] {
+                        DbContract.ChangesEntry.COLUMN_SEQ,
+                        DbContract.PetsEntry._ID,
+                        DbContract.ChangesEntry.COLUMN_DELETED,
+                        DbContract.PetsEntry.COLUMN_PET_NAME,
+                        DbContract.PetsEntry.COLUMN_PET_BREED,
+                        DbContract.PetsEntry.COLUMN_PET_GENDER,
+                        DbContract.PetsEntry.COLUMN_PET_WEIGHT
+                }, null, null);
+        try {
+            List<Change> changes = new ArrayList<Change>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(2) != 0) {
+                    changes.add(Change.deleted(cursor.getLong(0), cursor.getLong(1)));
+                } else {
+                    changes.add(new Change(cursor.getLong(0), cursor.getLong(1), false, cursor.getString(3),
+                            cursor.getString(4), cursor.getInt(5), cursor.getInt(6)));
+                }
+            }
+            return changes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write pulled changes in one batch. Pets that are there are updated or deleted, others are
+     * inserted with their _ID into the shelter it names. A pet that is only marked deleted here
+     * would block its insert, so it is restored first and updated instead.
+     */
+    private void apply(List<Change> changes) throws IOException {
+        Set<Long> existing = selectLivePets(changes);
+        for (long id : selectDeletedPets(changes, existing)) {
+            try {
+                target.restore(id);
+                existing.add(id);
+            } catch (IllegalArgumentException e) {
+                // Purged in the meantime, so it can be inserted
+            }
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(changes.size());
+        for (Change change : changes) {
+            Uri petUri = ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, change.id);
+            if (change.deleted) {
+                operations.add(ContentProviderOperation.newDelete(petUri).build());
+            } else if (existing.contains(change.id)) {
+                operations.add(ContentProviderOperation.newUpdate(petUri).withValues(change.toValues()).build());
+            } else {
+                ContentValues values = change.toValues();
+                values.put(DbContract.PetsEntry._ID, change.id);
+                operations.add(ContentProviderOperation.newInsert(
+                        DbContract.PetsEntry.buildShelterUri(DbContract.PetsEntry.getShelter(change.id)))
+                        .withValues(values).build());
+            }
+        }
+        try {
+            target.applyBatch(operations);
+        } catch (RemoteException e) {
+            throw new IOException("Failed to apply pulled pets", e);
+        } catch (OperationApplicationException e) {
+            throw new IOException("Failed to apply pulled pets", e);
+        }
+    }
+
+    /**
+     * _IDs of the pets of the changes that are there and not deleted.
+     */
+    private Set<Long> selectLivePets(List<Change> changes) {
+        List<Long> ids = new ArrayList<Long>(changes.size());
+        for (Change change : changes) {
+            ids.add(change.id);
+        }
+        Cursor cursor = target.query(DbContract.PetsEntry.CONTENT_URI, new String[] { DbContract.PetsEntry._ID },
+                buildIdSelection(ids.size()), toArgs(ids));
+        try {
+            Set<Long> live = new HashSet<Long>();
+            while (cursor.moveToNext()) {
+                live.add(cursor.getLong(0));
+            }
+            return live;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * _IDs of the pets that are pulled alive but that the change log has seen deleted here, which
+     * may only be marked deleted. Pets that never were here aren't in the log.
+     */
+    private List<Long> selectDeletedPets(List<Change> changes, Set<Long> live) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Change change : changes) {
+            if (!change.deleted && !live.contains(change.id)) {
+                ids.add(change.id);
+            }
+        }
+        List<Long> deleted = new ArrayList<Long>();
+        if (ids.isEmpty()) {
+            return deleted;
+        }
+        Cursor cursor = target.query(DbContract.ChangesEntry.CONTENT_URI, new String[] { DbContract.PetsEntry._ID },
+                DbContract.ChangesEntry.COLUMN_DELETED + " != 0 AND " + buildIdSelection(ids.size()), toArgs(ids));
+        try {
+            while (cursor.moveToNext()) {
+                deleted.add(cursor.getLong(0));
+            }
+            return deleted;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String buildIdSelection(int count) {
+        StringBuilder selection = new StringBuilder(DbContract.PetsEntry._ID).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            selection.append(i > 0 ? ", ?" : "?");
+        }
+        return selection.append(')').toString();
+    }
+
+    private static String[] toArgs(List<Long> ids) {
+        String[] args = new String[ids.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(ids.get(i));
+        }
+        return args;
+    }
+
+    /**
+     * Write a batch, see {@link PetSync}.
+     */
+    static byte[] encode(List<Change> changes, long next) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter out = new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(bytes), "UTF-8"));
+        try {
+            out.beginObject();
+            out.name("next").value(next);
+            out.name("changes").beginArray();
+            for (Change change : changes) {
+                out.beginObject();
+                out.name(DbContract.ChangesEntry.COLUMN_SEQ).value(change.seq);
+                out.name(DbContract.PetsEntry._ID).value(change.id);
+                if (change.deleted) {
+                    out.name(DbContract.ChangesEntry.COLUMN_DELETED).value(true);
+                } else {
+                    out.name(DbContract.PetsEntry.COLUMN_PET_NAME).value(change.name);
+                    out.name(DbContract.PetsEntry.COLUMN_PET_BREED).value(change.breed);
+                    out.name(DbContract.PetsEntry.COLUMN_PET_GENDER).value(change.gender);
+                    out.name(DbContract.PetsEntry.COLUMN_PET_WEIGHT).value(change.weight);
+                }
+                out.endObject();
+            }
+            out.endArray();
+            out.endObject();
+        } finally {
+            // Finishes the gzip stream
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a batch, see {@link PetSync}. Unknown names are skipped.
+     *
+     * @throws IOException if it isn't one
+     */
+    static Batch decode(byte[] batch) throws IOException {
+        JsonReader in = new JsonReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(batch)), "UTF-8"));
+        try {
+            List<Change> changes = new ArrayList<Change>();
+            long next = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("next")) {
+                    next = in.nextLong();
+                } else if (name.equals("changes")) {
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        changes.add(readChange(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Batch(changes, next);
+        } catch (IllegalStateException e) {
+            // Thrown for input that doesn't have the expected structure
+            throw new IOException("Not a batch of changes", e);
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a batch of changes", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Change readChange(JsonReader in) throws IOException {
+        long seq = -1;
+        long id = -1;
+        boolean deleted = false;
+        String name = null;
+        String breed = null;
+        int gender = DbContract.PetsEntry.GENDER_UNKNOWN;
+        int weight = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (key.equals(DbContract.ChangesEntry.COLUMN_SEQ)) {
+                seq = in.nextLong();
+            } else if (key.equals(DbContract.PetsEntry._ID)) {
+                id = in.nextLong();
+            } else if (key.equals(DbContract.ChangesEntry.COLUMN_DELETED)) {
+                deleted = in.nextBoolean();
+            } else if (key.equals(DbContract.PetsEntry.COLUMN_PET_NAME)) {
+                name = in.nextString();
+            } else if (key.equals(DbContract.PetsEntry.COLUMN_PET_BREED)) {
+                breed = in.nextString();
+            } else if (key.equals(DbContract.PetsEntry.COLUMN_PET_GENDER)) {
+                gender = in.nextInt();
+            } else if (key.equals(DbContract.PetsEntry.COLUMN_PET_WEIGHT)) {
+                weight = in.nextInt();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        if (seq < 0 || id < 0 || (!deleted && name == null)) {
+            throw new IOException("Change without a sequence number, _id or name");
+        }
+        return deleted ? Change.deleted(seq, id) : new Change(seq, id, false, name, breed, gender, weight);
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link PetWriteQueue} takes pet writes off the main thread. Writes are queued and applied by a
+ * single writer thread, which takes everything queued so far and applies it as one
+ * {@link PetProvider#applyBatch(ArrayList)} transaction. An update to a pet that still has an
+ * update waiting in the queue is merged into it, so only the latest values are written once.
+ * Provider calls, such as setting a photo, take their place in the queue too: the writes queued
+ * before a call are applied before it and the writes queued after it after it. Each caller hears
+ * back through its {@link Callback} on the main thread.
+ */
+public final class PetWriteQueue {
+
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /**
+     * Receives the outcome of a queued write, on the main thread.
+     */
+    public interface Callback {
+        void onWriteComplete(Result result);
+    }
+
+    /**
+     * Outcome of a queued write.
+     */
+    public static final class Result {
+        /** URI of the inserted pet, or null for other writes and failures. */
+        public final Uri uri;
+        /**
+         * Number of rows updated or deleted, 1 for a successful insert, photo or restore, the
+         * number of pets brought back by {@link #restoreSince}.
+         */
+        public final int count;
+        /** Why the write failed, or null if it succeeded. */
+        public final Exception error;
+
+        Result(Uri uri, int count, Exception error) {
+            this.uri = uri;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Where the queue writes pets: the content resolver, or a provider instance for tests.
+     */
+    private interface Target {
+        ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws RemoteException, OperationApplicationException;
+
+        Bundle call(String method, String arg, Bundle extras);
+    }
+
+    private static PetWriteQueue sInstance;
+
+    private final Target target;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "pet-writer");
+        }
+    });
+
+    /** Writes waiting for the writer thread, in the order they were queued. Guarded by this. */
+    private List<PendingWrite> pending = new ArrayList<>();
+    /** Pending updates by pet URI, so later updates can be merged into them. Guarded by this. */
+    private final Map<Uri, PendingWrite> pendingUpdates = new HashMap<>();
+    /** Whether a drain is already scheduled on the writer thread. Guarded by this. */
+    private boolean drainScheduled;
+
+    private PetWriteQueue(Context context) {
+        final ContentResolver contentResolver = context.getApplicationContext().getContentResolver();
+        target = new Target() {
+            @Override
+            public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                    throws RemoteException, OperationApplicationException {
+                return contentResolver.applyBatch(DbContract.CONTENT_AUTHORITY, operations);
+            }
+
+            @Override
+            public Bundle call(String method, String arg, Bundle extras) {
+                return contentResolver.call(DbContract.PetsEntry.CONTENT_URI, method, arg, extras);
+            }
+        };
+    }
+
+    /**
+     * A queue writing to the given provider, for tests.
+     */
+    PetWriteQueue(final PetProvider provider) {
+        target = new Target() {
+            @Override
+            public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                    throws OperationApplicationException {
+                return provider.applyBatch(operations);
+            }
+
+            @Override
+            public Bundle call(String method, String arg, Bundle extras) {
+                return provider.call(method, arg, extras);
+            }
+        };
+    }
+
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteQueue(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue a new pet for insertion.
+     */
+    public void insert(ContentValues values, Callback callback) {
+        enqueue(new PendingWrite(PendingWrite.INSERT, DbContract.PetsEntry.CONTENT_URI,
+                new ContentValues(values)), callback);
+    }
+
+    /**
+     * Queue an update of the pet at the given URI. If an update of the same pet is still waiting,
+     * the new values are merged into it.
+     */
+    public synchronized void update(Uri petUri, ContentValues values, Callback callback) {
+        PendingWrite queued = pendingUpdates.get(petUri);
+        if (queued != null) {
+            queued.values.putAll(values);
+            queued.callbacks.add(callback);
+            return;
+        }
+        enqueue(new PendingWrite(PendingWrite.UPDATE, petUri, new ContentValues(values)), callback);
+    }
+
+    /**
+     * Queue a delete of the pet at the given URI, or of every pet for
+     * {@link DbContract.PetsEntry#CONTENT_URI}. Deleted pets can be brought back for a while, see
+     * {@link #restore} and {@link #restoreSince}.
+     */
+    public void delete(Uri petUri, Callback callback) {
+        enqueue(new PendingWrite(PendingWrite.DELETE, petUri, null), callback);
+    }
+
+    /**
+     * Queue setting the photo of the pet at the given URI to a copy of the image at the source
+     * URI. It runs on the writer thread after every write queued before it and before every write
+     * queued after it, but on its own rather than in a batch, since copying the image can take a
+     * while. The result counts 1 on success.
+     */
+    public void setPhoto(Uri petUri, Uri source, Callback callback) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(DbContract.EXTRA_PHOTO_SOURCE, source);
+        call(DbContract.METHOD_SET_PHOTO, petUri, extras, callback);
+    }
+
+    /**
+     * Queue bringing back the deleted pet at the given URI, see
+     * {@link DbContract#METHOD_RESTORE_PET}. It runs on the writer thread after every write queued
+     * before it, so it always follows the delete it undoes, and before every write queued after
+     * it, so edits of the restored pet find it. The result counts 1 on success.
+     */
+    public void restore(Uri petUri, Callback callback) {
+        call(DbContract.METHOD_RESTORE_PET, petUri, null, callback);
+    }
+
+    /**
+     * Queue bringing back every pet deleted at or after the given time, see
+     * {@link DbContract#METHOD_RESTORE_PETS_SINCE}. Like {@link #restore}, it runs after every
+     * write queued before it. The result counts the pets brought back.
+     */
+    public void restoreSince(long time, Callback callback) {
+        PendingWrite write = new PendingWrite(PendingWrite.CALL, DbContract.PetsEntry.CONTENT_URI, null);
+        write.method = DbContract.METHOD_RESTORE_PETS_SINCE;
+        write.arg = String.valueOf(time);
+        enqueue(write, callback);
+    }
+
+    /**
+     * Queue a call of a provider method taking a pet's _ID.
+     */
+    private void call(String method, Uri petUri, Bundle extras, Callback callback) {
+        PendingWrite write = new PendingWrite(PendingWrite.CALL, petUri, null);
+        write.method = method;
+        write.arg = String.valueOf(ContentUris.parseId(petUri));
+        write.extras = extras;
+        enqueue(write, callback);
+    }
+
+    private synchronized void enqueue(PendingWrite write, Callback callback) {
+        write.callbacks.add(callback);
+        pending.add(write);
+        if (write.type == PendingWrite.UPDATE) {
+            pendingUpdates.put(write.uri, write);
+        } else if (write.type == PendingWrite.DELETE) {
+            // Updates queued after this delete must not be merged into ones queued before it
+            if (write.uri.equals(DbContract.PetsEntry.CONTENT_URI)) {
+                pendingUpdates.clear();
+            } else {
+                pendingUpdates.remove(write.uri);
+            }
+        } else if (write.type == PendingWrite.CALL) {
+            // Nor into ones queued before a call, which runs between them
+            pendingUpdates.clear();
+        }
+        if (!drainScheduled) {
+            drainScheduled = true;
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs on the writer thread: apply everything queued so far in one batch, or in one batch
+     * between every two calls, which run on their own.
+     */
+    private void drain() {
+        List<PendingWrite> writes;
+        synchronized (this) {
+            writes = pending;
+            pending = new ArrayList<PendingWrite>();
+            pendingUpdates.clear();
+            drainScheduled = false;
+        }
+
+        int first = 0;
+        for (int i = 0; i < writes.size(); i++) {
+            if (writes.get(i).type == PendingWrite.CALL) {
+                applyBatch(writes.subList(first, i));
+                applyCall(writes.get(i));
+                first = i + 1;
+            }
+        }
+        applyBatch(writes.subList(first, writes.size()));
+    }
+
+    private void applyBatch(List<PendingWrite> writes) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(writes.size());
+        for (PendingWrite write : writes) {
+            operations.add(write.toOperation());
+        }
+        try {
+            ContentProviderResult[] results = target.applyBatch(operations);
+            for (int i = 0; i < writes.size(); i++) {
+                writes.get(i).complete(results[i], null);
+            }
+        } catch (PartialBatchException e) {
+            // Some shelters committed their part. Applying those writes again would repeat them,
+            // inserting their pets twice, so only the others are retried.
+            Log.w(LOG_TAG, "Batch of " + writes.size() + " writes partly committed, retrying the rest", e);
+            for (int i = 0; i < writes.size(); i++) {
+                if (e.committed[i]) {
+                    writes.get(i).complete(e.results[i], null);
+                } else {
+                    applySingle(writes.get(i));
+                }
+            }
+        } catch (Exception e) {
+            // The batch was rolled back. Apply the writes one by one, so that only the ones
+            // that are actually invalid fail.
+            Log.w(LOG_TAG, "Batch of " + writes.size() + " writes failed, retrying one by one", e);
+            for (PendingWrite write : writes) {
+                applySingle(write);
+            }
+        }
+    }
+
+    private void applyCall(PendingWrite write) {
+        try {
+            Bundle result = target.call(write.method, write.arg, write.extras);
+            int count = result != null ? result.getInt(DbContract.EXTRA_COUNT, 1) : 1;
+            write.complete(new ContentProviderResult(count), null);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, write.method + " failed for " + write.uri, e);
+            write.complete(null, e);
+        }
+    }
+
+    private void applySingle(PendingWrite write) {
+        ArrayList<ContentProviderOperation> operation = new ArrayList<>(1);
+        operation.add(write.toOperation());
+        try {
+            write.complete(target.applyBatch(operation)[0], null);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Failed to write " + write.uri, e);
+            write.complete(null, e);
+        }
+    }
+
+    private void post(final Callback callback, final Result result) {
+        if (callback == null) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteComplete(result);
+            }
+        });
+    }
+
+    /**
+     * A write waiting in the queue, with everyone waiting for its outcome.
+     */
+    private final class PendingWrite {
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+        /** A provider method, run on its own between the batches before and after it */
+        static final int CALL = 3;
+
+        final int type;
+        final Uri uri;
+        final ContentValues values;
+        String method;
+        String arg;
+        Bundle extras;
+        final List<Callback> callbacks = new ArrayList<>(1);
+
+        PendingWrite(int type, Uri uri, ContentValues values) {
+            this.type = type;
+            this.uri = uri;
+            this.values = values;
+        }
+
+        ContentProviderOperation toOperation() {
+            switch (type) {
+                case INSERT:
+                    return ContentProviderOperation.newInsert(uri).withValues(values).build();
+                case UPDATE:
+                    return ContentProviderOperation.newUpdate(uri).withValues(values).build();
+                default:
+                    return ContentProviderOperation.newDelete(uri).build();
+            }
+        }
+
+        /**
+         * Hand the outcome to every callback on the main thread.
+         */
+        void complete(ContentProviderResult providerResult, Exception error) {
+            final Result result;
+            if (error != null) {
+                result = new Result(null, 0, error);
+            } else if (type == INSERT) {
+                result = new Result(providerResult.uri, providerResult.uri != null ? 1 : 0, null);
+            } else {
+                result = new Result(null, providerResult.count != null ? providerResult.count : 0, null);
+            }
+            for (Callback callback : callbacks) {
+                post(callback, result);
+            }
+        }
+    }
+}
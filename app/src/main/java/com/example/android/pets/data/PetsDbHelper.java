@@ -1,17 +1,300 @@
 package com.example.android.pets.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
 
 
 public class PetsDbHelper extends SQLiteOpenHelper {
 
-    public static final int DB_VERSION = 1;
+    private static final String LOG_TAG = PetsDbHelper.class.getSimpleName();
+
+    /** Value of PRAGMA auto_vacuum for incremental mode. */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Prepared statements kept per connection. The default of 25 is shared between the compiled
+     * statements, the paging and search queries and every ad hoc query, so the hot statements
+     * could be pushed out and recompiled.
+     */
+    private static final int SQL_CACHE_SIZE = 50;
+
+    public static final int DB_VERSION = 9;
     public static final String DB_NAME = "pets.db";
 
+    /** Index backing lookups and ordering by pet name. */
+    public static final String INDEX_PET_NAME = "pets_name_idx";
+    /** Index backing lookups and ordering by breed. */
+    public static final String INDEX_PET_BREED = "pets_breed_idx";
+    /** Index backing gender filters, optionally narrowed or ordered by weight. */
+    public static final String INDEX_PET_GENDER_WEIGHT = "pets_gender_weight_idx";
+    /** Index backing weight range filters and ordering by weight. */
+    public static final String INDEX_PET_WEIGHT = "pets_weight_idx";
+    /**
+     * Index backing gender filters in _ID order. Not covered by {@link #INDEX_PET_GENDER_WEIGHT}:
+     * an index holds the _ID after its columns, so only an index on gender alone is in _ID order
+     * within a gender.
+     */
+    public static final String INDEX_PET_GENDER = "pets_gender_idx";
+    /** Index backing gender filters in name order. */
+    public static final String INDEX_PET_GENDER_NAME = "pets_gender_name_idx";
+    /**
+     * Index backing the whole catalog in _ID order, and the compactor's search for deleted pets.
+     * <p>
+     * Queries only ever see pets that aren't deleted, so from version 8 on every index of the pets
+     * table starts with {@link DbContract.PetsEntry#COLUMN_PET_DELETED_AT}: its equality to 0
+     * comes first and the rest of each index keeps serving the same filters and orders. Partial
+     * indexes would be smaller, but need SQLite 3.8, which older releases don't have.
+     */
+    public static final String INDEX_PET_DELETED = "pets_deleted_idx";
+
+    /** Index of the change log by pet, to find a pet's latest change. */
+    public static final String INDEX_CHANGE_PET = "pet_changes_pet_idx";
+
+    /**
+     * Upgrade steps, in the order they are applied. Every version after 1 needs exactly one
+     * entry here, and the last entry must match {@link #DB_VERSION}.
+     */
+    static final DbMigration[] MIGRATIONS = {
+            new DbMigration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_NAME + " ON " +
+                            DbContract.PetsEntry.TABLE_NAME + " (" +
+                            DbContract.PetsEntry.COLUMN_PET_NAME + ");");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_BREED + " ON " +
+                            DbContract.PetsEntry.TABLE_NAME + " (" +
+                            DbContract.PetsEntry.COLUMN_PET_BREED + ");");
+                }
+            },
+            new DbMigration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_GENDER_WEIGHT + " ON " +
+                            DbContract.PetsEntry.TABLE_NAME + " (" +
+                            DbContract.PetsEntry.COLUMN_PET_GENDER + ", " +
+                            DbContract.PetsEntry.COLUMN_PET_WEIGHT + ");");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_WEIGHT + " ON " +
+                            DbContract.PetsEntry.TABLE_NAME + " (" +
+                            DbContract.PetsEntry.COLUMN_PET_WEIGHT + ");");
+                }
+            },
+            new DbMigration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createSearchIndex(db);
+                }
+            },
+            new DbMigration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createSummaryTables(db);
+                    createVersion5SummaryTriggers(db);
+                }
+            },
+            new DbMigration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // The photos themselves are files, see PetPhotoStore
+                    db.execSQL("ALTER TABLE " + DbContract.PetsEntry.TABLE_NAME + " ADD COLUMN " +
+                            DbContract.PetsEntry.COLUMN_PET_PHOTO_VERSION + " INTEGER;");
+                }
+            },
+            new DbMigration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Every sort order and filter of the catalog gets an index, see PetProvider
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_GENDER + " ON " +
+                            DbContract.PetsEntry.TABLE_NAME + " (" +
+                            DbContract.PetsEntry.COLUMN_PET_GENDER + ");");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_GENDER_NAME + " ON " +
+                            DbContract.PetsEntry.TABLE_NAME + " (" +
+                            DbContract.PetsEntry.COLUMN_PET_GENDER + ", " +
+                            DbContract.PetsEntry.COLUMN_PET_NAME + ");");
+                }
+            },
+            new DbMigration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    String pets = DbContract.PetsEntry.TABLE_NAME;
+                    String deletedAt = DbContract.PetsEntry.COLUMN_PET_DELETED_AT;
+                    String gender = DbContract.PetsEntry.COLUMN_PET_GENDER;
+                    String name = DbContract.PetsEntry.COLUMN_PET_NAME;
+                    String weight = DbContract.PetsEntry.COLUMN_PET_WEIGHT;
+                    // Deletes mark pets instead of removing them, see PetProvider
+                    db.execSQL("ALTER TABLE " + pets + " ADD COLUMN " + deletedAt +
+                            " INTEGER NOT NULL DEFAULT 0;");
+                    recreateIndex(db, INDEX_PET_NAME, deletedAt + ", " + name);
+                    recreateIndex(db, INDEX_PET_BREED, deletedAt + ", " + DbContract.PetsEntry.COLUMN_PET_BREED);
+                    recreateIndex(db, INDEX_PET_GENDER_WEIGHT, deletedAt + ", " + gender + ", " + weight);
+                    recreateIndex(db, INDEX_PET_WEIGHT, deletedAt + ", " + weight);
+                    recreateIndex(db, INDEX_PET_GENDER, deletedAt + ", " + gender);
+                    recreateIndex(db, INDEX_PET_GENDER_NAME, deletedAt + ", " + gender + ", " + name);
+                    recreateIndex(db, INDEX_PET_DELETED, deletedAt);
+                    // The statistics only count pets that aren't deleted, which the version 5
+                    // triggers can't tell, so they are replaced by the current ones
+                    dropSummaryTriggers(db);
+                    createSummaryTriggers(db);
+                }
+            },
+            new DbMigration(9) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createChangeLog(db);
+                }
+            }
+    };
+
+    static {
+        // Fail fast on a mis-ordered or incomplete migration list
+        int expected = 2;
+        for (DbMigration migration : MIGRATIONS) {
+            if (migration.version != expected) {
+                throw new IllegalStateException("Migration to version " + expected +
+                        " is missing or out of order");
+            }
+            expected++;
+        }
+        if (expected - 1 != DB_VERSION) {
+            throw new IllegalStateException("Migrations end at version " + (expected - 1) +
+                    " but DB_VERSION is " + DB_VERSION);
+        }
+    }
+
+    /**
+     * Connection settings applied every time the database is opened.
+     */
+    public static final class StorageProfile {
+
+        /** Leaves every setting at the platform default (rollback journal, FULL sync). */
+        public static final StorageProfile PLATFORM_DEFAULT =
+                new StorageProfile("platform default", false, null, 0, 0, null, null);
+
+        /**
+         * Write-ahead logging so catalog reads don't wait for saves, NORMAL sync (safe with WAL,
+         * only the last commits can be lost on power failure), 4 KiB pages, a 2 MiB page cache
+         * temporary tables in memory, and incremental auto-vacuum so freed pages can be given
+         * back to the file system without a full VACUUM.
+         */
+        public static final StorageProfile TUNED =
+                new StorageProfile("tuned", true, "NORMAL", 4096, 512, "MEMORY", "INCREMENTAL");
+
+        public final String name;
+        public final boolean writeAheadLogging;
+        /** Value for PRAGMA synchronous, or null to keep the default. */
+        public final String synchronous;
+        /** Page size in bytes, or 0 to keep the default. Only applies to new databases. */
+        public final int pageSize;
+        /** Page cache size in pages, or 0 to keep the default. */
+        public final int cacheSize;
+        /** Value for PRAGMA temp_store, or null to keep the default. */
+        public final String tempStore;
+        /**
+         * Value for PRAGMA auto_vacuum, or null to keep the default. New databases use it right
+         * away, existing ones switch over on their next VACUUM.
+         */
+        public final String autoVacuum;
+
+        public StorageProfile(String name, boolean writeAheadLogging, String synchronous,
+                              int pageSize, int cacheSize, String tempStore, String autoVacuum) {
+            this.name = name;
+            this.writeAheadLogging = writeAheadLogging;
+            this.synchronous = synchronous;
+            this.pageSize = pageSize;
+            this.cacheSize = cacheSize;
+            this.tempStore = tempStore;
+            this.autoVacuum = autoVacuum;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final StorageProfile storageProfile;
+    private final long shelter;
+
     public PetsDbHelper(Context context) {
-        super(context, DB_NAME, null, DB_VERSION);
+        this(context, DB_NAME, StorageProfile.TUNED);
+    }
+
+    /**
+     * @param name           file name of the database
+     * @param storageProfile connection settings to apply when the database is opened
+     */
+    public PetsDbHelper(Context context, String name, StorageProfile storageProfile) {
+        this(context, name, storageProfile, DbContract.PetsEntry.DEFAULT_SHELTER);
+    }
+
+    /**
+     * @param shelter shelter whose pets the database holds, which their _IDs start from, see
+     *                {@link DbContract.PetsEntry#SHELTER_ID_SHIFT}
+     */
+    public PetsDbHelper(Context context, String name, StorageProfile storageProfile, long shelter) {
+        super(context, name, null, DB_VERSION);
+        this.storageProfile = storageProfile;
+        this.shelter = shelter;
+    }
+
+    /**
+     * Apply the storage profile before the schema is created or upgraded. The page size has to
+     * be set before anything is written, and before the database switches to WAL.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (storageProfile.pageSize > 0) {
+            db.execSQL("PRAGMA page_size = " + storageProfile.pageSize);
+        }
+        if (storageProfile.autoVacuum != null) {
+            db.execSQL("PRAGMA auto_vacuum = " + storageProfile.autoVacuum);
+        }
+        if (storageProfile.writeAheadLogging) {
+            db.enableWriteAheadLogging();
+        } else {
+            db.disableWriteAheadLogging();
+        }
+        applyConnectionPragmas(db);
+    }
+
+    /**
+     * Size the prepared statement cache. onConfigure() only exists from API 16 on, so older
+     * releases also get the profile here, after the schema has been created with the default
+     * page size.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        db.setMaxSqlCacheSize(SQL_CACHE_SIZE);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            if (storageProfile.writeAheadLogging) {
+                db.enableWriteAheadLogging();
+            }
+            applyConnectionPragmas(db);
+        }
+    }
+
+    /**
+     * Apply the per-connection settings. Enabling WAL resets the sync mode, so this has to run
+     * after it.
+     */
+    private void applyConnectionPragmas(SQLiteDatabase db) {
+        if (storageProfile.synchronous != null) {
+            db.execSQL("PRAGMA synchronous = " + storageProfile.synchronous);
+        }
+        if (storageProfile.cacheSize > 0) {
+            db.execSQL("PRAGMA cache_size = " + storageProfile.cacheSize);
+        }
+        if (storageProfile.tempStore != null) {
+            db.execSQL("PRAGMA temp_store = " + storageProfile.tempStore);
+        }
     }
 
 
@@ -28,10 +311,343 @@ public class PetsDbHelper extends SQLiteOpenHelper {
 
         db.execSQL(SQL_CREATE_TABLE);
 
+        // AUTOINCREMENT continues from the highest _ID it has handed out, so seeding it makes
+        // every _ID of this database carry its shelter. The change log's sequence is seeded from
+        // it by the migrations.
+        if (shelter != DbContract.PetsEntry.DEFAULT_SHELTER) {
+            db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES ('" + DbContract.PetsEntry.TABLE_NAME +
+                    "', " + (shelter << DbContract.PetsEntry.SHELTER_ID_SHIFT) + ");");
+        }
+
+        // Fresh installs go through the same steps as upgraded ones,
+        // so both always end up with an identical schema.
+        migrate(db, 1, DB_VERSION);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    /**
+     * Apply every migration after {@code fromVersion} up to and including {@code toVersion}.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (DbMigration migration : MIGRATIONS) {
+            if (migration.version > fromVersion && migration.version <= toVersion) {
+                Log.i(LOG_TAG, "Migrating " + DB_NAME + " to version " + migration.version);
+                migration.migrate(db);
+            }
+        }
+    }
+
+    private static void recreateIndex(SQLiteDatabase db, String index, String columns) {
+        db.execSQL("DROP INDEX IF EXISTS " + index + ";");
+        db.execSQL("CREATE INDEX " + index + " ON " + DbContract.PetsEntry.TABLE_NAME +
+                " (" + columns + ");");
+    }
+
+    /**
+     * Delete every pet. A plain DELETE FROM pets has to visit every row to run the search index
+     * and summary triggers, so the search index and the triggers are dropped first, the pets table
+     * is then truncated in one step, and everything is recreated empty. Must run inside a
+     * transaction.
+     */
+    static void wipeAllPets(SQLiteDatabase db) {
+        // Log the deletes up front, in one statement rather than one trigger per row
+        db.execSQL("INSERT INTO " + DbContract.ChangesEntry.TABLE_NAME + " (" +
+                DbContract.ChangesEntry.COLUMN_PET_ID + ") SELECT " + DbContract.PetsEntry._ID + " FROM " +
+                DbContract.PetsEntry.TABLE_NAME + " WHERE " + DbContract.PetsEntry.COLUMN_PET_DELETED_AT +
+                " = 0 ORDER BY " + DbContract.PetsEntry._ID + ";");
+        dropSearchIndex(db);
+        dropSummaryTriggers(db);
+        dropChangeTriggers(db);
+        db.execSQL("DELETE FROM " + DbContract.PetsEntry.TABLE_NAME + ";");
+        db.execSQL("DELETE FROM " + DbContract.PetStatsEntry.GENDER_TABLE_NAME + ";");
+        db.execSQL("DELETE FROM " + DbContract.PetStatsEntry.BREED_TABLE_NAME + ";");
+        createSearchIndex(db);
+        createSummaryTriggers(db);
+        createChangeTriggers(db);
+    }
+
+    /**
+     * Mark every pet that isn't deleted yet as deleted at the given time. Like
+     * {@link #wipeAllPets}, the deletes are logged in one statement and the summary and change
+     * triggers are set aside while the pets table is updated, so no trigger runs per pet; the
+     * summary tables, which only count pets that aren't deleted, are simply emptied. The search
+     * index doesn't track deletes, so it stays. Must run inside a transaction.
+     *
+     * @return the number of pets marked
+     */
+    static int markAllPetsDeleted(SQLiteDatabase db, long deletedAt) {
+        String pets = DbContract.PetsEntry.TABLE_NAME;
+        String deleted = DbContract.PetsEntry.COLUMN_PET_DELETED_AT;
+        db.execSQL("INSERT INTO " + DbContract.ChangesEntry.TABLE_NAME + " (" +
+                DbContract.ChangesEntry.COLUMN_PET_ID + ") SELECT " + DbContract.PetsEntry._ID + " FROM " +
+                pets + " WHERE " + deleted + " = 0 ORDER BY " + DbContract.PetsEntry._ID + ";");
+        dropSummaryTriggers(db);
+        dropChangeTriggers(db);
+        SQLiteStatement mark = db.compileStatement("UPDATE " + pets + " SET " + deleted + " = ? WHERE " +
+                deleted + " = 0");
+        int count;
+        try {
+            mark.bindLong(1, deletedAt);
+            count = mark.executeUpdateDelete();
+        } finally {
+            mark.close();
+        }
+        db.execSQL("DELETE FROM " + DbContract.PetStatsEntry.GENDER_TABLE_NAME + ";");
+        db.execSQL("DELETE FROM " + DbContract.PetStatsEntry.BREED_TABLE_NAME + ";");
+        createSummaryTriggers(db);
+        createChangeTriggers(db);
+        return count;
+    }
+
+    /**
+     * Give the pages freed by deletes back to the file system. Uses an incremental vacuum when the
+     * database is already in incremental auto-vacuum mode, otherwise a full VACUUM, which also
+     * switches the database to the auto-vacuum mode of the storage profile. Must not run inside a
+     * transaction, and blocks writers while it runs, so call it off the main thread.
+     */
+    public void reclaimSpace() {
+        SQLiteDatabase db = getWritableDatabase();
+        long autoVacuum = DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null);
+        if (autoVacuum == AUTO_VACUUM_INCREMENTAL) {
+            // The pragma frees pages as it is stepped, so step it until it is done
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Nothing to read
+                }
+            } finally {
+                cursor.close();
+            }
+        } else {
+            db.execSQL("VACUUM");
+        }
+    }
+
+    /**
+     * Create the full-text table that mirrors pet names and breeds, fill it from the existing
+     * rows and add the triggers that keep it in sync with the pets table.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        String pets = DbContract.PetsEntry.TABLE_NAME;
+        String fts = DbContract.PetsEntry.FTS_TABLE_NAME;
+        String id = DbContract.PetsEntry._ID;
+        String name = DbContract.PetsEntry.COLUMN_PET_NAME;
+        String breed = DbContract.PetsEntry.COLUMN_PET_BREED;
+
+        db.execSQL("CREATE VIRTUAL TABLE " + fts + " USING fts4(" + name + ", " + breed + ");");
+        db.execSQL("INSERT INTO " + fts + " (docid, " + name + ", " + breed + ") SELECT " +
+                id + ", " + name + ", " + breed + " FROM " + pets + ";");
+
+        db.execSQL("CREATE TRIGGER " + fts + "_ai AFTER INSERT ON " + pets + " BEGIN " +
+                "INSERT INTO " + fts + " (docid, " + name + ", " + breed + ") VALUES (" +
+                "new." + id + ", new." + name + ", new." + breed + "); END;");
+        db.execSQL("CREATE TRIGGER " + fts + "_au AFTER UPDATE OF " + id + ", " + name + ", " +
+                breed + " ON " + pets + " BEGIN " +
+                "DELETE FROM " + fts + " WHERE docid = old." + id + "; " +
+                "INSERT INTO " + fts + " (docid, " + name + ", " + breed + ") VALUES (" +
+                "new." + id + ", new." + name + ", new." + breed + "); END;");
+        db.execSQL("CREATE TRIGGER " + fts + "_ad AFTER DELETE ON " + pets + " BEGIN " +
+                "DELETE FROM " + fts + " WHERE docid = old." + id + "; END;");
+    }
+
+    private static void dropSearchIndex(SQLiteDatabase db) {
+        String fts = DbContract.PetsEntry.FTS_TABLE_NAME;
+        db.execSQL("DROP TRIGGER IF EXISTS " + fts + "_ai;");
+        db.execSQL("DROP TRIGGER IF EXISTS " + fts + "_au;");
+        db.execSQL("DROP TRIGGER IF EXISTS " + fts + "_ad;");
+        db.execSQL("DROP TABLE IF EXISTS " + fts + ";");
+    }
+
+    /**
+     * Create the tables holding pets per gender (with their weight sum) and per breed, and fill
+     * them from the existing rows. Version 5 has no deleted pets, so every row is counted.
+     */
+    private static void createSummaryTables(SQLiteDatabase db) {
+        String pets = DbContract.PetsEntry.TABLE_NAME;
+        String genders = DbContract.PetStatsEntry.GENDER_TABLE_NAME;
+        String breeds = DbContract.PetStatsEntry.BREED_TABLE_NAME;
+        String gender = DbContract.PetsEntry.COLUMN_PET_GENDER;
+        String breed = DbContract.PetsEntry.COLUMN_PET_BREED;
+        String weight = DbContract.PetsEntry.COLUMN_PET_WEIGHT;
+        String count = DbContract.PetStatsEntry.COLUMN_COUNT;
+        String weightSum = DbContract.PetStatsEntry.COLUMN_WEIGHT_SUM;
+
+        db.execSQL("CREATE TABLE " + genders + " (" +
+                gender + " INTEGER PRIMARY KEY, " +
+                count + " INTEGER NOT NULL, " +
+                weightSum + " INTEGER NOT NULL);");
+        // A missing breed is stored as '', since NULL keys would never conflict
+        db.execSQL("CREATE TABLE " + breeds + " (" +
+                breed + " TEXT NOT NULL PRIMARY KEY, " +
+                count + " INTEGER NOT NULL);");
+
+        db.execSQL("INSERT INTO " + genders + " (" + gender + ", " + count + ", " + weightSum + ") " +
+                "SELECT " + gender + ", COUNT(*), SUM(" + weight + ") FROM " + pets +
+                " GROUP BY " + gender + ";");
+        db.execSQL("INSERT INTO " + breeds + " (" + breed + ", " + count + ") " +
+                "SELECT IFNULL(" + breed + ", ''), COUNT(*) FROM " + pets +
+                " GROUP BY IFNULL(" + breed + ", '');");
+    }
+
+    /**
+     * The summary triggers as migration 5 created them, which count every pet. Frozen: they may
+     * only use the columns of version 5, since an upgrade from an older version runs them on that
+     * schema until migration 8 replaces them with {@link #createSummaryTriggers}.
+     */
+    private static void createVersion5SummaryTriggers(SQLiteDatabase db) {
+        String pets = DbContract.PetsEntry.TABLE_NAME;
+        String gender = DbContract.PetsEntry.COLUMN_PET_GENDER;
+        String breed = DbContract.PetsEntry.COLUMN_PET_BREED;
+        String weight = DbContract.PetsEntry.COLUMN_PET_WEIGHT;
+
+        db.execSQL("CREATE TRIGGER pets_stats_ai AFTER INSERT ON " + pets + " BEGIN " +
+                countPet("new") + "END;");
+        db.execSQL("CREATE TRIGGER pets_stats_au AFTER UPDATE OF " + gender + ", " + breed + ", " +
+                weight + " ON " + pets + " BEGIN " + uncountPet("old") + countPet("new") + "END;");
+        db.execSQL("CREATE TRIGGER pets_stats_ad AFTER DELETE ON " + pets + " BEGIN " +
+                uncountPet("old") + "END;");
+    }
+
+    /**
+     * Add the triggers that count every inserted, updated and deleted pet in the summary tables.
+     * Rows are added to a summary table when their first pet arrives and removed with the last.
+     * Deleted pets aren't counted: marking a pet deleted uncounts it, restoring it counts it
+     * again, and purging it changes nothing. Needs
+     * {@link DbContract.PetsEntry#COLUMN_PET_DELETED_AT}, so from migration 8 on.
+     */
+    private static void createSummaryTriggers(SQLiteDatabase db) {
+        String pets = DbContract.PetsEntry.TABLE_NAME;
+        String gender = DbContract.PetsEntry.COLUMN_PET_GENDER;
+        String breed = DbContract.PetsEntry.COLUMN_PET_BREED;
+        String weight = DbContract.PetsEntry.COLUMN_PET_WEIGHT;
+        String deletedAt = DbContract.PetsEntry.COLUMN_PET_DELETED_AT;
+        String columns = gender + ", " + breed + ", " + weight + ", " + deletedAt;
+
+        db.execSQL("CREATE TRIGGER pets_stats_ai AFTER INSERT ON " + pets +
+                " WHEN new." + deletedAt + " = 0 BEGIN " + countPet("new") + "END;");
+        // One trigger per side of the update, as either side may be a deleted pet
+        db.execSQL("CREATE TRIGGER pets_stats_au_old AFTER UPDATE OF " + columns + " ON " + pets +
+                " WHEN old." + deletedAt + " = 0 BEGIN " + uncountPet("old") + "END;");
+        db.execSQL("CREATE TRIGGER pets_stats_au_new AFTER UPDATE OF " + columns + " ON " + pets +
+                " WHEN new." + deletedAt + " = 0 BEGIN " + countPet("new") + "END;");
+        db.execSQL("CREATE TRIGGER pets_stats_ad AFTER DELETE ON " + pets +
+                " WHEN old." + deletedAt + " = 0 BEGIN " + uncountPet("old") + "END;");
+    }
+
+    /**
+     * Trigger statements adding the "new" or "old" pet to the summary tables. INSERT OR IGNORE
+     * followed by UPDATE stands in for an upsert, which older SQLite versions don't have. The
+     * version 5 triggers use these too, so they must stick to the columns of version 5.
+     */
+    private static String countPet(String row) {
+        String genders = DbContract.PetStatsEntry.GENDER_TABLE_NAME;
+        String breeds = DbContract.PetStatsEntry.BREED_TABLE_NAME;
+        String gender = DbContract.PetsEntry.COLUMN_PET_GENDER;
+        String breed = DbContract.PetsEntry.COLUMN_PET_BREED;
+        String count = DbContract.PetStatsEntry.COLUMN_COUNT;
+        String weightSum = DbContract.PetStatsEntry.COLUMN_WEIGHT_SUM;
+        String rowBreed = "IFNULL(" + row + "." + breed + ", '')";
+
+        return "INSERT OR IGNORE INTO " + genders + " (" + gender + ", " + count + ", " + weightSum +
+                ") VALUES (" + row + "." + gender + ", 0, 0); " +
+                "UPDATE " + genders + " SET " + count + " = " + count + " + 1, " +
+                weightSum + " = " + weightSum + " + " + row + "." + DbContract.PetsEntry.COLUMN_PET_WEIGHT +
+                " WHERE " + gender + " = " + row + "." + gender + "; " +
+                "INSERT OR IGNORE INTO " + breeds + " (" + breed + ", " + count + ") VALUES (" +
+                rowBreed + ", 0); " +
+                "UPDATE " + breeds + " SET " + count + " = " + count + " + 1" +
+                " WHERE " + breed + " = " + rowBreed + "; ";
+    }
+
+    /**
+     * Trigger statements removing the "old" pet from the summary tables, dropping the
+     * summary rows that no pet is counted in anymore.
+     */
+    private static String uncountPet(String row) {
+        String genders = DbContract.PetStatsEntry.GENDER_TABLE_NAME;
+        String breeds = DbContract.PetStatsEntry.BREED_TABLE_NAME;
+        String gender = DbContract.PetsEntry.COLUMN_PET_GENDER;
+        String breed = DbContract.PetsEntry.COLUMN_PET_BREED;
+        String count = DbContract.PetStatsEntry.COLUMN_COUNT;
+        String weightSum = DbContract.PetStatsEntry.COLUMN_WEIGHT_SUM;
+        String rowBreed = "IFNULL(" + row + "." + breed + ", '')";
+
+        return "UPDATE " + genders + " SET " + count + " = " + count + " - 1, " +
+                weightSum + " = " + weightSum + " - " + row + "." + DbContract.PetsEntry.COLUMN_PET_WEIGHT +
+                " WHERE " + gender + " = " + row + "." + gender + "; " +
+                "DELETE FROM " + genders + " WHERE " + gender + " = " + row + "." + gender +
+                " AND " + count + " = 0; " +
+                "UPDATE " + breeds + " SET " + count + " = " + count + " - 1" +
+                " WHERE " + breed + " = " + rowBreed + "; " +
+                "DELETE FROM " + breeds + " WHERE " + breed + " = " + rowBreed +
+                " AND " + count + " = 0; ";
+    }
+
+    private static void dropSummaryTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS pets_stats_ai;");
+        db.execSQL("DROP TRIGGER IF EXISTS pets_stats_au;");
+        db.execSQL("DROP TRIGGER IF EXISTS pets_stats_au_old;");
+        db.execSQL("DROP TRIGGER IF EXISTS pets_stats_au_new;");
+        db.execSQL("DROP TRIGGER IF EXISTS pets_stats_ad;");
+    }
+
+    /**
+     * Create the change log, see {@link DbContract.ChangesEntry}, with an entry for every pet
+     * there already is, so the first sync sends them all, and add the triggers that log every
+     * change from then on. The log's sequence starts from the shelter bits of the pets' own,
+     * which onCreate() seeds for a new shelter, so it is numbered from the shelter as well.
+     */
+    private static void createChangeLog(SQLiteDatabase db) {
+        String pets = DbContract.PetsEntry.TABLE_NAME;
+        String changes = DbContract.ChangesEntry.TABLE_NAME;
+        String petId = DbContract.ChangesEntry.COLUMN_PET_ID;
+        int shift = DbContract.PetsEntry.SHELTER_ID_SHIFT;
+
+        db.execSQL("CREATE TABLE " + changes + " (" +
+                DbContract.ChangesEntry.COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                petId + " INTEGER NOT NULL);");
+        // Entries of an index are ordered by sequence number within a pet as well
+        db.execSQL("CREATE INDEX " + INDEX_CHANGE_PET + " ON " + changes + " (" + petId + ");");
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + changes + "', seq >> " + shift +
+                " << " + shift + " FROM sqlite_sequence WHERE name = '" + pets + "';");
+        db.execSQL("INSERT INTO " + changes + " (" + petId + ") SELECT " + DbContract.PetsEntry._ID +
+                " FROM " + pets + " WHERE " + DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = 0 ORDER BY " +
+                DbContract.PetsEntry._ID + ";");
+        createChangeTriggers(db);
+    }
+
+    /**
+     * Add the triggers logging every change to a pet that isn't deleted, or that is deleted or
+     * restored by it. Setting a photo isn't a change to log; neither is purging a deleted pet.
+     */
+    private static void createChangeTriggers(SQLiteDatabase db) {
+        String pets = DbContract.PetsEntry.TABLE_NAME;
+        String id = DbContract.PetsEntry._ID;
+        String deletedAt = DbContract.PetsEntry.COLUMN_PET_DELETED_AT;
+        String columns = id + ", " + DbContract.PetsEntry.COLUMN_PET_NAME + ", " +
+                DbContract.PetsEntry.COLUMN_PET_BREED + ", " + DbContract.PetsEntry.COLUMN_PET_GENDER + ", " +
+                DbContract.PetsEntry.COLUMN_PET_WEIGHT + ", " + deletedAt;
+        String log = "INSERT INTO " + DbContract.ChangesEntry.TABLE_NAME + " (" +
+                DbContract.ChangesEntry.COLUMN_PET_ID + ") ";
+
+        db.execSQL("CREATE TRIGGER pet_changes_ai AFTER INSERT ON " + pets +
+                " WHEN new." + deletedAt + " = 0 BEGIN " + log + "VALUES (new." + id + "); END;");
+        // A pet whose _ID changes is gone from its old _ID
+        db.execSQL("CREATE TRIGGER pet_changes_au AFTER UPDATE OF " + columns + " ON " + pets +
+                " WHEN old." + deletedAt + " = 0 OR new." + deletedAt + " = 0 BEGIN " +
+                log + "SELECT old." + id + " WHERE old." + id + " != new." + id + "; " +
+                log + "VALUES (new." + id + "); END;");
+        db.execSQL("CREATE TRIGGER pet_changes_ad AFTER DELETE ON " + pets +
+                " WHEN old." + deletedAt + " = 0 BEGIN " + log + "VALUES (old." + id + "); END;");
+    }
 
+    private static void dropChangeTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS pet_changes_ai;");
+        db.execSQL("DROP TRIGGER IF EXISTS pet_changes_au;");
+        db.execSQL("DROP TRIGGER IF EXISTS pet_changes_ad;");
     }
 }
@@ -0,0 +1,202 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link ProviderMetrics} counts the calls, failures, rows and latency of every provider
+ * operation, separately for each URI match code, plus the change notifications sent.
+ * <p>
+ * Recording only updates atomic counters in arrays allocated up front, so it takes no lock and
+ * allocates nothing. Latencies go into a histogram of power of two buckets in microseconds, from
+ * which the percentiles are estimated. A snapshot reads the counters one by one, so it can be
+ * off by the calls in flight while it is taken.
+ */
+final class ProviderMetrics {
+
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int GET_TYPE = 4;
+
+    /** Row count of a call that threw. */
+    static final int FAILED = Integer.MIN_VALUE;
+    /** Row count of a query whose cursor hasn't counted its rows, which only counts the call. */
+    static final int UNKNOWN_ROWS = -1;
+
+    private static final String[] OPERATION_NAMES = {"query", "insert", "update", "delete", "getType"};
+
+    /** Bucket b counts latencies below 2^b microseconds, the last one everything above. */
+    private static final int BUCKETS = 25;
+
+    private static final String[] COLUMNS = {
+            DbContract.MetricsEntry.COLUMN_OPERATION,
+            DbContract.MetricsEntry.COLUMN_URI,
+            DbContract.MetricsEntry.COLUMN_CALLS,
+            DbContract.MetricsEntry.COLUMN_ERRORS,
+            DbContract.MetricsEntry.COLUMN_ROWS,
+            DbContract.MetricsEntry.COLUMN_TOTAL_MS,
+            DbContract.MetricsEntry.COLUMN_P50_MS,
+            DbContract.MetricsEntry.COLUMN_P90_MS,
+            DbContract.MetricsEntry.COLUMN_P99_MS,
+            DbContract.MetricsEntry.COLUMN_MAX_MS,
+            DbContract.MetricsEntry.COLUMN_HISTOGRAM
+    };
+
+    private final int firstMatch;
+    /** URI pattern of each match code, from firstMatch on. Other codes share one extra slot. */
+    private final String[] uriPatterns;
+    private final int slots;
+
+    private final AtomicLongArray calls;
+    private final AtomicLongArray errors;
+    private final AtomicLongArray rows;
+    private final AtomicLongArray totalNanos;
+    private final AtomicLongArray maxNanos;
+    private final AtomicLongArray histogram;
+    private final AtomicLong notifications = new AtomicLong();
+
+    /**
+     * @param firstMatch  match code of the first URI pattern
+     * @param uriPatterns URI pattern of each consecutive match code, used to label the snapshot
+     */
+    ProviderMetrics(int firstMatch, String... uriPatterns) {
+        this.firstMatch = firstMatch;
+        this.uriPatterns = uriPatterns;
+        slots = uriPatterns.length + 1;
+        int series = OPERATION_NAMES.length * slots;
+        calls = new AtomicLongArray(series);
+        errors = new AtomicLongArray(series);
+        rows = new AtomicLongArray(series);
+        totalNanos = new AtomicLongArray(series);
+        maxNanos = new AtomicLongArray(series);
+        histogram = new AtomicLongArray(series * BUCKETS);
+    }
+
+    /**
+     * The number of rows of a cursor if it is known without reading it, else
+     * {@link #UNKNOWN_ROWS}. A SQLite cursor counts its rows by running its query to the end,
+     * which the caller may never have needed, so it is left alone.
+     */
+    static int knownRowCount(Cursor cursor) {
+        if (cursor instanceof MatrixCursor || cursor instanceof SortedMergeCursor) {
+            return cursor.getCount();
+        }
+        return UNKNOWN_ROWS;
+    }
+
+    /**
+     * Record one call.
+     *
+     * @param rowCount rows returned or affected, {@link #UNKNOWN_ROWS}, or {@link #FAILED}
+     */
+    void record(int operation, int match, long elapsedNanos, int rowCount) {
+        int slot = match - firstMatch;
+        if (slot < 0 || slot >= uriPatterns.length) {
+            slot = uriPatterns.length;
+        }
+        int series = operation * slots + slot;
+        calls.incrementAndGet(series);
+        if (rowCount == FAILED) {
+            errors.incrementAndGet(series);
+        } else if (rowCount > 0) {
+            rows.addAndGet(series, rowCount);
+        }
+        totalNanos.addAndGet(series, elapsedNanos);
+        long max;
+        do {
+            max = maxNanos.get(series);
+        } while (elapsedNanos > max && !maxNanos.compareAndSet(series, max, elapsedNanos));
+        histogram.incrementAndGet(series * BUCKETS + bucket(elapsedNanos));
+    }
+
+    void recordNotification() {
+        notifications.incrementAndGet();
+    }
+
+    /**
+     * A snapshot with the columns of {@link DbContract.MetricsEntry}: one row for every operation
+     * and URI pattern that has been called, and a last row counting change notifications.
+     */
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        long[] buckets = new long[BUCKETS];
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int slot = 0; slot < slots; slot++) {
+                int series = operation * slots + slot;
+                long count = calls.get(series);
+                if (count == 0) {
+                    continue;
+                }
+                long total = 0;
+                for (int b = 0; b < BUCKETS; b++) {
+                    buckets[b] = histogram.get(series * BUCKETS + b);
+                    total += buckets[b];
+                }
+                long max = maxNanos.get(series);
+                cursor.addRow(new Object[] {
+                        OPERATION_NAMES[operation],
+                        slot < uriPatterns.length ? uriPatterns[slot] : null,
+                        count,
+                        errors.get(series),
+                        rows.get(series),
+                        totalNanos.get(series) / 1e6,
+                        percentileMillis(buckets, total, 0.50, max),
+                        percentileMillis(buckets, total, 0.90, max),
+                        percentileMillis(buckets, total, 0.99, max),
+                        max / 1e6,
+                        formatHistogram(buckets)
+                });
+            }
+        }
+        cursor.addRow(new Object[] {
+                DbContract.MetricsEntry.OPERATION_NOTIFY_CHANGE, null, notifications.get(),
+                0, 0, 0, 0, 0, 0, 0, null
+        });
+        return cursor;
+    }
+
+    private static int bucket(long elapsedNanos) {
+        long micros = elapsedNanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, but never more than the maximum.
+     */
+    private static double percentileMillis(long[] buckets, long total, double fraction, long maxNanos) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets[b];
+            if (seen >= rank) {
+                return Math.min((1L << b) * 1000, maxNanos) / 1e6;
+            }
+        }
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * Non-empty buckets as "upper bound in microseconds:count" pairs, e.g. "256:12 512:3".
+     */
+    private static String formatHistogram(long[] buckets) {
+        StringBuilder text = new StringBuilder();
+        for (int b = 0; b < BUCKETS; b++) {
+            if (buckets[b] == 0) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(b < BUCKETS - 1 ? String.valueOf(1L << b) : "inf").append(':').append(buckets[b]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * {@link RosterBenchmark} measures the roster round trip: importing a synthetic CSV roster,
+ * exporting every pet as CSV and as JSON through {@link PetProvider#openTypedAssetFile}, and
+ * importing the JSON export again. It reports rows per second and megabytes per second for each
+ * step. It runs against a scratch provider and database file, which are deleted afterwards
+ * together with the roster files. Never call it on the main thread.
+ */
+public final class RosterBenchmark {
+
+    private static final String LOG_TAG = RosterBenchmark.class.getSimpleName();
+
+    private static final String DB_NAME = "benchmark_roster.db";
+
+    private RosterBenchmark() {}
+
+    /**
+     * Run the round trip with the given number of pets and return a human readable report, one
+     * line per step. The report is also logged.
+     */
+    public static String run(Context context, int rows) throws IOException {
+        context.deleteDatabase(DB_NAME);
+        File csv = new File(context.getCacheDir(), "benchmark_roster.csv");
+        File json = new File(context.getCacheDir(), "benchmark_roster.json");
+        PetProvider provider = new PetProvider(DB_NAME, false);
+        provider.attachInfo(context, null);
+        try {
+            StringBuilder report = new StringBuilder();
+            writeRoster(csv, rows);
+
+            long start = SystemClock.elapsedRealtime();
+            PetRosterImporter.Result result = importFile(provider, csv, DbContract.PetsEntry.MIME_TYPE_CSV);
+            report(report, "import csv", result.imported, csv.length(), SystemClock.elapsedRealtime() - start);
+
+            start = SystemClock.elapsedRealtime();
+            long bytes = export(provider, DbContract.PetsEntry.MIME_TYPE_CSV, null);
+            report(report, "export csv", rows, bytes, SystemClock.elapsedRealtime() - start);
+
+            start = SystemClock.elapsedRealtime();
+            bytes = export(provider, DbContract.PetsEntry.MIME_TYPE_JSON, json);
+            report(report, "export json", rows, bytes, SystemClock.elapsedRealtime() - start);
+
+            // Import the export into an empty table, so the two imports write the same rows
+            provider.call(DbContract.METHOD_WIPE_ALL_PETS, null, null);
+            start = SystemClock.elapsedRealtime();
+            result = importFile(provider, json, DbContract.PetsEntry.MIME_TYPE_JSON);
+            report(report, "import json", result.imported, json.length(), SystemClock.elapsedRealtime() - start);
+            return report.toString();
+        } finally {
+            provider.shutdown();
+            context.deleteDatabase(DB_NAME);
+            csv.delete();
+            json.delete();
+        }
+    }
+
+    private static void writeRoster(File file, int rows) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024);
+        try {
+            PetRosterWriter writer = PetRosterWriter.create(DbContract.PetsEntry.MIME_TYPE_CSV, out);
+            writer.begin();
+            for (int i = 0; i < rows; i++) {
+                // Every tenth pet has a breed that needs quoting, like the ones people type
+                writer.writePet(i + 1, "Pet " + i, i % 10 == 0 ? "Mixed, \"mostly\" " + (i % 100) : "Breed " + (i % 100),
+                        i % 3, i % 60);
+            }
+            writer.end();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static PetRosterImporter.Result importFile(PetProvider provider, File file, String mimeType)
+            throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return PetRosterImporter.importRoster(provider, in, mimeType,
+                    PetRosterImporter.DEFAULT_CHUNK_SIZE, null);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the whole export of the given type, keeping a copy in the given file if it isn't null.
+     *
+     * @return the size of the export in bytes
+     */
+    private static long export(PetProvider provider, String mimeType, File copy) throws IOException {
+        AssetFileDescriptor export = provider.openTypedAssetFile(DbContract.PetsEntry.CONTENT_URI, mimeType, null);
+        InputStream in = export.createInputStream();
+        OutputStream out = copy != null ? new FileOutputStream(copy) : null;
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            long bytes = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out != null) {
+                    out.write(buffer, 0, read);
+                }
+                bytes += read;
+            }
+            return bytes;
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private static void report(StringBuilder report, String step, long rows, long bytes, long elapsedMillis) {
+        double seconds = Math.max(1, elapsedMillis) / 1000.0;
+        String line = String.format("%s: %d pets, %.1f MB in %d ms, %.0f pets/s, %.1f MB/s",
+                step, rows, bytes / 1e6, elapsedMillis, rows / seconds, bytes / 1e6 / seconds);
+        Log.i(LOG_TAG, line);
+        report.append(line).append('\n');
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * {@link SlowQueryLog} keeps the most recent queries that took at least a threshold to run,
+ * together with the plan SQLite chose for them, in a fixed size ring buffer. It is off until a
+ * threshold is set, and costs a single volatile read per query while it is off.
+ */
+final class SlowQueryLog {
+
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    private static final String[] COLUMNS = {
+            DbContract.SlowQueryEntry._ID,
+            DbContract.SlowQueryEntry.COLUMN_TIME,
+            DbContract.SlowQueryEntry.COLUMN_DURATION_MS,
+            DbContract.SlowQueryEntry.COLUMN_URI,
+            DbContract.SlowQueryEntry.COLUMN_SQL,
+            DbContract.SlowQueryEntry.COLUMN_ARGS,
+            DbContract.SlowQueryEntry.COLUMN_ROWS,
+            DbContract.SlowQueryEntry.COLUMN_PLAN
+    };
+
+    /** Index of the "detail" column in the output of EXPLAIN QUERY PLAN. */
+    private static final int PLAN_DETAIL_COLUMN = 3;
+
+    /** Threshold in nanoseconds, or -1 while the log is off. */
+    private volatile long thresholdNanos = -1;
+
+    private final Object[][] entries;
+    /** Number of slow queries logged so far, the next one goes to entries[logged % capacity]. */
+    private long logged;
+
+    SlowQueryLog(int capacity) {
+        entries = new Object[capacity][];
+    }
+
+    /**
+     * Log queries taking at least the given number of milliseconds, or turn the log off if it
+     * is negative. Turning the log off clears it.
+     */
+    synchronized void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            thresholdNanos = -1;
+            logged = 0;
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = null;
+            }
+        } else {
+            thresholdNanos = thresholdMillis * 1000000L;
+        }
+    }
+
+    boolean isEnabled() {
+        return thresholdNanos >= 0;
+    }
+
+    /**
+     * Run a query and log it if it is slow. The cursor is counted before it is returned, since
+     * SQLite only runs the query once the cursor fills its first window.
+     */
+    Cursor rawQuery(SQLiteDatabase database, Uri uri, String sql, String[] args) {
+        long threshold = thresholdNanos;
+        if (threshold < 0) {
+            return database.rawQuery(sql, args);
+        }
+        long start = System.nanoTime();
+        Cursor cursor = database.rawQuery(sql, args);
+        int rows = cursor.getCount();
+        long elapsed = System.nanoTime() - start;
+        if (elapsed >= threshold) {
+            String plan = explain(database, sql, args);
+            Log.w(LOG_TAG, String.format("%.1f ms, %d rows: %s\n%s", elapsed / 1e6, rows, sql, plan));
+            add(uri, sql, args, elapsed, rows, plan);
+        }
+        return cursor;
+    }
+
+    /**
+     * Read one column of a pet with a compiled statement, see {@link PetStatements#readColumn},
+     * and log the read if it is slow. The statement runs as it is read, so the cursor is counted
+     * already.
+     */
+    Cursor readColumn(PetStatements statements, SQLiteDatabase database, Uri uri, long id, String column) {
+        long threshold = thresholdNanos;
+        if (threshold < 0) {
+            return statements.readColumn(id, column);
+        }
+        long start = System.nanoTime();
+        Cursor cursor = statements.readColumn(id, column);
+        long elapsed = System.nanoTime() - start;
+        if (elapsed >= threshold) {
+            String sql = PetStatements.getReadSql(column);
+            String[] args = { String.valueOf(id) };
+            int rows = cursor.getCount();
+            String plan = explain(database, sql, args);
+            Log.w(LOG_TAG, String.format("%.1f ms, %d rows: %s\n%s", elapsed / 1e6, rows, sql, plan));
+            add(uri, sql, args, elapsed, rows, plan);
+        }
+        return cursor;
+    }
+
+    /**
+     * The logged queries, newest first, with the columns of {@link DbContract.SlowQueryEntry}.
+     */
+    synchronized Cursor toCursor() {
+        int count = (int) Math.min(logged, entries.length);
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, count);
+        for (int i = 0; i < count; i++) {
+            cursor.addRow(entries[(int) ((logged - 1 - i) % entries.length)]);
+        }
+        return cursor;
+    }
+
+    private synchronized void add(Uri uri, String sql, String[] args, long elapsedNanos, int rows,
+                                  String plan) {
+        // The log may have been turned off while the query ran
+        if (thresholdNanos < 0) {
+            return;
+        }
+        entries[(int) (logged % entries.length)] = new Object[] {
+                logged + 1,
+                System.currentTimeMillis(),
+                elapsedNanos / 1e6,
+                uri.toString(),
+                sql,
+                args != null ? TextUtils.join(", ", args) : null,
+                rows,
+                plan
+        };
+        logged++;
+    }
+
+    /**
+     * The plan SQLite uses for the given query, one step per line.
+     */
+    private static String explain(SQLiteDatabase database, String sql, String[] args) {
+        Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            StringBuilder steps = new StringBuilder();
+            while (plan.moveToNext()) {
+                if (steps.length() > 0) {
+                    steps.append('\n');
+                }
+                steps.append(plan.getString(PLAN_DETAIL_COLUMN));
+            }
+            return steps.toString();
+        } finally {
+            plan.close();
+        }
+    }
+}
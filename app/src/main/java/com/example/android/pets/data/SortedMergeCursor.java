@@ -0,0 +1,302 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link SortedMergeCursor} merges cursors that are each sorted in the same order into one cursor
+ * in that order, for queries spanning several shelters, see {@link PetShards}. Rows are merged
+ * as the cursor moves forward, only remembering which cursor each row came from and where, so
+ * rows are never copied and a page that is only partly read is only partly merged. Rows that
+ * compare equal keep the order of the cursors, so without a sort order the cursors follow each
+ * other.
+ * <p>
+ * Only the merge is lazy. Moving a cursor checks the position against its count, and a SQLite
+ * cursor counts its rows by running its query to the end, so every cursor is counted up front,
+ * for its full result. Callers bound that by limiting each cursor's query to the rows the merge
+ * may return.
+ * <p>
+ * Values compare the way SQLite orders them: NULL first, then numbers, then text, then blobs.
+ * Text is compared by UTF-16 code unit rather than by UTF-8 byte, which only differs from SQLite
+ * for characters outside the Basic Multilingual Plane.
+ */
+final class SortedMergeCursor extends AbstractCursor {
+
+    /**
+     * A column of the order the cursors are sorted in.
+     */
+    static final class SortKey {
+        final String column;
+        final boolean descending;
+
+        SortKey(String column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+    }
+
+    /**
+     * Parse an ORDER BY clause made of plain column names, each optionally followed by ASC or
+     * DESC. A null or empty clause is no order at all.
+     *
+     * @throws IllegalArgumentException for anything else, such as expressions or collations,
+     *                                  which can't be compared outside SQLite
+     */
+    static SortKey[] parseOrder(String orderBy) {
+        if (orderBy == null || orderBy.trim().length() == 0) {
+            return new SortKey[0];
+        }
+        String[] terms = orderBy.split(",");
+        SortKey[] keys = new SortKey[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            String[] words = terms[i].trim().split("\\s+");
+            boolean descending = false;
+            if (words.length == 2) {
+                String direction = words[1].toUpperCase(Locale.US);
+                if (direction.equals("DESC")) {
+                    descending = true;
+                } else if (!direction.equals("ASC")) {
+                    throw new IllegalArgumentException("Cannot merge shelters in the order " + orderBy);
+                }
+            } else if (words.length != 1) {
+                throw new IllegalArgumentException("Cannot merge shelters in the order " + orderBy);
+            }
+            if (!isColumnName(words[0])) {
+                throw new IllegalArgumentException("Cannot merge shelters in the order " + orderBy);
+            }
+            keys[i] = new SortKey(words[0], descending);
+        }
+        return keys;
+    }
+
+    private static boolean isColumnName(String word) {
+        if (word.length() == 0 || Character.isDigit(word.charAt(0))) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The projection with the sort columns it lacks appended, so each cursor has the values to
+     * merge on. A null projection, every column, is returned as is.
+     */
+    static String[] withSortColumns(String[] projection, SortKey[] keys) {
+        if (projection == null) {
+            return null;
+        }
+        List<String> columns = new ArrayList<String>(Arrays.asList(projection));
+        for (SortKey key : keys) {
+            if (!columns.contains(key.column)) {
+                columns.add(key.column);
+            }
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    private final Cursor[] cursors;
+    private final SortKey[] keys;
+    /** Index of every sort column in each cursor */
+    private final int[][] keyColumns;
+    private final String[] columnNames;
+    private final int count;
+
+    /** Position in each cursor of its first row that isn't merged yet */
+    private final int[] nextRows;
+    /** Cursor and position in it of every merged row */
+    private int[] rowCursors = new int[64];
+    private int[] rowPositions = new int[64];
+    private int mergedRows;
+
+    private Cursor current;
+
+    /**
+     * @param cursors       cursors over the same columns, each sorted by the keys, already
+     *                      counted, and each holding no more than the limit
+     * @param keys          the order the cursors are sorted in
+     * @param hiddenColumns number of trailing columns that were only added to merge on, see
+     *                      {@link #withSortColumns}, and are left out of this cursor's columns
+     * @param limit         most rows to merge, or -1 for every row
+     */
+    SortedMergeCursor(Cursor[] cursors, SortKey[] keys, int hiddenColumns, int limit) {
+        this.cursors = cursors;
+        this.keys = keys;
+        String[] names = cursors[0].getColumnNames();
+        columnNames = Arrays.copyOf(names, names.length - hiddenColumns);
+        keyColumns = new int[cursors.length][keys.length];
+        int rows = 0;
+        for (int i = 0; i < cursors.length; i++) {
+            for (int k = 0; k < keys.length; k++) {
+                keyColumns[i][k] = cursors[i].getColumnIndexOrThrow(keys[k].column);
+            }
+            rows += cursors[i].getCount();
+        }
+        count = limit >= 0 ? Math.min(rows, limit) : rows;
+        nextRows = new int[cursors.length];
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        while (mergedRows <= newPosition) {
+            mergeNextRow();
+        }
+        current = cursors[rowCursors[newPosition]];
+        return current.moveToPosition(rowPositions[newPosition]);
+    }
+
+    /**
+     * Take the first of the cursors' next rows.
+     */
+    private void mergeNextRow() {
+        int first = -1;
+        for (int i = 0; i < cursors.length; i++) {
+            if (nextRows[i] >= cursors[i].getCount()) {
+                continue;
+            }
+            cursors[i].moveToPosition(nextRows[i]);
+            if (first < 0 || compareRows(i, first) < 0) {
+                first = i;
+            }
+        }
+        if (mergedRows == rowCursors.length) {
+            rowCursors = Arrays.copyOf(rowCursors, mergedRows * 2);
+            rowPositions = Arrays.copyOf(rowPositions, mergedRows * 2);
+        }
+        rowCursors[mergedRows] = first;
+        rowPositions[mergedRows] = nextRows[first]++;
+        mergedRows++;
+    }
+
+    private int compareRows(int a, int b) {
+        for (int k = 0; k < keys.length; k++) {
+            int result = compareValues(cursors[a], keyColumns[a][k], cursors[b], keyColumns[b][k]);
+            if (result != 0) {
+                return keys[k].descending ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareValues(Cursor a, int columnA, Cursor b, int columnB) {
+        int typeA = a.getType(columnA);
+        int typeB = b.getType(columnB);
+        int classA = getTypeClass(typeA);
+        int classB = getTypeClass(typeB);
+        if (classA != classB) {
+            return classA < classB ? -1 : 1;
+        }
+        switch (typeA) {
+            case FIELD_TYPE_NULL:
+                return 0;
+            case FIELD_TYPE_INTEGER:
+            case FIELD_TYPE_FLOAT:
+                if (typeA == FIELD_TYPE_INTEGER && typeB == FIELD_TYPE_INTEGER) {
+                    long x = a.getLong(columnA);
+                    long y = b.getLong(columnB);
+                    return x < y ? -1 : (x == y ? 0 : 1);
+                }
+                return Double.compare(a.getDouble(columnA), b.getDouble(columnB));
+            case FIELD_TYPE_STRING:
+                return a.getString(columnA).compareTo(b.getString(columnB));
+            default:
+                byte[] x = a.getBlob(columnA);
+                byte[] y = b.getBlob(columnB);
+                for (int i = 0; i < x.length && i < y.length; i++) {
+                    if (x[i] != y[i]) {
+                        return (x[i] & 0xff) < (y[i] & 0xff) ? -1 : 1;
+                    }
+                }
+                return x.length - y.length;
+        }
+    }
+
+    /**
+     * Rank of a value's type in SQLite's order: integers and floats compare as numbers.
+     */
+    private static int getTypeClass(int type) {
+        switch (type) {
+            case FIELD_TYPE_NULL:
+                return 0;
+            case FIELD_TYPE_INTEGER:
+            case FIELD_TYPE_FLOAT:
+                return 1;
+            case FIELD_TYPE_STRING:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    @Override
+    public int getType(int column) {
+        return current.getType(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return current.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return current.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return current.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return current.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return current.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return current.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return current.getBlob(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return current.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor cursor : cursors) {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * {@link StatementBenchmark} compares the single-pet operations run through
+ * {@link SQLiteDatabase}'s insert/update/delete/query methods with the same operations run through
+ * {@link PetStatements}. For every operation it reports the p50 and p99 latency and the number of
+ * objects allocated per call. It runs against a scratch database file with the tuned profile,
+ * which is deleted afterwards. Never call it on the main thread.
+ */
+public final class StatementBenchmark {
+
+    private static final String LOG_TAG = StatementBenchmark.class.getSimpleName();
+
+    private static final String DB_NAME = "benchmark_statements.db";
+    private static final int SEED_ROWS = 10000;
+
+    private StatementBenchmark() {}
+
+    /**
+     * One way of running an operation, called once per sample.
+     */
+    private abstract static class Operation {
+        final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        abstract void run(int i);
+    }
+
+    /**
+     * Run every operation the given number of times each way and return a human readable report,
+     * one line per operation and way. The report is also logged.
+     */
+    public static String run(Context context, final int operations) {
+        context.deleteDatabase(DB_NAME);
+        PetsDbHelper helper = new PetsDbHelper(context, DB_NAME, PetsDbHelper.StorageProfile.TUNED);
+        try {
+            final SQLiteDatabase db = helper.getWritableDatabase();
+            final PetStatements statements = new PetStatements(helper);
+            seed(db);
+
+            // The values are built up front so only the operations themselves are measured
+            final ContentValues[] pets = new ContentValues[operations];
+            for (int i = 0; i < operations; i++) {
+                pets[i] = pet(i);
+            }
+            final long[] databaseIds = new long[operations];
+            final long[] compiledIds = new long[operations];
+
+            Operation[] benchmark = {
+                    new Operation("insert, SQLiteDatabase") {
+                        @Override
+                        void run(int i) {
+                            databaseIds[i] = db.insert(DbContract.PetsEntry.TABLE_NAME, null, pets[i]);
+                        }
+                    },
+                    new Operation("insert, compiled") {
+                        @Override
+                        void run(int i) {
+                            compiledIds[i] = statements.insert(pets[i]);
+                        }
+                    },
+                    new Operation("update by id, SQLiteDatabase") {
+                        @Override
+                        void run(int i) {
+                            db.update(DbContract.PetsEntry.TABLE_NAME, pets[i], DbContract.PetsEntry._ID + "=?",
+                                    new String[] { String.valueOf(1 + i % SEED_ROWS) });
+                        }
+                    },
+                    new Operation("update by id, compiled") {
+                        @Override
+                        void run(int i) {
+                            statements.updateById(1 + i % SEED_ROWS, pets[i]);
+                        }
+                    },
+                    new Operation("read name by id, SQLiteDatabase") {
+                        @Override
+                        void run(int i) {
+                            Cursor cursor = db.query(DbContract.PetsEntry.TABLE_NAME,
+                                    new String[] { DbContract.PetsEntry.COLUMN_PET_NAME },
+                                    DbContract.PetsEntry._ID + "=?",
+                                    new String[] { String.valueOf(1 + i % SEED_ROWS) }, null, null, null);
+                            try {
+                                if (cursor.moveToFirst()) {
+                                    cursor.getString(0);
+                                }
+                            } finally {
+                                cursor.close();
+                            }
+                        }
+                    },
+                    new Operation("read name by id, compiled") {
+                        @Override
+                        void run(int i) {
+                            Cursor cursor = statements.readColumn(1 + i % SEED_ROWS,
+                                    DbContract.PetsEntry.COLUMN_PET_NAME);
+                            try {
+                                if (cursor.moveToFirst()) {
+                                    cursor.getString(0);
+                                }
+                            } finally {
+                                cursor.close();
+                            }
+                        }
+                    },
+                    // Each way deletes the pets it inserted, by marking them as the provider does
+                    new Operation("delete by id, SQLiteDatabase") {
+                        @Override
+                        void run(int i) {
+                            ContentValues deleted = new ContentValues(1);
+                            deleted.put(DbContract.PetsEntry.COLUMN_PET_DELETED_AT, System.currentTimeMillis());
+                            db.update(DbContract.PetsEntry.TABLE_NAME, deleted, DbContract.PetsEntry._ID + "=? AND " +
+                                            DbContract.PetsEntry.COLUMN_PET_DELETED_AT + " = 0",
+                                    new String[] { String.valueOf(databaseIds[i]) });
+                        }
+                    },
+                    new Operation("delete by id, compiled") {
+                        @Override
+                        void run(int i) {
+                            statements.deleteById(compiledIds[i], System.currentTimeMillis());
+                        }
+                    }
+            };
+
+            StringBuilder report = new StringBuilder();
+            for (Operation operation : benchmark) {
+                String line = measure(operation, operations);
+                Log.i(LOG_TAG, line);
+                report.append(line).append('\n');
+            }
+            return report.toString();
+        } finally {
+            helper.close();
+            context.deleteDatabase(DB_NAME);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String measure(Operation operation, int operations) {
+        long[] latencies = new long[operations];
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < operations; i++) {
+                long start = System.nanoTime();
+                operation.run(i);
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        // The latency bookkeeping allocates nothing, so every counted object came from the operation
+        double allocations = Debug.getThreadAllocCount() / (double) operations;
+        Arrays.sort(latencies);
+        return String.format("%s: p50 %.1f us, p99 %.1f us, %.1f allocations/op",
+                operation.name, percentileMicros(latencies, 0.50), percentileMicros(latencies, 0.99),
+                allocations);
+    }
+
+    private static void seed(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < SEED_ROWS; i++) {
+                db.insert(DbContract.PetsEntry.TABLE_NAME, null, pet(i));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static ContentValues pet(long i) {
+        ContentValues values = new ContentValues();
+        values.put(DbContract.PetsEntry.COLUMN_PET_NAME, "Pet " + i);
+        values.put(DbContract.PetsEntry.COLUMN_PET_BREED, "Breed " + (i % 100));
+        values.put(DbContract.PetsEntry.COLUMN_PET_GENDER, (int) (i % 3));
+        values.put(DbContract.PetsEntry.COLUMN_PET_WEIGHT, (int) (i % 60));
+        return values;
+    }
+
+    /** Percentile of already sorted samples. */
+    private static double percentileMicros(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e3;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link StorageProfileBenchmark} measures concurrent read/write throughput of the pets schema
+ * under each {@link PetsDbHelper.StorageProfile}. Readers page through the catalog the way the
+ * catalog screen does while one writer saves pets the way the editor does, each save in its own
+ * transaction. Every profile runs against its own scratch database file, which is deleted
+ * afterwards. This blocks for a few seconds per profile, so never call it on the main thread.
+ */
+public final class StorageProfileBenchmark {
+
+    private static final String LOG_TAG = StorageProfileBenchmark.class.getSimpleName();
+
+    private static final int SEED_ROWS = 10000;
+    private static final int READ_PAGE_SIZE = 50;
+    private static final int MAX_SAMPLES = 100000;
+
+    private StorageProfileBenchmark() {}
+
+    /**
+     * Run the benchmark for every given profile and return a human readable report,
+     * one line per profile. The report is also logged.
+     *
+     * @param durationMillis how long each profile is measured for
+     * @param readerThreads  number of concurrent reader threads
+     */
+    public static String run(Context context, long durationMillis, int readerThreads,
+                             PetsDbHelper.StorageProfile... profiles) throws InterruptedException {
+        StringBuilder report = new StringBuilder();
+        for (PetsDbHelper.StorageProfile profile : profiles) {
+            String line = runProfile(context, profile, durationMillis, readerThreads);
+            Log.i(LOG_TAG, line);
+            report.append(line).append('\n');
+        }
+        return report.toString();
+    }
+
+    private static String runProfile(Context context, PetsDbHelper.StorageProfile profile,
+                                     long durationMillis, int readerThreads) throws InterruptedException {
+        String dbName = "benchmark_" + profile.name.replace(' ', '_') + ".db";
+        context.deleteDatabase(dbName);
+        final PetsDbHelper helper = new PetsDbHelper(context, dbName, profile);
+        try {
+            final SQLiteDatabase db = helper.getWritableDatabase();
+            seed(db);
+
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final CountDownLatch done = new CountDownLatch(readerThreads + 1);
+            final long[] readCounts = new long[readerThreads];
+            final long[][] readLatencies = new long[readerThreads][MAX_SAMPLES];
+            final long[] writeCount = new long[1];
+            final long[] writeLatencies = new long[MAX_SAMPLES];
+
+            for (int t = 0; t < readerThreads; t++) {
+                final int reader = t;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        long afterId = 0;
+                        while (running.get()) {
+                            long start = System.nanoTime();
+                            Cursor cursor = db.query(DbContract.PetsEntry.TABLE_NAME,
+                                    new String[] {DbContract.PetsEntry._ID,
+                                            DbContract.PetsEntry.COLUMN_PET_NAME,
+                                            DbContract.PetsEntry.COLUMN_PET_BREED},
+                                    DbContract.PetsEntry._ID + " > ?",
+                                    new String[] {String.valueOf(afterId)}, null, null,
+                                    DbContract.PetsEntry._ID, String.valueOf(READ_PAGE_SIZE));
+                            try {
+                                afterId = 0;
+                                while (cursor.moveToNext()) {
+                                    afterId = cursor.getLong(0);
+                                    cursor.getString(1);
+                                    cursor.getString(2);
+                                }
+                            } finally {
+                                cursor.close();
+                            }
+                            record(readLatencies[reader], readCounts, reader, System.nanoTime() - start);
+                        }
+                        done.countDown();
+                    }
+                }, "benchmark-reader-" + t).start();
+            }
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long i = 0;
+                    while (running.get()) {
+                        long start = System.nanoTime();
+                        if (i % 2 == 0) {
+                            db.insert(DbContract.PetsEntry.TABLE_NAME, null, pet(i));
+                        } else {
+                            db.update(DbContract.PetsEntry.TABLE_NAME, pet(i),
+                                    DbContract.PetsEntry._ID + " = ?",
+                                    new String[] {String.valueOf(1 + i % SEED_ROWS)});
+                        }
+                        record(writeLatencies, writeCount, 0, System.nanoTime() - start);
+                        i++;
+                    }
+                    done.countDown();
+                }
+            }, "benchmark-writer").start();
+
+            Thread.sleep(durationMillis);
+            running.set(false);
+            done.await();
+
+            long reads = 0;
+            long[] allReads = new long[0];
+            for (int t = 0; t < readerThreads; t++) {
+                reads += readCounts[t];
+                int samples = (int) Math.min(readCounts[t], MAX_SAMPLES);
+                int offset = allReads.length;
+                allReads = Arrays.copyOf(allReads, offset + samples);
+                System.arraycopy(readLatencies[t], 0, allReads, offset, samples);
+            }
+            long[] writes = Arrays.copyOf(writeLatencies, (int) Math.min(writeCount[0], MAX_SAMPLES));
+
+            double seconds = durationMillis / 1000.0;
+            return String.format("%s: %d readers, %.0f page reads/s (p50 %.2f ms, p99 %.2f ms), " +
+                            "%.0f writes/s (p50 %.2f ms, p99 %.2f ms)",
+                    profile, readerThreads,
+                    reads / seconds, percentileMillis(allReads, 0.50), percentileMillis(allReads, 0.99),
+                    writeCount[0] / seconds, percentileMillis(writes, 0.50), percentileMillis(writes, 0.99));
+        } finally {
+            helper.close();
+            context.deleteDatabase(dbName);
+        }
+    }
+
+    private static void seed(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < SEED_ROWS; i++) {
+                db.insert(DbContract.PetsEntry.TABLE_NAME, null, pet(i));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static ContentValues pet(long i) {
+        ContentValues values = new ContentValues();
+        values.put(DbContract.PetsEntry.COLUMN_PET_NAME, "Pet " + i);
+        values.put(DbContract.PetsEntry.COLUMN_PET_BREED, "Breed " + (i % 100));
+        values.put(DbContract.PetsEntry.COLUMN_PET_GENDER, (int) (i % 3));
+        values.put(DbContract.PetsEntry.COLUMN_PET_WEIGHT, (int) (i % 60));
+        return values;
+    }
+
+    /**
+     * Store a latency sample in the thread's own slots, so recording needs no locking.
+     */
+    private static void record(long[] samples, long[] counts, int slot, long nanos) {
+        if (counts[slot] < samples.length) {
+            samples[(int) counts[slot]] = nanos;
+        }
+        counts[slot]++;
+    }
+
+    private static double percentileMillis(long[] samples, double fraction) {
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(fraction * samples.length) - 1;
+        return samples[Math.max(0, Math.min(index, samples.length - 1))] / 1e6;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * {@link SyncBenchmark} checks {@link PetSync} end to end against a {@link LocalSyncServer} and
+ * measures it. A scratch provider with pets in two shelters is synced, then both sides change:
+ * the server as another client would, updating, deleting, adding pets in a shelter of its own and
+ * bringing back pets deleted here, and the provider by updating and deleting pets of its own. The
+ * next sync must leave both with the same pets, and the one after must pull nothing. It reports
+ * pets per second and bytes for every sync. The scratch provider, its database files and the sync
+ * state are deleted afterwards. Never call it on the main thread.
+ */
+public final class SyncBenchmark {
+
+    private static final String LOG_TAG = SyncBenchmark.class.getSimpleName();
+
+    private static final String DB_NAME = "benchmark_sync.db";
+    private static final String PREFERENCES_NAME = "benchmark_sync";
+
+    /** Shelter of a quarter of the provider's pets, and of the pets added on the server */
+    private static final long LOCAL_SHELTER = 2;
+    private static final long REMOTE_SHELTER = 7;
+
+    private static final String[] PET_COLUMNS = {
+            DbContract.PetsEntry._ID,
+            DbContract.PetsEntry.COLUMN_PET_NAME,
+            DbContract.PetsEntry.COLUMN_PET_BREED,
+            DbContract.PetsEntry.COLUMN_PET_GENDER,
+            DbContract.PetsEntry.COLUMN_PET_WEIGHT
+    };
+
+    private SyncBenchmark() {}
+
+    /**
+     * Run the syncs starting with the given number of pets and return a human readable report,
+     * one line per sync. The report is also logged.
+     *
+     * @throws IllegalStateException if the provider and the server don't end up with the same
+     *                               pets
+     */
+    public static String run(Context context, int rows) throws IOException {
+        deleteDatabases(context);
+        SharedPreferences state = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        state.edit().clear().apply();
+        PetProvider provider = new PetProvider(DB_NAME, false);
+        provider.attachInfo(context, null);
+        try {
+            StringBuilder report = new StringBuilder();
+            LocalSyncServer server = new LocalSyncServer();
+            PetSync sync = new PetSync(provider, server, state);
+
+            insertPets(provider, DbContract.PetsEntry.CONTENT_URI, 0, rows - rows / 4);
+            insertPets(provider, DbContract.PetsEntry.buildShelterUri(LOCAL_SHELTER), rows - rows / 4, rows / 4);
+            sync(sync, report, "first sync");
+
+            // Deletes pushed before the server brings some of the pets back
+            List<Long> ids = readIds(provider);
+            for (int i = 0; i < ids.size(); i += 50) {
+                provider.delete(ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, ids.get(i)), null, null);
+            }
+            sync(sync, report, "delete sync");
+
+            for (int i = 0; i < ids.size(); i++) {
+                long id = ids.get(i);
+                if (i % 100 == 0) {
+                    server.putPet(id, "Back " + i, "Breed " + (i % 100), i % 3, i % 60);
+                } else if (i % 10 == 1) {
+                    server.putPet(id, "Remote " + i, "Breed " + (i % 100), i % 3, 60 + i % 60);
+                } else if (i % 20 == 3) {
+                    server.deletePet(id);
+                } else if (i % 7 == 5) {
+                    ContentValues values = new ContentValues();
+                    values.put(DbContract.PetsEntry.COLUMN_PET_WEIGHT, 120 + i % 60);
+                    provider.update(ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, id), values,
+                            null, null);
+                } else if (i % 30 == 7) {
+                    provider.delete(ContentUris.withAppendedId(DbContract.PetsEntry.CONTENT_URI, id), null, null);
+                }
+            }
+            long remoteBase = REMOTE_SHELTER << DbContract.PetsEntry.SHELTER_ID_SHIFT;
+            for (int i = 0; i < rows / 10; i++) {
+                server.putPet(remoteBase + i + 1, "New " + i, "Breed " + (i % 100), i % 3, i % 60);
+            }
+            sync(sync, report, "two-way sync");
+            checkSamePets(provider, server);
+
+            PetSync.Result last = sync(sync, report, "settled sync");
+            if (last.pulled != 0) {
+                throw new IllegalStateException("Settled sync pulled " + last.pulled + " pets");
+            }
+            checkSamePets(provider, server);
+
+            String line = "server: " + server.getBytesPushed() + " bytes pushed, " + server.getBytesPulled()
+                    + " bytes pulled";
+            Log.i(LOG_TAG, line);
+            report.append(line).append('\n');
+            return report.toString();
+        } finally {
+            provider.shutdown();
+            deleteDatabases(context);
+            state.edit().clear().apply();
+        }
+    }
+
+    private static void deleteDatabases(Context context) {
+        for (long shelter : new long[] { DbContract.PetsEntry.DEFAULT_SHELTER, LOCAL_SHELTER, REMOTE_SHELTER }) {
+            context.deleteDatabase(PetShards.getDbName(DB_NAME, shelter));
+        }
+    }
+
+    private static void insertPets(PetProvider provider, Uri uri, int first, int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            int n = first + i;
+            values[i] = new ContentValues();
+            values[i].put(DbContract.PetsEntry.COLUMN_PET_NAME, "Pet " + n);
+            values[i].put(DbContract.PetsEntry.COLUMN_PET_BREED, "Breed " + (n % 100));
+            values[i].put(DbContract.PetsEntry.COLUMN_PET_GENDER, n % 3);
+            values[i].put(DbContract.PetsEntry.COLUMN_PET_WEIGHT, n % 60);
+        }
+        provider.bulkInsert(uri, values);
+    }
+
+    private static PetSync.Result sync(PetSync sync, StringBuilder report, String step) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        PetSync.Result result = sync.sync();
+        long elapsedMillis = SystemClock.elapsedRealtime() - start;
+        double seconds = Math.max(1, elapsedMillis) / 1000.0;
+        int pets = result.pushed + result.pulled;
+        String line = String.format("%s: %d pushed, %d pulled in %d ms, %.0f pets/s, %d bytes sent, %d received",
+                step, result.pushed, result.pulled, elapsedMillis, pets / seconds, result.bytesSent,
+                result.bytesReceived);
+        Log.i(LOG_TAG, line);
+        report.append(line).append('\n');
+        return result;
+    }
+
+    private static List<Long> readIds(PetProvider provider) {
+        Cursor cursor = provider.query(DbContract.PetsEntry.CONTENT_URI, new String[] { DbContract.PetsEntry._ID },
+                null, null, DbContract.PetsEntry._ID);
+        try {
+            List<Long> ids = new ArrayList<Long>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void checkSamePets(PetProvider provider, LocalSyncServer server) {
+        TreeMap<Long, PetSync.Change> expected = server.getLivePets();
+        Cursor cursor = provider.query(DbContract.PetsEntry.CONTENT_URI, PET_COLUMNS, null, null,
+                DbContract.PetsEntry._ID);
+        try {
+            if (cursor.getCount() != expected.size()) {
+                throw new IllegalStateException("Provider has " + cursor.getCount() + " pets, server "
+                        + expected.size());
+            }
+            while (cursor.moveToNext()) {
+                PetSync.Change pet = new PetSync.Change(0, cursor.getLong(0), false, cursor.getString(1),
+                        cursor.getString(2), cursor.getInt(3), cursor.getInt(4));
+                PetSync.Change other = expected.get(pet.id);
+                if (other == null || !other.sameAs(pet)) {
+                    throw new IllegalStateException("Pet " + pet.id + " differs from the server's");
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
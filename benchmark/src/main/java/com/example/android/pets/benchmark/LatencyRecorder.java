@@ -0,0 +1,107 @@
+package com.example.android.pets.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Collects per-operation latencies of one benchmark and summarizes them as throughput and
+ * percentiles.
+ */
+final class LatencyRecorder {
+
+    private final String operation;
+    private final long rows;
+    private long[] samples = new long[1024];
+    private int count;
+    private long totalNanos;
+    private long items;
+
+    /**
+     * @param operation name of the measured operation
+     * @param rows      table size the operation ran against
+     */
+    LatencyRecorder(String operation, long rows) {
+        this.operation = operation;
+        this.rows = rows;
+    }
+
+    /**
+     * Record one operation that took {@code nanos} and handled {@code itemCount} rows.
+     */
+    void record(long nanos, long itemCount) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+        totalNanos += nanos;
+        items += itemCount;
+    }
+
+    /**
+     * Add the operations recorded by another recorder, such as one of another thread.
+     */
+    void addAll(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++) {
+            record(other.samples[i], 0);
+        }
+        items += other.items;
+    }
+
+    /**
+     * Number of recorded operations.
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Sum of the recorded latencies.
+     */
+    long totalNanos() {
+        return totalNanos;
+    }
+
+    static String header() {
+        return String.format("%-24s %10s %8s %14s %14s %10s %10s %10s %10s",
+                "operation", "rows", "ops", "ops/s", "rows/s", "p50 us", "p90 us", "p99 us", "max us");
+    }
+
+    static String csvHeader() {
+        return "operation,rows,ops,ops_per_s,rows_per_s,p50_us,p90_us,p99_us,max_us";
+    }
+
+    String summary() {
+        long[] sorted = sorted();
+        return String.format("%-24s %10d %8d %14.1f %14.1f %10.1f %10.1f %10.1f %10.1f",
+                operation, rows, count, opsPerSecond(), itemsPerSecond(),
+                micros(sorted, 0.50), micros(sorted, 0.90), micros(sorted, 0.99), micros(sorted, 1.0));
+    }
+
+    String csv() {
+        long[] sorted = sorted();
+        return String.format("%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f",
+                operation, rows, count, opsPerSecond(), itemsPerSecond(),
+                micros(sorted, 0.50), micros(sorted, 0.90), micros(sorted, 0.99), micros(sorted, 1.0));
+    }
+
+    private long[] sorted() {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private double opsPerSecond() {
+        return totalNanos == 0 ? 0 : count / (totalNanos / 1e9);
+    }
+
+    private double itemsPerSecond() {
+        return totalNanos == 0 ? 0 : items / (totalNanos / 1e9);
+    }
+
+    private static double micros(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e3;
+    }
+}
@@ -0,0 +1,688 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the operations of PetProvider at several table sizes: single-row insert, bulk
+ * insert, query-all, a catalog page, query-by-id, update and delete. Deletes only mark pets, so
+ * they are measured next to the hard delete they replaced and to the compactor purging them
+ * later, after which the summary tables are checked to count exactly the remaining pets. Batches
+ * of the changes since a point of the change log are read the way PetSync pushes them. Every
+ * operation is warmed up first and then reported as throughput and p50/p90/p99/max latency.
+ * <p>
+ * Catalog pages are also measured for every supported combination of sort order, gender filter
+ * and weight range. Before measuring, the query plan of each is checked to be a search of the
+ * expected index without a sort step; the benchmark fails if one isn't. Name-ordered pages are
+ * measured across {@link #SHELTERS} shelter databases as well, queried in parallel and merged
+ * the way PetProvider fans a query out to its shelters.
+ * <p>
+ * Arguments are the table sizes to run, 1000, 100000 and 1000000 by default. Set the
+ * {@code benchmark.out} system property to also write the results as CSV.
+ */
+public final class PetsBenchmark {
+
+    private static final int BULK_BATCH_SIZE = 1000;
+    private static final int PAGE_SIZE = 50;
+    private static final int INSERTS = 2000;
+    private static final int LOOKUPS = 20000;
+    private static final int PAGES = 2000;
+    private static final int FILTERED_PAGES = 500;
+    private static final int SHELTERS = 4;
+    private static final int UPDATES = 5000;
+    private static final int DELETES = 2000;
+    /** Changes per read of the change log, see PetSync.BATCH_SIZE. */
+    private static final int CHANGES_BATCH_SIZE = 500;
+    /** Pets purged per transaction, see PetProvider.COMPACTION_BATCH_SIZE. */
+    private static final int COMPACTION_BATCH_SIZE = 500;
+    /** Sort columns of the catalog, see CatalogQuery. */
+    private static final String[] SORT_COLUMNS = {"_id", "name", "weight"};
+    private static final int MIN_WEIGHT = 10;
+    private static final int MAX_WEIGHT = 20;
+    private static final String[] BREEDS = {
+            "Labrador", "Poodle", "Beagle", "Tabby", "Siamese", "Persian", "Bulldog", "Husky"
+    };
+
+    private final Random random = new Random(42);
+
+    private PetsBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        long[] sizes = {1000, 100000, 1000000};
+        if (args.length > 0) {
+            sizes = new long[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Long.parseLong(args[i].trim());
+            }
+        }
+
+        List<LatencyRecorder> results = new ArrayList<>();
+        System.out.println(LatencyRecorder.header());
+        for (long size : sizes) {
+            for (LatencyRecorder result : new PetsBenchmark().run(size)) {
+                System.out.println(result.summary());
+                results.add(result);
+            }
+        }
+
+        String out = System.getProperty("benchmark.out");
+        if (out != null) {
+            writeCsv(new File(out), results);
+        }
+    }
+
+    /**
+     * Run every operation against a fresh database filled with {@code size} pets.
+     */
+    private List<LatencyRecorder> run(long size) throws Exception {
+        File file = File.createTempFile("pets-benchmark", ".db");
+        file.delete();
+        List<LatencyRecorder> results = new ArrayList<>();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        try {
+            PetsSql.createSchema(connection);
+            results.add(bulkInsert(connection, size));
+            results.add(insert(connection, size));
+            results.add(queryAll(connection, size));
+            results.add(queryPage(connection, size));
+            results.addAll(queryCatalogPages(connection, size));
+            results.add(queryById(connection, size));
+            results.add(queryStats(connection, size));
+            results.add(update(connection, size));
+            results.add(queryChanges(connection, size));
+            // Soft and hard deletes take turns along the ids, so they hit the same parts of the table
+            results.add(delete(connection, size, "delete", PetsSql.DELETE_BY_ID, 1));
+            results.add(delete(connection, size, "hard delete", PetsSql.HARD_DELETE_BY_ID, 2));
+            results.add(compact(connection, size));
+            checkSummaryCounts(connection);
+        } finally {
+            connection.close();
+            deleteDatabase(file);
+        }
+        results.add(queryShelterPages(size));
+        return results;
+    }
+
+    /**
+     * Fill the table in transactions of {@link #BULK_BATCH_SIZE} rows, like bulkInsert() does.
+     */
+    private LatencyRecorder bulkInsert(Connection connection, long size) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder("bulk insert", size);
+        PreparedStatement insert = connection.prepareStatement(PetsSql.INSERT);
+        try {
+            connection.setAutoCommit(false);
+            for (long done = 0; done < size; ) {
+                int batch = (int) Math.min(BULK_BATCH_SIZE, size - done);
+                long start = System.nanoTime();
+                for (int i = 0; i < batch; i++) {
+                    bindPet(insert, done + i);
+                    insert.executeUpdate();
+                }
+                connection.commit();
+                recorder.record(System.nanoTime() - start, batch);
+                done += batch;
+            }
+        } finally {
+            connection.setAutoCommit(true);
+            insert.close();
+        }
+        return recorder;
+    }
+
+    /**
+     * Insert pets one by one, each in its own transaction, like EditorActivity saves them.
+     */
+    private LatencyRecorder insert(Connection connection, long size) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder("insert", size);
+        PreparedStatement insert = connection.prepareStatement(PetsSql.INSERT);
+        try {
+            for (int i = -INSERTS / 10; i < INSERTS; i++) {
+                long start = System.nanoTime();
+                bindPet(insert, size + i);
+                insert.executeUpdate();
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, 1);
+                }
+            }
+        } finally {
+            insert.close();
+        }
+        return recorder;
+    }
+
+    private LatencyRecorder queryAll(Connection connection, long size) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder("query all", size);
+        // Keep the total work per table size roughly even
+        int iterations = (int) Math.max(5, Math.min(200, 5000000 / size));
+        PreparedStatement query = connection.prepareStatement(PetsSql.QUERY_ALL);
+        try {
+            for (int i = -1; i < iterations; i++) {
+                long start = System.nanoTime();
+                long rows = readAll(query.executeQuery());
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+            }
+        } finally {
+            query.close();
+        }
+        return recorder;
+    }
+
+    private LatencyRecorder queryPage(Connection connection, long size) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder("query page", size);
+        PreparedStatement query = connection.prepareStatement(PetsSql.QUERY_PAGE);
+        try {
+            for (int i = -PAGES / 10; i < PAGES; i++) {
+                long start = System.nanoTime();
+                query.setLong(1, randomId(size));
+                query.setInt(2, PAGE_SIZE);
+                long rows = readAll(query.executeQuery());
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+            }
+        } finally {
+            query.close();
+        }
+        return recorder;
+    }
+
+    /**
+     * Read deep pages of the catalog in every order, with and without a gender filter, and in
+     * weight order with a weight range as well, the only order a range can be paged in.
+     */
+    private List<LatencyRecorder> queryCatalogPages(Connection connection, long size) throws SQLException {
+        List<LatencyRecorder> results = new ArrayList<>();
+        for (String sortColumn : SORT_COLUMNS) {
+            for (int filter = 0; filter < 4; filter++) {
+                boolean byGender = (filter & 1) != 0;
+                boolean byWeight = (filter & 2) != 0;
+                if (byWeight && !sortColumn.equals("weight")) {
+                    continue;
+                }
+                results.add(queryCatalogPage(connection, size, sortColumn, byGender, byWeight));
+            }
+        }
+        return results;
+    }
+
+    private LatencyRecorder queryCatalogPage(Connection connection, long size, String sortColumn,
+                                             boolean byGender, boolean byWeight) throws SQLException {
+        String name = "page " + sortColumn + (byGender ? " gender" : "") + (byWeight ? " range" : "");
+        String sql = PetsSql.queryCatalogPage(sortColumn, byGender, byWeight);
+        checkPlan(connection, name, sql, PetsSql.catalogPageIndex(sortColumn, byGender, byWeight));
+
+        LatencyRecorder recorder = new LatencyRecorder(name, size);
+        PreparedStatement query = connection.prepareStatement(sql);
+        try {
+            for (int i = -FILTERED_PAGES / 10; i < FILTERED_PAGES; i++) {
+                long start = System.nanoTime();
+                int parameter = 1;
+                if (byGender) {
+                    query.setInt(parameter++, random.nextInt(3));
+                }
+                if (byWeight) {
+                    query.setInt(parameter++, MAX_WEIGHT);
+                }
+                // Start after a random pet, so pages come from all over the index
+                long afterId = randomId(size);
+                if (sortColumn.equals("name")) {
+                    String afterName = "Pet " + afterId;
+                    query.setString(parameter++, afterName);
+                    query.setString(parameter++, afterName);
+                } else if (sortColumn.equals("weight")) {
+                    int afterWeight = byWeight
+                            ? MIN_WEIGHT + random.nextInt(MAX_WEIGHT - MIN_WEIGHT + 1)
+                            : 1 + random.nextInt(60);
+                    query.setInt(parameter++, afterWeight);
+                    query.setInt(parameter++, afterWeight);
+                }
+                query.setLong(parameter++, afterId);
+                query.setInt(parameter, PAGE_SIZE);
+                long rows = readAll(query.executeQuery());
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+            }
+        } finally {
+            query.close();
+        }
+        return recorder;
+    }
+
+    /**
+     * Read name-ordered pages of {@code size} pets spread over {@link #SHELTERS} shelter
+     * databases, each page queried from every shelter in parallel and merged by name and _id
+     * like PetProvider.queryShards() does, to compare with "page name" from one database.
+     */
+    private LatencyRecorder queryShelterPages(long size) throws Exception {
+        String sql = PetsSql.queryCatalogPage("name", false, false);
+        File[] files = new File[SHELTERS];
+        Connection[] connections = new Connection[SHELTERS];
+        final PreparedStatement[] queries = new PreparedStatement[SHELTERS];
+        ExecutorService executor = Executors.newFixedThreadPool(SHELTERS);
+        try {
+            for (int shelter = 0; shelter < SHELTERS; shelter++) {
+                files[shelter] = File.createTempFile("pets-benchmark-shelter" + shelter, ".db");
+                files[shelter].delete();
+                connections[shelter] = DriverManager.getConnection("jdbc:sqlite:" + files[shelter].getAbsolutePath());
+                PetsSql.createSchema(connections[shelter]);
+                if (shelter > 0) {
+                    PetsSql.seedShelter(connections[shelter], shelter);
+                }
+                fillShelter(connections[shelter], shelter, size);
+                queries[shelter] = connections[shelter].prepareStatement(sql);
+            }
+            checkPlan(connections[0], "page name shelters", sql, PetsSql.catalogPageIndex("name", false, false));
+
+            LatencyRecorder recorder = new LatencyRecorder("page name " + SHELTERS + " shelters", size);
+            List<Future<List<Object[]>>> pages = new ArrayList<>(SHELTERS);
+            for (int i = -FILTERED_PAGES / 10; i < FILTERED_PAGES; i++) {
+                long start = System.nanoTime();
+                // Start from a random pet's name, so pages come from all over each index
+                final String afterName = "Pet " + randomId(size);
+                pages.clear();
+                for (int shelter = 0; shelter < SHELTERS; shelter++) {
+                    final PreparedStatement query = queries[shelter];
+                    pages.add(executor.submit(new Callable<List<Object[]>>() {
+                        @Override
+                        public List<Object[]> call() throws SQLException {
+                            query.setString(1, afterName);
+                            query.setString(2, afterName);
+                            query.setLong(3, 0);
+                            query.setInt(4, PAGE_SIZE);
+                            return readPage(query.executeQuery());
+                        }
+                    }));
+                }
+                long rows = mergePages(pages);
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+            }
+            return recorder;
+        } finally {
+            executor.shutdown();
+            for (int shelter = 0; shelter < SHELTERS; shelter++) {
+                if (queries[shelter] != null) {
+                    queries[shelter].close();
+                }
+                if (connections[shelter] != null) {
+                    connections[shelter].close();
+                }
+                if (files[shelter] != null) {
+                    deleteDatabase(files[shelter]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Give a shelter every {@link #SHELTERS}th of {@code size} pets, in transactions of
+     * {@link #BULK_BATCH_SIZE} rows, so the shelters' names interleave.
+     */
+    private void fillShelter(Connection connection, int shelter, long size) throws SQLException {
+        PreparedStatement insert = connection.prepareStatement(PetsSql.INSERT);
+        try {
+            connection.setAutoCommit(false);
+            for (long i = shelter; i < size; i += SHELTERS) {
+                bindPet(insert, i);
+                insert.executeUpdate();
+                if (i / SHELTERS % BULK_BATCH_SIZE == BULK_BATCH_SIZE - 1) {
+                    connection.commit();
+                }
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+            insert.close();
+        }
+    }
+
+    /**
+     * Every row of a catalog page, with its name and _id, the merge keys, first.
+     */
+    private static List<Object[]> readPage(ResultSet resultSet) throws SQLException {
+        List<Object[]> rows = new ArrayList<>(PAGE_SIZE);
+        try {
+            int columns = 0;
+            int nameColumn = 0;
+            int idColumn = 0;
+            while (resultSet.next()) {
+                // The driver closes a result set without rows straight away, so its columns are
+                // only looked up once there is a row
+                if (rows.isEmpty()) {
+                    columns = resultSet.getMetaData().getColumnCount();
+                    nameColumn = resultSet.findColumn("name");
+                    idColumn = resultSet.findColumn("_id");
+                }
+                Object[] row = new Object[columns + 2];
+                row[0] = resultSet.getString(nameColumn);
+                row[1] = resultSet.getLong(idColumn);
+                for (int i = 1; i <= columns; i++) {
+                    row[i + 1] = resultSet.getObject(i);
+                }
+                rows.add(row);
+            }
+        } finally {
+            resultSet.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Merge the shelters' pages by name and _id into the first {@link #PAGE_SIZE} rows.
+     *
+     * @return the number of rows merged
+     */
+    private static long mergePages(List<Future<List<Object[]>>> futures) throws Exception {
+        List<List<Object[]>> pages = new ArrayList<>(futures.size());
+        for (Future<List<Object[]>> future : futures) {
+            try {
+                pages.add(future.get());
+            } catch (ExecutionException e) {
+                throw (Exception) e.getCause();
+            }
+        }
+        int[] next = new int[pages.size()];
+        long rows = 0;
+        while (rows < PAGE_SIZE) {
+            int first = -1;
+            for (int i = 0; i < pages.size(); i++) {
+                if (next[i] < pages.get(i).size()
+                        && (first < 0 || compareRows(pages.get(i).get(next[i]), pages.get(first).get(next[first])) < 0)) {
+                    first = i;
+                }
+            }
+            if (first < 0) {
+                break;
+            }
+            next[first]++;
+            rows++;
+        }
+        return rows;
+    }
+
+    private static int compareRows(Object[] a, Object[] b) {
+        int result = ((String) a[0]).compareTo((String) b[0]);
+        if (result != 0) {
+            return result;
+        }
+        long x = (Long) a[1];
+        long y = (Long) b[1];
+        return x < y ? -1 : (x == y ? 0 : 1);
+    }
+
+    /**
+     * Fail unless the query is a search of the given index with no sort step, so its cost doesn't
+     * grow with the table.
+     */
+    private static void checkPlan(Connection connection, String name, String sql, String index)
+            throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        PreparedStatement explain = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+        try {
+            ResultSet resultSet = explain.executeQuery();
+            try {
+                while (resultSet.next()) {
+                    plan.append(resultSet.getString("detail")).append("; ");
+                }
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            explain.close();
+        }
+        String detail = plan.toString();
+        if (!detail.contains("SEARCH") || !detail.contains("INDEX " + index + " (")
+                || detail.contains("TEMP B-TREE")) {
+            throw new IllegalStateException(name + " is not an index search without sorting: " + detail);
+        }
+        System.out.println("# " + name + ": " + detail);
+    }
+
+    private LatencyRecorder queryById(Connection connection, long size) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder("query by id", size);
+        PreparedStatement query = connection.prepareStatement(PetsSql.QUERY_BY_ID);
+        try {
+            for (int i = -LOOKUPS / 10; i < LOOKUPS; i++) {
+                long start = System.nanoTime();
+                query.setLong(1, randomId(size));
+                long rows = readAll(query.executeQuery());
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+            }
+        } finally {
+            query.close();
+        }
+        return recorder;
+    }
+
+    /**
+     * Read batches of the changes since a random point of the change log, the way PetSync pushes
+     * them, once pets were inserted and updated.
+     */
+    private LatencyRecorder queryChanges(Connection connection, long size) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder("changes since", size);
+        checkPlan(connection, "changes since", PetsSql.QUERY_CHANGES, "pet_changes_pet_idx");
+        PreparedStatement query = connection.prepareStatement(PetsSql.QUERY_CHANGES);
+        try {
+            for (int i = -PAGES / 10; i < PAGES; i++) {
+                long start = System.nanoTime();
+                query.setLong(1, randomId(size));
+                query.setInt(2, CHANGES_BATCH_SIZE);
+                long rows = readAll(query.executeQuery());
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+            }
+        } finally {
+            query.close();
+        }
+        return recorder;
+    }
+
+    private LatencyRecorder queryStats(Connection connection, long size) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder("query stats", size);
+        PreparedStatement query = connection.prepareStatement(PetsSql.QUERY_STATS_GENDER);
+        try {
+            for (int i = -LOOKUPS / 10; i < LOOKUPS; i++) {
+                long start = System.nanoTime();
+                long rows = readAll(query.executeQuery());
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+            }
+        } finally {
+            query.close();
+        }
+        return recorder;
+    }
+
+    private LatencyRecorder update(Connection connection, long size) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder("update", size);
+        PreparedStatement update = connection.prepareStatement(PetsSql.UPDATE_BY_ID);
+        try {
+            for (int i = -UPDATES / 10; i < UPDATES; i++) {
+                long start = System.nanoTime();
+                long id = randomId(size);
+                bindPet(update, id);
+                update.setLong(5, id);
+                int rows = update.executeUpdate();
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+            }
+        } finally {
+            update.close();
+        }
+        return recorder;
+    }
+
+    /**
+     * Delete pets by id, every other step of a stride starting at {@code firstId}.
+     *
+     * @param sql {@link PetsSql#DELETE_BY_ID}, which also binds the time, or
+     *            {@link PetsSql#HARD_DELETE_BY_ID}
+     */
+    private LatencyRecorder delete(Connection connection, long size, String name, String sql, long firstId)
+            throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder(name, size);
+        boolean soft = sql.equals(PetsSql.DELETE_BY_ID);
+        PreparedStatement delete = connection.prepareStatement(sql);
+        try {
+            // Walk the ids with a stride so every delete hits a row that still exists
+            int deletes = (int) Math.min(DELETES, size / 4);
+            long stride = 2 * Math.max(1, size / (2 * (deletes + deletes / 10 + 1)));
+            long id = firstId;
+            for (int i = -deletes / 10; i < deletes; i++) {
+                long start = System.nanoTime();
+                int parameter = 1;
+                if (soft) {
+                    delete.setLong(parameter++, System.currentTimeMillis());
+                }
+                delete.setLong(parameter, id);
+                int rows = delete.executeUpdate();
+                if (i >= 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+                id += stride;
+            }
+        } finally {
+            delete.close();
+        }
+        return recorder;
+    }
+
+    /**
+     * Purge every deleted pet the way the compactor does, {@link #COMPACTION_BATCH_SIZE} pets per
+     * transaction. Each batch is one sample.
+     */
+    private LatencyRecorder compact(Connection connection, long size) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder("compact", size);
+        checkPlan(connection, "compact", PetsSql.SELECT_PURGEABLE, "pets_deleted_idx");
+        PreparedStatement select = connection.prepareStatement(PetsSql.SELECT_PURGEABLE);
+        PreparedStatement purge = connection.prepareStatement(PetsSql.PURGE_BY_ID);
+        try {
+            connection.setAutoCommit(false);
+            int rows;
+            do {
+                long start = System.nanoTime();
+                select.setLong(1, System.currentTimeMillis());
+                select.setInt(2, COMPACTION_BATCH_SIZE);
+                List<Long> ids = new ArrayList<>(COMPACTION_BATCH_SIZE);
+                ResultSet resultSet = select.executeQuery();
+                try {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getLong(1));
+                    }
+                } finally {
+                    resultSet.close();
+                }
+                rows = 0;
+                for (long id : ids) {
+                    purge.setLong(1, id);
+                    rows += purge.executeUpdate();
+                }
+                connection.commit();
+                if (rows > 0) {
+                    recorder.record(System.nanoTime() - start, rows);
+                }
+            } while (rows == COMPACTION_BATCH_SIZE);
+        } finally {
+            connection.setAutoCommit(true);
+            select.close();
+            purge.close();
+        }
+        return recorder;
+    }
+
+    /**
+     * Fail unless the summary tables count exactly the pets that aren't deleted, after pets were
+     * inserted, updated, marked deleted, deleted and purged.
+     */
+    private static void checkSummaryCounts(Connection connection) throws SQLException {
+        long counted = queryLong(connection, PetsSql.COUNT_SUMMARY);
+        long live = queryLong(connection, PetsSql.COUNT_LIVE);
+        if (counted != live) {
+            throw new IllegalStateException("Summary tables count " + counted + " pets, but " + live + " are left");
+        }
+    }
+
+    private static long queryLong(Connection connection, String sql) throws SQLException {
+        PreparedStatement query = connection.prepareStatement(sql);
+        try {
+            ResultSet resultSet = query.executeQuery();
+            try {
+                resultSet.next();
+                return resultSet.getLong(1);
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            query.close();
+        }
+    }
+
+    private void bindPet(PreparedStatement statement, long i) throws SQLException {
+        statement.setString(1, "Pet " + i);
+        statement.setString(2, BREEDS[(int) (i % BREEDS.length)]);
+        statement.setInt(3, random.nextInt(3));
+        statement.setInt(4, 1 + random.nextInt(60));
+    }
+
+    private long randomId(long size) {
+        return 1 + (long) (random.nextDouble() * size);
+    }
+
+    private static long readAll(ResultSet resultSet) throws SQLException {
+        long rows = 0;
+        try {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    resultSet.getObject(i);
+                }
+                rows++;
+            }
+        } finally {
+            resultSet.close();
+        }
+        return rows;
+    }
+
+    private static void writeCsv(File file, List<LatencyRecorder> results) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println(LatencyRecorder.csvHeader());
+            for (LatencyRecorder result : results) {
+                writer.println(result.csv());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void deleteDatabase(File file) {
+        for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.android.pets.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The schema and statements of the pets database, as created by PetsDbHelper and run by
+ * PetProvider. The app's classes depend on the Android framework and can't be loaded here, so
+ * the SQL is mirrored; keep it in step with PetsDbHelper's migrations and the provider.
+ */
+final class PetsSql {
+
+    private PetsSql() {}
+
+    static final String TABLE = "pets";
+
+    /** Bits of an _ID below its shelter, see DbContract.PetsEntry.SHELTER_ID_SHIFT. */
+    static final int SHELTER_ID_SHIFT = 40;
+
+    /** Connection settings of PetsDbHelper.StorageProfile.TUNED. */
+    static final String[] TUNED_PRAGMAS = {
+            "PRAGMA page_size = 4096",
+            "PRAGMA auto_vacuum = INCREMENTAL",
+            "PRAGMA journal_mode = WAL",
+            "PRAGMA synchronous = NORMAL",
+            "PRAGMA cache_size = 512",
+            "PRAGMA temp_store = MEMORY"
+    };
+
+    /** Summary trigger statements adding the new pet, see PetsDbHelper.countPet(). */
+    private static final String COUNT_NEW =
+            "INSERT OR IGNORE INTO pets_stats_gender (gender, count, weight_sum) VALUES (new.gender, 0, 0); " +
+            "UPDATE pets_stats_gender SET count = count + 1, weight_sum = weight_sum + new.weight " +
+            "WHERE gender = new.gender; " +
+            "INSERT OR IGNORE INTO pets_stats_breed (breed, count) VALUES (IFNULL(new.breed, ''), 0); " +
+            "UPDATE pets_stats_breed SET count = count + 1 WHERE breed = IFNULL(new.breed, ''); ";
+
+    /** Summary trigger statements removing the old pet, see PetsDbHelper.uncountPet(). */
+    private static final String UNCOUNT_OLD =
+            "UPDATE pets_stats_gender SET count = count - 1, weight_sum = weight_sum - old.weight " +
+            "WHERE gender = old.gender; " +
+            "DELETE FROM pets_stats_gender WHERE gender = old.gender AND count = 0; " +
+            "UPDATE pets_stats_breed SET count = count - 1 WHERE breed = IFNULL(old.breed, ''); " +
+            "DELETE FROM pets_stats_breed WHERE breed = IFNULL(old.breed, '') AND count = 0; ";
+
+    /**
+     * Summary triggers of PetsDbHelper.createSummaryTriggers(), which only count pets that aren't
+     * deleted. Created by version 5 already, and recreated by version 8 over older ones.
+     */
+    private static final String[] SUMMARY_TRIGGERS = {
+            "CREATE TRIGGER pets_stats_ai AFTER INSERT ON pets WHEN new.deleted_at = 0 BEGIN " +
+                    COUNT_NEW + "END",
+            "CREATE TRIGGER pets_stats_au_old AFTER UPDATE OF gender, breed, weight, deleted_at ON pets " +
+                    "WHEN old.deleted_at = 0 BEGIN " + UNCOUNT_OLD + "END",
+            "CREATE TRIGGER pets_stats_au_new AFTER UPDATE OF gender, breed, weight, deleted_at ON pets " +
+                    "WHEN new.deleted_at = 0 BEGIN " + COUNT_NEW + "END",
+            "CREATE TRIGGER pets_stats_ad AFTER DELETE ON pets WHEN old.deleted_at = 0 BEGIN " +
+                    UNCOUNT_OLD + "END"
+    };
+
+    /** PetsDbHelper.onCreate() followed by every migration. */
+    static final String[] SCHEMA = {
+            "CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, " +
+                    "breed TEXT, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0)",
+            // Version 2
+            "CREATE INDEX IF NOT EXISTS pets_name_idx ON pets (name)",
+            "CREATE INDEX IF NOT EXISTS pets_breed_idx ON pets (breed)",
+            // Version 3
+            "CREATE INDEX IF NOT EXISTS pets_gender_weight_idx ON pets (gender, weight)",
+            "CREATE INDEX IF NOT EXISTS pets_weight_idx ON pets (weight)",
+            // Version 4
+            "CREATE VIRTUAL TABLE pets_fts USING fts4(name, breed)",
+            "CREATE TRIGGER pets_fts_ai AFTER INSERT ON pets BEGIN " +
+                    "INSERT INTO pets_fts (docid, name, breed) VALUES (new._id, new.name, new.breed); END",
+            "CREATE TRIGGER pets_fts_au AFTER UPDATE OF _id, name, breed ON pets BEGIN " +
+                    "DELETE FROM pets_fts WHERE docid = old._id; " +
+                    "INSERT INTO pets_fts (docid, name, breed) VALUES (new._id, new.name, new.breed); END",
+            "CREATE TRIGGER pets_fts_ad AFTER DELETE ON pets BEGIN " +
+                    "DELETE FROM pets_fts WHERE docid = old._id; END",
+            // Version 5
+            "CREATE TABLE pets_stats_gender (gender INTEGER PRIMARY KEY, count INTEGER NOT NULL, " +
+                    "weight_sum INTEGER NOT NULL)",
+            "CREATE TABLE pets_stats_breed (breed TEXT NOT NULL PRIMARY KEY, count INTEGER NOT NULL)",
+            SUMMARY_TRIGGERS[0],
+            SUMMARY_TRIGGERS[1],
+            SUMMARY_TRIGGERS[2],
+            SUMMARY_TRIGGERS[3],
+            // Version 6
+            "ALTER TABLE pets ADD COLUMN photo_version INTEGER",
+            // Version 7
+            "CREATE INDEX IF NOT EXISTS pets_gender_idx ON pets (gender)",
+            "CREATE INDEX IF NOT EXISTS pets_gender_name_idx ON pets (gender, name)",
+            // Version 8
+            "ALTER TABLE pets ADD COLUMN deleted_at INTEGER NOT NULL DEFAULT 0",
+            "DROP INDEX IF EXISTS pets_name_idx",
+            "CREATE INDEX pets_name_idx ON pets (deleted_at, name)",
+            "DROP INDEX IF EXISTS pets_breed_idx",
+            "CREATE INDEX pets_breed_idx ON pets (deleted_at, breed)",
+            "DROP INDEX IF EXISTS pets_gender_weight_idx",
+            "CREATE INDEX pets_gender_weight_idx ON pets (deleted_at, gender, weight)",
+            "DROP INDEX IF EXISTS pets_weight_idx",
+            "CREATE INDEX pets_weight_idx ON pets (deleted_at, weight)",
+            "DROP INDEX IF EXISTS pets_gender_idx",
+            "CREATE INDEX pets_gender_idx ON pets (deleted_at, gender)",
+            "DROP INDEX IF EXISTS pets_gender_name_idx",
+            "CREATE INDEX pets_gender_name_idx ON pets (deleted_at, gender, name)",
+            "DROP INDEX IF EXISTS pets_deleted_idx",
+            "CREATE INDEX pets_deleted_idx ON pets (deleted_at)",
+            "DROP TRIGGER IF EXISTS pets_stats_ai",
+            "DROP TRIGGER IF EXISTS pets_stats_au",
+            "DROP TRIGGER IF EXISTS pets_stats_au_old",
+            "DROP TRIGGER IF EXISTS pets_stats_au_new",
+            "DROP TRIGGER IF EXISTS pets_stats_ad",
+            SUMMARY_TRIGGERS[0],
+            SUMMARY_TRIGGERS[1],
+            SUMMARY_TRIGGERS[2],
+            SUMMARY_TRIGGERS[3],
+            // Version 9
+            "CREATE TABLE pet_changes (seq INTEGER PRIMARY KEY AUTOINCREMENT, pet_id INTEGER NOT NULL)",
+            "CREATE INDEX pet_changes_pet_idx ON pet_changes (pet_id)",
+            "INSERT INTO sqlite_sequence (name, seq) SELECT 'pet_changes', seq >> " + SHELTER_ID_SHIFT +
+                    " << " + SHELTER_ID_SHIFT + " FROM sqlite_sequence WHERE name = 'pets'",
+            "INSERT INTO pet_changes (pet_id) SELECT _id FROM pets WHERE deleted_at = 0 ORDER BY _id",
+            "CREATE TRIGGER pet_changes_ai AFTER INSERT ON pets WHEN new.deleted_at = 0 BEGIN " +
+                    "INSERT INTO pet_changes (pet_id) VALUES (new._id); END",
+            "CREATE TRIGGER pet_changes_au AFTER UPDATE OF _id, name, breed, gender, weight, deleted_at " +
+                    "ON pets WHEN old.deleted_at = 0 OR new.deleted_at = 0 BEGIN " +
+                    "INSERT INTO pet_changes (pet_id) SELECT old._id WHERE old._id != new._id; " +
+                    "INSERT INTO pet_changes (pet_id) VALUES (new._id); END",
+            "CREATE TRIGGER pet_changes_ad AFTER DELETE ON pets WHEN old.deleted_at = 0 BEGIN " +
+                    "INSERT INTO pet_changes (pet_id) VALUES (old._id); END"
+    };
+
+    /** insertPet() and bulkInsert(), with the columns EditorActivity saves. */
+    static final String INSERT =
+            "INSERT INTO pets (name, breed, gender, weight) VALUES (?, ?, ?, ?)";
+
+
+    /** The catalog's unpaged query over the PETS URI. */
+    static final String QUERY_ALL = "SELECT _id, name, breed FROM pets WHERE deleted_at = 0";
+
+    /** The catalog's keyset page query over the PETS URI, ordered by _id. */
+    static final String QUERY_PAGE = "SELECT _id, name, breed, weight, photo_version FROM pets " +
+            "INDEXED BY pets_deleted_idx WHERE deleted_at = 0 AND _id > ? ORDER BY _id LIMIT ?";
+
+    /**
+     * A keyset page of a filtered catalog, as PetProvider.queryPetsPage() builds it for the
+     * given sort column, gender filter and weight range, after the first page. Arguments are the
+     * gender, the highest weight, the page key (the sort value twice and the _id, or just the _id
+     * in _id order) and the page size, each only where it applies. A weight range is only paged
+     * in weight order, where the provider drops its lower end in favour of the page key once the
+     * key is inside the range, as it is here.
+     */
+    static String queryCatalogPage(String sortColumn, boolean byGender, boolean byWeight) {
+        StringBuilder where = new StringBuilder("deleted_at = 0 AND ");
+        if (byGender) {
+            where.append("gender = ? AND ");
+        }
+        if (byWeight) {
+            where.append("weight <= ? AND ");
+        }
+        String orderBy;
+        if (sortColumn.equals("_id")) {
+            where.append("_id > ?");
+            orderBy = "_id";
+        } else {
+            where.append(sortColumn).append(" >= ? AND (").append(sortColumn).append(" > ? OR _id > ?)");
+            orderBy = sortColumn + ", _id";
+        }
+        String index = catalogPageIndex(sortColumn, byGender, byWeight);
+        return "SELECT _id, name, breed, weight, photo_version FROM pets INDEXED BY " + index +
+                " WHERE " + where + " ORDER BY " + orderBy + " LIMIT ?";
+    }
+
+    /**
+     * The index PetProvider.PetFilter.getPageIndex() names for a catalog page.
+     */
+    static String catalogPageIndex(String sortColumn, boolean byGender, boolean byWeight) {
+        if (sortColumn.equals("weight")) {
+            return byGender ? "pets_gender_weight_idx" : "pets_weight_idx";
+        }
+        if (byWeight) {
+            throw new IllegalArgumentException("A weight range can only be paged in weight order");
+        }
+        if (sortColumn.equals("name")) {
+            return byGender ? "pets_gender_name_idx" : "pets_name_idx";
+        }
+        return byGender ? "pets_gender_idx" : "pets_deleted_idx";
+    }
+
+    /** A PETS_ID query that misses the row cache, which reads the whole row. */
+    static final String QUERY_BY_ID = "SELECT * FROM pets WHERE _id = ? AND deleted_at = 0";
+
+    /** EditorActivity's save of an existing pet through the PETS_ID URI. */
+    static final String UPDATE_BY_ID =
+            "UPDATE pets SET name = ?, breed = ?, gender = ?, weight = ? WHERE _id = ? AND deleted_at = 0";
+
+    /** The pets/stats/gender URI with the default projection and order. */
+    static final String QUERY_STATS_GENDER = "SELECT * FROM (SELECT g.gender AS gender, g.count AS count, " +
+            "(SELECT MIN(weight) FROM pets WHERE deleted_at = 0 AND gender = g.gender) AS min_weight, " +
+            "g.weight_sum * 1.0 / g.count AS avg_weight, " +
+            "(SELECT MAX(weight) FROM pets WHERE deleted_at = 0 AND gender = g.gender) AS max_weight " +
+            "FROM pets_stats_gender g) ORDER BY gender";
+
+    /** A delete through the PETS_ID URI, which only marks the pet. Arguments: time, _id. */
+    static final String DELETE_BY_ID = "UPDATE pets SET deleted_at = ? WHERE _id = ? AND deleted_at = 0";
+
+    /** The restore_pet provider method. Argument: _id. */
+    static final String RESTORE_BY_ID = "UPDATE pets SET deleted_at = 0 WHERE _id = ? AND deleted_at != 0";
+
+    /** The _ID of the pet the connection inserted last, which insertPet() returns in its URI. */
+    static final String LAST_INSERT_ID = "SELECT last_insert_rowid()";
+
+    /** A delete through the PETS_ID URI before version 8, removing the row right away. */
+    static final String HARD_DELETE_BY_ID = "DELETE FROM pets WHERE _id = ?";
+
+    /**
+     * One batch of the compactor in PetProvider.compactDeletedPets(): the pets deleted up to a
+     * time, then each of them purged. Arguments: time, batch size.
+     */
+    static final String SELECT_PURGEABLE = "SELECT _id FROM pets INDEXED BY pets_deleted_idx " +
+            "WHERE deleted_at > 0 AND deleted_at <= ? LIMIT ?";
+    static final String PURGE_BY_ID = "DELETE FROM pets WHERE _id = ? AND deleted_at != 0";
+
+    /**
+     * The changes URI of PetProvider.queryChanges() for one shelter: the latest change of every
+     * pet changed after a sequence number. Arguments: sequence number, most changes.
+     */
+    static final String QUERY_CHANGES = "SELECT seq, _id, name, breed, gender, weight, deleted FROM (" +
+            "SELECT c.seq AS seq, c.pet_id AS _id, p.name AS name, p.breed AS breed, p.gender AS gender, " +
+            "p.weight AS weight, (p._id IS NULL OR p.deleted_at != 0) AS deleted " +
+            "FROM pet_changes c LEFT JOIN pets p ON p._id = c.pet_id WHERE c.seq > ? AND NOT EXISTS (" +
+            "SELECT 1 FROM pet_changes l INDEXED BY pet_changes_pet_idx WHERE l.pet_id = c.pet_id " +
+            "AND l.seq > c.seq)) ORDER BY seq LIMIT ?";
+
+    /** Pets counted by the summary tables, and pets that should be. */
+    static final String COUNT_SUMMARY = "SELECT IFNULL(SUM(count), 0) FROM pets_stats_gender";
+    static final String COUNT_LIVE = "SELECT COUNT(*) FROM pets WHERE deleted_at = 0";
+
+    /**
+     * Pets counted by the summary tables and pets that should be, read in one statement so both
+     * come from the same snapshot of the database.
+     */
+    static final String COUNT_SUMMARY_AND_LIVE = "SELECT (" + COUNT_SUMMARY + "), (" + COUNT_LIVE + ")";
+
+    /** Genders whose summary row doesn't match their pets; none when the triggers kept up. */
+    static final String COUNT_WRONG_GENDER_STATS = "SELECT " +
+            "(SELECT COUNT(*) FROM (SELECT gender, COUNT(*) AS count, SUM(weight) AS weight_sum FROM pets " +
+            "WHERE deleted_at = 0 GROUP BY gender) p LEFT JOIN pets_stats_gender g ON g.gender = p.gender " +
+            "WHERE g.count IS NOT p.count OR g.weight_sum IS NOT p.weight_sum) + " +
+            "(SELECT COUNT(*) FROM pets_stats_gender g WHERE NOT EXISTS " +
+            "(SELECT 1 FROM pets WHERE deleted_at = 0 AND gender = g.gender))";
+
+    /** Pets missing from the search index, or index entries of pets that are gone. */
+    static final String COUNT_WRONG_SEARCH_ROWS = "SELECT " +
+            "(SELECT COUNT(*) FROM pets p WHERE NOT EXISTS (SELECT 1 FROM pets_fts WHERE docid = p._id)) + " +
+            "ABS((SELECT COUNT(*) FROM pets_fts) - (SELECT COUNT(*) FROM pets))";
+
+    /** Pets never logged in the change log; every insert logs its pet. */
+    static final String COUNT_UNLOGGED_PETS = "SELECT COUNT(*) FROM pets p WHERE NOT EXISTS " +
+            "(SELECT 1 FROM pet_changes INDEXED BY pet_changes_pet_idx WHERE pet_id = p._id)";
+
+    /** Every pet with the columns writers set, to compare with what they wrote. */
+    static final String QUERY_DUMP = "SELECT _id, name, breed, gender, weight, deleted_at FROM pets ORDER BY _id";
+
+    static void createSchema(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            for (String pragma : TUNED_PRAGMAS) {
+                statement.execute(pragma);
+            }
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Make the _IDs and change sequence numbers of a new shelter's database carry its shelter,
+     * see PetsDbHelper.onCreate(), which seeds the change log as it is created.
+     */
+    static void seedShelter(Connection connection, long shelter) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            for (String table : new String[] { TABLE, "pet_changes" }) {
+                statement.execute("INSERT INTO sqlite_sequence (name, seq) VALUES ('" + table + "', " +
+                        (shelter << SHELTER_ID_SHIFT) + ")");
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}
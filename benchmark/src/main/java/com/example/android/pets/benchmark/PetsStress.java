@@ -0,0 +1,830 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs reader and writer threads against one pets database at the same time for a while, the way
+ * PetProvider is used from the catalog, the editor, the write queue, imports and the compactor,
+ * and checks nothing got lost or miscounted.
+ * <p>
+ * Connections are shared the way SQLiteDatabase shares them: writers take turns on the one
+ * primary connection, and readers borrow one of a small pool of WAL connections, four by default
+ * like the platform's pool. Waiting for either is reported as lock wait, next to the time the
+ * database itself kept a writer waiting to begin its transaction. {@code connections=separate}
+ * gives every writer a connection of its own instead, like several processes writing the same
+ * file, which leaves the waiting to SQLite's busy timeout and can fail with SQLITE_BUSY.
+ * <p>
+ * Every committed write is counted as one change notification, a batch as one, and the peak
+ * notifications per second are reported. Each writer only changes pets it owns and remembers what
+ * it wrote, so afterwards every pet is compared with what its writer expects. Readers check that
+ * the summary tables count exactly the pets that aren't deleted as they go, and the summary
+ * tables, search index and change log are checked once more at the end. Any difference fails the
+ * run.
+ * <p>
+ * Arguments are {@code name=value} pairs, all optional:
+ * <pre>
+ * rows=100000 readers=4 writers=2 seconds=10 pool=4 connections=shared busyTimeout=2500
+ * reads=page:4,id:4,stats:1,changes:1,check:1
+ * writes=insert:3,update:5,delete:1,restore:1,batch:1,purge:1
+ * </pre>
+ */
+public final class PetsStress {
+
+    private static final int BULK_BATCH_SIZE = 1000;
+    private static final int PAGE_SIZE = 50;
+    /** Changes per read of the change log, see PetSync.BATCH_SIZE. */
+    private static final int CHANGES_BATCH_SIZE = 500;
+    /** Operations per batch write, like an import chunk or a sync batch. */
+    private static final int BATCH_SIZE = 50;
+    /** Pets purged per transaction, see PetProvider.COMPACTION_BATCH_SIZE. */
+    private static final int COMPACTION_BATCH_SIZE = 500;
+    /**
+     * How long deleted pets can be restored before the compactor may purge them, shorter than
+     * DbContract.PetsEntry.UNDO_WINDOW_MILLIS so short runs purge too.
+     */
+    private static final long UNDO_WINDOW_MILLIS = 1000;
+    private static final String[] BREEDS = {
+            "Labrador", "Poodle", "Beagle", "Tabby", "Siamese", "Persian", "Bulldog", "Husky"
+    };
+
+    private static final String[] READS = {"page", "id", "stats", "changes", "check"};
+    private static final String[] WRITES = {"insert", "update", "delete", "restore", "batch", "purge"};
+
+    /** The primary result code of SQLITE_BUSY, which extended codes keep in their low byte. */
+    private static final int SQLITE_BUSY = 5;
+
+    private final long rows;
+    private final int readers;
+    private final int writers;
+    private final int seconds;
+    private final int poolSize;
+    private final boolean separateConnections;
+    private final int busyTimeoutMillis;
+    private final int[] readWeights;
+    private final int[] writeWeights;
+
+    private File file;
+    private Connection primary;
+    private final ReentrantLock primaryLock = new ReentrantLock(true);
+    private BlockingQueue<ReadConnection> pool;
+
+    private volatile boolean stopped;
+    private long startNanos;
+    private final AtomicLong busyErrors = new AtomicLong();
+    private final AtomicLong otherErrors = new AtomicLong();
+    private final List<String> failures = new ArrayList<>();
+    private final AtomicLong notifications = new AtomicLong();
+    private AtomicLongArray notificationsPerSecond;
+
+    private PetsStress(Map<String, String> options) {
+        rows = Long.parseLong(option(options, "rows", "100000"));
+        readers = Integer.parseInt(option(options, "readers", "4"));
+        writers = Math.max(1, Integer.parseInt(option(options, "writers", "2")));
+        seconds = Integer.parseInt(option(options, "seconds", "10"));
+        poolSize = Math.max(1, Integer.parseInt(option(options, "pool", "4")));
+        String connections = option(options, "connections", "shared");
+        if (!connections.equals("shared") && !connections.equals("separate")) {
+            throw new IllegalArgumentException("connections must be shared or separate, not " + connections);
+        }
+        separateConnections = connections.equals("separate");
+        busyTimeoutMillis = Integer.parseInt(option(options, "busyTimeout", "2500"));
+        readWeights = parseMix(option(options, "reads", "page:4,id:4,stats:1,changes:1,check:1"), READS);
+        writeWeights = parseMix(option(options, "writes", "insert:3,update:5,delete:1,restore:1,batch:1,purge:1"),
+                WRITES);
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected name=value, not " + arg);
+            }
+            options.put(arg.substring(0, separator).trim(), arg.substring(separator + 1).trim());
+        }
+        new PetsStress(options).run();
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Weights of the given operations from a list like {@code page:4,id:1}. Operations that
+     * aren't listed aren't run.
+     */
+    private static int[] parseMix(String mix, String[] operations) {
+        int[] weights = new int[operations.length];
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            int operation = -1;
+            for (int i = 0; i < operations.length; i++) {
+                if (operations[i].equals(parts[0].trim())) {
+                    operation = i;
+                }
+            }
+            if (operation < 0 || parts.length != 2) {
+                throw new IllegalArgumentException("Expected one of " + String.join(", ", operations)
+                        + " with a weight, not " + entry);
+            }
+            weights[operation] = Integer.parseInt(parts[1].trim());
+        }
+        return weights;
+    }
+
+    private static int pick(int[] weights, Random random) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int value = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            value -= weights[i];
+            if (value < 0) {
+                return i;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    private void run() throws Exception {
+        file = File.createTempFile("pets-stress", ".db");
+        file.delete();
+        List<Connection> connections = new ArrayList<>();
+        try {
+            primary = open(connections);
+            PetsSql.createSchema(primary);
+            fill(primary);
+            pool = new ArrayBlockingQueue<>(poolSize);
+            for (int i = 0; i < poolSize; i++) {
+                pool.add(new ReadConnection(open(connections)));
+            }
+
+            List<Writer> writerThreads = new ArrayList<>();
+            List<Reader> readerThreads = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                writerThreads.add(new Writer(i, separateConnections ? open(connections) : primary));
+            }
+            for (int i = 0; i < readers; i++) {
+                readerThreads.add(new Reader(i));
+            }
+            List<Thread> threads = new ArrayList<>();
+            threads.addAll(writerThreads);
+            threads.addAll(readerThreads);
+
+            System.out.println("# " + rows + " pets, " + readers + " readers on " + poolSize + " connections, "
+                    + writers + " writers on " + (separateConnections ? "their own connections" : "the primary connection")
+                    + ", " + seconds + " s");
+            notificationsPerSecond = new AtomicLongArray(seconds + 2);
+            startNanos = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            Thread.sleep(seconds * 1000L);
+            stopped = true;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double elapsed = (System.nanoTime() - startNanos) / 1e9;
+
+            report(readerThreads, writerThreads, elapsed);
+            checkDatabase(primary, writerThreads);
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+                new File(file.getPath() + suffix).delete();
+            }
+        }
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                System.out.println("FAILED: " + failure);
+            }
+            throw new IllegalStateException(failures.size() + " consistency checks failed");
+        }
+        System.out.println("# consistent");
+    }
+
+    private Connection open(List<Connection> connections) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        connections.add(connection);
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA busy_timeout = " + busyTimeoutMillis);
+            // Per-connection settings; the rest are kept by the database file
+            statement.execute("PRAGMA synchronous = NORMAL");
+            statement.execute("PRAGMA temp_store = MEMORY");
+        } finally {
+            statement.close();
+        }
+        return connection;
+    }
+
+    /**
+     * Fill the table with pets 1 to {@link #rows}, whose values follow from their _ID, see
+     * {@link #initialPet}.
+     */
+    private void fill(Connection connection) throws SQLException {
+        PreparedStatement insert = connection.prepareStatement(PetsSql.INSERT);
+        try {
+            connection.setAutoCommit(false);
+            for (long id = 1; id <= rows; id++) {
+                Pet pet = initialPet(id);
+                pet.bind(insert);
+                insert.executeUpdate();
+                if (id % BULK_BATCH_SIZE == 0) {
+                    connection.commit();
+                }
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+            insert.close();
+        }
+    }
+
+    private static Pet initialPet(long id) {
+        return new Pet("Pet " + id, BREEDS[(int) (id % BREEDS.length)], (int) (id % 3), 1 + (int) (id % 60), false);
+    }
+
+    private void notifyChange() {
+        notifications.incrementAndGet();
+        int second = (int) ((System.nanoTime() - startNanos) / 1000000000L);
+        notificationsPerSecond.incrementAndGet(Math.min(second, notificationsPerSecond.length() - 1));
+    }
+
+    private void countError(SQLException e) {
+        if ((e.getErrorCode() & 0xff) == SQLITE_BUSY) {
+            busyErrors.incrementAndGet();
+        } else if (otherErrors.incrementAndGet() <= 5) {
+            e.printStackTrace();
+        }
+    }
+
+    private void fail(String failure) {
+        synchronized (failures) {
+            failures.add(failure);
+        }
+    }
+
+    /**
+     * The columns of a pet its writer sets, and whether it deleted it.
+     */
+    private static final class Pet {
+        final String name;
+        final String breed;
+        final int gender;
+        final int weight;
+        final boolean deleted;
+
+        Pet(String name, String breed, int gender, int weight, boolean deleted) {
+            this.name = name;
+            this.breed = breed;
+            this.gender = gender;
+            this.weight = weight;
+            this.deleted = deleted;
+        }
+
+        Pet withDeleted(boolean newDeleted) {
+            return new Pet(name, breed, gender, weight, newDeleted);
+        }
+
+        void bind(PreparedStatement statement) throws SQLException {
+            statement.setString(1, name);
+            statement.setString(2, breed);
+            statement.setInt(3, gender);
+            statement.setInt(4, weight);
+        }
+
+        boolean sameAs(String otherName, String otherBreed, int otherGender, int otherWeight) {
+            return name.equals(otherName) && breed.equals(otherBreed) && gender == otherGender && weight == otherWeight;
+        }
+    }
+
+    /**
+     * A pooled reader connection with its statements.
+     */
+    private static final class ReadConnection {
+        final Connection connection;
+        final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        ReadConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+    }
+
+    private final class Reader extends Thread {
+        final Random random;
+        final LatencyRecorder poolWait = new LatencyRecorder("reader pool wait", rows);
+        final LatencyRecorder[] recorders = new LatencyRecorder[READS.length];
+
+        Reader(int index) {
+            super("reader-" + index);
+            random = new Random(1000 + index);
+            for (int i = 0; i < READS.length; i++) {
+                recorders[i] = new LatencyRecorder("read " + READS[i], rows);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                int operation = pick(readWeights, random);
+                long start = System.nanoTime();
+                ReadConnection connection;
+                try {
+                    connection = pool.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long acquired = System.nanoTime();
+                poolWait.record(acquired - start, 0);
+                try {
+                    long count = read(connection, operation);
+                    recorders[operation].record(System.nanoTime() - start, count);
+                } catch (SQLException e) {
+                    countError(e);
+                } finally {
+                    pool.add(connection);
+                }
+            }
+        }
+
+        private long read(ReadConnection connection, int operation) throws SQLException {
+            long id = 1 + (long) (random.nextDouble() * rows);
+            switch (READS[operation]) {
+                case "page": {
+                    PreparedStatement query = connection.prepare(PetsSql.QUERY_PAGE);
+                    query.setLong(1, id);
+                    query.setInt(2, PAGE_SIZE);
+                    return readAll(query.executeQuery());
+                }
+                case "id": {
+                    PreparedStatement query = connection.prepare(PetsSql.QUERY_BY_ID);
+                    query.setLong(1, id);
+                    return readAll(query.executeQuery());
+                }
+                case "stats":
+                    return readAll(connection.prepare(PetsSql.QUERY_STATS_GENDER).executeQuery());
+                case "changes": {
+                    PreparedStatement query = connection.prepare(PetsSql.QUERY_CHANGES);
+                    query.setLong(1, id);
+                    query.setInt(2, CHANGES_BATCH_SIZE);
+                    return readAll(query.executeQuery());
+                }
+                default: {
+                    ResultSet resultSet = connection.prepare(PetsSql.COUNT_SUMMARY_AND_LIVE).executeQuery();
+                    try {
+                        resultSet.next();
+                        long counted = resultSet.getLong(1);
+                        long live = resultSet.getLong(2);
+                        if (counted != live) {
+                            fail("A reader saw the summary tables count " + counted + " pets while " + live
+                                    + " weren't deleted");
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                    return 1;
+                }
+            }
+        }
+    }
+
+    private final class Writer extends Thread {
+        final int index;
+        final Connection connection;
+        final Random random;
+        final LatencyRecorder lockWait = new LatencyRecorder("writer lock wait", rows);
+        final LatencyRecorder[] recorders = new LatencyRecorder[WRITES.length];
+
+        /** What this writer last wrote of every pet it owns and changed */
+        final Map<Long, Pet> written = new HashMap<>();
+        /** Pets this writer deleted last, which it restores from */
+        final List<Long> deleted = new ArrayList<>();
+        /** Pets this writer owns: every {@link #writers}th of the first pets and those it inserted */
+        long[] owned;
+        int ownedCount;
+
+        PreparedStatement insert;
+        PreparedStatement lastInsertId;
+        PreparedStatement update;
+        PreparedStatement delete;
+        PreparedStatement restore;
+        PreparedStatement selectPurgeable;
+        PreparedStatement purge;
+
+        Writer(int index, Connection connection) throws SQLException {
+            super("writer-" + index);
+            this.index = index;
+            this.connection = connection;
+            random = new Random(2000 + index);
+            for (int i = 0; i < WRITES.length; i++) {
+                recorders[i] = new LatencyRecorder("write " + WRITES[i], rows);
+            }
+            owned = new long[(int) (rows / writers) + 1024];
+            for (long id = 1 + index; id <= rows; id += writers) {
+                own(id);
+            }
+            insert = connection.prepareStatement(PetsSql.INSERT);
+            lastInsertId = connection.prepareStatement(PetsSql.LAST_INSERT_ID);
+            update = connection.prepareStatement(PetsSql.UPDATE_BY_ID);
+            delete = connection.prepareStatement(PetsSql.DELETE_BY_ID);
+            restore = connection.prepareStatement(PetsSql.RESTORE_BY_ID);
+            selectPurgeable = connection.prepareStatement(PetsSql.SELECT_PURGEABLE);
+            purge = connection.prepareStatement(PetsSql.PURGE_BY_ID);
+        }
+
+        private void own(long id) {
+            if (ownedCount == owned.length) {
+                owned = Arrays.copyOf(owned, ownedCount * 2);
+            }
+            owned[ownedCount++] = id;
+        }
+
+        Pet expected(long id) {
+            Pet pet = written.get(id);
+            return pet != null ? pet : initialPet(id);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                int operation = pick(writeWeights, random);
+                long start = System.nanoTime();
+                // Changes are only remembered once committed
+                Map<Long, Pet> changes = new HashMap<>();
+                List<Long> inserted = new ArrayList<>();
+                boolean locked = false;
+                boolean begun = false;
+                try {
+                    if (!separateConnections) {
+                        primaryLock.lock();
+                        locked = true;
+                    }
+                    // Like SQLiteDatabase.beginTransaction(), taking the write lock up front
+                    execute("BEGIN IMMEDIATE");
+                    begun = true;
+                    lockWait.record(System.nanoTime() - start, 0);
+                    long count = write(operation, changes, inserted);
+                    execute("COMMIT");
+                    begun = false;
+                    written.putAll(changes);
+                    for (Map.Entry<Long, Pet> entry : changes.entrySet()) {
+                        if (entry.getValue().deleted) {
+                            deleted.add(entry.getKey());
+                        }
+                    }
+                    for (long id : inserted) {
+                        own(id);
+                    }
+                    recorders[operation].record(System.nanoTime() - start, count);
+                    if (count > 0) {
+                        notifyChange();
+                    }
+                } catch (SQLException e) {
+                    countError(e);
+                } finally {
+                    if (begun) {
+                        try {
+                            execute("ROLLBACK");
+                        } catch (SQLException e) {
+                            countError(e);
+                        }
+                    }
+                    if (locked) {
+                        primaryLock.unlock();
+                    }
+                }
+            }
+        }
+
+        private void execute(String sql) throws SQLException {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        }
+
+        private long randomOwned() {
+            return owned[random.nextInt(ownedCount)];
+        }
+
+        private Pet randomPet(long id) {
+            return new Pet("Pet " + id + " v" + random.nextInt(1000), BREEDS[random.nextInt(BREEDS.length)],
+                    random.nextInt(3), 1 + random.nextInt(60), false);
+        }
+
+        private Pet current(long id, Map<Long, Pet> changes) {
+            Pet pet = changes.get(id);
+            return pet != null ? pet : expected(id);
+        }
+
+        /**
+         * Run one write inside the open transaction, failing the run when a pet this writer owns
+         * isn't where it left it.
+         *
+         * @return the number of pets written
+         */
+        private long write(int operation, Map<Long, Pet> changes, List<Long> inserted) throws SQLException {
+            switch (WRITES[operation]) {
+                case "insert":
+                    insertPet(changes, inserted);
+                    return 1;
+                case "update":
+                    return updatePet(randomOwned(), changes);
+                case "delete":
+                    return deletePet(randomOwned(), changes);
+                case "restore":
+                    return deleted.isEmpty() ? 0 : restorePet(deleted.remove(deleted.size() - 1), changes);
+                case "batch": {
+                    long count = 0;
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        if (random.nextInt(5) == 0) {
+                            insertPet(changes, inserted);
+                            count++;
+                        } else {
+                            count += updatePet(randomOwned(), changes);
+                        }
+                    }
+                    return count;
+                }
+                default:
+                    return purge();
+            }
+        }
+
+        private void insertPet(Map<Long, Pet> changes, List<Long> inserted) throws SQLException {
+            Pet pet = randomPet(rows + inserted.size());
+            pet.bind(insert);
+            insert.executeUpdate();
+            ResultSet resultSet = lastInsertId.executeQuery();
+            try {
+                resultSet.next();
+                long id = resultSet.getLong(1);
+                changes.put(id, pet);
+                inserted.add(id);
+            } finally {
+                resultSet.close();
+            }
+        }
+
+        private long updatePet(long id, Map<Long, Pet> changes) throws SQLException {
+            Pet before = current(id, changes);
+            Pet pet = randomPet(id);
+            pet.bind(update);
+            update.setLong(5, id);
+            int count = update.executeUpdate();
+            if (count == 1 && !before.deleted) {
+                changes.put(id, pet);
+            } else if (count != 0 || !before.deleted) {
+                fail("Updating pet " + id + " changed " + count + " rows, it should be "
+                        + (before.deleted ? "deleted" : "there"));
+            }
+            return count;
+        }
+
+        private long deletePet(long id, Map<Long, Pet> changes) throws SQLException {
+            Pet before = current(id, changes);
+            delete.setLong(1, System.currentTimeMillis());
+            delete.setLong(2, id);
+            int count = delete.executeUpdate();
+            if (count == 1 && !before.deleted) {
+                changes.put(id, before.withDeleted(true));
+            } else if (count != 0 || !before.deleted) {
+                fail("Deleting pet " + id + " changed " + count + " rows, it should be "
+                        + (before.deleted ? "deleted" : "there"));
+            }
+            return count;
+        }
+
+        /**
+         * Bring back one of this writer's deleted pets, unless the compactor purged it already.
+         */
+        private long restorePet(long id, Map<Long, Pet> changes) throws SQLException {
+            Pet before = current(id, changes);
+            restore.setLong(1, id);
+            int count = restore.executeUpdate();
+            if (count == 1 && before.deleted) {
+                changes.put(id, before.withDeleted(false));
+            } else if (count != 0) {
+                fail("Restoring pet " + id + " restored a pet that wasn't deleted");
+            }
+            return count;
+        }
+
+        /**
+         * One batch of the compactor, purging deleted pets of every writer. Purged pets stay
+         * deleted to their writers.
+         */
+        private long purge() throws SQLException {
+            selectPurgeable.setLong(1, System.currentTimeMillis() - UNDO_WINDOW_MILLIS);
+            selectPurgeable.setInt(2, COMPACTION_BATCH_SIZE);
+            List<Long> ids = new ArrayList<>();
+            ResultSet resultSet = selectPurgeable.executeQuery();
+            try {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getLong(1));
+                }
+            } finally {
+                resultSet.close();
+            }
+            long count = 0;
+            for (long id : ids) {
+                purge.setLong(1, id);
+                count += purge.executeUpdate();
+            }
+            return count;
+        }
+    }
+
+    private void report(List<Reader> readerThreads, List<Writer> writerThreads, double elapsed) {
+        LatencyRecorder poolWait = new LatencyRecorder("reader pool wait", rows);
+        LatencyRecorder lockWait = new LatencyRecorder("writer lock wait", rows);
+        LatencyRecorder[] reads = new LatencyRecorder[READS.length];
+        LatencyRecorder[] writes = new LatencyRecorder[WRITES.length];
+        for (int i = 0; i < READS.length; i++) {
+            reads[i] = new LatencyRecorder("read " + READS[i], rows);
+        }
+        for (int i = 0; i < WRITES.length; i++) {
+            writes[i] = new LatencyRecorder("write " + WRITES[i], rows);
+        }
+        for (Reader reader : readerThreads) {
+            poolWait.addAll(reader.poolWait);
+            for (int i = 0; i < READS.length; i++) {
+                reads[i].addAll(reader.recorders[i]);
+            }
+        }
+        for (Writer writer : writerThreads) {
+            lockWait.addAll(writer.lockWait);
+            for (int i = 0; i < WRITES.length; i++) {
+                writes[i].addAll(writer.recorders[i]);
+            }
+        }
+
+        // ops/s in the table is per thread; the totals below are over the whole run
+        System.out.println(LatencyRecorder.header());
+        long readCount = 0;
+        long writeCount = 0;
+        for (LatencyRecorder result : reads) {
+            if (result.count() > 0) {
+                System.out.println(result.summary());
+                readCount += result.count();
+            }
+        }
+        for (LatencyRecorder result : writes) {
+            if (result.count() > 0) {
+                System.out.println(result.summary());
+                writeCount += result.count();
+            }
+        }
+        for (LatencyRecorder result : new LatencyRecorder[] {poolWait, lockWait}) {
+            if (result.count() > 0) {
+                System.out.println(result.summary());
+            }
+        }
+
+        System.out.println(String.format("# throughput: %.0f reads/s, %.0f writes/s over %.1f s",
+                readCount / elapsed, writeCount / elapsed, elapsed));
+        System.out.println(String.format("# lock wait: readers %.1f ms, writers %.1f ms in total",
+                poolWait.totalNanos() / 1e6, lockWait.totalNanos() / 1e6));
+        long peak = 0;
+        for (int i = 0; i < notificationsPerSecond.length(); i++) {
+            peak = Math.max(peak, notificationsPerSecond.get(i));
+        }
+        System.out.println(String.format("# notifications: %d, %.0f/s on average, %d/s at peak",
+                notifications.get(), notifications.get() / elapsed, peak));
+        System.out.println("# errors: " + busyErrors.get() + " SQLITE_BUSY, " + otherErrors.get() + " other");
+    }
+
+    /**
+     * Compare every pet with what its writer last wrote, and check the tables the triggers keep.
+     */
+    private void checkDatabase(Connection connection, List<Writer> writerThreads) throws SQLException {
+        Map<Long, Writer> owners = new HashMap<>();
+        for (Writer writer : writerThreads) {
+            for (int i = 0; i < writer.ownedCount; i++) {
+                owners.put(writer.owned[i], writer);
+            }
+        }
+        long seen = 0;
+        PreparedStatement dump = connection.prepareStatement(PetsSql.QUERY_DUMP);
+        try {
+            ResultSet resultSet = dump.executeQuery();
+            try {
+                while (resultSet.next()) {
+                    long id = resultSet.getLong(1);
+                    Writer owner = owners.remove(id);
+                    if (owner == null) {
+                        fail("Pet " + id + " was never inserted by a writer");
+                        continue;
+                    }
+                    seen++;
+                    Pet expected = owner.expected(id);
+                    boolean deleted = resultSet.getLong(6) != 0;
+                    if (deleted != expected.deleted) {
+                        fail("Pet " + id + " is " + (deleted ? "deleted" : "there") + ", its writer expects it "
+                                + (expected.deleted ? "deleted" : "there"));
+                    } else if (!expected.sameAs(resultSet.getString(2), resultSet.getString(3),
+                            resultSet.getInt(4), resultSet.getInt(5))) {
+                        fail("Pet " + id + " isn't what its writer last wrote");
+                    }
+                }
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            dump.close();
+        }
+        // The rest can only have been purged
+        for (Map.Entry<Long, Writer> entry : owners.entrySet()) {
+            if (!entry.getValue().expected(entry.getKey()).deleted) {
+                fail("Pet " + entry.getKey() + " is gone, its writer expects it there");
+            }
+        }
+
+        long[] counts = queryLongs(connection, PetsSql.COUNT_SUMMARY_AND_LIVE);
+        if (counts[0] != counts[1]) {
+            fail("Summary tables count " + counts[0] + " pets, but " + counts[1] + " aren't deleted");
+        }
+        checkZero(connection, PetsSql.COUNT_WRONG_GENDER_STATS, "genders with wrong statistics");
+        checkZero(connection, PetsSql.COUNT_WRONG_SEARCH_ROWS, "pets missing from or extra in the search index");
+        checkZero(connection, PetsSql.COUNT_UNLOGGED_PETS, "pets missing from the change log");
+        System.out.println("# checked " + seen + " pets, " + counts[1] + " not deleted");
+    }
+
+    private void checkZero(Connection connection, String sql, String what) throws SQLException {
+        long count = queryLongs(connection, sql)[0];
+        if (count != 0) {
+            fail(count + " " + what);
+        }
+    }
+
+    private static long[] queryLongs(Connection connection, String sql) throws SQLException {
+        PreparedStatement query = connection.prepareStatement(sql);
+        try {
+            ResultSet resultSet = query.executeQuery();
+            try {
+                resultSet.next();
+                long[] values = new long[resultSet.getMetaData().getColumnCount()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = resultSet.getLong(i + 1);
+                }
+                return values;
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            query.close();
+        }
+    }
+
+    private static long readAll(ResultSet resultSet) throws SQLException {
+        long count = 0;
+        try {
+            while (resultSet.next()) {
+                int columns = resultSet.getMetaData().getColumnCount();
+                for (int i = 1; i <= columns; i++) {
+                    resultSet.getObject(i);
+                }
+                count++;
+            }
+        } finally {
+            resultSet.close();
+        }
+        return count;
+    }
+}